@@ -23,7 +23,6 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import android.content.Context;
 import android.content.Intent;
 import android.nfc.NdefRecord;
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -62,13 +61,6 @@ public class AnalyticsUtils {
         }
     }
 
-    /**
-     * Returns elapsed real time.
-     */
-    public Long elapsedRealTime() {
-        return SystemClock.elapsedRealtime();
-    }
-
     /**
      * Returns list of all valid provisioning extras sent by the dpc.
      *
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Counts the calls made to system service binder interfaces, such as
+ * {@link android.content.pm.IPackageManager}, per provisioning task.
+ *
+ * <p>Interfaces are wrapped with {@link #wrap(Class, Object)}. Each call is attributed to the
+ * task set with {@link #setActiveTask(String)}, whichever thread makes it: tasks run one at a
+ * time.</p>
+ */
+public class BinderCallCounter {
+    @VisibleForTesting
+    static final String NO_TASK = "(no task)";
+
+    private static final BinderCallCounter sInstance = new BinderCallCounter();
+
+    private volatile String mActiveTask = NO_TASK;
+
+    // The number of calls of each method, keyed by task name.
+    @GuardedBy("this")
+    private final Map<String, Map<String, Integer>> mCounts = new ArrayMap<>();
+
+    public static BinderCallCounter getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BinderCallCounter() {}
+
+    /**
+     * Sets the task the next calls are attributed to, or {@code null} if no task is running.
+     */
+    public void setActiveTask(@Nullable String taskName) {
+        mActiveTask = taskName == null ? NO_TASK : taskName;
+    }
+
+    /**
+     * Returns an implementation of the given binder interface that counts the calls made to it
+     * and forwards them to {@code delegate}.
+     */
+    public <T> T wrap(Class<T> binderInterface, T delegate) {
+        checkNotNull(delegate);
+        final String interfaceName = binderInterface.getSimpleName();
+        return binderInterface.cast(Proxy.newProxyInstance(binderInterface.getClassLoader(),
+                new Class<?>[] {binderInterface}, (proxy, method, args) -> {
+                    // asBinder() doesn't make a call.
+                    if (method.getDeclaringClass() != Object.class
+                            && !"asBinder".equals(method.getName())) {
+                        count(interfaceName + "." + method.getName());
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+
+    @VisibleForTesting
+    synchronized void count(String call) {
+        Map<String, Integer> taskCounts = mCounts.get(mActiveTask);
+        if (taskCounts == null) {
+            taskCounts = new ArrayMap<>();
+            mCounts.put(mActiveTask, taskCounts);
+        }
+        final Integer count = taskCounts.get(call);
+        taskCounts.put(call, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Returns the number of calls attributed to the given task so far.
+     */
+    public synchronized int getCallCount(String taskName) {
+        final Map<String, Integer> taskCounts = mCounts.get(taskName);
+        int total = 0;
+        if (taskCounts != null) {
+            for (int count : taskCounts.values()) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "Binder calls per task:");
+        for (Map.Entry<String, Map<String, Integer>> entry : mCounts.entrySet()) {
+            pw.println(prefix + "  " + entry.getKey() + ": " + getCallCount(entry.getKey())
+                    + " " + entry.getValue());
+        }
+    }
+}
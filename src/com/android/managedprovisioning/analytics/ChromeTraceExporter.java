@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Process;
+import android.util.AtomicFile;
+import android.util.LongSparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Exports the spans of the {@link ProvisioningTracer} in the Chrome Trace Event JSON format, which
+ * trace viewers such as chrome://tracing and Perfetto open.
+ *
+ * <p>Each thread gets its own track. Spans are shown on the track of the thread that began them.
+ * Spans that ended on another thread, e.g. tasks that finished in a callback, are exported as
+ * async events, so that they don't break the nesting of the thread tracks.</p>
+ *
+ * <p>The trace file only holds the spans of one provisioning session, or of one run of the OTA
+ * tasks, see {@link #OTA_TRACE_FILE_NAME}.</p>
+ */
+public class ChromeTraceExporter {
+    public static final String TRACE_FILE_NAME = "provisioning_trace.json";
+    public static final String OTA_TRACE_FILE_NAME = "ota_trace.json";
+
+    private static final String CATEGORY = "provisioning";
+    private static final String PROCESS_NAME = "ManagedProvisioning";
+
+    private final File mTraceFile;
+    private final ProvisioningTracer mTracer;
+    private final Executor mExecutor;
+    private final int mPid;
+
+    public ChromeTraceExporter(Context context) {
+        this(context, TRACE_FILE_NAME);
+    }
+
+    /**
+     * @param traceFileName name of the trace file in the files dir, e.g.
+     *                      {@link #OTA_TRACE_FILE_NAME}.
+     */
+    public ChromeTraceExporter(Context context, String traceFileName) {
+        this(new File(context.getFilesDir(), traceFileName), ProvisioningTracer.getInstance(),
+                AsyncTask.SERIAL_EXECUTOR, Process.myPid());
+    }
+
+    @VisibleForTesting
+    ChromeTraceExporter(File traceFile, ProvisioningTracer tracer, Executor executor, int pid) {
+        mTraceFile = checkNotNull(traceFile);
+        mTracer = checkNotNull(tracer);
+        mExecutor = checkNotNull(executor);
+        mPid = pid;
+    }
+
+    /**
+     * Returns the file that {@link #exportToFile(long)} writes to.
+     */
+    public File getTraceFile() {
+        return mTraceFile;
+    }
+
+    /**
+     * Writes the spans of the given provisioning session recorded so far to the trace file in the
+     * background, replacing the previous trace. Spans that don't belong to any session, e.g. the
+     * {@link TimeLogger} ones, are kept if they started while the session was traced.
+     */
+    public void exportToFile(long provisioningId) {
+        final List<TraceSpan> spans = mTracer.getEndedSpans();
+        mExecutor.execute(() -> writeFile(selectSession(spans, provisioningId)));
+    }
+
+    /**
+     * Writes the given ended span and the spans nested in it to the trace file in the background,
+     * replacing the previous trace.
+     */
+    public void exportToFile(TraceSpan rootSpan) {
+        final List<TraceSpan> spans = mTracer.getEndedSpans();
+        mExecutor.execute(() -> writeFile(selectTree(spans, span -> span == rootSpan)));
+    }
+
+    /**
+     * Writes the spans recorded so far to the given writer.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(toJson(mTracer.getEndedSpans()).toString());
+        writer.flush();
+    }
+
+    private void writeFile(List<TraceSpan> spans) {
+        AtomicFile atomicFile = new AtomicFile(mTraceFile);
+        FileOutputStream stream = null;
+        try {
+            stream = atomicFile.startWrite();
+            stream.write(toJson(spans).toString().getBytes(StandardCharsets.UTF_8));
+            atomicFile.finishWrite(stream);
+            ProvisionLogger.logd("Wrote " + spans.size() + " trace spans to " + mTraceFile);
+        } catch (IOException e) {
+            ProvisionLogger.loge("Caught exception while trying to write the trace", e);
+            atomicFile.failWrite(stream);
+        }
+    }
+
+    @VisibleForTesting
+    static List<TraceSpan> selectSession(List<TraceSpan> spans, long provisioningId) {
+        long startNanos = Long.MAX_VALUE;
+        long endNanos = Long.MIN_VALUE;
+        for (TraceSpan span : spans) {
+            if (span.getProvisioningId() == provisioningId) {
+                startNanos = Math.min(startNanos, span.getStartNanos());
+                endNanos = Math.max(endNanos, span.getEndNanos());
+            }
+        }
+        final long sessionStartNanos = startNanos;
+        final long sessionEndNanos = endNanos;
+        return selectTree(spans, span -> span.getProvisioningId() == provisioningId
+                || (span.getProvisioningId() == ProvisioningTracer.NO_PROVISIONING_ID
+                        && span.getStartNanos() >= sessionStartNanos
+                        && span.getStartNanos() <= sessionEndNanos));
+    }
+
+    /**
+     * Returns the spans matching the predicate, and the ones nested in them.
+     *
+     * @param spans spans ordered by start time, as returned by
+     *              {@link ProvisioningTracer#getEndedSpans()}.
+     */
+    private static List<TraceSpan> selectTree(List<TraceSpan> spans,
+            Predicate<TraceSpan> predicate) {
+        final List<TraceSpan> selected = new ArrayList<>();
+        final HashSet<Long> selectedIds = new HashSet<>();
+        for (TraceSpan span : spans) {
+            // A span starts after its parent, so the parent was already visited.
+            if (predicate.test(span) || selectedIds.contains(span.getParentId())) {
+                selected.add(span);
+                selectedIds.add(span.getId());
+            }
+        }
+        return selected;
+    }
+
+    @VisibleForTesting
+    JSONObject toJson(List<TraceSpan> spans) {
+        try {
+            final JSONArray events = new JSONArray();
+            final LongSparseArray<String> threadNames = new LongSparseArray<>();
+            for (TraceSpan span : spans) {
+                threadNames.put(span.getThreadId(), span.getThreadName());
+                if (span.isInstant()) {
+                    events.put(createEvent(span, "i", span.getThreadId(), span.getStartNanos())
+                            .put("s", "t"));
+                } else if (span.getThreadId() == span.getEndThreadId()) {
+                    events.put(createEvent(span, "X", span.getThreadId(), span.getStartNanos())
+                            .put("dur", toMicros(span.getEndNanos() - span.getStartNanos())));
+                } else {
+                    threadNames.put(span.getEndThreadId(), span.getEndThreadName());
+                    events.put(createEvent(span, "b", span.getThreadId(), span.getStartNanos())
+                            .put("id", span.getId()));
+                    events.put(createEvent(span, "e", span.getEndThreadId(), span.getEndNanos())
+                            .put("id", span.getId()));
+                }
+            }
+
+            events.put(createMetadataEvent("process_name", 0, PROCESS_NAME));
+            for (int i = 0; i < threadNames.size(); i++) {
+                events.put(createMetadataEvent("thread_name", threadNames.keyAt(i),
+                        threadNames.valueAt(i)));
+            }
+            return new JSONObject()
+                    .put("traceEvents", events)
+                    .put("displayTimeUnit", "ms");
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which aren't used.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JSONObject createEvent(TraceSpan span, String phase, long threadId, long timeNanos)
+            throws JSONException {
+        final JSONObject args = new JSONObject()
+                .put("provisioningId", span.getProvisioningId())
+                .put("spanId", span.getId())
+                .put("parentId", span.getParentId());
+        for (Map.Entry<String, String> attribute : span.getAttributes().entrySet()) {
+            args.put(attribute.getKey(), attribute.getValue());
+        }
+        return new JSONObject()
+                .put("name", span.getName())
+                .put("cat", CATEGORY)
+                .put("ph", phase)
+                .put("ts", toMicros(timeNanos))
+                .put("pid", mPid)
+                .put("tid", threadId)
+                .put("args", args);
+    }
+
+    private JSONObject createMetadataEvent(String name, long threadId, String value)
+            throws JSONException {
+        return new JSONObject()
+                .put("name", name)
+                .put("ph", "M")
+                .put("pid", mPid)
+                .put("tid", threadId)
+                .put("args", new JSONObject().put("name", value));
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.content.Context;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reports the provisioning tasks, and provisioning as a whole, that take longer than their
+ * latency budget.
+ *
+ * <p>The budgets are set by the {@code task_latency_budgets} and
+ * {@code provisioning_latency_budget_ms} resources, which can be overlaid. A task without a
+ * budget, or a budget of 0, is not monitored.</p>
+ *
+ * <p>Each breach is logged with the resources the task used, and counted in the
+ * {@code provisioning_latency_budget_exceeded_<task>} counter.</p>
+ */
+public class LatencyBudgetMonitor {
+    @VisibleForTesting
+    static final String COUNTER_PREFIX = "provisioning_latency_budget_exceeded_";
+    @VisibleForTesting
+    static final String PROVISIONING = "provisioning";
+
+    private final Context mContext;
+    private final Map<String, Long> mTaskBudgetsMs;
+    private final long mProvisioningBudgetMs;
+    private final MetricsLoggerWrapper mMetricsLoggerWrapper;
+
+    public LatencyBudgetMonitor(Context context) {
+        this(context, parseBudgets(context.getResources()
+                        .getStringArray(R.array.task_latency_budgets)),
+                context.getResources().getInteger(R.integer.provisioning_latency_budget_ms),
+                new MetricsLoggerWrapper());
+    }
+
+    @VisibleForTesting
+    LatencyBudgetMonitor(
+            Context context,
+            Map<String, Long> taskBudgetsMs,
+            long provisioningBudgetMs,
+            MetricsLoggerWrapper metricsLoggerWrapper) {
+        mContext = checkNotNull(context);
+        mTaskBudgetsMs = Collections.unmodifiableMap(checkNotNull(taskBudgetsMs));
+        mProvisioningBudgetMs = provisioningBudgetMs;
+        mMetricsLoggerWrapper = checkNotNull(metricsLoggerWrapper);
+    }
+
+    /**
+     * Checks the duration of a task against its budget.
+     *
+     * @param taskName the simple class name of the task.
+     * @param usage the resources used by the task, if known.
+     * @return whether the task exceeded its budget.
+     */
+    public boolean checkTask(String taskName, long durationMs, @Nullable ResourceUsage usage) {
+        final Long budgetMs = mTaskBudgetsMs.get(taskName);
+        if (budgetMs == null || !isExceeded(durationMs, budgetMs)) {
+            return false;
+        }
+        reportBreach(taskName, durationMs, budgetMs, usage);
+        return true;
+    }
+
+    /**
+     * Checks the duration of all the provisioning tasks against the end-to-end budget.
+     *
+     * @return whether provisioning exceeded its budget.
+     */
+    public boolean checkProvisioning(long durationMs) {
+        if (!isExceeded(durationMs, mProvisioningBudgetMs)) {
+            return false;
+        }
+        reportBreach(PROVISIONING, durationMs, mProvisioningBudgetMs, null);
+        return true;
+    }
+
+    private static boolean isExceeded(long durationMs, long budgetMs) {
+        return budgetMs > 0 && durationMs > budgetMs;
+    }
+
+    private void reportBreach(String name, long durationMs, long budgetMs,
+            @Nullable ResourceUsage usage) {
+        ProvisionLogger.logw("Latency budget exceeded: " + name + " took " + durationMs
+                + " ms, budget " + budgetMs + " ms" + (usage == null ? "" : ", " + usage));
+        mMetricsLoggerWrapper.logCount(mContext, COUNTER_PREFIX + name, 1);
+    }
+
+    /**
+     * Parses budgets of the form {@code TaskClassName:milliseconds}. Invalid items are ignored.
+     */
+    @VisibleForTesting
+    static Map<String, Long> parseBudgets(String[] items) {
+        final Map<String, Long> budgets = new ArrayMap<>();
+        for (String item : items) {
+            final int separator = item.lastIndexOf(':');
+            try {
+                if (separator <= 0) {
+                    throw new NumberFormatException("Missing task name");
+                }
+                budgets.put(item.substring(0, separator).trim(),
+                        Long.parseLong(item.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                ProvisionLogger.loge("Ignoring invalid latency budget: " + item, e);
+            }
+        }
+        return budgets;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkArgument;
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.logging.MetricsLogger;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded queue of metrics events, written to {@link MetricsLogger} in batches on a background
+ * thread, so that logging doesn't block the UI thread.
+ *
+ * <p>Events are stored in a preallocated ring buffer, so enqueuing an event doesn't allocate nor
+ * take a lock, and may be done from any thread. The slots of the buffer carry a sequence number
+ * telling whether they are free for producers or ready for the consumer, as in Vyukov's bounded
+ * queue. There is a single consumer, the drain thread.</p>
+ *
+ * <p>Before the process may be killed, e.g. by a factory reset, the queued events can be written
+ * right away with {@link #flush(Runnable)}, which never blocks the caller.</p>
+ *
+ * <p>When the queue is full, events are dropped. The number of dropped events is logged with the
+ * next batch, and shown by {@link #dump(PrintWriter, String)}.</p>
+ */
+public class MetricsEventQueue {
+    @VisibleForTesting
+    static final int CAPACITY = 256;
+    @VisibleForTesting
+    static final String COUNTER_DROPPED_EVENTS = "provisioning_metrics_dropped";
+
+    private static final long BATCH_DELAY_MS = 200;
+    private static final int MSG_DRAIN = 1;
+
+    private static final int TYPE_ACTION = 0;
+    private static final int TYPE_ACTION_INT = 1;
+    private static final int TYPE_ACTION_STRING = 2;
+    private static final int TYPE_HISTOGRAM = 3;
+    private static final int TYPE_COUNT = 4;
+
+    private static MetricsEventQueue sInstance;
+
+    private final int mCapacity;
+    private final long mBatchDelayMs;
+    private final Handler mHandler;
+    private final Sink mSink;
+
+    // Sequence number of each slot: equal to the position of the next event to write in the slot
+    // when it is free, and to that position + 1 when it holds an event to drain.
+    private final AtomicLongArray mSequences;
+    private final int[] mTypes;
+    private final int[] mCategories;
+    private final int[] mIntValues;
+    private final String[] mStringValues;
+    private final Context[] mContexts;
+
+    // Position of the next event to write.
+    private final AtomicLong mTail = new AtomicLong();
+    // Position of the next event to drain, only used on the drain thread.
+    private long mHead;
+
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final AtomicInteger mDroppedSinceLastDrain = new AtomicInteger();
+    private final AtomicLong mDroppedTotal = new AtomicLong();
+    private final AtomicLong mDrainedTotal = new AtomicLong();
+
+    public static synchronized MetricsEventQueue getInstance() {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread("Provisioning Metrics",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new MetricsEventQueue(CAPACITY, BATCH_DELAY_MS, thread.getLooper(),
+                    new MetricsLoggerSink());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public MetricsEventQueue(int capacity, long batchDelayMs, Looper drainLooper, Sink sink) {
+        checkArgument(capacity > 0 && (capacity & (capacity - 1)) == 0,
+                "capacity must be a power of two");
+        mCapacity = capacity;
+        mBatchDelayMs = batchDelayMs;
+        mHandler = new Handler(checkNotNull(drainLooper), this::handleMessage);
+        mSink = checkNotNull(sink);
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, i);
+        }
+        mTypes = new int[capacity];
+        mCategories = new int[capacity];
+        mIntValues = new int[capacity];
+        mStringValues = new String[capacity];
+        mContexts = new Context[capacity];
+    }
+
+    public void action(Context context, int category) {
+        offer(TYPE_ACTION, context, category, 0, null);
+    }
+
+    public void action(Context context, int category, int value) {
+        offer(TYPE_ACTION_INT, context, category, value, null);
+    }
+
+    public void action(Context context, int category, String value) {
+        offer(TYPE_ACTION_STRING, context, category, 0, value);
+    }
+
+    public void histogram(Context context, String name, int bucket) {
+        offer(TYPE_HISTOGRAM, context, 0, bucket, name);
+    }
+
+    public void count(Context context, String name, int value) {
+        offer(TYPE_COUNT, context, 0, value, name);
+    }
+
+    /**
+     * Writes the events queued so far without waiting for the next batch. Doesn't wait for them
+     * to be written.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * Writes the events queued so far without waiting for the next batch, then runs
+     * {@code afterFlush} on the drain thread, e.g. to factory reset the device once the events
+     * were written. Doesn't wait for either.
+     */
+    public void flush(@Nullable Runnable afterFlush) {
+        // At the front of the queue, so that it doesn't wait for other messages. The pending
+        // batch, if any, finds the queue empty.
+        final boolean posted = mHandler.postAtFrontOfQueue(() -> {
+            drain();
+            if (afterFlush != null) {
+                afterFlush.run();
+            }
+        });
+        if (!posted) {
+            ProvisionLogger.logw("Couldn't flush the metrics queue, the drain thread has quit");
+            if (afterFlush != null) {
+                afterFlush.run();
+            }
+        }
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full.
+     */
+    public long getDroppedEventCount() {
+        return mDroppedTotal.get();
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "Metrics queue: capacity=" + mCapacity
+                + ", pending=" + (mTail.get() - mDrainedTotal.get())
+                + ", logged=" + mDrainedTotal.get()
+                + ", dropped=" + mDroppedTotal.get());
+    }
+
+    private void offer(int type, Context context, int category, int intValue, String stringValue) {
+        long position = mTail.get();
+        while (true) {
+            final int index = (int) position & (mCapacity - 1);
+            final long difference = mSequences.get(index) - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    mTypes[index] = type;
+                    mCategories[index] = category;
+                    mIntValues[index] = intValue;
+                    mStringValues[index] = stringValue;
+                    mContexts[index] = context;
+                    // Publishes the event to the drain thread.
+                    mSequences.set(index, position + 1);
+                    break;
+                }
+                position = mTail.get();
+            } else if (difference < 0) {
+                // The slot still holds an event from the previous round: the queue is full.
+                mDroppedSinceLastDrain.incrementAndGet();
+                mDroppedTotal.incrementAndGet();
+                break;
+            } else {
+                // Another producer took the slot.
+                position = mTail.get();
+            }
+        }
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.sendEmptyMessageDelayed(MSG_DRAIN, mBatchDelayMs);
+        }
+    }
+
+    private boolean handleMessage(Message msg) {
+        if (msg.what != MSG_DRAIN) {
+            return false;
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Writes the queued events to the sink. Must only be called on the drain thread.
+     */
+    @VisibleForTesting
+    void drain() {
+        // Cleared first, so that events enqueued during the drain schedule another one.
+        mDrainScheduled.set(false);
+        Context lastContext = null;
+        int drained = 0;
+        while (true) {
+            final int index = (int) mHead & (mCapacity - 1);
+            if (mSequences.get(index) != mHead + 1) {
+                break;
+            }
+            final Context context = mContexts[index];
+            switch (mTypes[index]) {
+                case TYPE_ACTION:
+                    mSink.action(context, mCategories[index]);
+                    break;
+                case TYPE_ACTION_INT:
+                    mSink.action(context, mCategories[index], mIntValues[index]);
+                    break;
+                case TYPE_ACTION_STRING:
+                    mSink.action(context, mCategories[index], mStringValues[index]);
+                    break;
+                case TYPE_HISTOGRAM:
+                    mSink.histogram(context, mStringValues[index], mIntValues[index]);
+                    break;
+                case TYPE_COUNT:
+                    mSink.count(context, mStringValues[index], mIntValues[index]);
+                    break;
+            }
+            lastContext = context;
+            mStringValues[index] = null;
+            mContexts[index] = null;
+            // Frees the slot for the next round of producers.
+            mSequences.set(index, mHead + mCapacity);
+            mHead++;
+            drained++;
+        }
+        mDrainedTotal.addAndGet(drained);
+
+        final int dropped = mDroppedSinceLastDrain.getAndSet(0);
+        if (dropped > 0) {
+            ProvisionLogger.logw("Dropped " + dropped + " metrics events, the queue was full");
+            if (lastContext != null) {
+                mSink.count(lastContext, COUNTER_DROPPED_EVENTS, dropped);
+            }
+        }
+    }
+
+    /**
+     * Where the events are written, on the drain thread.
+     */
+    @VisibleForTesting
+    public interface Sink {
+        void action(Context context, int category);
+        void action(Context context, int category, int value);
+        void action(Context context, int category, String value);
+        void histogram(Context context, String name, int bucket);
+        void count(Context context, String name, int value);
+    }
+
+    private static final class MetricsLoggerSink implements Sink {
+        @Override
+        public void action(Context context, int category) {
+            MetricsLogger.action(context, category);
+        }
+
+        @Override
+        public void action(Context context, int category, int value) {
+            MetricsLogger.action(context, category, value);
+        }
+
+        @Override
+        public void action(Context context, int category, String value) {
+            MetricsLogger.action(context, category, value);
+        }
+
+        @Override
+        public void histogram(Context context, String name, int bucket) {
+            MetricsLogger.histogram(context, name, bucket);
+        }
+
+        @Override
+        public void count(Context context, String name, int value) {
+            MetricsLogger.count(context, name, value);
+        }
+    }
+}
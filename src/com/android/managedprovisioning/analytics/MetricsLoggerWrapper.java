@@ -18,19 +18,33 @@ package com.android.managedprovisioning.analytics;
 
 import static com.android.internal.logging.nano.MetricsProto.MetricsEvent.VIEW_UNKNOWN;
 
+import static com.android.internal.util.Preconditions.checkNotNull;
+
 import android.content.Context;
 
-import com.android.internal.logging.MetricsLogger;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.common.ProvisionLogger;
 
 /**
  * Utility class to log metrics using MetricsLogger.
+ *
+ * <p>The metrics are logged asynchronously by the {@link MetricsEventQueue}, so this class may be
+ * used on the UI thread.</p>
  */
 public class MetricsLoggerWrapper {
 
     public static final boolean LOG_ENABLED = false;
 
-    public MetricsLoggerWrapper() {}
+    private final MetricsEventQueue mQueue;
+
+    public MetricsLoggerWrapper() {
+        this(MetricsEventQueue.getInstance());
+    }
+
+    @VisibleForTesting
+    MetricsLoggerWrapper(MetricsEventQueue queue) {
+        mQueue = checkNotNull(queue);
+    }
 
     /**
      * Wrapper to log action with string values.
@@ -40,9 +54,11 @@ public class MetricsLoggerWrapper {
      * @param value String value to be logged
      */
     public void logAction(Context context, int category, String value) {
-        logd("MetricsLoggerWrapper, category:" + category + ", value: " + value);
+        if (LOG_ENABLED) {
+            logd("MetricsLoggerWrapper, category:" + category + ", value: " + value);
+        }
         if (category != VIEW_UNKNOWN) {
-            MetricsLogger.action(context, category, value);
+            mQueue.action(context, category, value);
         }
     }
 
@@ -54,9 +70,11 @@ public class MetricsLoggerWrapper {
      * @param value Int value to be logged.
      */
     public void logAction(Context context, int category, int value) {
-        logd("MetricsLoggerWrapper, category:" + category + ", value: " + value);
+        if (LOG_ENABLED) {
+            logd("MetricsLoggerWrapper, category:" + category + ", value: " + value);
+        }
         if (category != VIEW_UNKNOWN) {
-            MetricsLogger.action(context, category, value);
+            mQueue.action(context, category, value);
         }
     }
 
@@ -67,15 +85,43 @@ public class MetricsLoggerWrapper {
      * @param category Metrics category to be logged.
      */
     public void logAction(Context context, int category) {
-        logd("MetricsLoggerWrapper, category:" + category);
+        if (LOG_ENABLED) {
+            logd("MetricsLoggerWrapper, category:" + category);
+        }
         if (category != VIEW_UNKNOWN) {
-            MetricsLogger.action(context, category);
+            mQueue.action(context, category);
         }
     }
 
-    private void logd(String logText) {
+    /**
+     * Wrapper to log a value to a histogram.
+     *
+     * @param context Context passed to MetricsLogger.
+     * @param name Name of the histogram.
+     * @param bucket Bucket of the histogram to increment.
+     */
+    public void logHistogram(Context context, String name, int bucket) {
+        if (LOG_ENABLED) {
+            logd("MetricsLoggerWrapper, histogram:" + name + ", bucket: " + bucket);
+        }
+        mQueue.histogram(context, name, bucket);
+    }
+
+    /**
+     * Wrapper to add a value to a counter.
+     *
+     * @param context Context passed to MetricsLogger.
+     * @param name Name of the counter.
+     * @param value Value to add to the counter.
+     */
+    public void logCount(Context context, String name, int value) {
         if (LOG_ENABLED) {
-            ProvisionLogger.logd(logText);
+            logd("MetricsLoggerWrapper, counter:" + name + ", value: " + value);
         }
+        mQueue.count(context, name, value);
+    }
+
+    private void logd(String logText) {
+        ProvisionLogger.logd(logText);
     }
 }
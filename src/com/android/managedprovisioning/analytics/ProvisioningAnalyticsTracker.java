@@ -51,6 +51,11 @@ public class ProvisioningAnalyticsTracker {
 
     private final MetricsLoggerWrapper mMetricsLoggerWrapper = new MetricsLoggerWrapper();
 
+    // Do not rename, that will break historical data.
+    private static final String HISTOGRAM_CANCEL_CLEANUP_LATENCY =
+            "provisioning_cancel_cleanup_latency_100ms";
+    private static final int MAX_CANCEL_CLEANUP_LATENCY_BUCKET = 600;
+
     // Only add to the end of the list. Do not change or rearrange these values, that will break
     // historical data. Do not use negative numbers or zero, logger only handles positive
     // integers.
@@ -128,6 +133,18 @@ public class ProvisioningAnalyticsTracker {
         mMetricsLoggerWrapper.logAction(context, PROVISIONING_CANCELLED, cancelState);
     }
 
+    /**
+     * Logs the time from cancelling provisioning until the cleanup has completed.
+     *
+     * @param context Context passed to MetricsLogger
+     * @param latencyMs Time from cancelling to the completed cleanup, in milliseconds
+     */
+    public void logCancelCleanupLatency(Context context, long latencyMs) {
+        // Bucket by 100 ms, so that the histogram stays small.
+        mMetricsLoggerWrapper.logHistogram(context, HISTOGRAM_CANCEL_CLEANUP_LATENCY,
+                (int) Math.min(latencyMs / 100, MAX_CANCEL_CLEANUP_LATENCY_BUCKET));
+    }
+
     /**
      * Logs error during provisioning tasks.
      *
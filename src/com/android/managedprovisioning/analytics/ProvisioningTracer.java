@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Records nested {@link TraceSpan}s of the provisioning work, e.g. the provisioning tasks and the
+ * steps within them.
+ *
+ * <p>Spans are timed with a monotonic clock and correlated by the provisioning id of their
+ * session. The last {@link #CAPACITY} ended spans are kept in memory, so that they can be dumped
+ * after provisioning. Unlike {@link TimeLogger}, spans are not reported to the metrics.</p>
+ */
+public class ProvisioningTracer {
+    /**
+     * Provisioning id of spans that don't belong to a provisioning session, e.g. the OTA tasks.
+     */
+    public static final long NO_PROVISIONING_ID = 0;
+
+    @VisibleForTesting
+    static final int CAPACITY = 512;
+
+    private static final ProvisioningTracer sInstance =
+            new ProvisioningTracer(SystemClock::elapsedRealtimeNanos);
+
+    private final LongSupplier mClock;
+    private final AtomicLong mNextId = new AtomicLong(1);
+
+    @GuardedBy("this")
+    private final ArrayDeque<TraceSpan> mEndedSpans = new ArrayDeque<>(CAPACITY);
+
+    public static ProvisioningTracer getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public ProvisioningTracer(LongSupplier nanoClock) {
+        mClock = checkNotNull(nanoClock);
+    }
+
+    /**
+     * Begins a root span.
+     *
+     * @param name name of the span, e.g. the class of the task.
+     * @param provisioningId the provisioning session the span belongs to, or
+     *                       {@link #NO_PROVISIONING_ID}.
+     */
+    public TraceSpan beginSpan(String name, long provisioningId) {
+        return beginSpan(name, null, provisioningId);
+    }
+
+    TraceSpan beginSpan(String name, @Nullable TraceSpan parent, long provisioningId) {
+        return new TraceSpan(this, mNextId.getAndIncrement(), parent, provisioningId, name,
+                false /* instant */, nowNanos());
+    }
+
+    /**
+     * Records a point in time, e.g. a callback that was delivered.
+     */
+    public void recordInstant(String name, long provisioningId) {
+        onSpanEnded(new TraceSpan(this, mNextId.getAndIncrement(), null, provisioningId, name,
+                true /* instant */, nowNanos()));
+    }
+
+    long nowNanos() {
+        return mClock.getAsLong();
+    }
+
+    void onSpanEnded(TraceSpan span) {
+        synchronized (this) {
+            if (mEndedSpans.size() == CAPACITY) {
+                mEndedSpans.removeFirst();
+            }
+            mEndedSpans.addLast(span);
+        }
+    }
+
+    /**
+     * @return the ended spans that are kept, ordered by start time.
+     */
+    public List<TraceSpan> getEndedSpans() {
+        final List<TraceSpan> spans;
+        synchronized (this) {
+            spans = new ArrayList<>(mEndedSpans);
+        }
+        spans.sort(Comparator.comparingLong(TraceSpan::getStartNanos));
+        return spans;
+    }
+
+    /**
+     * Prints the ended spans, indented by their nesting.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        final List<TraceSpan> spans = getEndedSpans();
+        pw.println(prefix + "Trace spans (" + spans.size() + "):");
+        final long originNanos = spans.isEmpty() ? 0 : spans.get(0).getStartNanos();
+        for (TraceSpan span : spans) {
+            StringBuilder line = new StringBuilder(prefix).append("  ");
+            for (int i = 0; i < span.getDepth(); i++) {
+                line.append("  ");
+            }
+            line.append('+')
+                    .append(TimeUnit.NANOSECONDS.toMillis(span.getStartNanos() - originNanos))
+                    .append(" ms ")
+                    .append(span);
+            pw.println(line);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import android.os.Debug;
+import android.os.Process;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resources used by the current thread or process up to some point, or between two points,
+ * see {@link #sample()} and {@link #minus(ResourceUsage)}.
+ *
+ * <p>CPU time and I/O bytes are those of the calling thread. Allocated bytes and binder
+ * transactions are only counted per process by the platform. Values that can't be read are -1.</p>
+ */
+public final class ResourceUsage {
+    static final long UNKNOWN = -1;
+
+    private static final String RUNTIME_STAT_BYTES_ALLOCATED = "art.gc.bytes-allocated";
+    private static final String IO_READ_CHARS = "rchar";
+    private static final String IO_WRITE_CHARS = "wchar";
+
+    private final long mCpuTimeNanos;
+    private final long mAllocatedBytes;
+    private final long mBinderTransactions;
+    private final long mIoReadBytes;
+    private final long mIoWriteBytes;
+
+    @VisibleForTesting
+    ResourceUsage(long cpuTimeNanos, long allocatedBytes, long binderTransactions,
+            long ioReadBytes, long ioWriteBytes) {
+        mCpuTimeNanos = cpuTimeNanos;
+        mAllocatedBytes = allocatedBytes;
+        mBinderTransactions = binderTransactions;
+        mIoReadBytes = ioReadBytes;
+        mIoWriteBytes = ioWriteBytes;
+    }
+
+    /**
+     * Returns the resources used so far by the calling thread, and by the process for the
+     * counters that aren't per thread.
+     */
+    public static ResourceUsage sample() {
+        final long[] io = readThreadIo();
+        return new ResourceUsage(
+                Debug.threadCpuTimeNanos(),
+                readRuntimeStat(RUNTIME_STAT_BYTES_ALLOCATED),
+                Debug.getBinderSentTransactions(),
+                io[0],
+                io[1]);
+    }
+
+    /**
+     * Returns the resources used between {@code start} and this sample.
+     */
+    public ResourceUsage minus(ResourceUsage start) {
+        return new ResourceUsage(
+                delta(mCpuTimeNanos, start.mCpuTimeNanos),
+                delta(mAllocatedBytes, start.mAllocatedBytes),
+                delta(mBinderTransactions, start.mBinderTransactions),
+                delta(mIoReadBytes, start.mIoReadBytes),
+                delta(mIoWriteBytes, start.mIoWriteBytes));
+    }
+
+    public long getCpuTimeMillis() {
+        return mCpuTimeNanos < 0 ? UNKNOWN : TimeUnit.NANOSECONDS.toMillis(mCpuTimeNanos);
+    }
+
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    public long getBinderTransactions() {
+        return mBinderTransactions;
+    }
+
+    public long getIoReadBytes() {
+        return mIoReadBytes;
+    }
+
+    public long getIoWriteBytes() {
+        return mIoWriteBytes;
+    }
+
+    /**
+     * Sets the usage as attributes of the given span.
+     */
+    public void addTo(TraceSpan span) {
+        span.setAttribute("cpuMs", getCpuTimeMillis())
+                .setAttribute("allocatedKb", toKb(mAllocatedBytes))
+                .setAttribute("binderTransactions", mBinderTransactions)
+                .setAttribute("ioReadKb", toKb(mIoReadBytes))
+                .setAttribute("ioWriteKb", toKb(mIoWriteBytes));
+    }
+
+    @Override
+    public String toString() {
+        return "cpu=" + format(getCpuTimeMillis(), " ms")
+                + ", alloc=" + format(toKb(mAllocatedBytes), " KB")
+                + ", binder=" + format(mBinderTransactions, "")
+                + ", read=" + format(toKb(mIoReadBytes), " KB")
+                + ", write=" + format(toKb(mIoWriteBytes), " KB");
+    }
+
+    private static long delta(long end, long start) {
+        return end < 0 || start < 0 ? UNKNOWN : end - start;
+    }
+
+    private static long toKb(long bytes) {
+        return bytes < 0 ? UNKNOWN : bytes / 1024;
+    }
+
+    private static String format(long value, String unit) {
+        return value < 0 ? "?" : value + unit;
+    }
+
+    private static long readRuntimeStat(String name) {
+        final String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return UNKNOWN;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the bytes read and written by the calling thread, as counted in its io file.
+     */
+    private static long[] readThreadIo() {
+        final long[] io = {UNKNOWN, UNKNOWN};
+        final String path = "/proc/self/task/" + Process.myTid() + "/io";
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(IO_READ_CHARS + ":")) {
+                    io[0] = parseIoValue(line);
+                } else if (line.startsWith(IO_WRITE_CHARS + ":")) {
+                    io[1] = parseIoValue(line);
+                }
+            }
+        } catch (IOException e) {
+            ProvisionLogger.logd("Couldn't read %s: %s", path, e);
+        }
+        return io;
+    }
+
+    private static long parseIoValue(String line) {
+        try {
+            return Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+}
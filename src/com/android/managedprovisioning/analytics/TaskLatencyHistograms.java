@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Histograms of the durations of the provisioning tasks, kept across provisioning sessions.
+ *
+ * <p>Each task class has a histogram of {@link #BUCKET_COUNT} logarithmic buckets, two per power
+ * of two milliseconds, so memory and file size don't grow with the number of sessions. The
+ * percentiles are reported as the upper bound of their bucket, i.e. within a factor of
+ * {@code sqrt(2)}.</p>
+ *
+ * <p>The histograms are written to a small binary file after each recorded duration. A file that
+ * can't be read, e.g. after a crash or an update of the format, is discarded.</p>
+ *
+ * <p>The file is in the files dir of the parent user, which a factory reset wipes, and no storage
+ * an app can write survives one. The histograms thus only build up across the sessions that
+ * happen between two resets, i.e. profile owner provisioning, where a work profile is removed and
+ * provisioned again. Device owner provisioning starts from a factory reset, so its durations only
+ * cover the sessions since the last one.</p>
+ */
+public class TaskLatencyHistograms {
+    @VisibleForTesting
+    static final String FILE_NAME = "task_latency_histograms.bin";
+    @VisibleForTesting
+    static final int BUCKET_COUNT = 48;
+    @VisibleForTesting
+    static final int MAX_HISTOGRAMS = 32;
+
+    private static final int FILE_VERSION = 1;
+
+    private static TaskLatencyHistograms sInstance;
+
+    private final File mFile;
+
+    // Loaded from the file when first used.
+    @GuardedBy("this")
+    private Map<String, Histogram> mHistograms;
+
+    public static synchronized TaskLatencyHistograms getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TaskLatencyHistograms(
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TaskLatencyHistograms(File file) {
+        mFile = checkNotNull(file);
+    }
+
+    /**
+     * Records a duration of the given task and writes the histograms to disk.
+     */
+    public synchronized void record(String taskName, long durationMs) {
+        loadIfNeeded();
+        Histogram histogram = mHistograms.get(taskName);
+        if (histogram == null) {
+            if (mHistograms.size() == MAX_HISTOGRAMS) {
+                ProvisionLogger.logw("Not recording the duration of " + taskName
+                        + ", too many histograms");
+                return;
+            }
+            histogram = new Histogram();
+            mHistograms.put(taskName, histogram);
+        }
+        histogram.add(durationMs);
+        save();
+    }
+
+    /**
+     * Returns the histogram of the given task, or {@code null} if no duration was recorded.
+     */
+    @VisibleForTesting
+    synchronized Histogram get(String taskName) {
+        loadIfNeeded();
+        return mHistograms.get(taskName);
+    }
+
+    /**
+     * Prints the count and percentiles of each task.
+     */
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        loadIfNeeded();
+        pw.println(prefix + "Task latency histograms (" + mFile.getName() + "):");
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            pw.println(prefix + "  " + entry.getKey() + ": count=" + histogram.getCount()
+                    + ", p50<=" + histogram.getPercentile(50) + " ms"
+                    + ", p90<=" + histogram.getPercentile(90) + " ms"
+                    + ", p99<=" + histogram.getPercentile(99) + " ms");
+        }
+    }
+
+    private void loadIfNeeded() {
+        if (mHistograms != null) {
+            return;
+        }
+        mHistograms = new ArrayMap<>();
+        try (DataInputStream in = new DataInputStream(new AtomicFile(mFile).openRead())) {
+            if (in.readInt() != FILE_VERSION || in.readInt() != BUCKET_COUNT) {
+                throw new IOException("Unknown format");
+            }
+            final int histogramCount = in.readInt();
+            if (histogramCount < 0 || histogramCount > MAX_HISTOGRAMS) {
+                throw new IOException("Invalid histogram count " + histogramCount);
+            }
+            for (int i = 0; i < histogramCount; i++) {
+                final String taskName = in.readUTF();
+                final Histogram histogram = new Histogram();
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    histogram.mCounts[bucket] = in.readInt();
+                    if (histogram.mCounts[bucket] < 0) {
+                        throw new IOException("Invalid count in " + taskName);
+                    }
+                }
+                mHistograms.put(taskName, histogram);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing recorded yet.
+        } catch (IOException e) {
+            ProvisionLogger.loge("Discarding the task latency histograms", e);
+            mHistograms.clear();
+        }
+    }
+
+    private void save() {
+        AtomicFile atomicFile = new AtomicFile(mFile);
+        FileOutputStream stream = null;
+        try {
+            stream = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(BUCKET_COUNT);
+            out.writeInt(mHistograms.size());
+            for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                for (int count : entry.getValue().mCounts) {
+                    out.writeInt(count);
+                }
+            }
+            out.flush();
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            ProvisionLogger.loge("Caught exception while trying to write the histograms", e);
+            atomicFile.failWrite(stream);
+        }
+    }
+
+    /**
+     * Returns the bucket of the given duration. Bucket 0 holds durations under 1 ms, bucket
+     * {@code b > 0} holds durations in {@code [2^((b - 1) / 2), 2^(b / 2))} ms, and the last bucket
+     * also holds all longer durations.
+     */
+    @VisibleForTesting
+    static int getBucket(long durationMs) {
+        if (durationMs < 1) {
+            return 0;
+        }
+        // floor(2 * log2(d)) is floor(log2(d^2)), computed exactly. Durations are capped so that
+        // the square doesn't overflow, they are in the last bucket anyway.
+        final long capped = Math.min(durationMs, 1L << 30);
+        final int bucket = 63 - Long.numberOfLeadingZeros(capped * capped) + 1;
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the upper bound of the given bucket in ms, rounded up.
+     */
+    @VisibleForTesting
+    static long getBucketUpperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(2, bucket / 2.0));
+    }
+
+    @VisibleForTesting
+    static final class Histogram {
+        private final int[] mCounts = new int[BUCKET_COUNT];
+
+        void add(long durationMs) {
+            final int bucket = getBucket(durationMs);
+            if (mCounts[bucket] < Integer.MAX_VALUE) {
+                mCounts[bucket]++;
+            }
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int bucketCount : mCounts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        /**
+         * Returns the upper bound of the bucket that holds the given percentile, or 0 if the
+         * histogram is empty.
+         */
+        long getPercentile(int percentile) {
+            final long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            // The rank of the percentile, rounded up.
+            final long rank = Math.max(1, (count * percentile + 99) / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += mCounts[bucket];
+                if (seen >= rank) {
+                    return getBucketUpperBound(bucket);
+                }
+            }
+            return getBucketUpperBound(BUCKET_COUNT - 1);
+        }
+    }
+}
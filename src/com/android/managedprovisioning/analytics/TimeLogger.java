@@ -34,14 +34,17 @@ import com.android.internal.annotations.VisibleForTesting;
 
 /**
  * Utility class to log time.
+ *
+ * <p>The time is measured by a {@link TraceSpan} of the {@link ProvisioningTracer}, and its
+ * duration is logged to the metrics category.</p>
  */
 public class TimeLogger {
 
     private final int mCategory;
     private final Context mContext;
     private final MetricsLoggerWrapper mMetricsLoggerWrapper;
-    private final AnalyticsUtils mAnalyticsUtils;
-    private Long mStartTime;
+    private final ProvisioningTracer mTracer;
+    private TraceSpan mSpan;
 
     @IntDef({
             PROVISIONING_PROVISIONING_ACTIVITY_TIME_MS,
@@ -56,7 +59,7 @@ public class TimeLogger {
     public @interface TimeCategory {}
 
     public TimeLogger(Context context, @TimeCategory int category) {
-        this(context, category, new MetricsLoggerWrapper(), new AnalyticsUtils());
+        this(context, category, new MetricsLoggerWrapper(), ProvisioningTracer.getInstance());
     }
 
     @VisibleForTesting
@@ -64,18 +67,21 @@ public class TimeLogger {
             Context context,
             int category,
             MetricsLoggerWrapper metricsLoggerWrapper,
-            AnalyticsUtils analyticsUtils) {
+            ProvisioningTracer tracer) {
         mContext = checkNotNull(context);
         mCategory = checkNotNull(category);
         mMetricsLoggerWrapper = checkNotNull(metricsLoggerWrapper);
-        mAnalyticsUtils = checkNotNull(analyticsUtils);
+        mTracer = checkNotNull(tracer);
     }
 
     /**
      * Notifies start time to logger.
      */
     public void start() {
-        mStartTime = mAnalyticsUtils.elapsedRealTime();
+        // A previous span that wasn't stopped is dropped, like its start time used to be.
+        mSpan = mTracer.beginSpan(TimeLogger.class.getSimpleName(),
+                ProvisioningTracer.NO_PROVISIONING_ID)
+                .setAttribute("category", mCategory);
     }
 
     /**
@@ -83,11 +89,12 @@ public class TimeLogger {
      */
     public void stop() {
         // Ignore logging time if we couldn't find start time.
-        if (mStartTime != null) {
+        if (mSpan != null) {
+            mSpan.end();
             // Provisioning wouldn't run for 25 days, so int should be fine.
-            final int time = (int) (mAnalyticsUtils.elapsedRealTime() - mStartTime);
-            // Clear stored start time, we shouldn't log total time twice for same start time.
-            mStartTime = null;
+            final int time = (int) mSpan.getDurationMillis();
+            // Clear stored span, we shouldn't log total time twice for same start time.
+            mSpan = null;
             mMetricsLoggerWrapper.logAction(mContext, mCategory, time);
         }
     }
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed piece of provisioning work, see {@link ProvisioningTracer}.
+ *
+ * <p>Spans may be nested with {@link #beginChild(String)}, and are annotated with attributes.
+ * They may be ended on another thread than the one that began them. Once a span is ended, it is
+ * immutable: further attributes and calls to {@link #end()} are ignored.</p>
+ *
+ * <p>Instant spans, see {@link ProvisioningTracer#recordInstant(String, long)}, mark a point in
+ * time and are ended when they are begun.</p>
+ */
+public class TraceSpan {
+    private final ProvisioningTracer mTracer;
+    private final long mId;
+    @Nullable private final TraceSpan mParent;
+    private final long mProvisioningId;
+    private final String mName;
+    private final int mDepth;
+    private final boolean mInstant;
+    private final long mThreadId;
+    private final String mThreadName;
+    private final long mStartNanos;
+
+    @GuardedBy("this")
+    private final Map<String, String> mAttributes = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private long mEndNanos = -1;
+    @GuardedBy("this")
+    private long mEndThreadId;
+    @GuardedBy("this")
+    private String mEndThreadName;
+
+    TraceSpan(ProvisioningTracer tracer, long id, @Nullable TraceSpan parent, long provisioningId,
+            String name, boolean instant, long startNanos) {
+        mTracer = checkNotNull(tracer);
+        mId = id;
+        mParent = parent;
+        mProvisioningId = provisioningId;
+        mName = checkNotNull(name);
+        mDepth = parent == null ? 0 : parent.mDepth + 1;
+        mInstant = instant;
+        mThreadId = Thread.currentThread().getId();
+        mThreadName = Thread.currentThread().getName();
+        mStartNanos = startNanos;
+        if (instant) {
+            mEndNanos = startNanos;
+            mEndThreadId = mThreadId;
+            mEndThreadName = mThreadName;
+        }
+    }
+
+    /**
+     * Begins a span nested in this one, for the same provisioning session.
+     */
+    public TraceSpan beginChild(String name) {
+        return mTracer.beginSpan(name, this, mProvisioningId);
+    }
+
+    /**
+     * Sets an attribute of this span, replacing any previous value of the attribute.
+     *
+     * @return this span.
+     */
+    public synchronized TraceSpan setAttribute(String key, Object value) {
+        if (mEndNanos < 0) {
+            mAttributes.put(checkNotNull(key), String.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * Ends this span and records it in the tracer.
+     */
+    public void end() {
+        synchronized (this) {
+            if (mEndNanos >= 0) {
+                return;
+            }
+            mEndNanos = mTracer.nowNanos();
+            mEndThreadId = Thread.currentThread().getId();
+            mEndThreadName = Thread.currentThread().getName();
+        }
+        mTracer.onSpanEnded(this);
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * @return the id of the span this one is nested in, or 0 for a root span.
+     */
+    public long getParentId() {
+        return mParent == null ? 0 : mParent.mId;
+    }
+
+    public long getProvisioningId() {
+        return mProvisioningId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return how deeply this span is nested, 0 for a root span.
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public boolean isInstant() {
+        return mInstant;
+    }
+
+    /**
+     * @return the id of the thread that began this span.
+     */
+    public long getThreadId() {
+        return mThreadId;
+    }
+
+    /**
+     * @return the name of the thread that began this span.
+     */
+    public String getThreadName() {
+        return mThreadName;
+    }
+
+    /**
+     * @return the id of the thread that ended this span, or 0 if it is still running.
+     */
+    public synchronized long getEndThreadId() {
+        return mEndThreadId;
+    }
+
+    /**
+     * @return the name of the thread that ended this span, or {@code null} if it is still running.
+     */
+    @Nullable
+    public synchronized String getEndThreadName() {
+        return mEndThreadName;
+    }
+
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    /**
+     * @return when this span ended, or -1 if it is still running.
+     */
+    public synchronized long getEndNanos() {
+        return mEndNanos;
+    }
+
+    public synchronized boolean isEnded() {
+        return mEndNanos >= 0;
+    }
+
+    /**
+     * @return how long the span took, or -1 if it is still running.
+     */
+    public synchronized long getDurationMillis() {
+        return mEndNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(mEndNanos - mStartNanos);
+    }
+
+    /**
+     * @return how long the span took, or how long it has been running so far.
+     */
+    public long getElapsedMillis() {
+        final long endNanos;
+        synchronized (this) {
+            endNanos = mEndNanos;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(
+                (endNanos < 0 ? mTracer.nowNanos() : endNanos) - mStartNanos);
+    }
+
+    public synchronized Map<String, String> getAttributes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mAttributes));
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(mName)
+                .append(" [id=").append(mId)
+                .append(", parent=").append(getParentId())
+                .append(", provisioningId=").append(mProvisioningId)
+                .append(", thread=").append(mThreadName)
+                .append("] ");
+        if (mEndNanos < 0) {
+            builder.append("running");
+        } else {
+            builder.append(getDurationMillis()).append(" ms");
+        }
+        if (!mAttributes.isEmpty()) {
+            builder.append(' ').append(mAttributes);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the accounts that are copied in the background, after the provisioning tasks have
+ * completed.
+ *
+ * <p>The copy is started by the CopyAccountToUserTask, and its result is needed when the DPC is
+ * notified about the completed provisioning: the account must only be removed from the source
+ * user once it was copied. Copies are tracked per target user, and only within this process.</p>
+ */
+public class AccountMigrationTracker {
+    private static final AccountMigrationTracker sInstance = new AccountMigrationTracker();
+
+    @GuardedBy("this")
+    private final SparseArray<Migration> mMigrations = new SparseArray<>();
+
+    public static AccountMigrationTracker getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public AccountMigrationTracker() {}
+
+    /**
+     * Records that an account is being copied to the given user, replacing any previous copy.
+     */
+    public synchronized void migrationStarted(int targetUserId) {
+        mMigrations.put(targetUserId, new Migration());
+    }
+
+    /**
+     * Records the result of the copy to the given user.
+     */
+    public void migrationFinished(int targetUserId, boolean succeeded) {
+        final Migration migration;
+        synchronized (this) {
+            migration = mMigrations.get(targetUserId);
+        }
+        if (migration == null) {
+            ProvisionLogger.logw("No account migration was started for user " + targetUserId);
+            return;
+        }
+        migration.succeeded = succeeded;
+        migration.finished.countDown();
+    }
+
+    /**
+     * Waits for the copy to the given user to finish.
+     *
+     * @return whether the account was copied, {@code false} if the copy didn't finish in time, or
+     *         {@code null} if no copy to the user was started in this process.
+     */
+    @Nullable
+    public Boolean waitForResult(int targetUserId, long timeoutMs) throws InterruptedException {
+        final Migration migration;
+        synchronized (this) {
+            migration = mMigrations.get(targetUserId);
+        }
+        if (migration == null) {
+            return null;
+        }
+        if (!migration.finished.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            ProvisionLogger.logw("Account migration to user " + targetUserId + " didn't finish in "
+                    + timeoutMs + " ms");
+            return false;
+        }
+        return migration.succeeded;
+    }
+
+    private static final class Migration {
+        final CountDownLatch finished = new CountDownLatch(1);
+        // Written before the latch is counted down, read after awaiting it.
+        volatile boolean succeeded;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.ComponentName;
+import android.content.pm.PackageManager;
+
+import com.android.internal.annotations.Immutable;
+
+/**
+ * A change of the enabled state of a component, to be applied with
+ * {@link Utils#setComponentsEnabledSetting}.
+ */
+@Immutable
+public final class ComponentStateChange {
+
+    /** The component whose state should be changed. */
+    public final ComponentName component;
+
+    /**
+     * The new enabled state, e.g. {@link PackageManager#COMPONENT_ENABLED_STATE_ENABLED} or
+     * {@link PackageManager#COMPONENT_ENABLED_STATE_DISABLED}.
+     */
+    public final int enabledSetting;
+
+    private ComponentStateChange(ComponentName component, int enabledSetting) {
+        this.component = checkNotNull(component);
+        this.enabledSetting = enabledSetting;
+    }
+
+    /**
+     * Returns a change that enables the given component.
+     */
+    public static ComponentStateChange enable(ComponentName component) {
+        return new ComponentStateChange(component,
+                PackageManager.COMPONENT_ENABLED_STATE_ENABLED);
+    }
+
+    /**
+     * Returns a change that disables the given component.
+     */
+    public static ComponentStateChange disable(ComponentName component) {
+        return new ComponentStateChange(component,
+                PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ComponentStateChange that = (ComponentStateChange) o;
+        return enabledSetting == that.enabledSetting && component.equals(that.component);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * component.hashCode() + enabledSetting;
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentStateChange{" + component.toShortString() + ", " + enabledSetting + "}";
+    }
+}
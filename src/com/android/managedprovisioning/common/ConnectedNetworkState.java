@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Map;
+
+/**
+ * Networks with internet that are currently connected, as reported by the network callbacks of
+ * {@link com.android.managedprovisioning.task.wifi.NetworkMonitor}.
+ *
+ * <p>Each monitor keeps its own networks up to date while it is listening, and removes them when
+ * it stops. The state is shared with {@link Utils#isConnectedToNetwork} and
+ * {@link Utils#isConnectedToWifi}, so that a network reported by a callback is seen as connected
+ * right away.</p>
+ */
+public class ConnectedNetworkState {
+    private static final ConnectedNetworkState sInstance = new ConnectedNetworkState();
+
+    // The connected networks reported by each monitor, keyed by monitor.
+    @GuardedBy("this")
+    private final Map<Object, Map<Network, NetworkCapabilities>> mConnectedNetworks =
+            new ArrayMap<>();
+
+    public static ConnectedNetworkState getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public ConnectedNetworkState() {}
+
+    /**
+     * Records the capabilities of a network reported to the given monitor. The network is only
+     * kept if it has internet.
+     */
+    public synchronized void onCapabilitiesChanged(Object monitor, Network network,
+            NetworkCapabilities capabilities) {
+        Map<Network, NetworkCapabilities> networks = mConnectedNetworks.get(monitor);
+        if (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            if (networks == null) {
+                networks = new ArrayMap<>();
+                mConnectedNetworks.put(monitor, networks);
+            }
+            networks.put(network, capabilities);
+        } else if (networks != null) {
+            networks.remove(network);
+        }
+    }
+
+    /**
+     * Forgets a network reported to the given monitor that has been disconnected.
+     */
+    public synchronized void onLost(Object monitor, Network network) {
+        final Map<Network, NetworkCapabilities> networks = mConnectedNetworks.get(monitor);
+        if (networks != null) {
+            networks.remove(network);
+        }
+    }
+
+    /**
+     * Forgets the networks reported to the given monitor, when it stops listening. The networks
+     * of the other monitors are kept.
+     */
+    public synchronized void clear(Object monitor) {
+        mConnectedNetworks.remove(monitor);
+    }
+
+    /**
+     * Returns whether any connected network is known.
+     */
+    public synchronized boolean hasConnectedNetwork() {
+        for (Map<Network, NetworkCapabilities> networks : mConnectedNetworks.values()) {
+            if (!networks.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a connected network with the given transport, e.g.
+     * {@link NetworkCapabilities#TRANSPORT_WIFI}, is known.
+     */
+    public synchronized boolean hasConnectedNetwork(int transportType) {
+        for (Map<Network, NetworkCapabilities> networks : mConnectedNetworks.values()) {
+            for (NetworkCapabilities capabilities : networks.values()) {
+                if (capabilities.hasTransport(transportType)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
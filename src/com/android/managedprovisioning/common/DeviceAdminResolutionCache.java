@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.annotation.Nullable;
+import android.content.ComponentName;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Session-scoped cache of the device admin components resolved by {@link Utils#findDeviceAdmin}.
+ *
+ * <p>Resolving the admin parses the full receiver list of the admin package, and the same
+ * resolution is requested by several tasks of a single provisioning session. Only successful
+ * resolutions are cached, and only between {@link #startSession()} and {@link #endSession()}:
+ * lookups outside a provisioning session, e.g. while parsing the provisioning request or during
+ * finalization, always check the installed package. Entries must be invalidated with
+ * {@link #invalidatePackage(String)} whenever the admin package is installed or updated.</p>
+ */
+public class DeviceAdminResolutionCache {
+    private static final DeviceAdminResolutionCache sInstance = new DeviceAdminResolutionCache();
+
+    @GuardedBy("this")
+    private final Map<Key, ComponentName> mResolvedAdmins = new HashMap<>();
+    @GuardedBy("this")
+    private boolean mSessionStarted;
+    @GuardedBy("this")
+    private int mHitCount;
+    @GuardedBy("this")
+    private int mMissCount;
+
+    public static DeviceAdminResolutionCache getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DeviceAdminResolutionCache() {}
+
+    /**
+     * Starts caching the resolved admins, when a provisioning session starts.
+     */
+    public synchronized void startSession() {
+        clearLocked();
+        mSessionStarted = true;
+    }
+
+    /**
+     * Stops caching the resolved admins and removes them, when a provisioning session ends.
+     */
+    public synchronized void endSession() {
+        clearLocked();
+        mSessionStarted = false;
+    }
+
+    /**
+     * Returns the admin component cached for the given lookup, or {@code null} if there is none
+     * or no provisioning session is started.
+     */
+    @Nullable
+    synchronized ComponentName get(@Nullable String dpcPackageName,
+            @Nullable ComponentName dpcComponentName, int userId) {
+        if (!mSessionStarted) {
+            return null;
+        }
+        ComponentName admin = mResolvedAdmins.get(new Key(dpcPackageName, dpcComponentName,
+                userId));
+        if (admin != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return admin;
+    }
+
+    /**
+     * Caches the admin component resolved for the given lookup, if a provisioning session is
+     * started.
+     */
+    synchronized void put(@Nullable String dpcPackageName,
+            @Nullable ComponentName dpcComponentName, int userId, ComponentName admin) {
+        if (!mSessionStarted) {
+            return;
+        }
+        mResolvedAdmins.put(new Key(dpcPackageName, dpcComponentName, userId), admin);
+    }
+
+    /**
+     * Removes all cached resolutions for the given package, in all users.
+     */
+    public synchronized void invalidatePackage(String packageName) {
+        Iterator<Key> keys = mResolvedAdmins.keySet().iterator();
+        while (keys.hasNext()) {
+            if (Objects.equals(keys.next().packageName, packageName)) {
+                keys.remove();
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void clearLocked() {
+        mResolvedAdmins.clear();
+        mHitCount = 0;
+        mMissCount = 0;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private static final class Key {
+        final String packageName;
+        final ComponentName componentName;
+        final int userId;
+
+        Key(String dpcPackageName, ComponentName dpcComponentName, int userId) {
+            // The package name is ignored when a component name is supplied.
+            this.packageName = dpcComponentName != null
+                    ? dpcComponentName.getPackageName() : dpcPackageName;
+            this.componentName = dpcComponentName;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return userId == that.userId
+                    && Objects.equals(packageName, that.packageName)
+                    && Objects.equals(componentName, that.componentName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(packageName, componentName, userId);
+        }
+    }
+}
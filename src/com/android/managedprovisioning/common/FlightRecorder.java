@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.annotation.Nullable;
+import android.text.format.DateFormat;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last log events of {@link ProvisionLogger} in memory, including the ones at levels
+ * that aren't printed, so that they can be dumped when provisioning fails.
+ *
+ * <p>Events are stored in preallocated slots, overwriting the oldest one. Only references to the
+ * format and arguments, or to the {@link java.util.function.Supplier} of the message, are kept;
+ * the message is built when the events are read, outside of the lock of the recorder. Arguments
+ * that aren't immutable values, e.g. a {@link android.content.Context}, are converted with
+ * {@link String#valueOf(Object)} when recorded, so that they neither show a later state nor are
+ * kept alive by the recorder. A Supplier is kept as is and sees the state at the time the events
+ * are read: it must only capture what may be kept alive that long, and read it from any thread.
+ * </p>
+ */
+public class FlightRecorder {
+    @VisibleForTesting
+    static final int CAPACITY = 256;
+
+    private static final String LEVELS = "??VDIWE";
+
+    @GuardedBy("this")
+    private final long[] mTimesMillis;
+    @GuardedBy("this")
+    private final int[] mLevels;
+    @GuardedBy("this")
+    private final String[] mThreadNames;
+    @GuardedBy("this")
+    private final String[] mFormats;
+    @GuardedBy("this")
+    private final int[] mArgCounts;
+    @GuardedBy("this")
+    private final Object[] mArgs1;
+    @GuardedBy("this")
+    private final Object[] mArgs2;
+    @GuardedBy("this")
+    private final Throwable[] mThrowables;
+
+    // Index of the next slot to write.
+    @GuardedBy("this")
+    private int mNext;
+    @GuardedBy("this")
+    private int mSize;
+
+    @VisibleForTesting
+    FlightRecorder(int capacity) {
+        mTimesMillis = new long[capacity];
+        mLevels = new int[capacity];
+        mThreadNames = new String[capacity];
+        mFormats = new String[capacity];
+        mArgCounts = new int[capacity];
+        mArgs1 = new Object[capacity];
+        mArgs2 = new Object[capacity];
+        mThrowables = new Throwable[capacity];
+    }
+
+    FlightRecorder() {
+        this(CAPACITY);
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param level the {@link android.util.Log} level of the event.
+     * @param format the message, or its format if {@code argCount > 0}.
+     * @param argCount how many of {@code arg1} and {@code arg2} are used by the format, or
+     * {@link ProvisionLogger#SUPPLIER} if {@code arg1} is the Supplier of the message.
+     */
+    synchronized void record(int level, @Nullable String format, int argCount, @Nullable Object arg1,
+            @Nullable Object arg2, @Nullable Throwable t) {
+        mTimesMillis[mNext] = System.currentTimeMillis();
+        mLevels[mNext] = level;
+        mThreadNames[mNext] = Thread.currentThread().getName();
+        mFormats[mNext] = format;
+        mArgCounts[mNext] = argCount;
+        mArgs1[mNext] = argCount == ProvisionLogger.SUPPLIER ? arg1 : toValue(arg1);
+        mArgs2[mNext] = toValue(arg2);
+        mThrowables[mNext] = t;
+        mNext = (mNext + 1) % mFormats.length;
+        mSize = Math.min(mSize + 1, mFormats.length);
+    }
+
+    /**
+     * Returns the recorded events, oldest first, one line each.
+     */
+    public List<String> getEvents() {
+        final Event[] snapshot;
+        synchronized (this) {
+            snapshot = new Event[mSize];
+            final int first = (mNext - mSize + mFormats.length) % mFormats.length;
+            for (int i = 0; i < mSize; i++) {
+                snapshot[i] = new Event((first + i) % mFormats.length);
+            }
+        }
+        // Messages are built without the lock, as Suppliers and toString() may log themselves.
+        final List<String> events = new ArrayList<>(snapshot.length);
+        for (Event event : snapshot) {
+            events.add(event.format());
+        }
+        return events;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        final List<String> events = getEvents();
+        pw.println(prefix + "Recent log events (" + events.size() + "):");
+        for (String event : events) {
+            pw.println(prefix + "  " + event);
+        }
+    }
+
+    /**
+     * Returns the argument itself if it is an immutable value, its string representation otherwise.
+     */
+    private static Object toValue(@Nullable Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+                || arg instanceof Float || arg instanceof Double || arg instanceof Boolean
+                || arg instanceof Character || arg instanceof Enum) {
+            return arg;
+        }
+        return String.valueOf(arg);
+    }
+
+    /**
+     * Copy of a slot, formatted once the lock is released.
+     */
+    private final class Event {
+        private final long mTimeMillis;
+        private final int mLevel;
+        private final String mThreadName;
+        private final String mFormat;
+        private final int mArgCount;
+        private final Object mArg1;
+        private final Object mArg2;
+        private final Throwable mThrowable;
+
+        @GuardedBy("FlightRecorder.this")
+        Event(int index) {
+            mTimeMillis = mTimesMillis[index];
+            mLevel = mLevels[index];
+            mThreadName = mThreadNames[index];
+            mFormat = mFormats[index];
+            mArgCount = mArgCounts[index];
+            mArg1 = mArgs1[index];
+            mArg2 = mArgs2[index];
+            mThrowable = mThrowables[index];
+        }
+
+        String format() {
+            final StringBuilder builder = new StringBuilder()
+                    .append(DateFormat.format("MM-dd HH:mm:ss", mTimeMillis))
+                    .append(' ').append(LEVELS.charAt(mLevel))
+                    .append(" [").append(mThreadName).append("] ")
+                    .append(ProvisionLogger.formatMessage(mFormat, mArgCount, mArg1, mArg2));
+            if (mThrowable != null) {
+                builder.append(": ").append(mThrowable);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.android.managedprovisioning.common;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.UserHandle;
 import android.support.annotation.VisibleForTesting;
 
 public class ManagedProvisioningSharedPreferences {
@@ -25,6 +26,9 @@ public class ManagedProvisioningSharedPreferences {
     @VisibleForTesting
     static final String KEY_PROVISIONING_ID = "provisioning_id";
 
+    @VisibleForTesting
+    static final String KEY_PRECREATED_PROFILE_USER_ID = "precreated_profile_user_id";
+
     @VisibleForTesting
     static final String SHARED_PREFERENCE = "managed_profile_shared_preferences";
 
@@ -57,4 +61,29 @@ public class ManagedProvisioningSharedPreferences {
             return provisioningId;
         }
     }
+
+    /**
+     * @return the id of the managed profile created before consent that wasn't adopted nor removed
+     * yet, or {@link UserHandle#USER_NULL}
+     */
+    public int getPrecreatedProfileUserId() {
+        return mSharedPreferences.getInt(KEY_PRECREATED_PROFILE_USER_ID, UserHandle.USER_NULL);
+    }
+
+    /**
+     * Records the id of the managed profile created before consent, or clears it if
+     * {@link UserHandle#USER_NULL} is given.
+     */
+    public void setPrecreatedProfileUserId(int userId) {
+        synchronized (sWriteLock) {
+            SharedPreferences.Editor editor = mSharedPreferences.edit();
+            if (userId == UserHandle.USER_NULL) {
+                editor.remove(KEY_PRECREATED_PROFILE_USER_ID);
+            } else {
+                editor.putInt(KEY_PRECREATED_PROFILE_USER_ID, userId);
+            }
+            // commit synchronously, the profile must not outlive a process death unrecorded
+            editor.commit();
+        }
+    }
 }
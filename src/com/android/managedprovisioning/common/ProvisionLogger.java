@@ -16,12 +16,29 @@
 
 package com.android.managedprovisioning.common;
 
+import android.annotation.Nullable;
 import android.content.Context;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.IllegalFormatException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
 /**
  * Utility class to centralize the logging in the Provisioning app.
+ *
+ * <p>Messages built from a {@link String} are always logged. The overloads taking a format and
+ * arguments, or a {@link Supplier}, only build the message if the level is loggable, see
+ * {@link #isLoggable(int)}, or when the recent events are read: use them where the message is
+ * costly to build, e.g. in loops.</p>
+ *
+ * <p>All the events, loggable or not, are also kept in a {@link FlightRecorder}, which is logged
+ * when provisioning fails and dumped by {@code dumpsys}, see {@link #dumpRecentEvents}.</p>
  */
 public class ProvisionLogger {
     private static final String TAG = "ManagedProvisioning";
@@ -30,152 +47,336 @@ public class ProvisionLogger {
     // Never commit this as true.
     public static final boolean IS_DEBUG_BUILD = false;
 
+    // Argument count of the events whose message is built by the Supplier in the first argument.
+    static final int SUPPLIER = -1;
+
+    private static final FlightRecorder sFlightRecorder = new FlightRecorder();
+
+    // Whether messages are printed to logcat, only turned off by benchmarks.
+    private static volatile boolean sPrintEnabled = true;
+
+    // Tags of the call sites, only used if IS_DEBUG_BUILD.
+    private static final Map<StackTraceElement, String> sTags = new ConcurrentHashMap<>();
+
     /**
      * Log the message at DEBUG level.
      */
     public static void logd(String message) {
-        if (LOG_ENABLED) {
-            Log.d(getTag(), message);
-        }
+        log(Log.DEBUG, message, null);
     }
 
     /**
      * Log the message at DEBUG level.
      */
     public static void logd(String message, Throwable t) {
-        if (LOG_ENABLED) {
-            Log.d(getTag(), message, t);
-        }
+        log(Log.DEBUG, message, t);
     }
 
     /**
      * Log the message at DEBUG level.
      */
     public static void logd(Throwable t) {
-        if (LOG_ENABLED) {
-            Log.d(getTag(), "", t);
-        }
+        log(Log.DEBUG, "", t);
+    }
+
+    /**
+     * Log the message at DEBUG level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logd(String format, Object arg) {
+        log(Log.DEBUG, format, 1, arg, null);
+    }
+
+    /**
+     * Log the message at DEBUG level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logd(String format, Object arg1, Object arg2) {
+        log(Log.DEBUG, format, 2, arg1, arg2);
+    }
+
+    /**
+     * Log the message at DEBUG level, built only if the level is loggable or when the
+     * recent events are read.
+     */
+    public static void logd(Supplier<String> message) {
+        log(Log.DEBUG, message);
     }
 
     /**
      * Log the message at VERBOSE level.
      */
     public static void logv(String message) {
-        if (LOG_ENABLED) {
-            Log.v(getTag(), message);
-        }
+        log(Log.VERBOSE, message, null);
     }
 
     /**
      * Log the message at VERBOSE level.
      */
     public static void logv(String message, Throwable t) {
-        if (LOG_ENABLED) {
-            Log.v(getTag(), message, t);
-        }
+        log(Log.VERBOSE, message, t);
     }
 
     /**
      * Log the message at VERBOSE level.
      */
     public static void logv(Throwable t) {
-        if (LOG_ENABLED) {
-            Log.v(getTag(), "", t);
-        }
+        log(Log.VERBOSE, "", t);
+    }
+
+    /**
+     * Log the message at VERBOSE level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logv(String format, Object arg) {
+        log(Log.VERBOSE, format, 1, arg, null);
+    }
+
+    /**
+     * Log the message at VERBOSE level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logv(String format, Object arg1, Object arg2) {
+        log(Log.VERBOSE, format, 2, arg1, arg2);
+    }
+
+    /**
+     * Log the message at VERBOSE level, built only if the level is loggable or when the
+     * recent events are read.
+     */
+    public static void logv(Supplier<String> message) {
+        log(Log.VERBOSE, message);
     }
 
     /**
      * Log the message at INFO level.
      */
     public static void logi(String message) {
-        if (LOG_ENABLED) {
-            Log.i(getTag(), message);
-        }
+        log(Log.INFO, message, null);
     }
 
     /**
      * Log the message at INFO level.
      */
     public static void logi(String message, Throwable t) {
-        if (LOG_ENABLED) {
-            Log.i(getTag(), message, t);
-        }
+        log(Log.INFO, message, t);
     }
 
     /**
      * Log the message at INFO level.
      */
     public static void logi(Throwable t) {
-        if (LOG_ENABLED) {
-            Log.i(getTag(), "", t);
-        }
+        log(Log.INFO, "", t);
+    }
+
+    /**
+     * Log the message at INFO level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logi(String format, Object arg) {
+        log(Log.INFO, format, 1, arg, null);
+    }
+
+    /**
+     * Log the message at INFO level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logi(String format, Object arg1, Object arg2) {
+        log(Log.INFO, format, 2, arg1, arg2);
+    }
+
+    /**
+     * Log the message at INFO level, built only if the level is loggable or when the
+     * recent events are read.
+     */
+    public static void logi(Supplier<String> message) {
+        log(Log.INFO, message);
     }
 
     /**
      * Log the message at WARNING level.
      */
     public static void logw(String message) {
-        if (LOG_ENABLED) {
-            Log.w(getTag(), message);
-        }
+        log(Log.WARN, message, null);
     }
 
     /**
      * Log the message at WARNING level.
      */
     public static void logw(String message, Throwable t) {
-        if (LOG_ENABLED) {
-            Log.w(getTag(), message, t);
-        }
+        log(Log.WARN, message, t);
     }
 
     /**
      * Log the message at WARNING level.
      */
     public static void logw(Throwable t) {
-        if (LOG_ENABLED) {
-            Log.w(getTag(), "", t);
-        }
+        log(Log.WARN, "", t);
+    }
+
+    /**
+     * Log the message at WARNING level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logw(String format, Object arg) {
+        log(Log.WARN, format, 1, arg, null);
+    }
+
+    /**
+     * Log the message at WARNING level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void logw(String format, Object arg1, Object arg2) {
+        log(Log.WARN, format, 2, arg1, arg2);
+    }
+
+    /**
+     * Log the message at WARNING level, built only if the level is loggable or when the
+     * recent events are read.
+     */
+    public static void logw(Supplier<String> message) {
+        log(Log.WARN, message);
     }
 
     /**
      * Log the message at ERROR level.
      */
     public static void loge(String message) {
-        if (LOG_ENABLED) {
-            Log.e(getTag(), message);
-        }
+        log(Log.ERROR, message, null);
     }
 
     /**
      * Log the message at ERROR level.
      */
     public static void loge(String message, Throwable t) {
-        if (LOG_ENABLED) {
-            Log.e(getTag(), message, t);
-        }
+        log(Log.ERROR, message, t);
     }
 
     /**
      * Log the message at ERROR level.
      */
     public static void loge(Throwable t) {
+        log(Log.ERROR, "", t);
+    }
+
+    /**
+     * Log the message at ERROR level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void loge(String format, Object arg) {
+        log(Log.ERROR, format, 1, arg, null);
+    }
+
+    /**
+     * Log the message at ERROR level, formatted with {@link String#format} only if the level is
+     * loggable.
+     */
+    public static void loge(String format, Object arg1, Object arg2) {
+        log(Log.ERROR, format, 2, arg1, arg2);
+    }
+
+    /**
+     * Log the message at ERROR level, built only if the level is loggable or when the
+     * recent events are read.
+     */
+    public static void loge(Supplier<String> message) {
+        log(Log.ERROR, message);
+    }
+
+    /**
+     * Returns whether messages at the given {@link Log} level are logged. Levels below INFO are
+     * only logged if enabled with {@code adb shell setprop log.tag.ManagedProvisioning <level>}.
+     */
+    public static boolean isLoggable(int level) {
+        return LOG_ENABLED && (IS_DEBUG_BUILD || Log.isLoggable(TAG, level));
+    }
+
+    /**
+     * Sets whether messages are printed to logcat. They are still recorded.
+     */
+    @VisibleForTesting
+    static void setPrintEnabled(boolean enabled) {
+        sPrintEnabled = enabled;
+    }
+
+    /**
+     * Prints the last log events.
+     */
+    public static void dumpRecentEvents(PrintWriter pw, String prefix) {
+        sFlightRecorder.dump(pw, prefix);
+    }
+
+    /**
+     * Logs the last log events, e.g. when provisioning fails.
+     */
+    public static void logRecentEvents() {
         if (LOG_ENABLED) {
-            Log.e(getTag(), "", t);
+            for (String event : sFlightRecorder.getEvents()) {
+                Log.i(TAG, "Recent: " + event);
+            }
+        }
+    }
+
+    private static void log(int level, String message, @Nullable Throwable t) {
+        sFlightRecorder.record(level, message, 0, null, null, t);
+        if (LOG_ENABLED && sPrintEnabled) {
+            Log.println(level, getTag(), t == null ? message : message + '\n'
+                    + Log.getStackTraceString(t));
+        }
+    }
+
+    private static void log(int level, Supplier<String> message) {
+        if (isLoggable(level)) {
+            log(level, message.get(), null);
+        } else {
+            sFlightRecorder.record(level, null, SUPPLIER, message, null, null);
+        }
+    }
+
+    private static void log(int level, String format, int argCount, Object arg1, Object arg2) {
+        sFlightRecorder.record(level, format, argCount, arg1, arg2, null);
+        if (sPrintEnabled && isLoggable(level)) {
+            Log.println(level, getTag(), formatMessage(format, argCount, arg1, arg2));
+        }
+    }
+
+    /**
+     * Builds a message from a format and {@code argCount} arguments, or from the {@link Supplier}
+     * in {@code arg1} if {@code argCount} is {@link #SUPPLIER}.
+     */
+    static String formatMessage(String format, int argCount, Object arg1, Object arg2) {
+        if (argCount == SUPPLIER) {
+            try {
+                return String.valueOf(((Supplier<?>) arg1).get());
+            } catch (RuntimeException e) {
+                return "Couldn't build the message: " + e;
+            }
+        }
+        try {
+            switch (argCount) {
+                case 0:
+                    return format;
+                case 1:
+                    return String.format(format, arg1);
+                default:
+                    return String.format(format, arg1, arg2);
+            }
+        } catch (IllegalFormatException e) {
+            return format + " " + arg1 + (argCount > 1 ? " " + arg2 : "");
         }
     }
 
     /**
-     * Walks the stack trace to figure out where the logging call came from.
+     * Walks the stack trace to figure out where the logging call came from. The tag of each call
+     * site is cached.
      */
+    @VisibleForTesting
     static String getTag() {
         if (IS_DEBUG_BUILD) {
             String className = ProvisionLogger.class.getName();
 
-            StackTraceElement[] trace = Thread.currentThread().getStackTrace();
-            if (trace == null) {
-                return TAG;
-            }
+            // Cheaper than Thread.getStackTrace(), which also walks the frames of the VM.
+            StackTraceElement[] trace = new Throwable().getStackTrace();
 
             boolean thisClassFound = false;
             for (StackTraceElement item : trace) {
@@ -189,9 +390,9 @@ public class ProvisionLogger {
                 if (thisClassFound) {
                     // This is the first instance of another class, which is most
                     // likely the caller class.
-                    return TAG + String.format(
-                            "[%s(%s): %s]", item.getFileName(), item.getLineNumber(),
-                            item.getMethodName());
+                    return sTags.computeIfAbsent(item, site -> TAG + String.format(
+                            "[%s(%s): %s]", site.getFileName(), site.getLineNumber(),
+                            site.getMethodName()));
                 }
             }
         }
@@ -48,6 +48,7 @@ import android.content.pm.UserInfo;
 import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
 import android.os.Build;
@@ -62,6 +63,7 @@ import android.text.TextUtils;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.TrampolineActivity;
+import com.android.managedprovisioning.analytics.MetricsEventQueue;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 
 import java.io.FileInputStream;
@@ -69,8 +71,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -83,7 +88,23 @@ public class Utils {
     // value chosen to match UX designs; when updating check status bar icon colors
     private static final int THRESHOLD_BRIGHT_COLOR = 190;
 
-    public Utils() {}
+    private final DeviceAdminResolutionCache mDeviceAdminResolutionCache;
+    private final ConnectedNetworkState mConnectedNetworkState;
+    private final MetricsEventQueue mMetricsEventQueue;
+
+    public Utils() {
+        this(DeviceAdminResolutionCache.getInstance(), ConnectedNetworkState.getInstance(),
+                MetricsEventQueue.getInstance());
+    }
+
+    @VisibleForTesting
+    Utils(DeviceAdminResolutionCache deviceAdminResolutionCache,
+            ConnectedNetworkState connectedNetworkState,
+            MetricsEventQueue metricsEventQueue) {
+        mDeviceAdminResolutionCache = deviceAdminResolutionCache;
+        mConnectedNetworkState = connectedNetworkState;
+        mMetricsEventQueue = metricsEventQueue;
+    }
 
     /**
      * Returns the system apps currently available to a given user.
@@ -139,26 +160,75 @@ public class Utils {
                 userId);
     }
 
+    /**
+     * Applies several component enabled state changes in a given user.
+     *
+     * <p>Changes to the same component are collapsed so that only the last one is applied, and
+     * every change uses {@link PackageManager#DONT_KILL_APP} so that the package manager can
+     * coalesce the resulting package-changed broadcasts.
+     *
+     * @param changes the changes that should be applied, in order
+     * @param userId the id of the user where the changes should be applied
+     * @return the components whose enabled state couldn't be changed
+     */
+    public List<ComponentName> setComponentsEnabledSetting(List<ComponentStateChange> changes,
+            int userId) {
+        return setComponentsEnabledSetting(
+                IPackageManager.Stub.asInterface(ServiceManager.getService("package")),
+                changes,
+                userId);
+    }
+
+    /**
+     * Applies several component enabled state changes in a given user, see
+     * {@link #setComponentsEnabledSetting(List, int)}.
+     *
+     * @param ipm an {@link IPackageManager} object
+     */
+    public List<ComponentName> setComponentsEnabledSetting(IPackageManager ipm,
+            List<ComponentStateChange> changes, int userId) {
+        Map<ComponentName, Integer> settings = new LinkedHashMap<>();
+        for (ComponentStateChange change : changes) {
+            // Remove first, so that the component is moved to the position of its last change.
+            settings.remove(change.component);
+            settings.put(change.component, change.enabledSetting);
+        }
+        List<ComponentName> failures = new ArrayList<>();
+        for (Map.Entry<ComponentName, Integer> setting : settings.entrySet()) {
+            if (!setComponentEnabledSetting(ipm, setting.getKey(), setting.getValue(), userId)) {
+                failures.add(setting.getKey());
+            }
+        }
+        if (!failures.isEmpty()) {
+            ProvisionLogger.logw("Failed to change enabled setting of " + failures.size()
+                    + " out of " + settings.size() + " components");
+        }
+        return failures;
+    }
+
     /**
      * Disables a given component in a given user.
      *
      * @param ipm an {@link IPackageManager} object
      * @param toDisable the component that should be disabled
      * @param userId the id of the user where the component should be disabled.
+     * @return whether the enabled setting was changed
      */
     @VisibleForTesting
-    void setComponentEnabledSetting(IPackageManager ipm, ComponentName toDisable,
+    boolean setComponentEnabledSetting(IPackageManager ipm, ComponentName toDisable,
             int enabledSetting, int userId) {
         try {
             ipm.setComponentEnabledSetting(toDisable,
                     enabledSetting, PackageManager.DONT_KILL_APP,
                     userId);
+            return true;
         } catch (RemoteException neverThrown) {
             ProvisionLogger.loge("This should not happen.", neverThrown);
         } catch (Exception e) {
             ProvisionLogger.logw("Component not found, not changing enabled setting: "
                 + toDisable.toShortString());
         }
+        return false;
     }
 
     /**
@@ -174,10 +244,32 @@ public class Utils {
      * Otherwise: dpcPackageName must be supplied (not null).
      * Check that this package is installed, try to infer a potential device admin in this package,
      * and return it.
+     *
+     * Successful lookups are cached in {@link DeviceAdminResolutionCache} for the rest of the
+     * provisioning session, see {@link #findDeviceAdminUncached} otherwise.
      */
     @NonNull
     public ComponentName findDeviceAdmin(String dpcPackageName, ComponentName dpcComponentName,
             Context context, int userId) throws IllegalProvisioningArgumentException {
+        final ComponentName cachedComponentName =
+                mDeviceAdminResolutionCache.get(dpcPackageName, dpcComponentName, userId);
+        if (cachedComponentName != null) {
+            return cachedComponentName;
+        }
+        final ComponentName componentName = findDeviceAdminUncached(dpcPackageName,
+                dpcComponentName, context, userId);
+        mDeviceAdminResolutionCache.put(dpcPackageName, dpcComponentName, userId, componentName);
+        return componentName;
+    }
+
+    /**
+     * Same as {@link #findDeviceAdmin}, but always checks the admin that is currently installed,
+     * e.g. to validate a provisioning request before a provisioning session starts.
+     */
+    @NonNull
+    public ComponentName findDeviceAdminUncached(String dpcPackageName,
+            ComponentName dpcComponentName, Context context, int userId)
+            throws IllegalProvisioningArgumentException {
         if (dpcComponentName != null) {
             dpcPackageName = dpcComponentName.getPackageName();
         }
@@ -486,7 +578,9 @@ public class Utils {
         intent.setPackage("android");
         intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
         intent.putExtra(Intent.EXTRA_REASON, reason);
-        context.sendBroadcast(intent);
+        // Sent once the queued metrics are written, as the reset kills the process. The UI
+        // thread doesn't wait for them.
+        mMetricsEventQueue.flush(() -> context.sendBroadcast(intent));
     }
 
     /**
@@ -509,16 +603,28 @@ public class Utils {
 
     /**
      * Returns whether the device currently has connectivity.
+     *
+     * <p>A connected network reported to {@link ConnectedNetworkState} counts as connected without
+     * querying the active network.
      */
     public boolean isConnectedToNetwork(Context context) {
+        if (mConnectedNetworkState.hasConnectedNetwork()) {
+            return true;
+        }
         NetworkInfo info = getActiveNetworkInfo(context);
         return info != null && info.isConnected();
     }
 
     /**
      * Returns whether the device is currently connected to a wifi.
+     *
+     * <p>A connected wifi network reported to {@link ConnectedNetworkState} counts as connected
+     * without querying the active network.
      */
     public boolean isConnectedToWifi(Context context) {
+        if (mConnectedNetworkState.hasConnectedNetwork(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return true;
+        }
         NetworkInfo info = getActiveNetworkInfo(context);
         return info != null
                 && info.isConnected()
@@ -29,9 +29,12 @@ import android.os.UserHandle;
 import android.support.annotation.Nullable;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.AccountMigrationTracker;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.Utils;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Class that acts as the final receiver of the intent ACTION_PROFILE_PROVISIONING_COMPLETE
  * which is broadcasted using
@@ -39,26 +42,32 @@ import com.android.managedprovisioning.common.Utils;
  * after profile owner or device owner provisioning is completed.
  */
 public class DpcReceivedSuccessReceiver extends BroadcastReceiver {
+    // Longer than the copy itself may take, see CopyAccountToUserTask.
+    private static final long ACCOUNT_MIGRATION_WAIT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(4);
 
     private final Account mMigratedAccount;
     private final String mMdmPackageName;
     private final boolean mKeepAccountMigrated;
     private final Utils mUtils;
     private final UserHandle mManagedUserHandle;
+    private final AccountMigrationTracker mAccountMigrationTracker;
 
     public DpcReceivedSuccessReceiver(@Nullable Account migratedAccount,
             boolean keepAccountMigrated, UserHandle managedUserHandle, String mdmPackageName) {
-        this(migratedAccount, keepAccountMigrated, managedUserHandle, mdmPackageName, new Utils());
+        this(migratedAccount, keepAccountMigrated, managedUserHandle, mdmPackageName, new Utils(),
+                AccountMigrationTracker.getInstance());
     }
 
     @VisibleForTesting
     DpcReceivedSuccessReceiver(Account migratedAccount, boolean keepAccountMigrated,
-        UserHandle managedUserHandle, String mdmPackageName, Utils utils) {
+        UserHandle managedUserHandle, String mdmPackageName, Utils utils,
+        AccountMigrationTracker accountMigrationTracker) {
         mMigratedAccount = migratedAccount;
         mKeepAccountMigrated = keepAccountMigrated;
         mMdmPackageName = checkNotNull(mdmPackageName);
         mManagedUserHandle = checkNotNull(managedUserHandle);
         mUtils = checkNotNull(utils);
+        mAccountMigrationTracker = checkNotNull(accountMigrationTracker);
     }
 
     @Override
@@ -76,7 +85,6 @@ public class DpcReceivedSuccessReceiver extends BroadcastReceiver {
             primaryProfileSuccessIntent.putExtra(EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE,
                     mMigratedAccount);
             finishAccountMigration(context, primaryProfileSuccessIntent);
-            // Note that we currently do not check if account migration worked
         } else {
             context.sendBroadcast(primaryProfileSuccessIntent);
         }
@@ -84,15 +92,40 @@ public class DpcReceivedSuccessReceiver extends BroadcastReceiver {
 
     private void finishAccountMigration(final Context context,
             final Intent primaryProfileSuccessIntent) {
+        // Not using the serial executor, as this may wait for the account copy.
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
                 if (!mKeepAccountMigrated) {
-                    mUtils.removeAccount(context, mMigratedAccount);
+                    if (didAccountCopyFail()) {
+                        ProvisionLogger.logw("Account wasn't copied to the managed profile, "
+                                + "keeping it on the primary user");
+                    } else {
+                        mUtils.removeAccount(context, mMigratedAccount);
+                    }
                 }
                 context.sendBroadcast(primaryProfileSuccessIntent);
                 return null;
             }
-        }.execute();
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Waits for the copy of the account to the managed profile, if it is still running.
+     *
+     * @return whether the copy is known to have failed or not to have finished in time.
+     */
+    private boolean didAccountCopyFail() {
+        final Boolean copied;
+        try {
+            copied = mAccountMigrationTracker.waitForResult(mManagedUserHandle.getIdentifier(),
+                    ACCOUNT_MIGRATION_WAIT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            ProvisionLogger.loge("Interrupted while waiting for the account migration", e);
+            return true;
+        }
+        // The copy wasn't started in this process, e.g. when provisioning is finalized at the end
+        // of setup wizard. Its result isn't known, so assume it worked, as before.
+        return copied != null && !copied;
     }
 }
@@ -72,6 +72,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -94,6 +97,7 @@ public final class ProvisioningParams extends PersistableBundlable {
     private static final String TAG_PROVISIONING_ID = "provisioning-id";
     private static final String TAG_PROVISIONING_PARAMS = "provisioning-params";
     private static final String TAG_WIFI_INFO = "wifi-info";
+    private static final String TAG_FALLBACK_WIFI_INFOS = "fallback-wifi-infos";
     private static final String TAG_PACKAGE_DOWNLOAD_INFO = "download-info";
     private static final String TAG_STARTED_BY_TRUSTED_SOURCE = "started-by-trusted-source";
     private static final String TAG_IS_NFC = "started-is-nfc";
@@ -126,6 +130,11 @@ public final class ProvisioningParams extends PersistableBundlable {
     @Nullable
     public final WifiInfo wifiInfo;
 
+    /**
+     * WiFi configurations to try if {@link #wifiInfo} can't be connected to. Never {@code null}.
+     */
+    public final List<WifiInfo> fallbackWifiInfos;
+
     public final boolean useMobileData;
 
     /**
@@ -220,6 +229,20 @@ public final class ProvisioningParams extends PersistableBundlable {
         return deviceAdminPackageName;
     }
 
+    /**
+     * Returns {@link #wifiInfo} followed by {@link #fallbackWifiInfos}, or an empty list if no
+     * WiFi configuration was provided.
+     */
+    public List<WifiInfo> getWifiInfoCandidates() {
+        if (wifiInfo == null) {
+            return Collections.emptyList();
+        }
+        List<WifiInfo> candidates = new ArrayList<>(fallbackWifiInfos.size() + 1);
+        candidates.add(wifiInfo);
+        candidates.addAll(fallbackWifiInfos);
+        return candidates;
+    }
+
     public String inferDeviceAdminPackageName() {
         return inferStaticDeviceAdminPackageName(deviceAdminComponentName, deviceAdminPackageName);
     }
@@ -249,6 +272,8 @@ public final class ProvisioningParams extends PersistableBundlable {
         locale = builder.mLocale;
 
         wifiInfo = builder.mWifiInfo;
+        fallbackWifiInfos = Collections.unmodifiableList(
+                new ArrayList<>(builder.mFallbackWifiInfos));
         useMobileData = builder.mUseMobileData;
 
         deviceAdminComponentName = builder.mDeviceAdminComponentName;
@@ -295,6 +320,10 @@ public final class ProvisioningParams extends PersistableBundlable {
         bundle.putLong(EXTRA_PROVISIONING_LOCAL_TIME, localTime);
         bundle.putString(EXTRA_PROVISIONING_LOCALE, StoreUtils.localeToString(locale));
         putPersistableBundlableIfNotNull(bundle, TAG_WIFI_INFO, wifiInfo);
+        if (!fallbackWifiInfos.isEmpty()) {
+            bundle.putPersistableBundle(TAG_FALLBACK_WIFI_INFOS,
+                    wifiInfosToPersistableBundle(fallbackWifiInfos));
+        }
         bundle.putBoolean(EXTRA_PROVISIONING_USE_MOBILE_DATA, useMobileData);
         bundle.putString(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME, deviceAdminPackageName);
         bundle.putString(EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME,
@@ -337,6 +366,8 @@ public final class ProvisioningParams extends PersistableBundlable {
         builder.setUseMobileData(bundle.getBoolean(EXTRA_PROVISIONING_USE_MOBILE_DATA));
         builder.setWifiInfo(getObjectAttrFromPersistableBundle(bundle,
                 TAG_WIFI_INFO, WifiInfo::fromPersistableBundle));
+        builder.setFallbackWifiInfos(getObjectAttrFromPersistableBundle(bundle,
+                TAG_FALLBACK_WIFI_INFOS, ProvisioningParams::persistableBundleToWifiInfos));
         builder.setDeviceAdminPackageName(bundle.getString(
                 EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME));
         builder.setDeviceAdminComponentName(getStringAttrFromPersistableBundle(bundle,
@@ -370,6 +401,25 @@ public final class ProvisioningParams extends PersistableBundlable {
         return builder;
     }
 
+    private static PersistableBundle wifiInfosToPersistableBundle(List<WifiInfo> wifiInfos) {
+        PersistableBundle bundle = new PersistableBundle();
+        for (int i = 0; i < wifiInfos.size(); i++) {
+            bundle.putPersistableBundle(Integer.toString(i),
+                    wifiInfos.get(i).toPersistableBundle());
+        }
+        return bundle;
+    }
+
+    private static List<WifiInfo> persistableBundleToWifiInfos(PersistableBundle bundle) {
+        List<WifiInfo> wifiInfos = new ArrayList<>();
+        PersistableBundle wifiInfoBundle;
+        while ((wifiInfoBundle = bundle.getPersistableBundle(
+                Integer.toString(wifiInfos.size()))) != null) {
+            wifiInfos.add(WifiInfo.fromPersistableBundle(wifiInfoBundle));
+        }
+        return wifiInfos;
+    }
+
     @Override
     public String toString() {
         return "ProvisioningParams values: " + toPersistableBundle().toString();
@@ -456,6 +506,7 @@ public final class ProvisioningParams extends PersistableBundlable {
         private long mLocalTime = DEFAULT_LOCAL_TIME;
         private Locale mLocale;
         private WifiInfo mWifiInfo;
+        private List<WifiInfo> mFallbackWifiInfos = Collections.emptyList();
         private String mDeviceAdminPackageName;
         private ComponentName mDeviceAdminComponentName;
         private String mDeviceAdminLabel;
@@ -502,6 +553,12 @@ public final class ProvisioningParams extends PersistableBundlable {
             return this;
         }
 
+        public Builder setFallbackWifiInfos(List<WifiInfo> fallbackWifiInfos) {
+            mFallbackWifiInfos = fallbackWifiInfos != null
+                    ? fallbackWifiInfos : Collections.emptyList();
+            return this;
+        }
+
         @Deprecated
         public Builder setDeviceAdminPackageName(String deviceAdminPackageName) {
             mDeviceAdminPackageName = deviceAdminPackageName;
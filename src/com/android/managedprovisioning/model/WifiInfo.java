@@ -48,6 +48,8 @@ import org.xmlpull.v1.XmlSerializer;
 public final class WifiInfo extends PersistableBundlable {
     public static final boolean DEFAULT_WIFI_HIDDEN = false;
     public static final int DEFAULT_WIFI_PROXY_PORT = 0;
+    /** Maximum number of fallback networks read from the provisioning data. */
+    public static final int MAX_FALLBACK_WIFI_INFOS = 8;
 
     public static final Parcelable.Creator<WifiInfo> CREATOR
             = new Parcelable.Creator<WifiInfo>() {
@@ -98,6 +100,16 @@ public final class WifiInfo extends PersistableBundlable {
         return bundle;
     }
 
+    /**
+     * Returns the key of a wifi provisioning extra for the network with the given index. Index 0
+     * is the network given by the plain keys; fallback networks use the keys suffixed with their
+     * index, e.g. {@code android.app.extra.PROVISIONING_WIFI_SSID.1} for the SSID of the first
+     * fallback network.
+     */
+    public static String getIndexedKey(String key, int index) {
+        return index == 0 ? key : key + "." + index;
+    }
+
     /* package */ static WifiInfo fromPersistableBundle(PersistableBundle bundle) {
         return createBuilderFromPersistableBundle(bundle).build();
     }
@@ -30,6 +30,9 @@ import android.os.UserHandle;
 import android.os.UserManager;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.analytics.ChromeTraceExporter;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.CrossProfileIntentFiltersSetter;
@@ -50,20 +53,24 @@ public class OtaController {
     private final Context mContext;
     private final TaskExecutor mTaskExecutor;
     private final CrossProfileIntentFiltersSetter mCrossProfileIntentFiltersSetter;
+    private final ChromeTraceExporter mTraceExporter;
 
     private final UserManager mUserManager;
     private final DevicePolicyManager mDevicePolicyManager;
 
     public OtaController(Context context) {
-        this(context, new TaskExecutor(), new CrossProfileIntentFiltersSetter(context));
+        this(context, new TaskExecutor(), new CrossProfileIntentFiltersSetter(context),
+                new ChromeTraceExporter(context, ChromeTraceExporter.OTA_TRACE_FILE_NAME));
     }
 
     @VisibleForTesting
     OtaController(Context context, TaskExecutor taskExecutor,
-            CrossProfileIntentFiltersSetter crossProfileIntentFiltersSetter) {
+            CrossProfileIntentFiltersSetter crossProfileIntentFiltersSetter,
+            ChromeTraceExporter traceExporter) {
         mContext = checkNotNull(context);
         mTaskExecutor = checkNotNull(taskExecutor);
         mCrossProfileIntentFiltersSetter = checkNotNull(crossProfileIntentFiltersSetter);
+        mTraceExporter = checkNotNull(traceExporter);
 
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         mDevicePolicyManager = (DevicePolicyManager) context.getSystemService(
@@ -74,6 +81,19 @@ public class OtaController {
         if (mContext.getUserId() != UserHandle.USER_SYSTEM) {
             return;
         }
+        final TraceSpan span = ProvisioningTracer.getInstance().beginSpan(
+                OtaController.class.getSimpleName(), ProvisioningTracer.NO_PROVISIONING_ID);
+        mTaskExecutor.setParentSpan(span);
+        try {
+            runTasks();
+        } finally {
+            mTaskExecutor.setParentSpan(null);
+            span.end();
+            mTraceExporter.exportToFile(span);
+        }
+    }
+
+    private void runTasks() {
         // Migrate snapshot files to use user serial number as file name.
         mTaskExecutor.execute(
                 UserHandle.USER_SYSTEM, new MigrateSystemAppsSnapshotTask(mContext, mTaskExecutor));
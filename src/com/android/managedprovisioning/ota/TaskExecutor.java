@@ -16,25 +16,68 @@
 
 package com.android.managedprovisioning.ota;
 
+import android.annotation.Nullable;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 
+import java.util.Map;
+
 /**
  * Class that executes the provisioning tasks during the OTA process.
+ *
+ * <p>Each task is traced by a {@link TraceSpan}, nested in the span given to
+ * {@link #setParentSpan(TraceSpan)}.</p>
  */
 public class TaskExecutor implements AbstractProvisioningTask.Callback {
 
+    @GuardedBy("this")
+    private final Map<AbstractProvisioningTask, TraceSpan> mTaskSpans = new ArrayMap<>();
+    @GuardedBy("this")
+    private TraceSpan mParentSpan;
+
+    /**
+     * Sets the span that the spans of the tasks executed afterwards are nested in.
+     */
+    public synchronized void setParentSpan(@Nullable TraceSpan parentSpan) {
+        mParentSpan = parentSpan;
+    }
+
     public synchronized void execute(int userId, AbstractProvisioningTask task) {
+        final String name = task.getClass().getSimpleName();
+        final TraceSpan span = (mParentSpan != null
+                ? mParentSpan.beginChild(name)
+                : ProvisioningTracer.getInstance().beginSpan(name,
+                        ProvisioningTracer.NO_PROVISIONING_ID))
+                .setAttribute("userId", userId);
+        mTaskSpans.put(task, span);
+        task.setTraceSpan(span);
         task.run(userId);
     }
 
     @Override
     public void onSuccess(AbstractProvisioningTask task) {
         ProvisionLogger.logd("Task ran successfully: " + task.getClass().getSimpleName());
+        endTaskSpan(task, "success");
     }
 
     @Override
     public void onError(AbstractProvisioningTask task, int errorMsg) {
         ProvisionLogger.logd("Error running task: " + task.getClass().getSimpleName());
+        endTaskSpan(task, "error");
+    }
+
+    private void endTaskSpan(AbstractProvisioningTask task, String result) {
+        final TraceSpan span;
+        synchronized (this) {
+            span = mTaskSpans.remove(task);
+        }
+        if (span != null) {
+            span.setAttribute("result", result).end();
+        }
     }
 }
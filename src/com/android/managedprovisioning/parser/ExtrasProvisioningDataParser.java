@@ -60,6 +60,7 @@ import static com.android.managedprovisioning.common.Globals.ACTION_RESUME_PROVI
 import static com.android.managedprovisioning.model.ProvisioningParams
         .DEFAULT_EXTRA_PROVISIONING_USE_MOBILE_DATA;
 import static com.android.managedprovisioning.model.ProvisioningParams.inferStaticDeviceAdminPackageName;
+import static com.android.managedprovisioning.model.WifiInfo.getIndexedKey;
 
 import android.app.admin.DevicePolicyManager;
 import android.content.ComponentName;
@@ -81,10 +82,12 @@ import com.android.managedprovisioning.model.DisclaimersParam;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.IllformedLocaleException;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -189,8 +192,8 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
                 deviceAdminPackageName = intent.getStringExtra(
                         EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME);
                 // For profile owner, the device admin package should be installed. Verify the
-                // device admin package.
-                deviceAdminComponentName = mUtils.findDeviceAdmin(
+                // device admin package, as currently installed.
+                deviceAdminComponentName = mUtils.findDeviceAdminUncached(
                         deviceAdminPackageName,
                         deviceAdminComponentName,
                         context,
@@ -311,6 +314,7 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
                             DEFAULT_EXTRA_PROVISIONING_USE_MOBILE_DATA))
                     // Parse WiFi configuration.
                     .setWifiInfo(parseWifiInfoFromExtras(intent))
+                    .setFallbackWifiInfos(parseFallbackWifiInfosFromExtras(intent))
                     // Parse device admin package download info.
                     .setDeviceAdminDownloadInfo(parsePackageDownloadInfoFromExtras(intent))
                     // Cases where startedByTrustedSource can be true are
@@ -335,19 +339,45 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
      */
     @Nullable
     private WifiInfo parseWifiInfoFromExtras(Intent intent) {
-        if (intent.getStringExtra(EXTRA_PROVISIONING_WIFI_SSID) == null) {
+        return parseWifiInfoFromExtras(intent, 0);
+    }
+
+    /**
+     * Parses the fallback Wifi configurations from an Intent. They are given with the keys of
+     * {@link WifiInfo#getIndexedKey(String, int)}, starting at index 1.
+     */
+    private List<WifiInfo> parseFallbackWifiInfosFromExtras(Intent intent) {
+        List<WifiInfo> wifiInfos = new ArrayList<>();
+        WifiInfo wifiInfo;
+        while (wifiInfos.size() < WifiInfo.MAX_FALLBACK_WIFI_INFOS
+                && (wifiInfo = parseWifiInfoFromExtras(intent, wifiInfos.size() + 1)) != null) {
+            wifiInfos.add(wifiInfo);
+        }
+        return wifiInfos;
+    }
+
+    @Nullable
+    private WifiInfo parseWifiInfoFromExtras(Intent intent, int index) {
+        if (intent.getStringExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, index)) == null) {
             return null;
         }
         return WifiInfo.Builder.builder()
-                .setSsid(intent.getStringExtra(EXTRA_PROVISIONING_WIFI_SSID))
-                .setSecurityType(intent.getStringExtra(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE))
-                .setPassword(intent.getStringExtra(EXTRA_PROVISIONING_WIFI_PASSWORD))
-                .setProxyHost(intent.getStringExtra(EXTRA_PROVISIONING_WIFI_PROXY_HOST))
-                .setProxyBypassHosts(intent.getStringExtra(EXTRA_PROVISIONING_WIFI_PROXY_BYPASS))
-                .setPacUrl(intent.getStringExtra(EXTRA_PROVISIONING_WIFI_PAC_URL))
-                .setProxyPort(intent.getIntExtra(EXTRA_PROVISIONING_WIFI_PROXY_PORT,
+                .setSsid(intent.getStringExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, index)))
+                .setSecurityType(intent.getStringExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE, index)))
+                .setPassword(intent.getStringExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PASSWORD, index)))
+                .setProxyHost(intent.getStringExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PROXY_HOST, index)))
+                .setProxyBypassHosts(intent.getStringExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PROXY_BYPASS, index)))
+                .setPacUrl(intent.getStringExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PAC_URL, index)))
+                .setProxyPort(intent.getIntExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PROXY_PORT, index),
                         WifiInfo.DEFAULT_WIFI_PROXY_PORT))
-                .setHidden(intent.getBooleanExtra(EXTRA_PROVISIONING_WIFI_HIDDEN,
+                .setHidden(intent.getBooleanExtra(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_HIDDEN, index),
                         WifiInfo.DEFAULT_WIFI_HIDDEN))
                 .build();
     }
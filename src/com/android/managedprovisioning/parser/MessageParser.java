@@ -23,6 +23,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.support.annotation.VisibleForTesting;
 
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.common.IllegalProvisioningArgumentException;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.ProvisioningParams;
@@ -51,7 +53,20 @@ public class MessageParser implements ProvisioningDataParser {
     @Override
     public ProvisioningParams parse(Intent provisioningIntent)
             throws IllegalProvisioningArgumentException {
-        return getParser(provisioningIntent).parse(provisioningIntent);
+        final ProvisioningDataParser parser = getParser(provisioningIntent);
+        final TraceSpan span = ProvisioningTracer.getInstance()
+                .beginSpan(parser.getClass().getSimpleName(), ProvisioningTracer.NO_PROVISIONING_ID)
+                .setAttribute("action", provisioningIntent.getAction());
+        try {
+            ProvisioningParams params = parser.parse(provisioningIntent);
+            span.setAttribute("provisioningId", params.provisioningId);
+            return params;
+        } catch (IllegalProvisioningArgumentException e) {
+            span.setAttribute("error", e.getMessage());
+            throw e;
+        } finally {
+            span.end();
+        }
     }
 
     @VisibleForTesting
@@ -41,6 +41,7 @@ import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SSID
 import static android.app.admin.DevicePolicyManager.MIME_TYPE_PROVISIONING_NFC;
 import static android.nfc.NfcAdapter.ACTION_NDEF_DISCOVERED;
 import static com.android.internal.util.Preconditions.checkNotNull;
+import static com.android.managedprovisioning.model.WifiInfo.getIndexedKey;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import android.content.ComponentName;
@@ -63,7 +64,9 @@ import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.IllformedLocaleException;
+import java.util.List;
 import java.util.Properties;
 
 
@@ -135,6 +138,7 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
 
                 // Parse WiFi configuration.
                 builder.setWifiInfo(parseWifiInfoFromProperties(props))
+                        .setFallbackWifiInfos(parseFallbackWifiInfosFromProperties(props))
                         // Parse device admin package download info.
                         .setDeviceAdminDownloadInfo(parsePackageDownloadInfoFromProperties(props))
                         // Parse EMM customized key-value pairs.
@@ -178,22 +182,48 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
      */
     @Nullable
     private WifiInfo parseWifiInfoFromProperties(Properties props) {
-        if (props.getProperty(EXTRA_PROVISIONING_WIFI_SSID) == null) {
+        return parseWifiInfoFromProperties(props, 0);
+    }
+
+    /**
+     * Parses the fallback Wifi configurations from an {@link Properties}. They are given with the
+     * keys of {@link WifiInfo#getIndexedKey(String, int)}, starting at index 1.
+     */
+    private List<WifiInfo> parseFallbackWifiInfosFromProperties(Properties props) {
+        List<WifiInfo> wifiInfos = new ArrayList<>();
+        WifiInfo wifiInfo;
+        while (wifiInfos.size() < WifiInfo.MAX_FALLBACK_WIFI_INFOS
+                && (wifiInfo = parseWifiInfoFromProperties(props, wifiInfos.size() + 1)) != null) {
+            wifiInfos.add(wifiInfo);
+        }
+        return wifiInfos;
+    }
+
+    @Nullable
+    private WifiInfo parseWifiInfoFromProperties(Properties props, int index) {
+        if (props.getProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, index)) == null) {
             return null;
         }
         WifiInfo.Builder builder = WifiInfo.Builder.builder()
-                .setSsid(props.getProperty(EXTRA_PROVISIONING_WIFI_SSID))
-                .setSecurityType(props.getProperty(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE))
-                .setPassword(props.getProperty(EXTRA_PROVISIONING_WIFI_PASSWORD))
-                .setProxyHost(props.getProperty(EXTRA_PROVISIONING_WIFI_PROXY_HOST))
-                .setProxyBypassHosts(props.getProperty(EXTRA_PROVISIONING_WIFI_PROXY_BYPASS))
-                .setPacUrl(props.getProperty(EXTRA_PROVISIONING_WIFI_PAC_URL));
+                .setSsid(props.getProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, index)))
+                .setSecurityType(props.getProperty(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE, index)))
+                .setPassword(props.getProperty(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PASSWORD, index)))
+                .setProxyHost(props.getProperty(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PROXY_HOST, index)))
+                .setProxyBypassHosts(props.getProperty(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PROXY_BYPASS, index)))
+                .setPacUrl(props.getProperty(
+                        getIndexedKey(EXTRA_PROVISIONING_WIFI_PAC_URL, index)));
         // For parsing non-string parameters.
         String s = null;
-        if ((s = props.getProperty(EXTRA_PROVISIONING_WIFI_PROXY_PORT)) != null) {
+        if ((s = props.getProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_PROXY_PORT, index)))
+                != null) {
             builder.setProxyPort(Integer.parseInt(s));
         }
-        if ((s = props.getProperty(EXTRA_PROVISIONING_WIFI_HIDDEN)) != null) {
+        if ((s = props.getProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_HIDDEN, index)))
+                != null) {
             builder.setHidden(Boolean.parseBoolean(s));
         }
 
@@ -128,6 +128,7 @@ public class PreProvisioningActivity extends SetupGlifLayoutActivity implements
     public void finish() {
         // The user has backed out of provisioning, so we perform the necessary clean up steps.
         LogoUtils.cleanUp(this);
+        mController.discardPrecreatedManagedProfile();
         ProvisioningParams params = mController.getParams();
         if (params != null) {
             params.cleanUp();
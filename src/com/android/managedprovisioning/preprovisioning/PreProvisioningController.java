@@ -72,6 +72,8 @@ import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.parser.MessageParser;
 import com.android.managedprovisioning.preprovisioning.terms.TermsDocument;
 import com.android.managedprovisioning.preprovisioning.terms.TermsProvider;
+import com.android.managedprovisioning.task.ManagedProfilePrecreator;
+import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -93,6 +95,7 @@ public class PreProvisioningController {
     private final PersistentDataBlockManager mPdbManager;
     private final TimeLogger mTimeLogger;
     private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
+    private final ManagedProfilePrecreator mManagedProfilePrecreator;
 
     private ProvisioningParams mParams;
 
@@ -102,7 +105,7 @@ public class PreProvisioningController {
         this(context, ui,
                 new TimeLogger(context, PROVISIONING_PREPROVISIONING_ACTIVITY_TIME_MS),
                 new MessageParser(context), new Utils(), new SettingsFacade(),
-                EncryptionController.getInstance(context));
+                EncryptionController.getInstance(context), ManagedProfilePrecreator.getInstance());
     }
     @VisibleForTesting
     PreProvisioningController(
@@ -112,7 +115,8 @@ public class PreProvisioningController {
             @NonNull MessageParser parser,
             @NonNull Utils utils,
             @NonNull SettingsFacade settingsFacade,
-            @NonNull EncryptionController encryptionController) {
+            @NonNull EncryptionController encryptionController,
+            @NonNull ManagedProfilePrecreator managedProfilePrecreator) {
         mContext = checkNotNull(context, "Context must not be null");
         mUi = checkNotNull(ui, "Ui must not be null");
         mTimeLogger = checkNotNull(timeLogger, "Time logger must not be null");
@@ -121,6 +125,7 @@ public class PreProvisioningController {
         mUtils = checkNotNull(utils, "Utils must not be null");
         mEncryptionController = checkNotNull(encryptionController,
                 "EncryptionController must not be null");
+        mManagedProfilePrecreator = checkNotNull(managedProfilePrecreator);
 
         mDevicePolicyManager = (DevicePolicyManager) mContext.getSystemService(
                 Context.DEVICE_POLICY_SERVICE);
@@ -213,6 +218,10 @@ public class PreProvisioningController {
             return;
         }
 
+        // A profile created before consent by a process that has since died must not be taken
+        // for an existing managed profile.
+        mManagedProfilePrecreator.removeLeftoverProfile(mContext);
+
         // Check whether provisioning is allowed for the current action
         if (!checkDevicePolicyPreconditions()) {
             return;
@@ -279,6 +288,9 @@ public class PreProvisioningController {
 
         // show UI so we can get user's consent to continue
         if (isProfileOwnerProvisioning()) {
+            if (!waitForUserDelete && !maybePrecreateManagedProfile()) {
+                precomputeNonRequiredApps();
+            }
             boolean isComp = mDevicePolicyManager.isDeviceManaged();
             mUi.initiateUi(R.layout.intro_profile_owner, R.string.setup_profile, null, null, true,
                     isComp, getDisclaimerHeadings(), customization);
@@ -302,6 +314,39 @@ public class PreProvisioningController {
         }
     }
 
+    /**
+     * Creates the managed profile in the background while the user reads the terms, if enabled.
+     * It is adopted by the CreateManagedProfileTask once the user consents.
+     *
+     * @return whether the profile is being created
+     */
+    private boolean maybePrecreateManagedProfile() {
+        if (!ACTION_PROVISION_MANAGED_PROFILE.equals(mParams.provisioningAction)
+                || !mContext.getResources().getBoolean(R.bool.precreate_managed_profile)) {
+            return false;
+        }
+        if (isEncryptionRequired()) {
+            // The device reboots for encryption, which would leave the profile behind.
+            return false;
+        }
+        mManagedProfilePrecreator.start(mContext, mParams, mUserManager.getUserHandle());
+        return true;
+    }
+
+    /**
+     * Computes the system apps to remove from the new profile in the background while the user
+     * reads the terms. The result is reused by the CreateManagedProfileTask.
+     */
+    @VisibleForTesting
+    protected void precomputeNonRequiredApps() {
+        if (!ACTION_PROVISION_MANAGED_PROFILE.equals(mParams.provisioningAction)) {
+            // Other new users are only known once created.
+            return;
+        }
+        new NonRequiredAppsLogic(mContext, true /* newProfile */, mParams)
+                .precomputeSystemAppsToRemove(mUserManager.getUserHandle());
+    }
+
     private @NonNull List<String> getDisclaimerHeadings() {
         // TODO: only fetch headings, no need to fetch content; now not fast, but at least correct
         return new TermsProvider(mContext, StoreUtils::readString, mUtils)
@@ -618,6 +663,15 @@ public class PreProvisioningController {
                 CANCELLED_BEFORE_PROVISIONING);
     }
 
+    /**
+     * Removes the managed profile that was created in the background, if the user didn't consent.
+     */
+    public void discardPrecreatedManagedProfile() {
+        if (mParams != null) {
+            mManagedProfilePrecreator.discard(mParams);
+        }
+    }
+
     /**
      * Removes a user profile. If we are in COMP case, and were blocked by having to delete a user,
      * resumes COMP provisioning.
@@ -24,20 +24,49 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.analytics.BinderCallCounter;
+import com.android.managedprovisioning.analytics.LatencyBudgetMonitor;
 import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.ResourceUsage;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.finalization.FinalizationController;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Controller that manages the provisioning process. It controls the order of provisioning tasks,
  * reacts to errors and user cancellation.
+ *
+ * <p>Completed tasks are recorded in a {@link ProvisioningJournal}. If the process is restarted
+ * during provisioning, the controller of the same provisioning session resumes after the last
+ * completed task. A task that was started but didn't complete is told so with
+ * {@link AbstractProvisioningTask#onRunInterrupted()} before it is run again.</p>
+ *
+ * <p>Tasks that don't finish within {@link AbstractProvisioningTask#getTimeoutMs()} fail with
+ * {@link AbstractProvisioningTask#ERROR_TIMED_OUT}, see {@link TaskWatchdog}.</p>
+ *
+ * <p>Provisioning is traced by a {@link TraceSpan}, in which the span of each task and of the
+ * cleanup are nested. The durations of the tasks that succeed are recorded in the
+ * {@link TaskLatencyHistograms}.</p>
+ *
+ * <p>The {@link ResourceUsage} of each task on the worker thread is traced in a "resources" span
+ * nested in the task span, and printed by {@link #dump(PrintWriter, String)}. The calls to the
+ * binder interfaces wrapped by the {@link BinderCallCounter} are attributed to the task.</p>
+ *
+ * <p>Tasks, and all the tasks together, that take longer than their latency budget are reported
+ * by the {@link LatencyBudgetMonitor}.</p>
  */
 public abstract class AbstractProvisioningController implements AbstractProvisioningTask.Callback {
 
@@ -51,7 +80,23 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
     private final ProvisioningControllerCallback mCallback;
     private final FinalizationController mFinalizationController;
+    private final ProvisioningJournal mJournal;
+    private final TaskLatencyHistograms mLatencyHistograms;
+    private final LatencyBudgetMonitor mLatencyBudgetMonitor;
+    private final ProvisioningTracer mTracer;
     private Handler mWorkerHandler;
+    private TaskWatchdog mWatchdog;
+    private TraceSpan mProvisioningSpan;
+    private TraceSpan mTaskSpan;
+    // The spans of the tasks run by this controller, keyed by the task index.
+    private final SparseArray<TraceSpan> mTaskSpans = new SparseArray<>();
+    // The resources used on the worker thread by the tasks, keyed by the task index.
+    private final SparseArray<ResourceUsage> mTaskResourceUsages = new SparseArray<>();
+    // Only used on the worker thread.
+    private ResourceUsage mTaskStartResourceUsage;
+    private TraceSpan mResourcesSpan;
+    private AbstractProvisioningTask mErrorTask;
+    private int mErrorCode;
 
     // Provisioning hasn't started yet
     private static final int STATUS_NOT_STARTED = 0;
@@ -69,7 +114,10 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     private static final int STATUS_CLEANED_UP = 6;
 
     private int mStatus = STATUS_NOT_STARTED;
+    private long mCancelTime;
     private List<AbstractProvisioningTask> mTasks = new ArrayList<>();
+    // The states saved by the completed tasks, keyed by the task index.
+    private final PersistableBundle mTaskStates = new PersistableBundle();
 
     protected int mCurrentTaskIndex;
 
@@ -78,13 +126,20 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
             ProvisioningParams params,
             int userId,
             ProvisioningControllerCallback callback,
-            FinalizationController finalizationController) {
+            FinalizationController finalizationController,
+            ProvisioningJournal journal,
+            TaskLatencyHistograms latencyHistograms,
+            LatencyBudgetMonitor latencyBudgetMonitor) {
         mContext = checkNotNull(context);
         mParams = checkNotNull(params);
         mUserId = userId;
         mCallback = checkNotNull(callback);
         mFinalizationController = checkNotNull(finalizationController);
+        mJournal = checkNotNull(journal);
+        mLatencyHistograms = checkNotNull(latencyHistograms);
+        mLatencyBudgetMonitor = checkNotNull(latencyBudgetMonitor);
         mProvisioningAnalyticsTracker = ProvisioningAnalyticsTracker.getInstance();
+        mTracer = ProvisioningTracer.getInstance();
 
         setUpTasks();
     }
@@ -117,9 +172,64 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
             return;
         }
         mWorkerHandler = checkNotNull(handler);
+        mWatchdog = new TaskWatchdog(new Handler(Looper.getMainLooper()),
+                handler.getLooper().getThread(), this::onTaskTimedOut);
 
         mStatus = STATUS_RUNNING;
-        runTask(0);
+        mProvisioningSpan = mTracer.beginSpan(getClass().getSimpleName(), mParams.provisioningId)
+                .setAttribute("action", mParams.provisioningAction);
+        mCurrentTaskIndex = restoreCompletedTasks();
+        mProvisioningSpan.setAttribute("restoredTasks", mCurrentTaskIndex);
+        if (mCurrentTaskIndex == mTasks.size()) {
+            tasksCompleted();
+        } else {
+            runTask(mCurrentTaskIndex);
+        }
+    }
+
+    /**
+     * Restores the tasks that were completed in a previous process for this provisioning session.
+     *
+     * @return the index of the first task to run.
+     */
+    private int restoreCompletedTasks() {
+        ProvisioningJournal.Entry entry = mJournal.read();
+        if (entry == null) {
+            return 0;
+        }
+        if (!entry.matches(mParams)) {
+            ProvisionLogger.logd("Discarding the task journal of another provisioning session");
+            mJournal.clear();
+            return 0;
+        }
+
+        final int completedTaskCount = Math.min(entry.completedTaskCount, mTasks.size());
+        // Restored from the last completed task, so that a task can tell the earlier tasks it
+        // depends on that their results aren't needed anymore, e.g. once the downloaded package
+        // was installed.
+        int index = completedTaskCount;
+        for (int i = completedTaskCount - 1; i >= 0; i--) {
+            AbstractProvisioningTask task = mTasks.get(i);
+            if (!task.restoreState(entry.getTaskState(i))) {
+                ProvisionLogger.logw("Couldn't restore " + task.getClass().getSimpleName()
+                        + ", running it again");
+                index = i;
+            }
+        }
+        for (int i = 0; i < index; i++) {
+            mTaskStates.putPersistableBundle(String.valueOf(i), entry.getTaskState(i));
+        }
+        if (entry.nextTaskStarted && completedTaskCount < mTasks.size()) {
+            AbstractProvisioningTask task = mTasks.get(completedTaskCount);
+            ProvisionLogger.logw(task.getClass().getSimpleName()
+                    + " was interrupted, checking for the results of its previous run");
+            task.onRunInterrupted();
+        }
+        if (index > 0) {
+            ProvisionLogger.logi("Resuming provisioning after " + index + " completed tasks");
+            mUserId = entry.userId;
+        }
+        return index;
     }
 
     /**
@@ -139,6 +249,16 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
 
         ProvisionLogger.logd("ProvisioningController: cancelled");
         mStatus = STATUS_CANCELLING;
+        mCancelTime = SystemClock.elapsedRealtime();
+        mWatchdog.stop();
+        endTaskSpan("cancelled");
+        mProvisioningSpan.setAttribute("result", "cancelled");
+        // Tasks that block the worker thread stop waiting right away, so that the cancellation
+        // and cleanup posted below can run.
+        for (AbstractProvisioningTask task : getStartedTasksLocked()) {
+            task.getCancellationToken().cancel();
+        }
+        mWorkerHandler.post(this::cancelStartedTasks);
         cleanup(STATUS_CLEANED_UP);
     }
 
@@ -155,15 +275,36 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
 
     private void runTask(int index) {
         AbstractProvisioningTask nextTask = mTasks.get(index);
+        mTaskSpan = mProvisioningSpan.beginChild(nextTask.getClass().getSimpleName())
+                .setAttribute("taskIndex", index)
+                .setAttribute("userId", mUserId);
+        mTaskSpans.put(index, mTaskSpan);
+        nextTask.setTraceSpan(mTaskSpan);
+        // Written on the worker thread right before the task is run.
+        final ProvisioningJournal.Entry entry = new ProvisioningJournal.Entry(mParams, index,
+                mUserId, mTaskStates, true /* nextTaskStarted */);
+        mWorkerHandler.post(() -> mJournal.write(entry));
+        final TraceSpan taskSpan = mTaskSpan;
+        mWorkerHandler.post(() -> startTaskResourceAccounting(taskSpan));
         Message msg = mWorkerHandler.obtainMessage(MSG_RUN_TASK, mUserId, 0 /* arg2 not used */,
                 nextTask);
         mWorkerHandler.sendMessage(msg);
+        mWatchdog.watch(nextTask);
         mCallback.progressUpdate(nextTask.getStatusMsgId());
     }
 
     private void tasksCompleted() {
         mStatus = STATUS_TASKS_COMPLETED;
         mCurrentTaskIndex = -1;
+        mWatchdog.stop();
+        final TraceSpan provisioningSpan =
+                mProvisioningSpan.setAttribute("result", "tasks completed");
+        // Ended on the worker thread, after the span of the last task.
+        mWorkerHandler.post(() -> {
+            provisioningSpan.end();
+            mLatencyBudgetMonitor.checkProvisioning(provisioningSpan.getDurationMillis());
+        });
+        mWorkerHandler.post(mJournal::clear);
         mCallback.provisioningTasksCompleted();
     }
 
@@ -174,6 +315,15 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
             return;
         }
 
+        final TraceSpan taskSpan = mTaskSpan;
+        endTaskSpan("success");
+        if (taskSpan != null) {
+            mWorkerHandler.post(() -> mLatencyHistograms.record(
+                    task.getClass().getSimpleName(), taskSpan.getDurationMillis()));
+        }
+        PersistableBundle state = new PersistableBundle();
+        task.saveState(state);
+        mTaskStates.putPersistableBundle(String.valueOf(mCurrentTaskIndex), state);
         mCurrentTaskIndex++;
         if (mCurrentTaskIndex == mTasks.size()) {
             tasksCompleted();
@@ -185,17 +335,184 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     @Override
     // Note that this callback might come on the main thread
     public synchronized void onError(AbstractProvisioningTask task, int errorCode) {
+        if (mStatus != STATUS_RUNNING) {
+            // E.g. a task that timed out reported an error later.
+            return;
+        }
+
         mStatus = STATUS_ERROR;
+        mErrorTask = task;
+        mErrorCode = errorCode;
+        mWatchdog.stop();
+        if (mTaskSpan != null) {
+            mTaskSpan.setAttribute("errorCode", errorCode);
+        }
+        endTaskSpan("error");
+        mProvisioningSpan.setAttribute("result", "error");
         cleanup(STATUS_ERROR);
         mProvisioningAnalyticsTracker.logProvisioningError(mContext, task, errorCode);
         mCallback.error(getErrorTitle(), getErrorMsgId(task, errorCode),
                 getRequireFactoryReset(task, errorCode));
     }
 
+    @VisibleForTesting
+    synchronized void onTaskTimedOut(AbstractProvisioningTask task) {
+        if (mStatus != STATUS_RUNNING || mCurrentTaskIndex < 0
+                || mTasks.get(mCurrentTaskIndex) != task) {
+            // The task finished in the meantime.
+            return;
+        }
+
+        // Stop any pending work of the task, it can't report a result anymore. A task that blocks
+        // the worker thread stops waiting right away, so that the cancellation posted below runs.
+        task.getCancellationToken().cancel();
+        mWorkerHandler.post(task::cancel);
+        onError(task, AbstractProvisioningTask.ERROR_TIMED_OUT);
+    }
+
+    /**
+     * Prints the status of provisioning and of its tasks.
+     */
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + getClass().getSimpleName() + ": status=" + statusToString(mStatus)
+                + ", provisioningId=" + mParams.provisioningId + ", action="
+                + mParams.provisioningAction + ", userId=" + mUserId);
+        if (mErrorTask != null) {
+            pw.println(prefix + "  Error: " + mErrorTask.getClass().getSimpleName() + ", code="
+                    + mErrorCode);
+        }
+        pw.println(prefix + "  Tasks:");
+        for (int i = 0; i < mTasks.size(); i++) {
+            StringBuilder line = new StringBuilder(prefix).append("    ").append(i).append(": ")
+                    .append(mTasks.get(i).getClass().getSimpleName()).append(' ')
+                    .append(taskStatusToString(i));
+            TraceSpan span = mTaskSpans.get(i);
+            if (span != null) {
+                line.append(", ").append(span.getElapsedMillis()).append(" ms");
+            }
+            ResourceUsage usage = mTaskResourceUsages.get(i);
+            if (usage != null) {
+                line.append(", ").append(usage);
+            }
+            pw.println(line);
+        }
+    }
+
+    private String taskStatusToString(int index) {
+        if (mStatus == STATUS_NOT_STARTED) {
+            return "pending";
+        }
+        if (mCurrentTaskIndex < 0 || index < mCurrentTaskIndex) {
+            return mTaskSpans.get(index) != null ? "completed" : "restored";
+        }
+        if (index > mCurrentTaskIndex) {
+            return "pending";
+        }
+        if (mErrorTask != null) {
+            return "failed";
+        }
+        return mStatus == STATUS_RUNNING ? "running" : "cancelled";
+    }
+
+    private static String statusToString(int status) {
+        switch (status) {
+            case STATUS_NOT_STARTED:
+                return "not started";
+            case STATUS_RUNNING:
+                return "running";
+            case STATUS_TASKS_COMPLETED:
+                return "tasks completed";
+            case STATUS_DONE:
+                return "done";
+            case STATUS_ERROR:
+                return "error";
+            case STATUS_CANCELLING:
+                return "cancelling";
+            case STATUS_CLEANED_UP:
+                return "cleaned up";
+            default:
+                return "unknown (" + status + ")";
+        }
+    }
+
+    private void endTaskSpan(String result) {
+        if (mTaskSpan != null) {
+            final TraceSpan taskSpan = mTaskSpan.setAttribute("result", result);
+            mTaskSpan = null;
+            final int index = mCurrentTaskIndex;
+            // Posted after the task's work on the worker thread, and before the next task. The
+            // task span is ended there, after the nested resources span, so that the spans of the
+            // worker thread stay nested in the trace.
+            mWorkerHandler.post(() -> endTaskOnWorker(index, taskSpan));
+        }
+    }
+
+    /**
+     * Samples the resources used on the worker thread before a task runs. Binder transactions and
+     * allocations are per process, but little else runs in the process during provisioning.
+     */
+    private void startTaskResourceAccounting(TraceSpan taskSpan) {
+        mResourcesSpan = taskSpan.beginChild("resources");
+        BinderCallCounter.getInstance().setActiveTask(taskSpan.getName());
+        mTaskStartResourceUsage = ResourceUsage.sample();
+    }
+
+    private void endTaskOnWorker(int index, TraceSpan taskSpan) {
+        ResourceUsage usage = null;
+        if (mTaskStartResourceUsage != null) {
+            usage = ResourceUsage.sample().minus(mTaskStartResourceUsage);
+            BinderCallCounter.getInstance().setActiveTask(null);
+            usage.addTo(mResourcesSpan);
+            mResourcesSpan.end();
+            mTaskStartResourceUsage = null;
+            mResourcesSpan = null;
+            synchronized (this) {
+                mTaskResourceUsages.put(index, usage);
+            }
+        }
+        if (mLatencyBudgetMonitor.checkTask(taskSpan.getName(), taskSpan.getElapsedMillis(),
+                usage)) {
+            taskSpan.setAttribute("latencyBudgetExceeded", true);
+        }
+        taskSpan.end();
+    }
+
+    private List<AbstractProvisioningTask> getStartedTasksLocked() {
+        // The current task index is reset to -1 once all tasks have completed.
+        int lastStartedIndex = mCurrentTaskIndex < 0
+                ? mTasks.size() - 1 : Math.min(mCurrentTaskIndex, mTasks.size() - 1);
+        return new ArrayList<>(mTasks.subList(0, lastStartedIndex + 1));
+    }
+
+    private void cancelStartedTasks() {
+        final List<AbstractProvisioningTask> startedTasks;
+        synchronized (this) {
+            startedTasks = getStartedTasksLocked();
+        }
+        // Not holding the lock, as tasks may call back into the controller while cancelling.
+        // Finished tasks ignore the call, but some, like StartNetworkTask, leave work running
+        // in the background.
+        for (int i = startedTasks.size() - 1; i >= 0; i--) {
+            AbstractProvisioningTask task = startedTasks.get(i);
+            ProvisionLogger.logd("Cancelling task: %s", task.getClass().getSimpleName());
+            task.cancel();
+        }
+    }
+
     private void cleanup(final int newStatus) {
         mWorkerHandler.post(() -> {
+                // Begun here, after the span of the last task has ended on this thread.
+                final TraceSpan cleanupSpan = mProvisioningSpan.beginChild("cleanup");
+                mJournal.clear();
                 performCleanup();
+                cleanupSpan.end();
+                mProvisioningSpan.end();
                 mStatus = newStatus;
+                if (newStatus == STATUS_CLEANED_UP) {
+                    final long latencyMs = SystemClock.elapsedRealtime() - mCancelTime;
+                    ProvisionLogger.logi("Cleaned up " + latencyMs + " ms after cancelling");
+                    mProvisioningAnalyticsTracker.logCancelCleanupLatency(mContext, latencyMs);
+                }
                 mCallback.cleanUpCompleted();
             });
     }
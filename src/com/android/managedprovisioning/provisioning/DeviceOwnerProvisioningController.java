@@ -21,10 +21,13 @@ import android.os.UserHandle;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.analytics.LatencyBudgetMonitor;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
 import com.android.managedprovisioning.finalization.FinalizationController;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 import com.android.managedprovisioning.task.AddWifiNetworkTask;
+import com.android.managedprovisioning.task.AwaitNetworkTask;
 import com.android.managedprovisioning.task.ConnectMobileNetworkTask;
 import com.android.managedprovisioning.task.CopyAccountToUserTask;
 import com.android.managedprovisioning.task.DeleteNonRequiredAppsTask;
@@ -33,6 +36,7 @@ import com.android.managedprovisioning.task.DisallowAddUserTask;
 import com.android.managedprovisioning.task.DownloadPackageTask;
 import com.android.managedprovisioning.task.InstallPackageTask;
 import com.android.managedprovisioning.task.SetDevicePolicyTask;
+import com.android.managedprovisioning.task.StartNetworkTask;
 import com.android.managedprovisioning.task.VerifyPackageTask;
 
 /**
@@ -45,7 +49,9 @@ public class DeviceOwnerProvisioningController extends AbstractProvisioningContr
             ProvisioningParams params,
             int userId,
             ProvisioningControllerCallback callback) {
-        this(context, params, userId, callback, new FinalizationController(context));
+        this(context, params, userId, callback, new FinalizationController(context),
+                new ProvisioningJournal(context), TaskLatencyHistograms.getInstance(context),
+                new LatencyBudgetMonitor(context));
     }
 
     @VisibleForTesting
@@ -54,25 +60,30 @@ public class DeviceOwnerProvisioningController extends AbstractProvisioningContr
             ProvisioningParams params,
             int userId,
             ProvisioningControllerCallback callback,
-            FinalizationController finalizationController) {
-        super(context, params, userId, callback, finalizationController);
+            FinalizationController finalizationController,
+            ProvisioningJournal journal,
+            TaskLatencyHistograms latencyHistograms,
+            LatencyBudgetMonitor latencyBudgetMonitor) {
+        super(context, params, userId, callback, finalizationController, journal,
+                latencyHistograms, latencyBudgetMonitor);
     }
 
     protected void setUpTasks() {
         addTasks(new DeviceOwnerInitializeProvisioningTask(mContext, mParams, this));
 
+        final boolean needsNetwork = mParams.wifiInfo != null || mParams.useMobileData;
+        if (needsNetwork && mContext.getResources().getBoolean(R.bool.overlap_network_bring_up)) {
+            setUpTasksWithBackgroundNetwork();
+            return;
+        }
+
         if (mParams.wifiInfo != null) {
             addTasks(new AddWifiNetworkTask(mContext, mParams, this));
         } else if (mParams.useMobileData) {
             addTasks(new ConnectMobileNetworkTask(mContext, mParams, this));
         }
 
-        if (mParams.deviceAdminDownloadInfo != null) {
-            DownloadPackageTask downloadTask = new DownloadPackageTask(mContext, mParams, this);
-            addTasks(downloadTask,
-                    new VerifyPackageTask(downloadTask, mContext, mParams, this),
-                    new InstallPackageTask(downloadTask, mContext, mParams, this));
-        }
+        addDownloadTasks();
 
         addTasks(
                 new DeleteNonRequiredAppsTask(true /* new profile */, mContext, mParams, this),
@@ -81,7 +92,52 @@ public class DeviceOwnerProvisioningController extends AbstractProvisioningContr
         );
 
         if (mParams.accountToMigrate != null) {
-            addTasks(new CopyAccountToUserTask(UserHandle.USER_SYSTEM, mContext, mParams, this));
+            addTasks(new CopyAccountToUserTask(UserHandle.USER_SYSTEM,
+                    false /* copyInBackground */, mContext, mParams, this));
+        }
+    }
+
+    /**
+     * Brings up the network in the background, while the tasks that don't need it are run. Only
+     * downloading the admin package and migrating the account wait for the network.
+     *
+     * <p>Deleting the non-required apps needs the admin to be installed, to infer its component
+     * name, so it only runs ahead of the network when the admin isn't downloaded.</p>
+     */
+    private void setUpTasksWithBackgroundNetwork() {
+        StartNetworkTask startNetworkTask = new StartNetworkTask(mContext, mParams, this);
+        addTasks(startNetworkTask);
+
+        AwaitNetworkTask awaitNetworkTask =
+                new AwaitNetworkTask(startNetworkTask, mContext, mParams, this);
+        if (mParams.deviceAdminDownloadInfo != null) {
+            addTasks(
+                    new DisallowAddUserTask(mContext, mParams, this),
+                    awaitNetworkTask);
+            addDownloadTasks();
+            addTasks(
+                    new DeleteNonRequiredAppsTask(true /* new profile */, mContext, mParams, this),
+                    new SetDevicePolicyTask(mContext, mParams, this));
+        } else {
+            addTasks(
+                    new DeleteNonRequiredAppsTask(true /* new profile */, mContext, mParams, this),
+                    new DisallowAddUserTask(mContext, mParams, this),
+                    new SetDevicePolicyTask(mContext, mParams, this),
+                    awaitNetworkTask);
+        }
+
+        if (mParams.accountToMigrate != null) {
+            addTasks(new CopyAccountToUserTask(UserHandle.USER_SYSTEM,
+                    false /* copyInBackground */, mContext, mParams, this));
+        }
+    }
+
+    private void addDownloadTasks() {
+        if (mParams.deviceAdminDownloadInfo != null) {
+            DownloadPackageTask downloadTask = new DownloadPackageTask(mContext, mParams, this);
+            addTasks(downloadTask,
+                    new VerifyPackageTask(downloadTask, mContext, mParams, this),
+                    new InstallPackageTask(downloadTask, mContext, mParams, this));
         }
     }
 
@@ -91,7 +147,9 @@ public class DeviceOwnerProvisioningController extends AbstractProvisioningContr
 
     @Override
     protected int getErrorMsgId(AbstractProvisioningTask task, int errorCode) {
-        if (task instanceof AddWifiNetworkTask) {
+        if (task instanceof AwaitNetworkTask) {
+            return getErrorMsgId(((AwaitNetworkTask) task).getNetworkTask(), errorCode);
+        } else if (task instanceof AddWifiNetworkTask) {
             return R.string.device_owner_error_wifi;
         } else if (task instanceof DownloadPackageTask) {
             switch (errorCode) {
@@ -17,12 +17,16 @@
 package com.android.managedprovisioning.provisioning;
 
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
+import static com.android.internal.util.Preconditions.checkNotNull;
 
 import android.content.Context;
+import android.os.UserHandle;
 import android.os.UserManager;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.analytics.LatencyBudgetMonitor;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.finalization.FinalizationController;
 import com.android.managedprovisioning.model.ProvisioningParams;
@@ -32,6 +36,7 @@ import com.android.managedprovisioning.task.CreateManagedProfileTask;
 import com.android.managedprovisioning.task.DeleteNonRequiredAppsTask;
 import com.android.managedprovisioning.task.DisableInstallShortcutListenersTask;
 import com.android.managedprovisioning.task.InstallExistingPackageTask;
+import com.android.managedprovisioning.task.ManagedProfilePrecreator;
 import com.android.managedprovisioning.task.ManagedProfileSettingsTask;
 import com.android.managedprovisioning.task.SetDevicePolicyTask;
 import com.android.managedprovisioning.task.StartManagedProfileTask;
@@ -42,13 +47,18 @@ import com.android.managedprovisioning.task.StartManagedProfileTask;
 // TODO: Consider splitting this controller into one for managed profile and one for user owner
 public class ProfileOwnerProvisioningController extends AbstractProvisioningController {
     private final int mParentUserId;
+    private final ManagedProfilePrecreator mManagedProfilePrecreator;
+    // Assigned in setUpTasks(), which is called by the super constructor.
+    private CreateManagedProfileTask mCreateManagedProfileTask;
 
     public ProfileOwnerProvisioningController(
             Context context,
             ProvisioningParams params,
             int userId,
             ProvisioningControllerCallback callback) {
-        this(context, params, userId, callback, new FinalizationController(context));
+        this(context, params, userId, callback, new FinalizationController(context),
+                new ProvisioningJournal(context), TaskLatencyHistograms.getInstance(context),
+                new LatencyBudgetMonitor(context), ManagedProfilePrecreator.getInstance());
     }
 
     @VisibleForTesting
@@ -57,9 +67,15 @@ public class ProfileOwnerProvisioningController extends AbstractProvisioningCont
             ProvisioningParams params,
             int userId,
             ProvisioningControllerCallback callback,
-            FinalizationController finalizationController) {
-        super(context, params, userId, callback, finalizationController);
+            FinalizationController finalizationController,
+            ProvisioningJournal journal,
+            TaskLatencyHistograms latencyHistograms,
+            LatencyBudgetMonitor latencyBudgetMonitor,
+            ManagedProfilePrecreator managedProfilePrecreator) {
+        super(context, params, userId, callback, finalizationController, journal,
+                latencyHistograms, latencyBudgetMonitor);
         mParentUserId = userId;
+        mManagedProfilePrecreator = checkNotNull(managedProfilePrecreator);
     }
 
     protected void setUpTasks() {
@@ -71,15 +87,17 @@ public class ProfileOwnerProvisioningController extends AbstractProvisioningCont
     }
 
     private void setUpTasksManagedProfile() {
+        mCreateManagedProfileTask = new CreateManagedProfileTask(mContext, mParams, this);
         addTasks(
-                new CreateManagedProfileTask(mContext, mParams, this),
+                mCreateManagedProfileTask,
                 new InstallExistingPackageTask(mParams.inferDeviceAdminPackageName(), mContext,
                         mParams, this),
                 new SetDevicePolicyTask(mContext, mParams, this),
                 new ManagedProfileSettingsTask(mContext, mParams, this),
                 new DisableInstallShortcutListenersTask(mContext, mParams, this),
                 new StartManagedProfileTask(mContext, mParams, this),
-                new CopyAccountToUserTask(mParentUserId, mContext, mParams, this));
+                new CopyAccountToUserTask(mParentUserId, true /* copyInBackground */, mContext,
+                        mParams, this));
     }
 
     private void setUpTasksManagedUser() {
@@ -101,11 +119,20 @@ public class ProfileOwnerProvisioningController extends AbstractProvisioningCont
 
     @Override
     protected void performCleanup() {
-        if (ACTION_PROVISION_MANAGED_PROFILE.equals(mParams.provisioningAction)
-                && mCurrentTaskIndex != 0) {
+        if (!ACTION_PROVISION_MANAGED_PROFILE.equals(mParams.provisioningAction)) {
+            return;
+        }
+        // A profile that was created in the background, but not adopted yet.
+        mManagedProfilePrecreator.discard(mParams);
+
+        // While the profile is being created, it is only known to the task. The task is done
+        // by now, as the cleanup is run on the worker thread.
+        final int profileUserId = mCurrentTaskIndex != 0
+                ? mUserId : mCreateManagedProfileTask.getProfileUserId();
+        if (profileUserId != UserHandle.USER_NULL) {
             ProvisionLogger.logd("Removing managed profile");
             UserManager um = mContext.getSystemService(UserManager.class);
-            um.removeUserEvenWhenDisallowed(mUserId);
+            um.removeUserEvenWhenDisallowed(profileUserId);
         }
     }
 
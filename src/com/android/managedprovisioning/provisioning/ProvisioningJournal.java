@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.provisioning;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.util.AtomicFile;
+import android.util.Xml;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.FastXmlSerializer;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Journal of the completed provisioning tasks, so that provisioning resumes after the last
+ * completed task when the process is restarted, instead of starting over.
+ *
+ * <p>The journal is written atomically before every task is run. It also records that the task
+ * was started, so that a task interrupted part-way can check for the results of its previous run.
+ * It is only used for the provisioning session with the same provisioning id and action.</p>
+ */
+public class ProvisioningJournal {
+    private static final String JOURNAL_FILE_NAME = "provisioning_task_journal.xml";
+
+    private static final String TAG_JOURNAL = "provisioning-task-journal";
+    private static final String TAG_PROVISIONING_ID = "provisioning-id";
+    private static final String TAG_PROVISIONING_ACTION = "provisioning-action";
+    private static final String TAG_COMPLETED_TASK_COUNT = "completed-task-count";
+    private static final String TAG_USER_ID = "user-id";
+    private static final String TAG_NEXT_TASK_STARTED = "next-task-started";
+    private static final String TAG_TASK_STATES = "task-states";
+
+    private final File mFile;
+
+    public ProvisioningJournal(Context context) {
+        this(new File(context.getFilesDir(), JOURNAL_FILE_NAME));
+    }
+
+    @VisibleForTesting
+    ProvisioningJournal(File file) {
+        mFile = checkNotNull(file);
+    }
+
+    /**
+     * Writes the given entry, replacing the previous one.
+     */
+    public void write(Entry entry) {
+        AtomicFile atomicFile = new AtomicFile(mFile);
+        FileOutputStream stream = null;
+        try {
+            stream = atomicFile.startWrite();
+            XmlSerializer serializer = new FastXmlSerializer();
+            serializer.setOutput(stream, StandardCharsets.UTF_8.name());
+            serializer.startDocument(null, true);
+            serializer.startTag(null, TAG_JOURNAL);
+            entry.toPersistableBundle().saveToXml(serializer);
+            serializer.endTag(null, TAG_JOURNAL);
+            serializer.endDocument();
+            atomicFile.finishWrite(stream);
+        } catch (IOException | XmlPullParserException e) {
+            ProvisionLogger.loge("Caught exception while trying to write the task journal", e);
+            atomicFile.failWrite(stream);
+        }
+    }
+
+    /**
+     * Reads the last written entry, or returns {@code null} if there is none.
+     */
+    @Nullable
+    public Entry read() {
+        // Not checking whether the file exists, as AtomicFile may restore it from its backup.
+        try (FileInputStream stream = new AtomicFile(mFile).openRead()) {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(stream, null);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type == XmlPullParser.START_TAG && TAG_JOURNAL.equals(parser.getName())) {
+                    return Entry.fromPersistableBundle(PersistableBundle.restoreFromXml(parser));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing was written yet.
+        } catch (IOException | XmlPullParserException e) {
+            ProvisionLogger.loge("Caught exception while trying to read the task journal", e);
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the journal, e.g. once provisioning has completed or was cleaned up.
+     */
+    public void clear() {
+        new AtomicFile(mFile).delete();
+    }
+
+    /**
+     * State of a provisioning session after a completed task.
+     */
+    public static final class Entry {
+        public final long provisioningId;
+        public final String provisioningAction;
+        public final int completedTaskCount;
+        public final int userId;
+        // Whether the task after the completed ones was started.
+        public final boolean nextTaskStarted;
+        // The states saved by the completed tasks, keyed by the task index.
+        private final PersistableBundle mTaskStates;
+
+        public Entry(ProvisioningParams params, int completedTaskCount, int userId,
+                PersistableBundle taskStates) {
+            this(params, completedTaskCount, userId, taskStates, false /* nextTaskStarted */);
+        }
+
+        public Entry(ProvisioningParams params, int completedTaskCount, int userId,
+                PersistableBundle taskStates, boolean nextTaskStarted) {
+            this(params.provisioningId, params.provisioningAction, completedTaskCount, userId,
+                    taskStates, nextTaskStarted);
+        }
+
+        private Entry(long provisioningId, String provisioningAction, int completedTaskCount,
+                int userId, PersistableBundle taskStates, boolean nextTaskStarted) {
+            this.provisioningId = provisioningId;
+            this.provisioningAction = provisioningAction;
+            this.completedTaskCount = completedTaskCount;
+            this.userId = userId;
+            this.nextTaskStarted = nextTaskStarted;
+            mTaskStates = new PersistableBundle(checkNotNull(taskStates));
+        }
+
+        /**
+         * Returns whether the entry was written for the provisioning session of the given params.
+         */
+        public boolean matches(ProvisioningParams params) {
+            return provisioningId == params.provisioningId
+                    && Objects.equals(provisioningAction, params.provisioningAction);
+        }
+
+        /**
+         * Returns the state saved by {@link AbstractProvisioningTask#saveState} of the task at the
+         * given index. An empty bundle is returned if the task saved nothing.
+         */
+        public PersistableBundle getTaskState(int index) {
+            PersistableBundle state = mTaskStates.getPersistableBundle(String.valueOf(index));
+            return state != null ? state : new PersistableBundle();
+        }
+
+        private PersistableBundle toPersistableBundle() {
+            PersistableBundle bundle = new PersistableBundle();
+            bundle.putLong(TAG_PROVISIONING_ID, provisioningId);
+            bundle.putString(TAG_PROVISIONING_ACTION, provisioningAction);
+            bundle.putInt(TAG_COMPLETED_TASK_COUNT, completedTaskCount);
+            bundle.putInt(TAG_USER_ID, userId);
+            bundle.putBoolean(TAG_NEXT_TASK_STARTED, nextTaskStarted);
+            bundle.putPersistableBundle(TAG_TASK_STATES, mTaskStates);
+            return bundle;
+        }
+
+        private static Entry fromPersistableBundle(PersistableBundle bundle) {
+            PersistableBundle taskStates = bundle.getPersistableBundle(TAG_TASK_STATES);
+            return new Entry(
+                    bundle.getLong(TAG_PROVISIONING_ID),
+                    bundle.getString(TAG_PROVISIONING_ACTION),
+                    bundle.getInt(TAG_COMPLETED_TASK_COUNT),
+                    bundle.getInt(TAG_USER_ID),
+                    taskStates != null ? taskStates : new PersistableBundle(),
+                    bundle.getBoolean(TAG_NEXT_TASK_STARTED));
+        }
+    }
+}
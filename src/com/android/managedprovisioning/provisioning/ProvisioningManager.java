@@ -23,25 +23,37 @@ import static com.android.managedprovisioning.analytics.ProvisioningAnalyticsTra
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Resources;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Pair;
+import android.util.PrintWriterPrinter;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.analytics.ChromeTraceExporter;
+import com.android.managedprovisioning.analytics.MetricsEventQueue;
 import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
 import com.android.managedprovisioning.analytics.TimeLogger;
+import com.android.managedprovisioning.analytics.TraceSpan;
+import com.android.managedprovisioning.common.DeviceAdminResolutionCache;
 import com.android.managedprovisioning.common.Globals;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Singleton instance that provides communications between the ongoing provisioning process and the
  * UI layer.
+ *
+ * <p>The callbacks from the controller and their delivery to the UI are traced. The trace of a
+ * provisioning session is exported once it is over, see {@link ChromeTraceExporter}.</p>
  */
 public class ProvisioningManager implements ProvisioningControllerCallback {
     private static ProvisioningManager sInstance;
@@ -66,6 +78,11 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
 
     private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
     private final TimeLogger mTimeLogger;
+    private final ChromeTraceExporter mTraceExporter;
+    private final MetricsEventQueue mMetricsEventQueue;
+    private final ProvisioningTracer mTracer;
+    private final TaskLatencyHistograms mLatencyHistograms;
+    private long mProvisioningId = ProvisioningTracer.NO_PROVISIONING_ID;
     private int mLastCallback = CALLBACK_NONE;
     private Pair<Pair<Integer, Integer>, Boolean> mLastError; // TODO: refactor
     private int mLastProgressMsgId;
@@ -84,7 +101,11 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
                 new Handler(Looper.getMainLooper()),
                 new ProvisioningControllerFactory(),
                 ProvisioningAnalyticsTracker.getInstance(),
-                new TimeLogger(context, PROVISIONING_TOTAL_TASK_TIME_MS));
+                new TimeLogger(context, PROVISIONING_TOTAL_TASK_TIME_MS),
+                new ChromeTraceExporter(context),
+                ProvisioningTracer.getInstance(),
+                TaskLatencyHistograms.getInstance(context),
+                MetricsEventQueue.getInstance());
     }
 
     @VisibleForTesting
@@ -93,12 +114,20 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
             Handler uiHandler,
             ProvisioningControllerFactory factory,
             ProvisioningAnalyticsTracker analyticsTracker,
-            TimeLogger timeLogger) {
+            TimeLogger timeLogger,
+            ChromeTraceExporter traceExporter,
+            ProvisioningTracer tracer,
+            TaskLatencyHistograms latencyHistograms,
+            MetricsEventQueue metricsEventQueue) {
         mContext = checkNotNull(context);
         mUiHandler = checkNotNull(uiHandler);
         mFactory = checkNotNull(factory);
         mProvisioningAnalyticsTracker = checkNotNull(analyticsTracker);
         mTimeLogger = checkNotNull(timeLogger);
+        mTraceExporter = checkNotNull(traceExporter);
+        mTracer = checkNotNull(tracer);
+        mLatencyHistograms = checkNotNull(latencyHistograms);
+        mMetricsEventQueue = checkNotNull(metricsEventQueue);
     }
 
     /**
@@ -128,7 +157,9 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
         mLastCallback = CALLBACK_NONE;
         mLastError = null;
         mLastProgressMsgId = 0;
+        mProvisioningId = params.provisioningId;
 
+        DeviceAdminResolutionCache.getInstance().startSession();
         mController = mFactory.createProvisioningController(mContext, params, this);
         mController.start(mHandlerThread.getLooper());
     }
@@ -177,15 +208,20 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
     @Override
     public void cleanUpCompleted() {
         synchronized (this) {
+            mTracer.recordInstant("cleanUpCompleted", mProvisioningId);
             clearControllerLocked();
         }
     }
 
     @Override
     public void error(int titleId, int messageId, boolean factoryResetRequired) {
+        // Logs what led to the error, including the events that weren't loggable.
+        ProvisionLogger.logRecentEvents();
         synchronized (this) {
+            mTracer.recordInstant("error", mProvisioningId);
             for (ProvisioningManagerCallback callback : mCallbacks) {
-                mUiHandler.post(() -> callback.error(titleId, messageId, factoryResetRequired));
+                postToUiLocked("error",
+                        () -> callback.error(titleId, messageId, factoryResetRequired));
             }
             mLastCallback = CALLBACK_ERROR;
             mLastError = Pair.create(Pair.create(titleId, messageId), factoryResetRequired);
@@ -195,8 +231,9 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
     @Override
     public void progressUpdate(int progressMsgId) {
         synchronized (this) {
+            mTracer.recordInstant("progressUpdate", mProvisioningId);
             for (ProvisioningManagerCallback callback : mCallbacks) {
-                mUiHandler.post(() -> callback.progressUpdate(progressMsgId));
+                postToUiLocked("progressUpdate", () -> callback.progressUpdate(progressMsgId));
             }
             mLastCallback = CALLBACK_PROGRESS;
             mLastProgressMsgId = progressMsgId;
@@ -206,9 +243,10 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
     @Override
     public void provisioningTasksCompleted() {
         synchronized (this) {
+            mTracer.recordInstant("provisioningTasksCompleted", mProvisioningId);
             mTimeLogger.stop();
             if (mController != null) {
-                mUiHandler.post(mController::preFinalize);
+                postToUiLocked("preFinalize", mController::preFinalize);
             } else {
                 ProvisionLogger.loge("Trying to pre-finalize provisioning, but controller is null");
             }
@@ -218,8 +256,9 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
     @Override
     public void preFinalizationCompleted() {
         synchronized (this) {
+            mTracer.recordInstant("preFinalizationCompleted", mProvisioningId);
             for (ProvisioningManagerCallback callback : mCallbacks) {
-                mUiHandler.post(callback::preFinalizationCompleted);
+                postToUiLocked("preFinalizationCompleted", callback::preFinalizationCompleted);
             }
             mLastCallback = CALLBACK_PRE_FINALIZED;
             mProvisioningAnalyticsTracker.logProvisioningSessionCompleted(mContext);
@@ -228,6 +267,73 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
         }
     }
 
+    /**
+     * Prints the state of the ongoing provisioning, for dumpsys.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        final AbstractProvisioningController controller;
+        synchronized (this) {
+            pw.println(prefix + "ProvisioningManager:");
+            pw.println(prefix + "  Last callback: " + callbackToString(mLastCallback));
+            if (mLastProgressMsgId != 0) {
+                pw.println(prefix + "  Last progress: " + getResourceName(mLastProgressMsgId));
+            }
+            if (mLastError != null) {
+                pw.println(prefix + "  Last error: title="
+                        + getResourceName(mLastError.first.first) + ", message="
+                        + getResourceName(mLastError.first.second) + ", factoryResetRequired="
+                        + mLastError.second);
+            }
+            if (mHandlerThread != null) {
+                pw.println(prefix + "  Worker thread: " + mHandlerThread.getState());
+                mHandlerThread.getLooper().dump(new PrintWriterPrinter(pw), prefix + "    ");
+            }
+            controller = mController;
+        }
+        // Not holding the lock, as the controller calls back into this class with its lock held.
+        if (controller != null) {
+            controller.dump(pw, prefix + "  ");
+        } else {
+            pw.println(prefix + "  No provisioning is running");
+        }
+        mLatencyHistograms.dump(pw, prefix + "  ");
+    }
+
+    private String getResourceName(int resId) {
+        try {
+            return mContext.getResources().getResourceEntryName(resId);
+        } catch (Resources.NotFoundException e) {
+            return "0x" + Integer.toHexString(resId);
+        }
+    }
+
+    private static String callbackToString(int callback) {
+        switch (callback) {
+            case CALLBACK_NONE:
+                return "none";
+            case CALLBACK_ERROR:
+                return "error";
+            case CALLBACK_PROGRESS:
+                return "progress";
+            case CALLBACK_PRE_FINALIZED:
+                return "pre-finalized";
+            default:
+                return "unknown (" + callback + ")";
+        }
+    }
+
+    /**
+     * Posts the given callback to the UI thread, tracing the time until it was delivered.
+     */
+    private void postToUiLocked(String name, Runnable callback) {
+        final TraceSpan span = mTracer.beginSpan(name, mProvisioningId)
+                .setAttribute("posted", true);
+        mUiHandler.post(() -> {
+            callback.run();
+            span.end();
+        });
+    }
+
     private void callLastCallbackLocked(ProvisioningManagerCallback callback) {
         switch (mLastCallback) {
             case CALLBACK_ERROR:
@@ -249,6 +355,16 @@ public class ProvisioningManager implements ProvisioningControllerCallback {
 
     private void clearControllerLocked() {
         mController = null;
+        mTraceExporter.exportToFile(mProvisioningId);
+
+        DeviceAdminResolutionCache cache = DeviceAdminResolutionCache.getInstance();
+        ProvisionLogger.logd("Device admin resolution cache: " + cache.getHitCount() + " hits, "
+                + cache.getMissCount() + " misses");
+        cache.endSession();
+
+        // Writes the session's metrics before the service may be stopped, without waiting for
+        // them: this may run on the UI thread.
+        mMetricsEventQueue.flush();
 
         if (mHandlerThread != null) {
             mHandlerThread.quitSafely();
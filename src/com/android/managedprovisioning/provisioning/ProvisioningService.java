@@ -20,13 +20,53 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 
+import com.android.managedprovisioning.analytics.BinderCallCounter;
+import com.android.managedprovisioning.analytics.ChromeTraceExporter;
+import com.android.managedprovisioning.analytics.MetricsEventQueue;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
 /**
  * Service that keeps the provisioning process alive.
+ *
+ * <p>{@code adb shell dumpsys activity service ProvisioningService} prints the state of the
+ * ongoing provisioning, see {@link ProvisioningManager#dump(PrintWriter, String)}, and the recent
+ * trace spans, see {@link ProvisioningTracer#dump(PrintWriter, String)}. With
+ * {@code --trace}, it prints the trace of the ongoing provisioning in the Chrome Trace Event
+ * format instead. The trace of the last provisioning is also written to
+ * {@link ChromeTraceExporter#TRACE_FILE_NAME} in the files dir, and the trace of the last OTA
+ * tasks to {@link ChromeTraceExporter#OTA_TRACE_FILE_NAME}.</p>
  */
 public class ProvisioningService extends Service {
+    private static final String ARG_TRACE = "--trace";
 
     @Override
     public IBinder onBind(Intent intent) {
         return null;
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        ChromeTraceExporter traceExporter = new ChromeTraceExporter(this);
+        if (args != null && Arrays.asList(args).contains(ARG_TRACE)) {
+            try {
+                traceExporter.writeTo(pw);
+            } catch (IOException e) {
+                pw.println("Couldn't write the trace: " + e);
+            }
+            return;
+        }
+        ProvisioningManager.getInstance(this).dump(pw, "");
+        MetricsEventQueue.getInstance().dump(pw, "");
+        BinderCallCounter.getInstance().dump(pw, "");
+        ProvisionLogger.dumpRecentEvents(pw, "");
+        ProvisioningTracer.getInstance().dump(pw, "");
+        pw.println("Trace file: " + traceExporter.getTraceFile());
+        pw.println("Use " + ARG_TRACE + " to print the current trace");
+    }
 }
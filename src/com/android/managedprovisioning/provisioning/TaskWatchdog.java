@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.provisioning;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+/**
+ * Reports provisioning tasks that don't finish within
+ * {@link AbstractProvisioningTask#getTimeoutMs()}.
+ *
+ * <p>The watchdog runs on its own handler, so that it also fires when a task blocks the
+ * provisioning worker thread. The stack of the worker thread is logged when a task times out.</p>
+ */
+class TaskWatchdog {
+
+    interface Listener {
+        /**
+         * Called on the watchdog handler when the watched task timed out.
+         */
+        void onTaskTimedOut(AbstractProvisioningTask task);
+    }
+
+    private final Handler mHandler;
+    private final Thread mWorkerThread;
+    private final Listener mListener;
+    private final Runnable mTimeoutRunnable = this::onTimeout;
+
+    @GuardedBy("this")
+    private AbstractProvisioningTask mTask;
+    @GuardedBy("this")
+    private long mStartTime;
+
+    TaskWatchdog(Handler handler, Thread workerThread, Listener listener) {
+        mHandler = checkNotNull(handler);
+        mWorkerThread = checkNotNull(workerThread);
+        mListener = checkNotNull(listener);
+    }
+
+    /**
+     * Starts watching the given task, instead of the previously watched one.
+     */
+    void watch(AbstractProvisioningTask task) {
+        synchronized (this) {
+            mTask = checkNotNull(task);
+            mStartTime = SystemClock.elapsedRealtime();
+        }
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mHandler.postDelayed(mTimeoutRunnable, task.getTimeoutMs());
+    }
+
+    /**
+     * Stops watching the current task.
+     */
+    void stop() {
+        synchronized (this) {
+            mTask = null;
+        }
+        mHandler.removeCallbacks(mTimeoutRunnable);
+    }
+
+    private void onTimeout() {
+        final AbstractProvisioningTask task;
+        final long elapsedMs;
+        synchronized (this) {
+            if (mTask == null) {
+                return;
+            }
+            task = mTask;
+            elapsedMs = SystemClock.elapsedRealtime() - mStartTime;
+            mTask = null;
+        }
+
+        ProvisionLogger.loge(task.getClass().getSimpleName() + " timed out after " + elapsedMs
+                + " ms, its time out is " + task.getTimeoutMs() + " ms");
+        logWorkerThreadStack();
+        mListener.onTaskTimedOut(task);
+    }
+
+    private void logWorkerThreadStack() {
+        StringBuilder stack = new StringBuilder("Stack of " + mWorkerThread.getName() + " ("
+                + mWorkerThread.getState() + "):");
+        for (StackTraceElement element : mWorkerThread.getStackTrace()) {
+            stack.append("\n\tat ").append(element);
+        }
+        ProvisionLogger.loge(stack.toString());
+    }
+}
@@ -20,18 +20,35 @@ import static com.android.internal.logging.nano.MetricsProto.MetricsEvent.VIEW_U
 import static com.android.internal.util.Preconditions.checkNotNull;
 
 import android.content.Context;
+import android.os.PersistableBundle;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
 import com.android.managedprovisioning.analytics.TimeLogger;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Base class for all provisioning tasks.
  */
 public abstract class AbstractProvisioningTask {
+    /**
+     * Error code of a task that didn't finish within {@link #getTimeoutMs()}. Tasks use
+     * non-negative error codes.
+     */
+    public static final int ERROR_TIMED_OUT = -1;
+
+    protected static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
     protected final Context mContext;
     protected final ProvisioningParams mProvisioningParams;
     private final Callback mCallback;
+    private final CancellationToken mCancellationToken = new CancellationToken();
     private TimeLogger mTimeLogger;
+    @GuardedBy("this")
+    private TraceSpan mTraceSpan;
 
     /**
      * Constructor for a provisioning task
@@ -71,6 +88,29 @@ public abstract class AbstractProvisioningTask {
         return VIEW_UNKNOWN;
     }
 
+    /**
+     * Sets the span that traces this run of the task. Called by whoever runs the task before
+     * {@link #run(int)}, which also ends the span once the task reported its result.
+     */
+    public synchronized void setTraceSpan(TraceSpan span) {
+        mTraceSpan = checkNotNull(span);
+    }
+
+    /**
+     * Returns the span that traces this run of the task, to annotate it or to nest the steps of
+     * the task in it. If the task wasn't given a span, a span is begun that is never ended, so
+     * that only the nested spans are recorded.
+     */
+    protected final synchronized TraceSpan getTraceSpan() {
+        if (mTraceSpan == null) {
+            mTraceSpan = ProvisioningTracer.getInstance().beginSpan(getClass().getSimpleName(),
+                    mProvisioningParams != null
+                            ? mProvisioningParams.provisioningId
+                            : ProvisioningTracer.NO_PROVISIONING_ID);
+        }
+        return mTraceSpan;
+    }
+
     /**
      * Run the task.
      *
@@ -78,6 +118,64 @@ public abstract class AbstractProvisioningTask {
      */
     public abstract void run(int userId);
 
+    /**
+     * Cancel the task if it is still running.
+     *
+     * <p>Called on the provisioning worker thread when provisioning is cancelled. Tasks that
+     * finish asynchronously should stop any pending work and must not report a result
+     * afterwards. The default implementation does nothing.</p>
+     */
+    public void cancel() {}
+
+    /**
+     * Returns the token that is cancelled as soon as provisioning is cancelled, before
+     * {@link #cancel()} is called. Tasks that block the worker thread should stop waiting once
+     * it is cancelled.
+     */
+    public final CancellationToken getCancellationToken() {
+        return mCancellationToken;
+    }
+
+    /**
+     * Returns how long the task may take before it is failed with {@link #ERROR_TIMED_OUT}. Tasks
+     * that wait for other components or the network should override this.
+     */
+    public long getTimeoutMs() {
+        return DEFAULT_TIMEOUT_MS;
+    }
+
+    /**
+     * Saves the results of a successful run that later tasks depend on, e.g. the location of a
+     * downloaded file. Provisioning can then resume after this task if the process is restarted.
+     * The default implementation saves nothing.
+     *
+     * @param outState bundle to save the results to.
+     */
+    public void saveState(PersistableBundle outState) {}
+
+    /**
+     * Restores the results saved by {@link #saveState(PersistableBundle)}, instead of running the
+     * task again when provisioning resumes after it.
+     *
+     * <p>The completed tasks are restored in reverse order: a task is restored after the later
+     * tasks that use its results, which may tell it that they aren't needed anymore.</p>
+     *
+     * @param savedState bundle that the results were saved to.
+     * @return whether the saved results are still valid. If not, provisioning resumes with this
+     *         task.
+     */
+    public boolean restoreState(PersistableBundle savedState) {
+        return true;
+    }
+
+    /**
+     * Called when provisioning resumes with this task, if it was started but didn't complete in a
+     * previous process. Tasks that aren't idempotent should look for the results of the
+     * interrupted run when they are run again, instead of repeating it. The default
+     * implementation does nothing.
+     */
+    public void onRunInterrupted() {}
+
     /**
      * @return the resource id of the status message related to the task.
      */
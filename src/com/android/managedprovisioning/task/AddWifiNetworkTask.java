@@ -19,8 +19,8 @@ package com.android.managedprovisioning.task;
 import static com.android.internal.util.Preconditions.checkNotNull;
 
 import android.content.Context;
+import android.net.NetworkCapabilities;
 import android.net.wifi.WifiConfiguration;
-import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
 
@@ -29,22 +29,37 @@ import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.model.WifiInfo;
 import com.android.managedprovisioning.task.wifi.NetworkMonitor;
+import com.android.managedprovisioning.task.wifi.WifiCandidateRanker;
 import com.android.managedprovisioning.task.wifi.WifiConfigurationProvider;
 
+import java.util.List;
+
 /**
  * Adds a wifi network to the system and waits for it to successfully connect. If the system does
  * not support wifi, the adding or connection times out {@link #error(int)} will be called.
+ *
+ * <p>If fallback networks are given in {@link ProvisioningParams#fallbackWifiInfos}, the networks
+ * are tried in the order given by {@link WifiCandidateRanker}, each with a shorter time out. If
+ * none of them connects and {@link ProvisioningParams#useMobileData} is set, the task falls back
+ * to the mobile network.</p>
  */
 public class AddWifiNetworkTask extends AbstractProvisioningTask
         implements NetworkMonitor.NetworkConnectedCallback {
-    private static final int RETRY_SLEEP_DURATION_BASE_MS = 500;
     private static final int RETRY_SLEEP_MULTIPLIER = 2;
-    private static final int MAX_RETRIES = 6;
-    private static final int RECONNECT_TIMEOUT_MS = 60000;
+    @VisibleForTesting static final int RETRY_SLEEP_DURATION_BASE_MS = 500;
+    @VisibleForTesting static final int MAX_RETRIES = 6;
+    @VisibleForTesting static final int RECONNECT_TIMEOUT_MS = 60000;
+    // Time out for a network that is followed by another network or the mobile network.
+    @VisibleForTesting static final int CANDIDATE_TIMEOUT_MS = 20000;
     @VisibleForTesting  static final int ADD_NETWORK_FAIL = -1;
+    // Longest time spent on retrying to add a network.
+    private static final int MAX_ADD_NETWORK_DURATION_MS =
+            RETRY_SLEEP_DURATION_BASE_MS * ((1 << MAX_RETRIES) - 1);
 
     private final WifiConfigurationProvider mWifiConfigurationProvider;
+    private final WifiCandidateRanker mWifiCandidateRanker = new WifiCandidateRanker();
     private final WifiManager mWifiManager;
     private final NetworkMonitor mNetworkMonitor;
 
@@ -53,8 +68,16 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
 
     private final Utils mUtils;
     private Runnable mTimeoutRunnable;
+    private Runnable mRetryRunnable;
+    private int mRetriesLeft;
+    private int mDurationNextSleep;
     private Injector mInjector;
 
+    private List<WifiInfo> mCandidates;
+    private int mNextCandidateIndex;
+    private volatile WifiInfo mCurrentWifiInfo;
+    private AbstractProvisioningTask mMobileNetworkTask;
+
     public AddWifiNetworkTask(
             Context context,
             ProvisioningParams provisioningParams,
@@ -96,15 +119,20 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
             return;
         }
 
-        if (isConnectedToSpecifiedWifi()) {
-            success();
-            return;
+        mCandidates = mWifiCandidateRanker.rank(mProvisioningParams.getWifiInfoCandidates(),
+                mWifiManager.getScanResults());
+        for (WifiInfo candidate : mCandidates) {
+            if (isConnectedToSpecifiedWifi(candidate)) {
+                success();
+                return;
+            }
         }
 
         mTaskDone = false;
         mHandler = new Handler();
-        mNetworkMonitor.startListening(this);
-        connectToProvidedNetwork();
+        mNextCandidateIndex = 0;
+        mNetworkMonitor.startListening(this, NetworkCapabilities.TRANSPORT_WIFI);
+        connectToNextCandidate(userId);
     }
 
     @Override
@@ -112,24 +140,97 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
         return R.string.progress_connect_to_wifi;
     }
 
-    private void connectToProvidedNetwork() {
+    @Override
+    public long getTimeoutMs() {
+        long timeoutMs = (long) mProvisioningParams.getWifiInfoCandidates().size()
+                * (MAX_ADD_NETWORK_DURATION_MS + RECONNECT_TIMEOUT_MS);
+        if (mProvisioningParams.useMobileData) {
+            timeoutMs += DEFAULT_TIMEOUT_MS;
+        }
+        // Leave time for enabling wifi.
+        return timeoutMs + DEFAULT_TIMEOUT_MS;
+    }
+
+    /**
+     * Tries the next network of the ranked candidates, or the mobile network once all of them
+     * failed.
+     */
+    private void connectToNextCandidate(int userId) {
+        synchronized (this) {
+            if (mTaskDone) {
+                return;
+            }
+            // Remove the callbacks of the previous candidate.
+            removeCallbacks();
+            if (mNextCandidateIndex >= mCandidates.size()) {
+                mCurrentWifiInfo = null;
+                if (!mProvisioningParams.useMobileData) {
+                    finishTask(false);
+                    return;
+                }
+            } else {
+                mCurrentWifiInfo = mCandidates.get(mNextCandidateIndex++);
+            }
+        }
+
+        if (mCurrentWifiInfo == null) {
+            connectToMobileNetwork(userId);
+        } else {
+            ProvisionLogger.logd("Connecting to " + mCurrentWifiInfo.ssid + " ("
+                    + mNextCandidateIndex + "/" + mCandidates.size() + ")");
+            connectToProvidedNetwork(userId);
+        }
+    }
+
+    private boolean hasNextCandidate() {
+        return mNextCandidateIndex < mCandidates.size() || mProvisioningParams.useMobileData;
+    }
+
+    private void connectToProvidedNetwork(int userId) {
         WifiConfiguration wifiConf =
-                mWifiConfigurationProvider.generateWifiConfiguration(mProvisioningParams.wifiInfo);
+                mWifiConfigurationProvider.generateWifiConfiguration(mCurrentWifiInfo);
 
         if (wifiConf == null) {
             ProvisionLogger.loge("WifiConfiguration is null");
-            error(0);
+            connectToNextCandidate(userId);
             return;
         }
 
-        int netId = tryAddingNetwork(wifiConf);
+        mRetriesLeft = MAX_RETRIES;
+        mDurationNextSleep = RETRY_SLEEP_DURATION_BASE_MS;
+        tryAddingNetwork(wifiConf, userId);
+    }
 
-        if (netId == ADD_NETWORK_FAIL) {
+    /**
+     * Tries to add the network. If this fails, another attempt is posted to the handler with
+     * exponential backoff, so that the worker thread stays responsive in between.
+     */
+    private void tryAddingNetwork(WifiConfiguration wifiConf, int userId) {
+        if (mTaskDone) {
+            // The task was cancelled while waiting for the retry.
+            return;
+        }
+
+        int netId = mWifiManager.addNetwork(wifiConf);
+        if (netId != ADD_NETWORK_FAIL) {
+            connectToAddedNetwork(netId, userId);
+            return;
+        }
+
+        if (mRetriesLeft == 0) {
             ProvisionLogger.loge("Unable to add network after trying " +  MAX_RETRIES + " times.");
-            error(0);
+            connectToNextCandidate(userId);
             return;
         }
 
+        ProvisionLogger.loge("Retrying in " + mDurationNextSleep + " ms.");
+        mRetryRunnable = () -> tryAddingNetwork(wifiConf, userId);
+        mInjector.postDelayed(mHandler, mRetryRunnable, mDurationNextSleep);
+        mDurationNextSleep *= RETRY_SLEEP_MULTIPLIER;
+        mRetriesLeft--;
+    }
+
+    private void connectToAddedNetwork(int netId, int userId) {
         // Setting disableOthers to 'true' should trigger a connection attempt.
         mWifiManager.enableNetwork(netId, true);
         mWifiManager.saveConfiguration();
@@ -137,33 +238,42 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
         // Network was successfully saved, now connect to it.
         if (!mWifiManager.reconnect()) {
             ProvisionLogger.loge("Unable to connect to wifi");
-            error(0);
+            connectToNextCandidate(userId);
             return;
         }
 
-        // NetworkMonitor will call onNetworkConnected when in Wifi mode.
-        // Post time out event in case the NetworkMonitor doesn't call back.
-        mTimeoutRunnable = () -> finishTask(false);
-        mHandler.postDelayed(mTimeoutRunnable, RECONNECT_TIMEOUT_MS);
+        // NetworkMonitor will call onNetworkConnected once the wifi is connected.
+        // Post time out event in case the NetworkMonitor doesn't call back, e.g. because the
+        // network can't be connected to.
+        final WifiInfo wifiInfo = mCurrentWifiInfo;
+        mTimeoutRunnable = () -> {
+            if (isConnectedToSpecifiedWifi(wifiInfo)) {
+                finishTask(true);
+            } else {
+                ProvisionLogger.loge("Timed out connecting to " + wifiInfo.ssid);
+                connectToNextCandidate(userId);
+            }
+        };
+        mInjector.postDelayed(mHandler, mTimeoutRunnable,
+                hasNextCandidate() ? CANDIDATE_TIMEOUT_MS : RECONNECT_TIMEOUT_MS);
     }
 
-    private int tryAddingNetwork(WifiConfiguration wifiConf) {
-        int netId = mWifiManager.addNetwork(wifiConf);
-        int retriesLeft = MAX_RETRIES;
-        int durationNextSleep = RETRY_SLEEP_DURATION_BASE_MS;
-
-        while(netId == -1 && retriesLeft > 0) {
-            ProvisionLogger.loge("Retrying in " + durationNextSleep + " ms.");
-            try {
-                mInjector.threadSleep(durationNextSleep);
-            } catch (InterruptedException e) {
-                ProvisionLogger.loge("Retry interrupted.");
-            }
-            durationNextSleep *= RETRY_SLEEP_MULTIPLIER;
-            retriesLeft--;
-            netId = mWifiManager.addNetwork(wifiConf);
-        }
-        return netId;
+    private void connectToMobileNetwork(int userId) {
+        ProvisionLogger.logd("No wifi network could be connected to, using the mobile network");
+        mNetworkMonitor.stopListening();
+        mMobileNetworkTask = mInjector.createMobileNetworkTask(mContext, mProvisioningParams,
+                new Callback() {
+                    @Override
+                    public void onSuccess(AbstractProvisioningTask task) {
+                        finishTask(true);
+                    }
+
+                    @Override
+                    public void onError(AbstractProvisioningTask task, int errorCode) {
+                        finishTask(false);
+                    }
+                });
+        mMobileNetworkTask.run(userId);
     }
 
     private boolean enableWifi() {
@@ -173,11 +283,24 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
     @Override
     public void onNetworkConnected() {
         ProvisionLogger.logd("onNetworkConnected");
-        if (isConnectedToSpecifiedWifi()) {
+        WifiInfo wifiInfo = mCurrentWifiInfo;
+        if (wifiInfo != null && isConnectedToSpecifiedWifi(wifiInfo)) {
             ProvisionLogger.logd("Connected to the correct network");
             finishTask(true);
-            // Remove time out callback.
-            mHandler.removeCallbacks(mTimeoutRunnable);
+        }
+    }
+
+    @Override
+    public synchronized void cancel() {
+        if (mTaskDone) {
+            return;
+        }
+
+        ProvisionLogger.logd("Cancelling adding wifi network");
+        mTaskDone = true;
+        stopWaiting();
+        if (mMobileNetworkTask != null) {
+            mMobileNetworkTask.cancel();
         }
     }
 
@@ -187,7 +310,7 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
         }
 
         mTaskDone = true;
-        mNetworkMonitor.stopListening();
+        stopWaiting();
         if (isSuccess) {
             success();
         } else {
@@ -195,19 +318,32 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
         }
     }
 
-    private boolean isConnectedToSpecifiedWifi() {
+    private void stopWaiting() {
+        mNetworkMonitor.stopListening();
+        removeCallbacks();
+    }
+
+    private void removeCallbacks() {
+        if (mHandler != null) {
+            // Remove pending retry and time out callbacks.
+            mInjector.removeCallbacks(mHandler, mRetryRunnable);
+            mInjector.removeCallbacks(mHandler, mTimeoutRunnable);
+        }
+    }
+
+    private boolean isConnectedToSpecifiedWifi(WifiInfo wifiInfo) {
         if (!mUtils.isConnectedToWifi(mContext)) {
             ProvisionLogger.logd("Not connected to WIFI");
             return false;
         }
-        WifiInfo connectionInfo = mWifiManager.getConnectionInfo();
+        android.net.wifi.WifiInfo connectionInfo = mWifiManager.getConnectionInfo();
         if (connectionInfo == null) {
             ProvisionLogger.logd("connection info is null");
             return false;
         }
-        String connectedSSID = mWifiManager.getConnectionInfo().getSSID();
-        if (!mProvisioningParams.wifiInfo.ssid.equals(connectedSSID)) {
-            ProvisionLogger.logd("Wanted to connect SSID " + mProvisioningParams.wifiInfo.ssid
+        String connectedSSID = connectionInfo.getSSID();
+        if (!wifiInfo.ssid.equals(connectedSSID)) {
+            ProvisionLogger.logd("Wanted to connect SSID " + wifiInfo.ssid
                     + ", but it is now connected to " + connectedSSID);
             return false;
         }
@@ -216,8 +352,19 @@ public class AddWifiNetworkTask extends AbstractProvisioningTask
 
     @VisibleForTesting
     static class Injector {
-        public void threadSleep(long milliseconds) throws InterruptedException {
-            Thread.sleep(milliseconds);
+        public void postDelayed(Handler handler, Runnable runnable, long delayMillis) {
+            handler.postDelayed(runnable, delayMillis);
+        }
+
+        public void removeCallbacks(Handler handler, Runnable runnable) {
+            if (runnable != null) {
+                handler.removeCallbacks(runnable);
+            }
+        }
+
+        public AbstractProvisioningTask createMobileNetworkTask(Context context,
+                ProvisioningParams params, Callback callback) {
+            return new ConnectMobileNetworkTask(context, params, callback);
         }
     }
 }
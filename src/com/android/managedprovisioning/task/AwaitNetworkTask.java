@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.managedprovisioning.task;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.Context;
+
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+/**
+ * Waits for the network started by a {@link StartNetworkTask}.
+ *
+ * <p>The task doesn't block the provisioning thread while waiting; it finishes once the network
+ * is ready, or fails with the error code of the task that brought up the network.</p>
+ */
+public class AwaitNetworkTask extends AbstractProvisioningTask {
+    private final StartNetworkTask mStartNetworkTask;
+
+    public AwaitNetworkTask(
+            StartNetworkTask startNetworkTask,
+            Context context,
+            ProvisioningParams params,
+            Callback callback) {
+        super(context, params, callback);
+        mStartNetworkTask = checkNotNull(startNetworkTask);
+    }
+
+    @Override
+    public void run(int userId) {
+        mStartNetworkTask.ensureStarted(userId);
+        mStartNetworkTask.setReadinessListener(new StartNetworkTask.ReadinessListener() {
+            @Override
+            public void onNetworkReady() {
+                success();
+            }
+
+            @Override
+            public void onNetworkError(int errorCode) {
+                error(errorCode);
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        mStartNetworkTask.setReadinessListener(null);
+    }
+
+    @Override
+    public int getStatusMsgId() {
+        return mStartNetworkTask.getStatusMsgId();
+    }
+
+    @Override
+    public long getTimeoutMs() {
+        // The network may only start to be brought up when this task is run, see ensureStarted.
+        return getNetworkTask().getTimeoutMs();
+    }
+
+    /**
+     * Returns the task that brought up the network.
+     */
+    public AbstractProvisioningTask getNetworkTask() {
+        return mStartNetworkTask.getNetworkTask();
+    }
+}
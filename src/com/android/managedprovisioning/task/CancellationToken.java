@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a provisioning task that provisioning was cancelled.
+ *
+ * <p>Unlike {@link AbstractProvisioningTask#cancel()}, which is run on the worker thread, the
+ * token is cancelled right away on the thread that cancels provisioning. Tasks that block the
+ * worker thread use it to stop waiting.</p>
+ */
+public class CancellationToken {
+    @GuardedBy("this")
+    private boolean mCancelled;
+    @GuardedBy("this")
+    private final List<Runnable> mListeners = new ArrayList<>();
+
+    /**
+     * Cancels the token and runs its listeners on the calling thread.
+     */
+    public void cancel() {
+        final List<Runnable> listeners;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        // Not holding the lock, as listeners may call back into the task.
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Adds a listener that is run once the token is cancelled. If the token is already cancelled,
+     * the listener is run right away.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeListener(Runnable listener) {
+        mListeners.remove(listener);
+    }
+}
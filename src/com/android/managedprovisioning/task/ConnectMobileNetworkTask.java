@@ -16,10 +16,13 @@
 
 package com.android.managedprovisioning.task;
 
+import static com.android.internal.util.Preconditions.checkNotNull;
+
 import android.content.Context;
 import android.os.Handler;
 import android.provider.Settings;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.Utils;
@@ -46,9 +49,19 @@ public class ConnectMobileNetworkTask extends AbstractProvisioningTask
             Context context,
             ProvisioningParams provisioningParams,
             Callback callback) {
+        this(new NetworkMonitor(context), new Utils(), context, provisioningParams, callback);
+    }
+
+    @VisibleForTesting
+    ConnectMobileNetworkTask(
+            NetworkMonitor networkMonitor,
+            Utils utils,
+            Context context,
+            ProvisioningParams provisioningParams,
+            Callback callback) {
         super(context, provisioningParams, callback);
-        mNetworkMonitor = new NetworkMonitor(context);
-        mUtils = new Utils();
+        mNetworkMonitor = checkNotNull(networkMonitor);
+        mUtils = checkNotNull(utils);
     }
 
     @Override
@@ -65,9 +78,9 @@ public class ConnectMobileNetworkTask extends AbstractProvisioningTask
         mHandler = new Handler();
         mNetworkMonitor.startListening(this);
 
-        // NetworkMonitor will call onNetworkConnected.
+        // NetworkMonitor will call onNetworkConnected once a network is connected.
         // Post time out event in case the NetworkMonitor doesn't call back.
-        mTimeoutRunnable = () -> finishTask(false);
+        mTimeoutRunnable = () -> finishTask(mUtils.isConnectedToNetwork(mContext));
         mHandler.postDelayed(mTimeoutRunnable, RECONNECT_TIMEOUT_MS);
     }
 
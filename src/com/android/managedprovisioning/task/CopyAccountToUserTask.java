@@ -17,6 +17,7 @@
 package com.android.managedprovisioning.task;
 
 import static com.android.internal.logging.nano.MetricsProto.MetricsEvent.PROVISIONING_COPY_ACCOUNT_TASK_MS;
+import static com.android.internal.util.Preconditions.checkNotNull;
 import static com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker.COPY_ACCOUNT_EXCEPTION;
 import static com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker.COPY_ACCOUNT_FAILED;
 import static com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker.COPY_ACCOUNT_SUCCEEDED;
@@ -24,13 +25,17 @@ import static com.android.managedprovisioning.analytics.ProvisioningAnalyticsTra
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.accounts.AccountManagerFuture;
 import android.accounts.AuthenticatorException;
 import android.accounts.OperationCanceledException;
+import android.annotation.Nullable;
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.UserHandle;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.common.AccountMigrationTracker;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.model.ProvisioningParams;
@@ -44,29 +49,59 @@ import java.util.concurrent.TimeUnit;
  *
  * <p>If the account migration fails or times out, we still return success as we consider account
  * migration not to be a critical operation.</p>
+ *
+ * <p>When copying in the background, the task succeeds right after starting the copy. The result
+ * is recorded in the {@link AccountMigrationTracker}, so that the account is only removed from the
+ * source user once it was copied.</p>
  */
 public class CopyAccountToUserTask extends AbstractProvisioningTask {
     private static final int ACCOUNT_COPY_TIMEOUT_SECONDS = 60 * 3;  // 3 minutes
 
     private final int mSourceUserId;
+    private final boolean mCopyInBackground;
     private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
+    private final AccountMigrationTracker mAccountMigrationTracker;
 
     public CopyAccountToUserTask(
             int sourceUserId,
+            boolean copyInBackground,
             Context context,
             ProvisioningParams provisioningParams,
             Callback callback) {
+        this(sourceUserId, copyInBackground, context, provisioningParams, callback,
+                AccountMigrationTracker.getInstance());
+    }
+
+    @VisibleForTesting
+    CopyAccountToUserTask(
+            int sourceUserId,
+            boolean copyInBackground,
+            Context context,
+            ProvisioningParams provisioningParams,
+            Callback callback,
+            AccountMigrationTracker accountMigrationTracker) {
         super(context, provisioningParams, callback);
 
         mSourceUserId = sourceUserId;
+        mCopyInBackground = copyInBackground;
         mProvisioningAnalyticsTracker = ProvisioningAnalyticsTracker.getInstance();
+        mAccountMigrationTracker = checkNotNull(accountMigrationTracker);
     }
 
     @Override
     public void run(int userId) {
         startTaskTimer();
 
+        if (mCopyInBackground) {
+            maybeStartBackgroundCopy(userId);
+            success();
+            return;
+        }
+
         final boolean copySucceeded = maybeCopyAccount(userId);
+        if (getCancellationToken().isCancelled()) {
+            return;
+        }
         // Do not log time if account migration did not succeed, as that isn't useful.
         if (copySucceeded) {
             stopTaskTimer();
@@ -80,6 +115,12 @@ public class CopyAccountToUserTask extends AbstractProvisioningTask {
         return R.string.progress_finishing_touches;
     }
 
+    @Override
+    public long getTimeoutMs() {
+        // Leave time for the task to give up on its own, as migrating the account isn't critical.
+        return TimeUnit.SECONDS.toMillis(ACCOUNT_COPY_TIMEOUT_SECONDS) + DEFAULT_TIMEOUT_MS;
+    }
+
     @Override
     protected int getMetricsCategory() {
         return PROVISIONING_COPY_ACCOUNT_TASK_MS;
@@ -87,28 +128,66 @@ public class CopyAccountToUserTask extends AbstractProvisioningTask {
 
     @VisibleForTesting
     boolean maybeCopyAccount(int targetUserId) {
+        AccountManagerFuture<Boolean> future = maybeStartCopy(targetUserId);
+        return future != null && waitForCopy(future, UserHandle.of(targetUserId));
+    }
+
+    private void maybeStartBackgroundCopy(int targetUserId) {
+        final AccountManagerFuture<Boolean> future = maybeStartCopy(targetUserId);
+        if (future == null) {
+            return;
+        }
+        mAccountMigrationTracker.migrationStarted(targetUserId);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            final boolean copySucceeded = waitForCopy(future, UserHandle.of(targetUserId));
+            // Do not log time if account migration did not succeed, as that isn't useful.
+            if (copySucceeded) {
+                stopTaskTimer();
+            }
+            mAccountMigrationTracker.migrationFinished(targetUserId, copySucceeded);
+        });
+    }
+
+    /**
+     * Starts copying the account to the target user.
+     *
+     * @return the future of the copy, or {@code null} if there is nothing to copy.
+     */
+    @Nullable
+    private AccountManagerFuture<Boolean> maybeStartCopy(int targetUserId) {
         Account accountToMigrate = mProvisioningParams.accountToMigrate;
         UserHandle sourceUser = UserHandle.of(mSourceUserId);
         UserHandle targetUser = UserHandle.of(targetUserId);
 
         if (accountToMigrate == null) {
             ProvisionLogger.logd("No account to migrate.");
-            return false;
+            return null;
         }
         if (sourceUser.equals(targetUser)) {
             ProvisionLogger.loge("sourceUser and targetUser are the same, won't migrate account.");
-            return false;
+            return null;
         }
         ProvisionLogger.logd("Attempting to copy account from " + sourceUser + " to " + targetUser);
+        AccountManager accountManager = (AccountManager)
+                mContext.getSystemService(Context.ACCOUNT_SERVICE);
+        return accountManager.copyAccountToUser(
+                accountToMigrate,
+                sourceUser,
+                targetUser,
+                /* callback= */ null, /* handler= */ null);
+    }
+
+    private boolean waitForCopy(AccountManagerFuture<Boolean> future, UserHandle targetUser) {
         try {
-            AccountManager accountManager = (AccountManager)
-                    mContext.getSystemService(Context.ACCOUNT_SERVICE);
-            boolean copySucceeded = accountManager.copyAccountToUser(
-                    accountToMigrate,
-                    sourceUser,
-                    targetUser,
-                    /* callback= */ null, /* handler= */ null)
-                    .getResult(ACCOUNT_COPY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // Stop waiting for the result when provisioning is cancelled.
+            final Runnable cancelListener = () -> future.cancel(true /* mayInterruptIfRunning */);
+            getCancellationToken().addListener(cancelListener);
+            boolean copySucceeded;
+            try {
+                copySucceeded = future.getResult(ACCOUNT_COPY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } finally {
+                getCancellationToken().removeListener(cancelListener);
+            }
             if (copySucceeded) {
                 ProvisionLogger.logi("Copied account to " + targetUser);
                 mProvisioningAnalyticsTracker.logCopyAccountStatus(mContext,
@@ -119,6 +198,10 @@ public class CopyAccountToUserTask extends AbstractProvisioningTask {
                 ProvisionLogger.loge("Could not copy account to " + targetUser);
             }
         } catch (OperationCanceledException e) {
+            if (getCancellationToken().isCancelled()) {
+                ProvisionLogger.logd("Stopped copying account, provisioning was cancelled");
+                return false;
+            }
             mProvisioningAnalyticsTracker.logCopyAccountStatus(mContext, COPY_ACCOUNT_TIMED_OUT);
             ProvisionLogger.loge("Exception copying account to " + targetUser, e);
         } catch (AuthenticatorException | IOException e) {
@@ -21,23 +21,31 @@ import static com.android.internal.util.Preconditions.checkNotNull;
 
 import android.content.Context;
 import android.content.pm.UserInfo;
+import android.os.PersistableBundle;
+import android.os.UserHandle;
 import android.os.UserManager;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic;
 
 import java.util.Set;
 
 /**
- * Task to create a managed profile.
+ * Task to create a managed profile. A profile created in the background by the
+ * {@link ManagedProfilePrecreator} for the same provisioning session is adopted instead, as is the
+ * profile created by a run of the task that was interrupted.
  */
 public class CreateManagedProfileTask extends AbstractProvisioningTask {
+    private static final String KEY_PROFILE_USER_ID = "profile-user-id";
 
-    private int mProfileUserId;
+    private int mProfileUserId = UserHandle.USER_NULL;
+    private boolean mRunInterrupted;
     private final NonRequiredAppsLogic mNonRequiredAppsLogic;
     private final UserManager mUserManager;
+    private final ManagedProfilePrecreator mManagedProfilePrecreator;
 
     public CreateManagedProfileTask(Context context, ProvisioningParams params, Callback callback) {
         this(
@@ -45,7 +53,8 @@ public class CreateManagedProfileTask extends AbstractProvisioningTask {
                 params,
                 callback,
                 context.getSystemService(UserManager.class),
-                new NonRequiredAppsLogic(context, true, params));
+                new NonRequiredAppsLogic(context, true, params),
+                ManagedProfilePrecreator.getInstance());
     }
 
     @VisibleForTesting
@@ -54,15 +63,39 @@ public class CreateManagedProfileTask extends AbstractProvisioningTask {
             ProvisioningParams params,
             Callback callback,
             UserManager userManager,
-            NonRequiredAppsLogic logic) {
+            NonRequiredAppsLogic logic,
+            ManagedProfilePrecreator managedProfilePrecreator) {
         super(context, params, callback);
         mNonRequiredAppsLogic = checkNotNull(logic);
         mUserManager = checkNotNull(userManager);
+        mManagedProfilePrecreator = checkNotNull(managedProfilePrecreator);
     }
 
     @Override
     public void run(int userId) {
         startTaskTimer();
+        final int precreatedProfileUserId = mManagedProfilePrecreator.adopt(mProvisioningParams,
+                userId);
+        if (precreatedProfileUserId != UserHandle.USER_NULL) {
+            mProfileUserId = precreatedProfileUserId;
+            stopTaskTimer();
+            success();
+            return;
+        }
+
+        if (mRunInterrupted) {
+            final int interruptedProfileUserId = findManagedProfile(userId);
+            if (interruptedProfileUserId != UserHandle.USER_NULL) {
+                ProvisionLogger.logi("Adopting the managed profile " + interruptedProfileUserId
+                        + " created before provisioning was interrupted");
+                mProfileUserId = interruptedProfileUserId;
+                mNonRequiredAppsLogic.maybeTakeSystemAppsSnapshot(interruptedProfileUserId);
+                stopTaskTimer();
+                success();
+                return;
+            }
+        }
+
         final Set<String> nonRequiredApps = mNonRequiredAppsLogic.getSystemAppsToRemove(userId);
         UserInfo userInfo = mUserManager.createProfileForUserEvenWhenDisallowed(
                 mContext.getString(R.string.default_managed_profile_name),
@@ -78,6 +111,15 @@ public class CreateManagedProfileTask extends AbstractProvisioningTask {
         success();
     }
 
+    private int findManagedProfile(int parentUserId) {
+        for (UserInfo userInfo : mUserManager.getProfiles(parentUserId)) {
+            if (userInfo.isManagedProfile()) {
+                return userInfo.id;
+            }
+        }
+        return UserHandle.USER_NULL;
+    }
+
     @Override
     public int getStatusMsgId() {
         return R.string.progress_initialize;
@@ -88,7 +130,33 @@ public class CreateManagedProfileTask extends AbstractProvisioningTask {
         return PROVISIONING_CREATE_PROFILE_TASK_MS;
     }
 
+    /**
+     * Returns the id of the created profile, or {@link UserHandle#USER_NULL} if none was created.
+     */
     public int getProfileUserId() {
         return mProfileUserId;
     }
+
+    @Override
+    public void saveState(PersistableBundle outState) {
+        outState.putInt(KEY_PROFILE_USER_ID, mProfileUserId);
+    }
+
+    @Override
+    public boolean restoreState(PersistableBundle savedState) {
+        int profileUserId = savedState.getInt(KEY_PROFILE_USER_ID, UserHandle.USER_NULL);
+        if (mUserManager.getUserInfo(profileUserId) == null) {
+            // The profile was removed in the meantime.
+            return false;
+        }
+        mProfileUserId = profileUserId;
+        return true;
+    }
+
+    @Override
+    public void onRunInterrupted() {
+        // A managed profile can't be provisioned next to another one, so a managed profile of
+        // the parent user was created by the interrupted run.
+        mRunInterrupted = true;
+    }
 }
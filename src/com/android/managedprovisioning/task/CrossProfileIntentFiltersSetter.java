@@ -302,10 +302,14 @@ public class CrossProfileIntentFiltersSetter {
         boolean disallowSharingIntoProfile = mUserManager.hasUserRestriction(
                 UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE,
                 UserHandle.of(managedProfileUserId));
+        // Each filter takes one call, PackageManager can't add several at once.
+        int added = 0;
+        int skipped = 0;
         for (CrossProfileIntentFilter filter : FILTERS) {
             // Skip filters that allow data to be shared into the profile, if admin has disabled
             // it.
             if (disallowSharingIntoProfile && filter.letsPersonalDataIntoProfile) {
+                skipped++;
                 continue;
             }
             if (filter.direction == Direction.TO_PARENT) {
@@ -315,7 +319,10 @@ public class CrossProfileIntentFiltersSetter {
                 mPackageManager.addCrossProfileIntentFilter(filter.filter, parentUserId,
                         managedProfileUserId, filter.flags);
             }
+            added++;
         }
+        ProvisionLogger.logd("Added " + added + " cross-profile intent filters, skipped "
+                + skipped);
     }
 
     /**
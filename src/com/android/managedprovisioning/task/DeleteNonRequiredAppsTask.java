@@ -31,6 +31,7 @@ import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -43,6 +44,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * newly installed system apps will be deleted.
  */
 public class DeleteNonRequiredAppsTask extends AbstractProvisioningTask {
+    private static final long DELETE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
     private final PackageManager mPm;
     private final NonRequiredAppsLogic mLogic;
 
@@ -86,7 +89,7 @@ public class DeleteNonRequiredAppsTask extends AbstractProvisioningTask {
         PackageDeleteObserver packageDeleteObserver =
                 new PackageDeleteObserver(packagesToDelete.size());
         for (String packageName : packagesToDelete) {
-            ProvisionLogger.logd("Deleting package [" + packageName + "] as user " + userId);
+            ProvisionLogger.logd("Deleting package [%s] as user %d", packageName, userId);
             mPm.deletePackageAsUser(packageName, packageDeleteObserver,
                     PackageManager.DELETE_SYSTEM_APP, userId);
         }
@@ -114,6 +117,12 @@ public class DeleteNonRequiredAppsTask extends AbstractProvisioningTask {
         return R.string.progress_delete_non_required_apps;
     }
 
+    @Override
+    public long getTimeoutMs() {
+        // Packages are deleted one by one.
+        return DELETE_TIMEOUT_MS;
+    }
+
     /**
      * Runs the next task when all packages have been deleted or shuts down the activity if package
      * deletion fails.
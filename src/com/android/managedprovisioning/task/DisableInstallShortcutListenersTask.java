@@ -16,19 +16,27 @@
 
 package com.android.managedprovisioning.task;
 
+import static com.android.internal.util.Preconditions.checkNotNull;
+
 import android.app.AppGlobals;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ComponentInfo;
+import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.analytics.BinderCallCounter;
+import com.android.managedprovisioning.common.ComponentStateChange;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -37,31 +45,44 @@ import java.util.Set;
  * Disables all system app components that listen to ACTION_INSTALL_SHORTCUT.
  */
 public class DisableInstallShortcutListenersTask extends AbstractProvisioningTask {
-    private final PackageManager mPm;
-    private int mUserId;
+    @VisibleForTesting
+    static final String ACTION_INSTALL_SHORTCUT = "com.android.launcher.action.INSTALL_SHORTCUT";
 
-    private final Utils mUtils = new Utils();
+    private final PackageManager mPm;
+    private final IPackageManager mIpm;
+    private final Utils mUtils;
 
     public DisableInstallShortcutListenersTask(
             Context context,
             ProvisioningParams params,
             Callback callback) {
+        this(new Utils(), BinderCallCounter.getInstance().wrap(IPackageManager.class,
+                AppGlobals.getPackageManager()), context, params, callback);
+    }
+
+    @VisibleForTesting
+    DisableInstallShortcutListenersTask(
+            Utils utils,
+            IPackageManager ipm,
+            Context context,
+            ProvisioningParams params,
+            Callback callback) {
         super(context, params, callback);
 
+        mUtils = checkNotNull(utils);
+        mIpm = checkNotNull(ipm);
         mPm = context.getPackageManager();
     }
 
     @Override
     public void run(int userId) {
-        mUserId = userId;
         ProvisionLogger.logd("Disabling install shortcut listeners.");
-        Intent actionShortcut = new Intent("com.android.launcher.action.INSTALL_SHORTCUT");
-        Set<String> systemApps = mUtils.getCurrentSystemApps(AppGlobals.getPackageManager(),
-                mUserId);
-        for (String systemApp : systemApps) {
-            actionShortcut.setPackage(systemApp);
-            disableReceivers(actionShortcut);
+        Set<String> systemApps = mUtils.getCurrentSystemApps(mIpm, userId);
+        List<ComponentStateChange> changes = new ArrayList<>();
+        for (ComponentName component : findInstallShortcutListeners(systemApps, userId)) {
+            changes.add(ComponentStateChange.disable(component));
         }
+        mUtils.setComponentsEnabledSetting(mIpm, changes, userId);
         success();
     }
 
@@ -71,12 +92,18 @@ public class DisableInstallShortcutListenersTask extends AbstractProvisioningTas
     }
 
     /**
-     * Disable all components that can handle the specified broadcast intent.
+     * Returns all components of the given system apps that can handle ACTION_INSTALL_SHORTCUT.
+     *
+     * <p>Resolves the broadcast once for all packages and keeps only the receivers that belong
+     * to a system app, instead of querying once per system app.</p>
      */
-    private void disableReceivers(Intent intent) {
-        List<ResolveInfo> receivers = mPm.queryBroadcastReceiversAsUser(intent,
+    @VisibleForTesting
+    Set<ComponentName> findInstallShortcutListeners(Set<String> systemApps, int userId) {
+        List<ResolveInfo> receivers = mPm.queryBroadcastReceiversAsUser(
+                new Intent(ACTION_INSTALL_SHORTCUT),
                 PackageManager.MATCH_DIRECT_BOOT_UNAWARE | PackageManager.MATCH_DIRECT_BOOT_AWARE,
-                mUserId);
+                userId);
+        Set<ComponentName> listeners = new LinkedHashSet<>();
         for (ResolveInfo ri : receivers) {
             // One of ri.activityInfo, ri.serviceInfo, ri.providerInfo is not null. Let's find which
             // one.
@@ -88,7 +115,10 @@ public class DisableInstallShortcutListenersTask extends AbstractProvisioningTas
             } else {
                 ci = ri.providerInfo;
             }
-            mUtils.disableComponent(new ComponentName(ci.packageName, ci.name), mUserId);
+            if (systemApps.contains(ci.packageName)) {
+                listeners.add(new ComponentName(ci.packageName, ci.name));
+            }
         }
+        return listeners;
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.managedprovisioning.task;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.Globals;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+
+/**
+ * Resolves the host of the management app download location in the background, once the network
+ * is ready but before {@link DownloadPackageTask} runs.
+ *
+ * <p>The download itself is done by the {@link android.app.DownloadManager} in another process,
+ * so connections can't be handed over to it. DNS answers are cached by the system resolver for
+ * all apps on the same network though, so the lookup of the download may be answered from the
+ * cache. Whether that shortens the download hasn't been measured: the time to first byte logged
+ * by {@link DownloadPackageTask} is there to compare runs on devices.</p>
+ *
+ * <p>The host is only resolved by {@link StartNetworkTask}, i.e. when
+ * {@code R.bool.overlap_network_bring_up} is set, which it isn't by default. Without it, the
+ * download runs right after the network is connected, so there's no time to resolve the host
+ * ahead of it.</p>
+ */
+public class DownloadHostWarmer {
+
+    /**
+     * Resolves a host name, see {@link InetAddress#getAllByName(String)}.
+     */
+    @VisibleForTesting
+    interface HostResolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    private final Executor mExecutor;
+    private final HostResolver mHostResolver;
+
+    public DownloadHostWarmer() {
+        this(AsyncTask.THREAD_POOL_EXECUTOR, InetAddress::getAllByName);
+    }
+
+    @VisibleForTesting
+    DownloadHostWarmer(Executor executor, HostResolver hostResolver) {
+        mExecutor = checkNotNull(executor);
+        mHostResolver = checkNotNull(hostResolver);
+    }
+
+    /**
+     * Starts resolving the host of the given download location. Failures are only logged, as the
+     * download will try again anyway.
+     */
+    public void warmUp(String location) {
+        final String host = Uri.parse(location).getHost();
+        if (TextUtils.isEmpty(host)) {
+            ProvisionLogger.logw("No host in the download location, nothing to warm up");
+            return;
+        }
+
+        mExecutor.execute(() -> {
+            final long startTime = SystemClock.elapsedRealtime();
+            try {
+                InetAddress[] addresses = mHostResolver.resolve(host);
+                ProvisionLogger.logi("Resolved the download host to " + addresses.length
+                        + " addresses in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                if (Globals.DEBUG) {
+                    ProvisionLogger.logd("Download host: " + host);
+                }
+            } catch (UnknownHostException e) {
+                ProvisionLogger.logw("Couldn't resolve the download host", e);
+            }
+        });
+    }
+}
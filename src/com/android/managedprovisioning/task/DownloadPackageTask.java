@@ -25,30 +25,48 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.common.Globals;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Downloads the management app apk from the url provided by {@link PackageDownloadInfo#location}.
  * The location of the downloaded file can be read via {@link #getDownloadedPackageLocation()}.
+ *
+ * <p>The time from enqueuing the download to its first received bytes is logged. It includes the
+ * DNS lookup and the connection set up to the download host, see {@link DownloadHostWarmer}.</p>
  */
 public class DownloadPackageTask extends AbstractProvisioningTask {
     public static final int ERROR_DOWNLOAD_FAILED = 0;
     public static final int ERROR_OTHER = 1;
 
+    // The package may be large and the network slow.
+    private static final long DOWNLOAD_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String KEY_DOWNLOAD_ID = "download-id";
+    @VisibleForTesting
+    public static final String KEY_DOWNLOAD_LOCATION = "download-location";
+
     private BroadcastReceiver mReceiver;
+    private ContentObserver mProgressObserver;
+    private long mEnqueueTime;
+    private TraceSpan mFirstByteSpan;
     private final DownloadManager mDownloadManager;
     private final String mPackageName;
     private final PackageDownloadInfo mPackageDownloadInfo;
@@ -58,6 +76,7 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
 
     private String mDownloadLocationTo; //local file where the package is downloaded.
     private boolean mDoneDownloading;
+    private boolean mPackageInstalled;
 
     public DownloadPackageTask(
             Context context,
@@ -86,6 +105,11 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
         return R.string.progress_download;
     }
 
+    @Override
+    public long getTimeoutMs() {
+        return DOWNLOAD_TIMEOUT_MS;
+    }
+
     @Override
     public void run(int userId) {
         startTaskTimer();
@@ -93,6 +117,7 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
                 mContext)) {
             // Do not log time if package is already on device and does not require an update, as
             // that isn't useful.
+            getTraceSpan().setAttribute("skipped", "up to date");
             success();
             return;
         }
@@ -105,10 +130,11 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
         mReceiver = createDownloadReceiver();
         // register the receiver on the worker thread to avoid threading issues with respect to
         // the location variable
+        Handler handler = new Handler(Looper.myLooper());
         mContext.registerReceiver(mReceiver,
                 new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE),
                 null,
-                new Handler(Looper.myLooper()));
+                handler);
 
         if (Globals.DEBUG) {
             ProvisionLogger.logd("Starting download from " + mPackageDownloadInfo.location);
@@ -131,7 +157,13 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
                         + mPackageDownloadInfo.cookieHeader);
             }
         }
+        mEnqueueTime = SystemClock.elapsedRealtime();
+        mFirstByteSpan = getTraceSpan().beginChild("firstByte");
         mDownloadId = mDownloadManager.enqueue(request);
+
+        mProgressObserver = createProgressObserver(handler);
+        mContext.getContentResolver().registerContentObserver(
+                mDownloadManager.getDownloadUri(mDownloadId), false, mProgressObserver);
     }
 
     @Override
@@ -165,6 +197,39 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
         };
     }
 
+    /**
+     * Observes the progress of the download until the first bytes are received.
+     */
+    private ContentObserver createProgressObserver(Handler handler) {
+        return new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                Query q = new Query();
+                q.setFilterById(mDownloadId);
+                Cursor c = mDownloadManager.query(q);
+                long bytesSoFar = 0;
+                if (c.moveToFirst()) {
+                    bytesSoFar = c.getLong(
+                            c.getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
+                }
+                c.close();
+                if (bytesSoFar > 0) {
+                    mFirstByteSpan.end();
+                    ProvisionLogger.logi("Time to first byte of the download: "
+                            + (SystemClock.elapsedRealtime() - mEnqueueTime) + " ms");
+                    unregisterProgressObserver();
+                }
+            }
+        };
+    }
+
+    private void unregisterProgressObserver() {
+        if (mProgressObserver != null) {
+            mContext.getContentResolver().unregisterContentObserver(mProgressObserver);
+            mProgressObserver = null;
+        }
+    }
+
     /**
      * For a successful download, check that the downloaded file is the expected file.
      * If the package hash is provided then that is used, otherwise a signature hash is used.
@@ -177,6 +242,7 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
 
         ProvisionLogger.logd("Downloaded succesfully to: " + mDownloadLocationTo);
         mDoneDownloading = true;
+        unregisterProgressObserver();
         stopTaskTimer();
         success();
     }
@@ -185,19 +251,64 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
         return mDownloadLocationTo;
     }
 
+    @Override
+    public void saveState(PersistableBundle outState) {
+        outState.putLong(KEY_DOWNLOAD_ID, mDownloadId);
+        outState.putString(KEY_DOWNLOAD_LOCATION, mDownloadLocationTo);
+    }
+
+    @Override
+    public boolean restoreState(PersistableBundle savedState) {
+        String location = savedState.getString(KEY_DOWNLOAD_LOCATION);
+        if (location == null) {
+            // Nothing was downloaded, as the package didn't need an update.
+            return !mUtils.packageRequiresUpdate(mPackageName, mPackageDownloadInfo.minVersion,
+                    mContext);
+        }
+        if (!mPackageInstalled && !new File(location).exists()) {
+            ProvisionLogger.logw("The downloaded package was removed, downloading it again");
+            return false;
+        }
+        mDownloadId = savedState.getLong(KEY_DOWNLOAD_ID);
+        mDownloadLocationTo = location;
+        mDoneDownloading = true;
+        return true;
+    }
+
+    /**
+     * Called when provisioning resumes after the downloaded package was installed, before
+     * {@link #restoreState(PersistableBundle)}. The downloaded file, which is deleted by the
+     * install, isn't needed anymore.
+     */
+    void onPackageInstalled() {
+        mPackageInstalled = true;
+    }
+
     private void onDownloadFail(int errorCode) {
         ProvisionLogger.loge("Downloading package failed.");
         ProvisionLogger.loge("COLUMN_REASON in DownloadManager response has value: "
                 + errorCode);
+        unregisterProgressObserver();
         error(ERROR_DOWNLOAD_FAILED);
     }
 
+    @Override
+    public void cancel() {
+        if (mDownloadId != 0) {
+            // Stop the download, or remove the downloaded file.
+            cleanUp();
+        } else {
+            unregisterProgressObserver();
+        }
+    }
+
     public void cleanUp() {
         if (mReceiver != null) {
             //Unregister receiver.
             mContext.unregisterReceiver(mReceiver);
             mReceiver = null;
         }
+        unregisterProgressObserver();
 
         boolean removeSuccess = mDownloadManager.remove(mDownloadId) == 1;
         if (removeSuccess) {
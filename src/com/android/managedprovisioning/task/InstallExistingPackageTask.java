@@ -21,6 +21,7 @@ import static com.android.internal.util.Preconditions.checkNotNull;
 import android.content.Context;
 import android.content.pm.PackageManager;
 
+import com.android.managedprovisioning.common.DeviceAdminResolutionCache;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.model.ProvisioningParams;
@@ -52,6 +53,7 @@ public class InstallExistingPackageTask extends AbstractProvisioningTask {
         try {
             int status = pm.installExistingPackageAsUser(mPackageName, userId);
             if (status == PackageManager.INSTALL_SUCCEEDED) {
+                DeviceAdminResolutionCache.getInstance().invalidatePackage(mPackageName);
                 success();
             } else {
                 ProvisionLogger.loge("Install failed, result code = " + status);
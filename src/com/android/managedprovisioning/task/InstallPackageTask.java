@@ -28,9 +28,13 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageInstaller;
 import android.content.pm.PackageManager;
+import android.os.PersistableBundle;
 import android.text.TextUtils;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.common.DeviceAdminResolutionCache;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
@@ -38,7 +42,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Installs the management app apk from a download location provided by
@@ -50,11 +56,20 @@ public class InstallPackageTask extends AbstractProvisioningTask {
     public static final int ERROR_PACKAGE_INVALID = 0;
     public static final int ERROR_INSTALLATION_FAILED = 1;
 
+    private static final long INSTALL_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    @VisibleForTesting
+    public static final String KEY_INSTALLED = "installed";
+
     private final DownloadPackageTask mDownloadPackageTask;
 
     private final PackageManager mPm;
     private final DevicePolicyManager mDpm;
 
+    @GuardedBy("this")
+    private PackageInstallReceiver mInstallReceiver;
+    private volatile boolean mInstalled;
+
     /**
      * Create an InstallPackageTask. When run, this will attempt to install the device admin package
      * if it is non-null.
@@ -78,11 +93,19 @@ public class InstallPackageTask extends AbstractProvisioningTask {
         return R.string.progress_install;
     }
 
-    private static void copyStream(@NonNull InputStream in, @NonNull OutputStream out)
+    @Override
+    public long getTimeoutMs() {
+        return INSTALL_TIMEOUT_MS;
+    }
+
+    private void copyStream(@NonNull InputStream in, @NonNull OutputStream out)
             throws IOException {
         byte[] buffer = new byte[16 * 1024];
         int numRead;
         while ((numRead = in.read(buffer)) != -1) {
+            if (getCancellationToken().isCancelled()) {
+                throw new InterruptedIOException("Provisioning was cancelled");
+            }
             out.write(buffer, 0, numRead);
         }
     }
@@ -134,8 +157,10 @@ public class InstallPackageTask extends AbstractProvisioningTask {
                 }
 
                 String action = ACTION_INSTALL_DONE + sessionId;
-                mContext.registerReceiver(new PackageInstallReceiver(packageName),
-                        new IntentFilter(action));
+                synchronized (this) {
+                    mInstallReceiver = new PackageInstallReceiver(packageName);
+                    mContext.registerReceiver(mInstallReceiver, new IntentFilter(action));
+                }
 
                 PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, sessionId,
                         new Intent(action),
@@ -143,6 +168,10 @@ public class InstallPackageTask extends AbstractProvisioningTask {
                 session.commit(pendingIntent.getIntentSender());
             }
         } catch (IOException e) {
+            if (getCancellationToken().isCancelled()) {
+                ProvisionLogger.logd("Abandoned installing package " + packageName);
+                return;
+            }
             ProvisionLogger.loge("Installing package " + packageName + " failed.", e);
             error(ERROR_INSTALLATION_FAILED);
         } finally {
@@ -150,11 +179,45 @@ public class InstallPackageTask extends AbstractProvisioningTask {
         }
     }
 
+    @Override
+    public void saveState(PersistableBundle outState) {
+        outState.putBoolean(KEY_INSTALLED, mInstalled);
+    }
+
+    @Override
+    public boolean restoreState(PersistableBundle savedState) {
+        if (savedState.getBoolean(KEY_INSTALLED)) {
+            // The downloaded file was deleted by the install.
+            mDownloadPackageTask.onPackageInstalled();
+        }
+        return true;
+    }
+
+    @Override
+    public void cancel() {
+        // The committed session can't be abandoned anymore, but its result is ignored.
+        unregisterInstallReceiver();
+    }
+
     @Override
     protected int getMetricsCategory() {
         return PROVISIONING_INSTALL_PACKAGE_TASK_MS;
     }
 
+    /**
+     * Unregisters the receiver of the install result.
+     *
+     * @return whether the receiver was still registered.
+     */
+    private synchronized boolean unregisterInstallReceiver() {
+        if (mInstallReceiver == null) {
+            return false;
+        }
+        mContext.unregisterReceiver(mInstallReceiver);
+        mInstallReceiver = null;
+        return true;
+    }
+
     private class PackageInstallReceiver extends BroadcastReceiver {
         private final String mPackageName;
 
@@ -179,15 +242,20 @@ public class InstallPackageTask extends AbstractProvisioningTask {
                 return;
             }
 
+            if (!unregisterInstallReceiver()) {
+                // Provisioning was cancelled.
+                return;
+            }
             int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, 0);
             String statusMessage = intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE);
             int legacyStatus = intent.getIntExtra(PackageInstaller.EXTRA_LEGACY_STATUS, 0);
 
-            mContext.unregisterReceiver(this);
             ProvisionLogger.logi(status + " " + legacyStatus + " " + statusMessage);
 
             if (status == PackageInstaller.STATUS_SUCCESS) {
                 ProvisionLogger.logd("Package " + mPackageName + " is succesfully installed.");
+                DeviceAdminResolutionCache.getInstance().invalidatePackage(mPackageName);
+                mInstalled = true;
                 stopTaskTimer();
                 success();
             } else if (legacyStatus == PackageManager.INSTALL_FAILED_VERSION_DOWNGRADE) {
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.content.pm.UserInfo;
+import android.os.AsyncTask;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the managed profile in the background while the user is asked for consent, so that
+ * {@link CreateManagedProfileTask} can adopt it instead of creating it after consent.
+ *
+ * <p>The profile is created disabled, exactly like {@link CreateManagedProfileTask} creates it.
+ * Disabled doesn't mean hidden: the user exists on the device, and shows up e.g. in
+ * {@code adb shell pm list users}, until it is adopted or removed. It is only adopted by the
+ * provisioning session it was created for. If the user doesn't consent, it must be removed with
+ * {@link #discard(ProvisioningParams)}.</p>
+ *
+ * <p>The id of the profile is persisted until it is adopted or removed, so that a profile left
+ * behind by a process death is removed with {@link #removeLeftoverProfile(Context)} when
+ * provisioning is started again.</p>
+ */
+public class ManagedProfilePrecreator {
+    // How long adopting the profile waits for a creation that is still running.
+    private static final long ADOPT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ManagedProfilePrecreator sInstance =
+            new ManagedProfilePrecreator(AsyncTask.THREAD_POOL_EXECUTOR);
+
+    private final Executor mExecutor;
+
+    @GuardedBy("this")
+    private Precreation mPrecreation;
+
+    public static ManagedProfilePrecreator getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ManagedProfilePrecreator(Executor executor) {
+        mExecutor = checkNotNull(executor);
+    }
+
+    /**
+     * Starts creating the managed profile of the given provisioning session in the background.
+     * Nothing is done if the profile of that session is already being created.
+     */
+    public void start(Context context, ProvisioningParams params, int parentUserId) {
+        start(params, parentUserId, context.getSystemService(UserManager.class),
+                new ManagedProvisioningSharedPreferences(context),
+                new NonRequiredAppsLogic(context, true, params),
+                context.getString(R.string.default_managed_profile_name));
+    }
+
+    @VisibleForTesting
+    void start(ProvisioningParams params, int parentUserId, UserManager userManager,
+            ManagedProvisioningSharedPreferences sharedPreferences, NonRequiredAppsLogic logic,
+            String profileName) {
+        final Precreation precreation;
+        final Precreation previous;
+        synchronized (this) {
+            if (mPrecreation != null && mPrecreation.matches(params, parentUserId)) {
+                return;
+            }
+            previous = mPrecreation;
+            precreation = new Precreation(params.provisioningId, parentUserId, userManager,
+                    sharedPreferences);
+            mPrecreation = precreation;
+        }
+        if (previous != null) {
+            discard(previous);
+        }
+
+        ProvisionLogger.logi("Creating the managed profile in the background");
+        mExecutor.execute(() -> {
+            final Set<String> nonRequiredApps = logic.getSystemAppsToRemove(parentUserId);
+            UserInfo userInfo = userManager.createProfileForUserEvenWhenDisallowed(profileName,
+                    UserInfo.FLAG_MANAGED_PROFILE | UserInfo.FLAG_DISABLED, parentUserId,
+                    nonRequiredApps.toArray(new String[nonRequiredApps.size()]));
+            if (userInfo != null) {
+                sharedPreferences.setPrecreatedProfileUserId(userInfo.id);
+                logic.maybeTakeSystemAppsSnapshot(userInfo.id);
+            }
+            finishCreation(precreation, userInfo != null ? userInfo.id : UserHandle.USER_NULL);
+        });
+    }
+
+    /**
+     * Takes over the profile created for the given provisioning session, waiting for its creation
+     * to finish if necessary.
+     *
+     * @return the id of the profile, or {@link UserHandle#USER_NULL} if none was created for the
+     *         session. The profile must then be created as usual.
+     */
+    public int adopt(ProvisioningParams params, int parentUserId) {
+        final Precreation precreation;
+        synchronized (this) {
+            if (mPrecreation == null || !mPrecreation.matches(params, parentUserId)) {
+                return UserHandle.USER_NULL;
+            }
+            precreation = mPrecreation;
+            mPrecreation = null;
+        }
+
+        try {
+            precreation.created.await(ADOPT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            ProvisionLogger.loge("Interrupted while waiting for the managed profile", e);
+        }
+        synchronized (this) {
+            if (!precreation.finished) {
+                // The profile is removed once created, as nobody adopted it.
+                ProvisionLogger.logw("The managed profile wasn't created in time");
+                precreation.discarded = true;
+                return UserHandle.USER_NULL;
+            }
+        }
+        ProvisionLogger.logi("Adopting managed profile " + precreation.profileUserId);
+        // The profile is now removed like any other if provisioning fails.
+        precreation.sharedPreferences.setPrecreatedProfileUserId(UserHandle.USER_NULL);
+        return precreation.profileUserId;
+    }
+
+    /**
+     * Removes the profile created for the given provisioning session, unless it was adopted.
+     */
+    public void discard(ProvisioningParams params) {
+        final Precreation precreation;
+        synchronized (this) {
+            if (mPrecreation == null || mPrecreation.provisioningId != params.provisioningId) {
+                return;
+            }
+            precreation = mPrecreation;
+            mPrecreation = null;
+        }
+        discard(precreation);
+    }
+
+    /**
+     * Removes the profile created in the background by an earlier process that died before the
+     * profile was adopted or discarded, e.g. while the user was asked for consent.
+     *
+     * @return whether a leftover profile was removed
+     */
+    public boolean removeLeftoverProfile(Context context) {
+        return removeLeftoverProfile(context.getSystemService(UserManager.class),
+                new ManagedProvisioningSharedPreferences(context));
+    }
+
+    @VisibleForTesting
+    boolean removeLeftoverProfile(UserManager userManager,
+            ManagedProvisioningSharedPreferences sharedPreferences) {
+        synchronized (this) {
+            if (mPrecreation != null) {
+                // The profile was created by this process, and is still tracked.
+                return false;
+            }
+        }
+        final int profileUserId = sharedPreferences.getPrecreatedProfileUserId();
+        if (profileUserId == UserHandle.USER_NULL) {
+            return false;
+        }
+        sharedPreferences.setPrecreatedProfileUserId(UserHandle.USER_NULL);
+        UserInfo userInfo = userManager.getUserInfo(profileUserId);
+        if (userInfo == null || !userInfo.isManagedProfile() || userInfo.isEnabled()) {
+            // Already removed, or the id was reused by another user.
+            return false;
+        }
+        ProvisionLogger.logi("Removing managed profile " + profileUserId
+                + " left behind by an earlier provisioning attempt");
+        return userManager.removeUserEvenWhenDisallowed(profileUserId);
+    }
+
+    private void discard(Precreation precreation) {
+        synchronized (this) {
+            precreation.discarded = true;
+            if (!precreation.finished) {
+                // Removed by finishCreation().
+                return;
+            }
+        }
+        if (precreation.profileUserId != UserHandle.USER_NULL) {
+            mExecutor.execute(() -> removeProfile(precreation));
+        }
+    }
+
+    private void finishCreation(Precreation precreation, int profileUserId) {
+        final boolean discarded;
+        synchronized (this) {
+            precreation.profileUserId = profileUserId;
+            precreation.finished = true;
+            discarded = precreation.discarded;
+        }
+        precreation.created.countDown();
+        if (profileUserId == UserHandle.USER_NULL) {
+            ProvisionLogger.loge("Couldn't create the managed profile in the background");
+        } else if (discarded) {
+            removeProfile(precreation);
+        }
+    }
+
+    private void removeProfile(Precreation precreation) {
+        ProvisionLogger.logd("Removing the managed profile created in the background");
+        precreation.userManager.removeUserEvenWhenDisallowed(precreation.profileUserId);
+        precreation.sharedPreferences.setPrecreatedProfileUserId(UserHandle.USER_NULL);
+    }
+
+    private static final class Precreation {
+        final long provisioningId;
+        final int parentUserId;
+        final UserManager userManager;
+        final ManagedProvisioningSharedPreferences sharedPreferences;
+        final CountDownLatch created = new CountDownLatch(1);
+        // Guarded by the ManagedProfilePrecreator.
+        int profileUserId = UserHandle.USER_NULL;
+        boolean finished;
+        boolean discarded;
+
+        Precreation(long provisioningId, int parentUserId, UserManager userManager,
+                ManagedProvisioningSharedPreferences sharedPreferences) {
+            this.provisioningId = provisioningId;
+            this.parentUserId = parentUserId;
+            this.userManager = checkNotNull(userManager);
+            this.sharedPreferences = checkNotNull(sharedPreferences);
+        }
+
+        boolean matches(ProvisioningParams params, int parentUserId) {
+            return provisioningId == params.provisioningId && this.parentUserId == parentUserId;
+        }
+    }
+}
@@ -27,68 +27,93 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.RemoteException;
 import android.os.UserHandle;
+import android.os.UserManager;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
- * This task starts the managed profile and waits for it to be unlocked.
+ * This task starts the managed profile and completes once it is unlocked.
+ *
+ * <p>The task doesn't wait for the unlock on the provisioning worker thread, it completes from
+ * the {@link Intent#ACTION_USER_UNLOCKED} broadcast instead. If the profile isn't unlocked in
+ * time, the task fails with {@link #ERROR_TIMED_OUT}. If the profile is already unlocked, e.g.
+ * when provisioning resumes after the process died while this task was running, no broadcast
+ * will come and the task completes right away.</p>
  */
 public class StartManagedProfileTask extends AbstractProvisioningTask {
     // Maximum time we will wait for ACTION_USER_UNLOCK until we give up
-    private static final int USER_UNLOCKED_TIMEOUT_SECONDS = 120; // 2 minutes
+    private static final long USER_UNLOCKED_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
     @VisibleForTesting
     static final IntentFilter UNLOCK_FILTER = new IntentFilter(Intent.ACTION_USER_UNLOCKED);
 
     private final IActivityManager mIActivityManager;
+    private final UserManager mUserManager;
+
+    @GuardedBy("this")
+    private UserUnlockedReceiver mUnlockedReceiver;
 
     public StartManagedProfileTask(Context context, ProvisioningParams params, Callback callback) {
-        this(ActivityManager.getService(), context, params, callback);
+        this(ActivityManager.getService(),
+                (UserManager) context.getSystemService(Context.USER_SERVICE), context, params,
+                callback);
     }
 
     @VisibleForTesting
     StartManagedProfileTask(
             IActivityManager iActivityManager,
+            UserManager userManager,
             Context context,
             ProvisioningParams params,
             Callback callback) {
         super(context, params, callback);
 
         mIActivityManager = checkNotNull(iActivityManager);
+        mUserManager = checkNotNull(userManager);
     }
 
     @Override
     public void run(int userId) {
         startTaskTimer();
-        UserUnlockedReceiver unlockedReceiver = new UserUnlockedReceiver(userId);
-        mContext.registerReceiverAsUser(unlockedReceiver, new UserHandle(userId), UNLOCK_FILTER,
-                null, null);
+        synchronized (this) {
+            mUnlockedReceiver = new UserUnlockedReceiver(userId);
+            mContext.registerReceiverAsUser(mUnlockedReceiver, new UserHandle(userId),
+                    UNLOCK_FILTER, null, null);
+        }
         try {
             if (!mIActivityManager.startUserInBackground(userId)) {
                 ProvisionLogger.loge("Unable to start user in background: " + userId);
-                error(0);
-                return;
-            }
-
-            if (!unlockedReceiver.waitForUserUnlocked()) {
-                ProvisionLogger.loge("Timeout whilst waiting for unlock of user: " + userId);
+                unregisterUnlockedReceiver();
                 error(0);
                 return;
             }
         } catch (RemoteException e) {
             ProvisionLogger.loge("Exception when starting user in background: " + userId, e);
+            unregisterUnlockedReceiver();
             error(0);
             return;
-        } finally {
-            mContext.unregisterReceiver(unlockedReceiver);
         }
-        stopTaskTimer();
-        success();
+        // Checked after registering the receiver, so that the unlock can't be missed in between.
+        if (mUserManager.isUserUnlocked(userId)) {
+            if (unregisterUnlockedReceiver()) {
+                ProvisionLogger.logd("User " + userId + " is already unlocked");
+                stopTaskTimer();
+                success();
+            }
+            return;
+        }
+        ProvisionLogger.logd("Waiting for ACTION_USER_UNLOCKED");
+    }
+
+    @Override
+    public void cancel() {
+        // Also called when the task timed out.
+        unregisterUnlockedReceiver();
     }
 
     @Override
@@ -96,18 +121,36 @@ public class StartManagedProfileTask extends AbstractProvisioningTask {
         return R.string.progress_finishing_touches;
     }
 
+    @Override
+    public long getTimeoutMs() {
+        // Starting the profile itself may take a while before the unlock wait begins.
+        return USER_UNLOCKED_TIMEOUT_MS + DEFAULT_TIMEOUT_MS;
+    }
+
     @Override
     protected int getMetricsCategory() {
         return PROVISIONING_START_PROFILE_TASK_MS;
     }
 
     /**
-     * BroadcastReceiver that listens to {@link Intent#ACTION_USER_UNLOCKED} in order to provide
-     * a blocking wait until the managed profile has been started and unlocked.
+     * Unregisters the receiver of the unlock broadcast.
+     *
+     * @return whether the receiver was still registered.
      */
-    @VisibleForTesting
-    static class UserUnlockedReceiver extends BroadcastReceiver {
-        private final Semaphore semaphore = new Semaphore(0);
+    private synchronized boolean unregisterUnlockedReceiver() {
+        if (mUnlockedReceiver == null) {
+            return false;
+        }
+        mContext.unregisterReceiver(mUnlockedReceiver);
+        mUnlockedReceiver = null;
+        return true;
+    }
+
+    /**
+     * BroadcastReceiver that listens to {@link Intent#ACTION_USER_UNLOCKED} in order to complete
+     * the task once the managed profile has been started and unlocked.
+     */
+    private class UserUnlockedReceiver extends BroadcastReceiver {
         private final int mUserId;
 
         UserUnlockedReceiver(int userId) {
@@ -120,19 +163,16 @@ public class StartManagedProfileTask extends AbstractProvisioningTask {
                 ProvisionLogger.logw("Unexpected intent: " + intent);
                 return;
             }
-            if (intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL) == mUserId) {
-                ProvisionLogger.logd("Received ACTION_USER_UNLOCKED for user " + mUserId);
-                semaphore.release();
+            if (intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL) != mUserId) {
+                return;
             }
-        }
-
-        public boolean waitForUserUnlocked() {
-            ProvisionLogger.logd("Waiting for ACTION_USER_UNLOCKED");
-            try {
-                return semaphore.tryAcquire(USER_UNLOCKED_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-            } catch (InterruptedException ie) {
-                return false;
+            if (!unregisterUnlockedReceiver()) {
+                // The task was cancelled or timed out.
+                return;
             }
+            ProvisionLogger.logd("Received ACTION_USER_UNLOCKED for user " + mUserId);
+            stopTaskTimer();
+            success();
         }
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.managedprovisioning.task;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.Context;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import java.util.function.Function;
+
+/**
+ * Starts bringing up the network in the background and succeeds right away, so that the tasks
+ * which don't need the network don't wait for it.
+ *
+ * <p>The network is brought up by an {@link AddWifiNetworkTask} or a
+ * {@link ConnectMobileNetworkTask}, depending on the {@link ProvisioningParams}. Its result is
+ * kept until an {@link AwaitNetworkTask} asks for it, before the first task that needs the
+ * network. Once the network is ready, the host of the management app download is resolved by a
+ * {@link DownloadHostWarmer}.</p>
+ */
+public class StartNetworkTask extends AbstractProvisioningTask {
+
+    /**
+     * Listener for the result of the network bring-up.
+     */
+    interface ReadinessListener {
+        void onNetworkReady();
+        void onNetworkError(int errorCode);
+    }
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_READY = 1;
+    private static final int STATE_ERROR = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private final AbstractProvisioningTask mNetworkTask;
+    private final DownloadHostWarmer mDownloadHostWarmer;
+
+    private boolean mStarted;
+    @GuardedBy("this")
+    private int mState = STATE_PENDING;
+    @GuardedBy("this")
+    private int mErrorCode;
+    @GuardedBy("this")
+    private ReadinessListener mListener;
+
+    public StartNetworkTask(Context context, ProvisioningParams params, Callback callback) {
+        this(networkCallback -> params.wifiInfo != null
+                ? new AddWifiNetworkTask(context, params, networkCallback)
+                : new ConnectMobileNetworkTask(context, params, networkCallback),
+                new DownloadHostWarmer(), context, params, callback);
+    }
+
+    @VisibleForTesting
+    StartNetworkTask(
+            Function<Callback, AbstractProvisioningTask> networkTaskFactory,
+            DownloadHostWarmer downloadHostWarmer,
+            Context context,
+            ProvisioningParams params,
+            Callback callback) {
+        super(context, params, callback);
+        mNetworkTask = checkNotNull(networkTaskFactory.apply(new NetworkTaskCallback()));
+        mDownloadHostWarmer = checkNotNull(downloadHostWarmer);
+    }
+
+    @Override
+    public void run(int userId) {
+        ProvisionLogger.logd("Bringing up the network in the background");
+        startNetworkTask(userId);
+        success();
+    }
+
+    /**
+     * Brings up the network unless this task has already done so. This isn't the case when
+     * provisioning resumed after this task had completed in a previous process.
+     */
+    void ensureStarted(int userId) {
+        if (!mStarted) {
+            ProvisionLogger.logd("Bringing up the network again after resuming provisioning");
+            startNetworkTask(userId);
+        }
+    }
+
+    private void startNetworkTask(int userId) {
+        mStarted = true;
+        mNetworkTask.run(userId);
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return;
+            }
+            mState = STATE_CANCELLED;
+            mListener = null;
+        }
+        mNetworkTask.cancel();
+    }
+
+    @Override
+    public int getStatusMsgId() {
+        return mNetworkTask.getStatusMsgId();
+    }
+
+    /**
+     * Returns the task that brings up the network.
+     */
+    public AbstractProvisioningTask getNetworkTask() {
+        return mNetworkTask;
+    }
+
+    /**
+     * Sets the listener for the result of the network bring-up. If the result is already known,
+     * the listener is called right away.
+     */
+    void setReadinessListener(ReadinessListener listener) {
+        synchronized (this) {
+            mListener = listener;
+            if (mState == STATE_PENDING || mState == STATE_CANCELLED) {
+                return;
+            }
+        }
+        notifyListener();
+    }
+
+    private void onResult(int state, int errorCode) {
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return;
+            }
+            mState = state;
+            mErrorCode = errorCode;
+        }
+        notifyListener();
+    }
+
+    private void notifyListener() {
+        final ReadinessListener listener;
+        final int state;
+        final int errorCode;
+        synchronized (this) {
+            listener = mListener;
+            state = mState;
+            errorCode = mErrorCode;
+            mListener = null;
+        }
+        // Not holding the lock, as the listener calls back into the controller.
+        if (listener == null) {
+            return;
+        }
+        if (state == STATE_READY) {
+            listener.onNetworkReady();
+        } else {
+            listener.onNetworkError(errorCode);
+        }
+    }
+
+    private class NetworkTaskCallback implements Callback {
+        @Override
+        public void onSuccess(AbstractProvisioningTask task) {
+            ProvisionLogger.logd("Network is ready");
+            if (mProvisioningParams.deviceAdminDownloadInfo != null) {
+                // Other tasks are run before the download, use that time to resolve its host.
+                mDownloadHostWarmer.warmUp(mProvisioningParams.deviceAdminDownloadInfo.location);
+            }
+            onResult(STATE_READY, 0);
+        }
+
+        @Override
+        public void onError(AbstractProvisioningTask task, int errorCode) {
+            ProvisionLogger.loge("Bringing up the network failed: " + errorCode);
+            onResult(STATE_ERROR, errorCode);
+        }
+    }
+}
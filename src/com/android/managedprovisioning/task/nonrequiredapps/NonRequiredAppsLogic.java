@@ -26,6 +26,7 @@ import android.content.Context;
 import android.content.pm.IPackageManager;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.analytics.BinderCallCounter;
 import com.android.managedprovisioning.common.IllegalProvisioningArgumentException;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.Utils;
@@ -63,6 +64,7 @@ public class NonRequiredAppsLogic {
     private final ProvisioningParams mParams;
     private final SystemAppsSnapshot mSnapshot;
     private final Utils mUtils;
+    private final PrecomputedNonRequiredApps mPrecomputedApps;
 
     public NonRequiredAppsLogic(
             Context context,
@@ -70,12 +72,14 @@ public class NonRequiredAppsLogic {
             ProvisioningParams params) {
         this(
                 context,
-                AppGlobals.getPackageManager(),
+                BinderCallCounter.getInstance().wrap(IPackageManager.class,
+                        AppGlobals.getPackageManager()),
                 (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE),
                 newProfile,
                 params,
                 new SystemAppsSnapshot(context),
-                new Utils());
+                new Utils(),
+                PrecomputedNonRequiredApps.getInstance());
     }
 
     @VisibleForTesting
@@ -86,7 +90,8 @@ public class NonRequiredAppsLogic {
             boolean newProfile,
             ProvisioningParams params,
             SystemAppsSnapshot snapshot,
-            Utils utils) {
+            Utils utils,
+            PrecomputedNonRequiredApps precomputedApps) {
         mContext = context;
         mIPackageManager = checkNotNull(iPackageManager);
         mDevicePolicyManager = checkNotNull(devicePolicyManager);
@@ -94,6 +99,7 @@ public class NonRequiredAppsLogic {
         mParams = checkNotNull(params);
         mSnapshot = checkNotNull(snapshot);
         mUtils = checkNotNull(utils);
+        mPrecomputedApps = checkNotNull(precomputedApps);
     }
 
     public Set<String> getSystemAppsToRemove(int userId) {
@@ -101,6 +107,28 @@ public class NonRequiredAppsLogic {
             return Collections.emptySet();
         }
 
+        if (mNewProfile) {
+            Set<String> precomputedApps = mPrecomputedApps.take(mParams, userId);
+            if (precomputedApps != null) {
+                return precomputedApps;
+            }
+        }
+        return computeSystemAppsToRemove(userId);
+    }
+
+    /**
+     * Starts computing {@link #getSystemAppsToRemove(int)} for a new profile or user in the
+     * background, e.g. while the user is asked for consent. The result is used by the next call
+     * of {@link #getSystemAppsToRemove(int)} with the same provisioning params and user.
+     */
+    public void precomputeSystemAppsToRemove(int userId) {
+        if (!mNewProfile || !shouldDeleteSystemApps(userId)) {
+            return;
+        }
+        mPrecomputedApps.start(mParams, userId, () -> computeSystemAppsToRemove(userId));
+    }
+
+    private Set<String> computeSystemAppsToRemove(int userId) {
         // Start with all system apps
         Set<String> newSystemApps = mUtils.getCurrentSystemApps(mIPackageManager, userId);
 
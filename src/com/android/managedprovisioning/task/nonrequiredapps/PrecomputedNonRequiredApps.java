@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.nonrequiredapps;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.content.ComponentName;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The system apps to remove from a new profile or user, computed in the background during
+ * pre-provisioning, see {@link NonRequiredAppsLogic#precomputeSystemAppsToRemove(int)}.
+ *
+ * <p>Only the last computation is kept. It is used once, by the provisioning session with the same
+ * admin, user and action. Results older than {@link #MAX_AGE_MS} are computed again, as system
+ * apps may have been updated in the meantime.</p>
+ */
+public class PrecomputedNonRequiredApps {
+    @VisibleForTesting
+    static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final PrecomputedNonRequiredApps sInstance = new PrecomputedNonRequiredApps(
+            AsyncTask.THREAD_POOL_EXECUTOR, SystemClock::elapsedRealtime);
+
+    private final Executor mExecutor;
+    private final LongSupplier mClock;
+
+    @GuardedBy("this")
+    private Key mKey;
+    @GuardedBy("this")
+    private FutureTask<Set<String>> mFuture;
+    @GuardedBy("this")
+    private long mStartTime;
+
+    public static PrecomputedNonRequiredApps getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PrecomputedNonRequiredApps(Executor executor, LongSupplier clock) {
+        mExecutor = checkNotNull(executor);
+        mClock = checkNotNull(clock);
+    }
+
+    /**
+     * Starts the given computation for the given provisioning session and user, replacing any
+     * previous one.
+     */
+    void start(ProvisioningParams params, int userId, Callable<Set<String>> computation) {
+        final FutureTask<Set<String>> future = new FutureTask<>(computation);
+        synchronized (this) {
+            mKey = new Key(params, userId);
+            mFuture = future;
+            mStartTime = mClock.getAsLong();
+        }
+        mExecutor.execute(future);
+    }
+
+    /**
+     * Takes the result computed for the given provisioning session and user, waiting for the
+     * computation to finish if necessary.
+     *
+     * @return the system apps to remove, or {@code null} if they must be computed again.
+     */
+    @Nullable
+    Set<String> take(ProvisioningParams params, int userId) {
+        final FutureTask<Set<String>> future;
+        synchronized (this) {
+            if (mFuture == null) {
+                return null;
+            }
+            future = mFuture;
+            final boolean matches = mKey.equals(new Key(params, userId));
+            final boolean expired = mClock.getAsLong() - mStartTime > MAX_AGE_MS;
+            mKey = null;
+            mFuture = null;
+            if (!matches || expired) {
+                ProvisionLogger.logd("Discarding the precomputed system apps, "
+                        + (matches ? "they are outdated" : "they were computed for other inputs"));
+                future.cancel(false /* mayInterruptIfRunning */);
+                return null;
+            }
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            ProvisionLogger.loge("Failed to precompute the system apps to remove", e);
+            return null;
+        }
+    }
+
+    private static final class Key {
+        final ComponentName adminComponentName;
+        final String adminPackageName;
+        final String provisioningAction;
+        final int userId;
+
+        Key(ProvisioningParams params, int userId) {
+            adminComponentName = params.deviceAdminComponentName;
+            adminPackageName = params.deviceAdminPackageName;
+            provisioningAction = params.provisioningAction;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return userId == other.userId
+                    && Objects.equals(adminComponentName, other.adminComponentName)
+                    && Objects.equals(adminPackageName, other.adminPackageName)
+                    && Objects.equals(provisioningAction, other.provisioningAction);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(adminComponentName, adminPackageName, provisioningAction, userId);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import android.util.Xml;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.FastXmlSerializer;
+import com.android.managedprovisioning.analytics.BinderCallCounter;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.Utils;
 
@@ -56,7 +57,8 @@ public class SystemAppsSnapshot {
     private final Utils mUtils;
 
     public SystemAppsSnapshot(Context context) {
-        this(context, AppGlobals.getPackageManager(), new Utils());
+        this(context, BinderCallCounter.getInstance().wrap(IPackageManager.class,
+                AppGlobals.getPackageManager()), new Utils());
     }
 
     @VisibleForTesting
@@ -18,68 +18,85 @@ package com.android.managedprovisioning.task.wifi;
 
 import static com.android.internal.util.Preconditions.checkNotNull;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.common.ProvisionLogger;
-import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.common.ConnectedNetworkState;
 
 /**
- * Monitor the state of the data network and the checkin service. Invoke a callback when the network
- * is connected and checkin has succeeded.
+ * Monitor the state of the data network. Invoke a callback as soon as a network with internet and
+ * the requested transport is connected.
+ *
+ * <p>The network doesn't need to be validated: validation never completes for a network behind a
+ * captive portal, for instance. Network changes are received through
+ * {@link ConnectivityManager.NetworkCallback}, which is delivered directly rather than through the
+ * broadcast queue, and recorded in {@link ConnectedNetworkState} so that
+ * {@link com.android.managedprovisioning.common.Utils#isConnectedToNetwork} sees the same state.
  */
 public class NetworkMonitor {
 
-    @VisibleForTesting
-    static final IntentFilter FILTER;
-    static {
-        FILTER = new IntentFilter();
-        FILTER.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
-        // Listen to immediate connectivity changes which are 3 seconds
-        // earlier than CONNECTIVITY_ACTION and may not have IPv6 routes
-        // setup. However, this may allow us to start up services like
-        // the CheckinService a bit earlier.
-        FILTER.addAction(ConnectivityManager.INET_CONDITION_ACTION);
-    }
+    /** Listen for networks of any transport. */
+    public static final int TRANSPORT_ANY = -1;
 
-    /** State notification callback. Expect some duplicate notifications. */
+    /**
+     * State notification callback. Expect some duplicate notifications, and notifications that
+     * race with {@link #stopListening()}: the callback is called on the connectivity thread
+     * without holding the lock of the monitor, so that it may take its own locks.
+     */
     public interface NetworkConnectedCallback {
         void onNetworkConnected();
     }
 
-    private final Context mContext;
-    private final Utils mUtils ;
+    private final ConnectivityManager mConnectivityManager;
+    private final ConnectedNetworkState mConnectedNetworkState;
 
     private NetworkConnectedCallback mCallback = null;
 
     /**
-     * Start watching the network and monitoring the checkin service. Immediately invokes one of the
-     * callback methods to report the current state, and then invokes callback methods over time as
-     * the state changes.
+     * Start watching the network. Immediately invokes one of the callback methods to report the
+     * current state, and then invokes callback methods over time as the state changes.
      *
-     * @param context to use for intent observers and such
+     * @param context to use for system services and such
      */
     public NetworkMonitor(Context context) {
-        this(context, new Utils());
+        this((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE),
+                ConnectedNetworkState.getInstance());
     }
 
     @VisibleForTesting
-    NetworkMonitor(Context context, Utils utils) {
-        mContext = checkNotNull(context);
-        mUtils = checkNotNull(utils);
+    NetworkMonitor(ConnectivityManager connectivityManager,
+            ConnectedNetworkState connectedNetworkState) {
+        mConnectivityManager = checkNotNull(connectivityManager);
+        mConnectedNetworkState = checkNotNull(connectedNetworkState);
     }
 
     /**
-     * Start listening for connectivity changes.
+     * Start listening for connected networks of any transport.
      * @param callback Callback to inform about those changes.
      */
     public synchronized void startListening(NetworkConnectedCallback callback) {
+        startListening(callback, TRANSPORT_ANY);
+    }
+
+    /**
+     * Start listening for connected networks with internet.
+     * @param callback Callback to inform about those changes.
+     * @param transportType the required transport, e.g.
+     * {@link NetworkCapabilities#TRANSPORT_WIFI}, or {@link #TRANSPORT_ANY}.
+     */
+    public synchronized void startListening(NetworkConnectedCallback callback,
+            int transportType) {
+        if (mCallback != null) {
+            mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+        }
         mCallback = checkNotNull(callback);
-        mContext.registerReceiver(mBroadcastReceiver, FILTER);
+        mConnectivityManager.registerNetworkCallback(createNetworkRequest(transportType),
+                mNetworkCallback);
     }
 
     /**
@@ -91,25 +108,50 @@ public class NetworkMonitor {
         }
 
         mCallback = null;
-        mContext.unregisterReceiver(mBroadcastReceiver);
+        mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+        // This monitor doesn't keep its networks up to date anymore.
+        mConnectedNetworkState.clear(this);
     }
 
-    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+    @VisibleForTesting
+    static NetworkRequest createNetworkRequest(int transportType) {
+        NetworkRequest.Builder builder = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        if (transportType != TRANSPORT_ANY) {
+            builder.addTransportType(transportType);
+        }
+        return builder.build();
+    }
+
+    @VisibleForTesting
+    final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            ProvisionLogger.logd("NetworkMonitor.onReceive: " + intent);
-            if (!FILTER.matchAction(intent.getAction())) {
-                return;
-            }
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            ProvisionLogger.logd("NetworkMonitor.onCapabilitiesChanged: " + network + " "
+                    + capabilities);
+            final NetworkConnectedCallback callback;
             synchronized (NetworkMonitor.this) {
-                if (!mUtils.isConnectedToNetwork(context)) {
-                    ProvisionLogger.logd("NetworkMonitor: not connected to network");
+                if (mCallback == null) {
                     return;
                 }
-                if (mCallback != null) {
-                    mCallback.onNetworkConnected();
-                }
+                callback = mCallback;
+                mConnectedNetworkState.onCapabilitiesChanged(NetworkMonitor.this, network,
+                        capabilities);
+            }
+            if (!capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+                // Usually validated shortly after, but not behind a captive portal.
+                ProvisionLogger.logd("NetworkMonitor: network not validated yet");
             }
+            // Not holding the lock: the callback may stop listening from another thread, e.g.
+            // AddWifiNetworkTask when it finishes while holding its own lock.
+            callback.onNetworkConnected();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            ProvisionLogger.logd("NetworkMonitor.onLost: " + network);
+            mConnectedNetworkState.onLost(NetworkMonitor.this, network);
         }
     };
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.managedprovisioning.task.wifi;
+
+import android.annotation.Nullable;
+import android.net.wifi.ScanResult;
+
+import com.android.managedprovisioning.model.WifiInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders the wifi networks given for provisioning by the latest scan results.
+ *
+ * <p>Networks that are in range are tried first, strongest signal first. Networks that weren't
+ * found by the scan, e.g. hidden networks, keep their given order and are tried last.</p>
+ */
+public class WifiCandidateRanker {
+
+    /**
+     * Returns the given networks in the order in which they should be tried.
+     *
+     * @param candidates the networks in the order they were given
+     * @param scanResults the latest scan results, or {@code null} if none are available
+     */
+    public List<WifiInfo> rank(List<WifiInfo> candidates, @Nullable List<ScanResult> scanResults) {
+        final Map<String, Integer> bestLevels = new HashMap<>();
+        if (scanResults != null) {
+            for (ScanResult scanResult : scanResults) {
+                Integer level = bestLevels.get(scanResult.SSID);
+                if (level == null || scanResult.level > level) {
+                    bestLevels.put(scanResult.SSID, scanResult.level);
+                }
+            }
+        }
+
+        List<WifiInfo> ranked = new ArrayList<>(candidates);
+        // The sort is stable, so that candidates with the same rank keep their given order.
+        Collections.sort(ranked, (a, b) -> {
+            Integer levelA = bestLevels.get(removeDoubleQuotes(a.ssid));
+            Integer levelB = bestLevels.get(removeDoubleQuotes(b.ssid));
+            if (levelA == null || levelB == null) {
+                return levelA != null ? -1 : (levelB != null ? 1 : 0);
+            }
+            return Integer.compare(levelB, levelA);
+        });
+        return ranked;
+    }
+
+    /**
+     * The SSIDs of provisioning networks are quoted as in {@link
+     * android.net.wifi.WifiConfiguration#SSID}, whereas scan results aren't.
+     */
+    private static String removeDoubleQuotes(String ssid) {
+        int length = ssid.length();
+        if (length > 1 && ssid.charAt(0) == '"' && ssid.charAt(length - 1) == '"') {
+            return ssid.substring(1, length - 1);
+        }
+        return ssid;
+    }
+}
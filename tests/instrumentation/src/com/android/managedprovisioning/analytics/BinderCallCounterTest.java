@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.IPackageManager;
+import android.os.RemoteException;
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link BinderCallCounter}.
+ */
+@SmallTest
+public class BinderCallCounterTest {
+    private static final String TASK_A = "TaskA";
+    private static final String TASK_B = "TaskB";
+    private static final String TEST_PACKAGE = "com.test.package";
+    private static final int TEST_USER_ID = 10;
+
+    @Mock private IPackageManager mDelegate;
+
+    private BinderCallCounter mCounter;
+    private IPackageManager mWrapped;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mCounter = new BinderCallCounter();
+        mWrapped = mCounter.wrap(IPackageManager.class, mDelegate);
+    }
+
+    @Test
+    public void testCallsForwardedAndCounted() throws Exception {
+        // GIVEN the delegate knows a package
+        when(mDelegate.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID)).thenReturn(true);
+
+        // WHEN calling the wrapped interface during a task
+        mCounter.setActiveTask(TASK_A);
+        boolean available = mWrapped.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID);
+        mWrapped.getPackageInfo(TEST_PACKAGE, 0, TEST_USER_ID);
+
+        // THEN the calls are forwarded and attributed to the task
+        assertTrue(available);
+        verify(mDelegate).getPackageInfo(TEST_PACKAGE, 0, TEST_USER_ID);
+        assertEquals(2, mCounter.getCallCount(TASK_A));
+
+        // WHEN calling the wrapped interface during another task, then after it
+        mCounter.setActiveTask(TASK_B);
+        mWrapped.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID);
+        mCounter.setActiveTask(null);
+        mWrapped.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID);
+
+        // THEN each call is attributed to the active task
+        assertEquals(2, mCounter.getCallCount(TASK_A));
+        assertEquals(1, mCounter.getCallCount(TASK_B));
+        assertEquals(1, mCounter.getCallCount(BinderCallCounter.NO_TASK));
+    }
+
+    @Test
+    public void testAsBinderNotCounted() {
+        // WHEN getting the binder of the wrapped interface
+        mCounter.setActiveTask(TASK_A);
+        mWrapped.asBinder();
+
+        // THEN no call is counted
+        assertEquals(0, mCounter.getCallCount(TASK_A));
+    }
+
+    @Test
+    public void testExceptionRethrown() throws Exception {
+        // GIVEN the delegate throws
+        RemoteException exception = new RemoteException();
+        when(mDelegate.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID)).thenThrow(exception);
+
+        // WHEN calling the wrapped interface
+        try {
+            mWrapped.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID);
+            fail("Expected a RemoteException");
+        } catch (RemoteException e) {
+            // THEN the exception of the delegate is thrown
+            assertEquals(exception, e);
+        }
+    }
+
+    @Test
+    public void testDump() throws Exception {
+        // GIVEN a call during a task
+        mCounter.setActiveTask(TASK_A);
+        mWrapped.isPackageAvailable(TEST_PACKAGE, TEST_USER_ID);
+
+        // WHEN dumping the counts
+        StringWriter writer = new StringWriter();
+        mCounter.dump(new PrintWriter(writer), "");
+
+        // THEN the calls of the task are printed
+        String dump = writer.toString();
+        assertTrue(dump, dump.contains(TASK_A + ": 1 {IPackageManager.isPackageAvailable=1}"));
+    }
+}
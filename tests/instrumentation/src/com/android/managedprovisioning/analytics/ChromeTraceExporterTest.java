@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ChromeTraceExporter}.
+ */
+@SmallTest
+public class ChromeTraceExporterTest {
+    private static final long TEST_PROVISIONING_ID = 1234L;
+    private static final int TEST_PID = 42;
+
+    private long mTimeMs;
+    private File mFile;
+    private ProvisioningTracer mTracer;
+    private ChromeTraceExporter mExporter;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test_trace.json");
+        mTracer = new ProvisioningTracer(() -> TimeUnit.MILLISECONDS.toNanos(mTimeMs));
+        mExporter = new ChromeTraceExporter(mFile, mTracer, Runnable::run, TEST_PID);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testCompleteEvent() throws Exception {
+        // GIVEN a span that was ended on the thread that began it
+        TraceSpan span = mTracer.beginSpan("task", TEST_PROVISIONING_ID)
+                .setAttribute("result", "success");
+        mTimeMs = 5;
+        span.end();
+
+        // WHEN exporting the trace
+        List<JSONObject> events = getEvents(mExporter.toJson(mTracer.getEndedSpans()), "X");
+
+        // THEN a complete event is exported on the track of the thread
+        assertEquals(1, events.size());
+        JSONObject event = events.get(0);
+        assertEquals("task", event.getString("name"));
+        assertEquals(0, event.getLong("ts"));
+        assertEquals(5000, event.getLong("dur"));
+        assertEquals(TEST_PID, event.getInt("pid"));
+        assertEquals(Thread.currentThread().getId(), event.getLong("tid"));
+        assertEquals(TEST_PROVISIONING_ID, event.getJSONObject("args").getLong("provisioningId"));
+        assertEquals("success", event.getJSONObject("args").getString("result"));
+    }
+
+    @Test
+    public void testAsyncEvents() throws Exception {
+        // GIVEN a span that was ended on another thread
+        TraceSpan span = mTracer.beginSpan("task", TEST_PROVISIONING_ID);
+        Thread thread = new Thread(span::end, "other thread");
+        thread.start();
+        thread.join();
+
+        // WHEN exporting the trace
+        JSONObject trace = mExporter.toJson(mTracer.getEndedSpans());
+
+        // THEN a begin event on this thread and an end event on the other thread are exported
+        List<JSONObject> begins = getEvents(trace, "b");
+        List<JSONObject> ends = getEvents(trace, "e");
+        assertEquals(1, begins.size());
+        assertEquals(1, ends.size());
+        assertEquals(Thread.currentThread().getId(), begins.get(0).getLong("tid"));
+        assertEquals(thread.getId(), ends.get(0).getLong("tid"));
+        assertEquals(span.getId(), begins.get(0).getLong("id"));
+        assertEquals(span.getId(), ends.get(0).getLong("id"));
+
+        // THEN both threads are named
+        List<String> threadNames = new ArrayList<>();
+        for (JSONObject event : getEvents(trace, "M")) {
+            threadNames.add(event.getJSONObject("args").getString("name"));
+        }
+        assertTrue(threadNames.contains(Thread.currentThread().getName()));
+        assertTrue(threadNames.contains("other thread"));
+    }
+
+    @Test
+    public void testInstantEvent() throws Exception {
+        // GIVEN an instant
+        mTracer.recordInstant("callback", TEST_PROVISIONING_ID);
+
+        // WHEN exporting the trace
+        List<JSONObject> events = getEvents(mExporter.toJson(mTracer.getEndedSpans()), "i");
+
+        // THEN an instant event is exported
+        assertEquals(1, events.size());
+        assertEquals("callback", events.get(0).getString("name"));
+    }
+
+    @Test
+    public void testExportToFile() throws Exception {
+        // GIVEN a span
+        mTracer.beginSpan("task", TEST_PROVISIONING_ID).end();
+
+        // WHEN exporting the trace of the session to the file
+        mExporter.exportToFile(TEST_PROVISIONING_ID);
+
+        // THEN the file contains the trace
+        assertEquals(1, getEvents(readFile(), "X").size());
+    }
+
+    @Test
+    public void testExportToFile_OnlySession() throws Exception {
+        // GIVEN spans of an earlier session
+        mTracer.beginSpan("earlier", TEST_PROVISIONING_ID - 1).end();
+        mTimeMs = 10;
+        // GIVEN spans of the session, including one that doesn't belong to any session
+        TraceSpan task = mTracer.beginSpan("task", TEST_PROVISIONING_ID);
+        mTimeMs = 15;
+        mTracer.beginSpan("unscoped", ProvisioningTracer.NO_PROVISIONING_ID).end();
+        mTimeMs = 20;
+        task.end();
+        // GIVEN an unscoped span after the session
+        mTimeMs = 30;
+        mTracer.beginSpan("later", ProvisioningTracer.NO_PROVISIONING_ID).end();
+
+        // WHEN exporting the trace of the session to the file
+        mExporter.exportToFile(TEST_PROVISIONING_ID);
+
+        // THEN only the spans of the session are exported
+        List<JSONObject> events = getEvents(readFile(), "X");
+        assertEquals(2, events.size());
+        assertEquals("task", events.get(0).getString("name"));
+        assertEquals("unscoped", events.get(1).getString("name"));
+    }
+
+    @Test
+    public void testExportToFile_RootSpan() throws Exception {
+        // GIVEN a root span with a nested span, and another root span
+        TraceSpan root = mTracer.beginSpan("ota", ProvisioningTracer.NO_PROVISIONING_ID);
+        root.beginChild("task").end();
+        root.end();
+        mTracer.beginSpan("other", ProvisioningTracer.NO_PROVISIONING_ID).end();
+
+        // WHEN exporting the trace of the root span to the file
+        mExporter.exportToFile(root);
+
+        // THEN only the root span and the span nested in it are exported
+        List<JSONObject> events = getEvents(readFile(), "X");
+        assertEquals(2, events.size());
+        assertEquals("ota", events.get(0).getString("name"));
+        assertEquals("task", events.get(1).getString("name"));
+    }
+
+    private JSONObject readFile() throws Exception {
+        return new JSONObject(
+                new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static List<JSONObject> getEvents(JSONObject trace, String phase) throws Exception {
+        JSONArray events = trace.getJSONArray("traceEvents");
+        List<JSONObject> result = new ArrayList<>();
+        for (int i = 0; i < events.length(); i++) {
+            if (phase.equals(events.getJSONObject(i).getString("ph"))) {
+                result.add(events.getJSONObject(i));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.content.Context;
+import android.support.test.filters.SmallTest;
+import android.util.ArrayMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Map;
+
+/**
+ * Unit tests for {@link LatencyBudgetMonitor}.
+ */
+@SmallTest
+public class LatencyBudgetMonitorTest {
+    private static final String TASK_WITH_BUDGET = "TaskWithBudget";
+    private static final String TASK_WITHOUT_BUDGET = "TaskWithoutBudget";
+    private static final long TASK_BUDGET_MS = 1000;
+    private static final long PROVISIONING_BUDGET_MS = 10000;
+
+    @Mock private Context mContext;
+    @Mock private MetricsLoggerWrapper mMetricsLoggerWrapper;
+
+    private LatencyBudgetMonitor mMonitor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Map<String, Long> budgets = new ArrayMap<>();
+        budgets.put(TASK_WITH_BUDGET, TASK_BUDGET_MS);
+        mMonitor = new LatencyBudgetMonitor(mContext, budgets, PROVISIONING_BUDGET_MS,
+                mMetricsLoggerWrapper);
+    }
+
+    @Test
+    public void testCheckTask_WithinBudget() {
+        // WHEN a task takes as long as its budget
+        assertFalse(mMonitor.checkTask(TASK_WITH_BUDGET, TASK_BUDGET_MS, null));
+
+        // THEN nothing is reported
+        verifyZeroInteractions(mMetricsLoggerWrapper);
+    }
+
+    @Test
+    public void testCheckTask_BudgetExceeded() {
+        // WHEN a task takes longer than its budget
+        ResourceUsage usage = new ResourceUsage(0, 0, 0, 0, 0);
+        assertTrue(mMonitor.checkTask(TASK_WITH_BUDGET, TASK_BUDGET_MS + 1, usage));
+
+        // THEN the breach is counted for the task
+        verify(mMetricsLoggerWrapper).logCount(mContext,
+                LatencyBudgetMonitor.COUNTER_PREFIX + TASK_WITH_BUDGET, 1);
+    }
+
+    @Test
+    public void testCheckTask_NoBudget() {
+        // WHEN a task without a budget takes long
+        assertFalse(mMonitor.checkTask(TASK_WITHOUT_BUDGET, Long.MAX_VALUE, null));
+
+        // THEN nothing is reported
+        verifyZeroInteractions(mMetricsLoggerWrapper);
+    }
+
+    @Test
+    public void testCheckProvisioning() {
+        // WHEN provisioning takes as long as its budget
+        assertFalse(mMonitor.checkProvisioning(PROVISIONING_BUDGET_MS));
+
+        // THEN nothing is reported
+        verifyZeroInteractions(mMetricsLoggerWrapper);
+
+        // WHEN provisioning takes longer than its budget
+        assertTrue(mMonitor.checkProvisioning(PROVISIONING_BUDGET_MS + 1));
+
+        // THEN the breach is counted
+        verify(mMetricsLoggerWrapper).logCount(mContext,
+                LatencyBudgetMonitor.COUNTER_PREFIX + LatencyBudgetMonitor.PROVISIONING, 1);
+    }
+
+    @Test
+    public void testParseBudgets() {
+        // WHEN parsing valid and invalid budgets
+        Map<String, Long> budgets = LatencyBudgetMonitor.parseBudgets(new String[] {
+                "TaskA:100", " TaskB : 2000 ", "TaskC", ":100", "TaskD:abc"});
+
+        // THEN only the valid budgets are kept
+        assertEquals(2, budgets.size());
+        assertEquals(100L, (long) budgets.get("TaskA"));
+        assertEquals(2000L, (long) budgets.get("TaskB"));
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.logging.nano.MetricsProto.MetricsEvent.VIEW_UNKNOWN;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit tests for {@link MetricsEventQueue}.
+ */
+@SmallTest
+public class MetricsEventQueueTest {
+    private static final int CATEGORY = 1;
+    private static final String HISTOGRAM = "histogram";
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final FakeSink mSink = new FakeSink();
+    private HandlerThread mDrainThread;
+
+    @Before
+    public void setUp() {
+        mDrainThread = new HandlerThread("test drain thread");
+        mDrainThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mDrainThread.quitSafely();
+    }
+
+    @Test
+    public void testLoggedOnDrainThread() throws Exception {
+        // GIVEN a wrapper that logs to a queue drained on the drain thread
+        MetricsEventQueue queue = new MetricsEventQueue(16, 0, mDrainThread.getLooper(), mSink);
+        MetricsLoggerWrapper wrapper = new MetricsLoggerWrapper(queue);
+        mSink.expect(4);
+
+        // WHEN logging events on the UI thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            wrapper.logAction(mContext, CATEGORY);
+            wrapper.logAction(mContext, CATEGORY, 2);
+            wrapper.logAction(mContext, CATEGORY, "value");
+            wrapper.logHistogram(mContext, HISTOGRAM, 3);
+        });
+
+        // THEN the events are written in order on the drain thread only
+        assertTrue(mSink.await());
+        assertEquals(Arrays.asList("action 1", "action 1 2", "action 1 value",
+                "histogram histogram 3"), mSink.getEvents());
+        assertEquals(Arrays.asList(mDrainThread), mSink.getThreads());
+        assertFalse(mSink.getThreads().contains(Looper.getMainLooper().getThread()));
+    }
+
+    @Test
+    public void testUnknownCategoryNotLogged() throws Exception {
+        // GIVEN a wrapper that logs to a queue that isn't drained automatically
+        MetricsEventQueue queue = new MetricsEventQueue(16, NEVER_MS, mDrainThread.getLooper(),
+                mSink);
+        MetricsLoggerWrapper wrapper = new MetricsLoggerWrapper(queue);
+
+        // WHEN logging an unknown category
+        wrapper.logAction(mContext, VIEW_UNKNOWN);
+        queue.drain();
+
+        // THEN nothing is written
+        assertTrue(mSink.getEvents().isEmpty());
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        // GIVEN a queue that isn't drained automatically, with queued events
+        MetricsEventQueue queue = new MetricsEventQueue(16, NEVER_MS, mDrainThread.getLooper(),
+                mSink);
+        queue.action(mContext, CATEGORY, 1);
+        queue.histogram(mContext, HISTOGRAM, 2);
+        mSink.expect(2);
+
+        // WHEN flushing the queue, with something to run afterwards
+        CountDownLatch afterFlush = new CountDownLatch(1);
+        List<String> eventsBeforeAfterFlush = new ArrayList<>();
+        queue.flush(() -> {
+            eventsBeforeAfterFlush.addAll(mSink.getEvents());
+            afterFlush.countDown();
+        });
+
+        // THEN the events are written on the drain thread, before running the runnable
+        assertTrue(mSink.await());
+        assertTrue(afterFlush.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("action 1 1", "histogram histogram 2"),
+                eventsBeforeAfterFlush);
+        assertEquals(Arrays.asList(mDrainThread), mSink.getThreads());
+    }
+
+    @Test
+    public void testFlush_DoesNotWait() throws Exception {
+        // GIVEN a queued event, and a drain thread busy until released
+        MetricsEventQueue queue = new MetricsEventQueue(16, NEVER_MS, mDrainThread.getLooper(),
+                mSink);
+        queue.action(mContext, CATEGORY);
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch releaseSink = new CountDownLatch(1);
+        new Handler(mDrainThread.getLooper()).post(() -> {
+            busy.countDown();
+            try {
+                releaseSink.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        mSink.expect(1);
+
+        // WHEN flushing the queue
+        queue.flush();
+
+        // THEN it returns before the event is written
+        assertTrue(mSink.getEvents().isEmpty());
+
+        // THEN the event is written once the drain thread is free
+        releaseSink.countDown();
+        assertTrue(mSink.await());
+        assertEquals(Arrays.asList("action 1"), mSink.getEvents());
+    }
+
+    @Test
+    public void testFlush_DrainThreadQuit() {
+        // GIVEN a queue whose drain thread has quit
+        MetricsEventQueue queue = new MetricsEventQueue(16, NEVER_MS, mDrainThread.getLooper(),
+                mSink);
+        queue.action(mContext, CATEGORY);
+        mDrainThread.quit();
+
+        // WHEN flushing the queue, with something to run afterwards
+        AtomicBoolean ran = new AtomicBoolean();
+        queue.flush(() -> ran.set(true));
+
+        // THEN it is still run, on the calling thread
+        assertTrue(ran.get());
+    }
+
+    @Test
+    public void testWrapAround() {
+        // GIVEN a queue that isn't drained automatically
+        MetricsEventQueue queue = new MetricsEventQueue(4, NEVER_MS, mDrainThread.getLooper(),
+                mSink);
+
+        // WHEN enqueuing more events than the capacity over several batches
+        for (int batch = 0; batch < 3; batch++) {
+            for (int i = 0; i < 3; i++) {
+                queue.action(mContext, CATEGORY, batch * 3 + i);
+            }
+            queue.drain();
+        }
+
+        // THEN all the events are written in order
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            expected.add("action 1 " + i);
+        }
+        assertEquals(expected, mSink.getEvents());
+        assertEquals(0, queue.getDroppedEventCount());
+    }
+
+    @Test
+    public void testOverflow() {
+        // GIVEN a queue that isn't drained automatically
+        MetricsEventQueue queue = new MetricsEventQueue(4, NEVER_MS, mDrainThread.getLooper(),
+                mSink);
+
+        // WHEN enqueuing more events than the capacity
+        for (int i = 0; i < 6; i++) {
+            queue.action(mContext, CATEGORY, i);
+        }
+
+        // THEN the last events are dropped
+        assertEquals(2, queue.getDroppedEventCount());
+
+        // WHEN draining the queue
+        queue.drain();
+
+        // THEN the first events and the number of dropped events are written
+        assertEquals(Arrays.asList("action 1 0", "action 1 1", "action 1 2", "action 1 3",
+                "count " + MetricsEventQueue.COUNTER_DROPPED_EVENTS + " 2"), mSink.getEvents());
+
+        // THEN there is room for new events
+        queue.action(mContext, CATEGORY, 6);
+        queue.drain();
+        assertEquals("action 1 6", mSink.getEvents().get(5));
+        assertEquals(2, queue.getDroppedEventCount());
+    }
+
+    private static class FakeSink implements MetricsEventQueue.Sink {
+        private final List<String> mEvents = new ArrayList<>();
+        private final List<Thread> mThreads = new ArrayList<>();
+        private CountDownLatch mLatch = new CountDownLatch(0);
+
+        void expect(int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        boolean await() throws InterruptedException {
+            return mLatch.await(5, TimeUnit.SECONDS);
+        }
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<>(mEvents);
+        }
+
+        synchronized List<Thread> getThreads() {
+            return new ArrayList<>(mThreads);
+        }
+
+        @Override
+        public void action(Context context, int category) {
+            record("action " + category);
+        }
+
+        @Override
+        public void action(Context context, int category, int value) {
+            record("action " + category + " " + value);
+        }
+
+        @Override
+        public void action(Context context, int category, String value) {
+            record("action " + category + " " + value);
+        }
+
+        @Override
+        public void histogram(Context context, String name, int bucket) {
+            record("histogram " + name + " " + bucket);
+        }
+
+        @Override
+        public void count(Context context, String name, int value) {
+            record("count " + name + " " + value);
+        }
+
+        private synchronized void record(String event) {
+            mEvents.add(event);
+            if (!mThreads.contains(Thread.currentThread())) {
+                mThreads.add(Thread.currentThread());
+            }
+            mLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ProvisioningTracer}.
+ */
+@SmallTest
+public class ProvisioningTracerTest {
+    private static final long TEST_PROVISIONING_ID = 1234L;
+
+    private long mTimeMs;
+    private ProvisioningTracer mTracer;
+
+    @Before
+    public void setUp() {
+        mTracer = new ProvisioningTracer(() -> TimeUnit.MILLISECONDS.toNanos(mTimeMs));
+    }
+
+    @Test
+    public void testNestedSpans() {
+        // WHEN a span is nested in another one
+        TraceSpan parent = mTracer.beginSpan("parent", TEST_PROVISIONING_ID);
+        mTimeMs = 10;
+        TraceSpan child = parent.beginChild("child").setAttribute("key", 1);
+        mTimeMs = 30;
+        child.end();
+        mTimeMs = 100;
+        parent.end();
+
+        // THEN both spans are recorded, ordered by start time
+        List<TraceSpan> spans = mTracer.getEndedSpans();
+        assertEquals(2, spans.size());
+        assertEquals(parent, spans.get(0));
+        assertEquals(100, parent.getDurationMillis());
+        assertEquals(0, parent.getParentId());
+        assertEquals(0, parent.getDepth());
+        assertEquals(child, spans.get(1));
+        assertEquals(20, child.getDurationMillis());
+        assertEquals(parent.getId(), child.getParentId());
+        assertEquals(1, child.getDepth());
+        // THEN the child belongs to the same provisioning session
+        assertEquals(TEST_PROVISIONING_ID, child.getProvisioningId());
+        assertEquals("1", child.getAttributes().get("key"));
+    }
+
+    @Test
+    public void testRunningSpanIsNotRecorded() {
+        // WHEN a span is begun but not ended
+        TraceSpan span = mTracer.beginSpan("span", TEST_PROVISIONING_ID);
+
+        // THEN it isn't recorded
+        assertFalse(span.isEnded());
+        assertEquals(-1, span.getDurationMillis());
+        assertTrue(mTracer.getEndedSpans().isEmpty());
+    }
+
+    @Test
+    public void testEndedSpanIsImmutable() {
+        // GIVEN an ended span
+        TraceSpan span = mTracer.beginSpan("span", TEST_PROVISIONING_ID)
+                .setAttribute("result", "success");
+        mTimeMs = 10;
+        span.end();
+
+        // WHEN ending it again and changing its attributes
+        mTimeMs = 20;
+        span.setAttribute("result", "error").end();
+
+        // THEN the span is unchanged and recorded once
+        assertEquals(10, span.getDurationMillis());
+        assertEquals("success", span.getAttributes().get("result"));
+        assertEquals(1, mTracer.getEndedSpans().size());
+    }
+
+    @Test
+    public void testCapacity() {
+        // WHEN more spans than the capacity are ended
+        for (int i = 0; i <= ProvisioningTracer.CAPACITY; i++) {
+            mTimeMs = i;
+            mTracer.beginSpan("span" + i, TEST_PROVISIONING_ID).end();
+        }
+
+        // THEN the oldest span is dropped
+        List<TraceSpan> spans = mTracer.getEndedSpans();
+        assertEquals(ProvisioningTracer.CAPACITY, spans.size());
+        assertEquals("span1", spans.get(0).getName());
+    }
+
+    @Test
+    public void testDump() {
+        // GIVEN a nested span
+        TraceSpan parent = mTracer.beginSpan("parent", TEST_PROVISIONING_ID);
+        parent.beginChild("child").end();
+        parent.end();
+
+        // WHEN dumping the tracer
+        StringWriter writer = new StringWriter();
+        mTracer.dump(new PrintWriter(writer), "");
+
+        // THEN the spans are printed, the child indented
+        String dump = writer.toString();
+        assertTrue(dump, dump.contains("\n  +0 ms parent"));
+        assertTrue(dump, dump.contains("\n    +0 ms child"));
+    }
+}
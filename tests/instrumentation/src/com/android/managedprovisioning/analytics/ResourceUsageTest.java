@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ResourceUsage}.
+ */
+@SmallTest
+public class ResourceUsageTest {
+    private final File mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+            "resource_usage_test");
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testMinus() {
+        // GIVEN two samples
+        ResourceUsage start = new ResourceUsage(TimeUnit.MILLISECONDS.toNanos(10), 1024, 3,
+                2048, 0);
+        ResourceUsage end = new ResourceUsage(TimeUnit.MILLISECONDS.toNanos(25), 5 * 1024, 10,
+                4096, 1024);
+
+        // WHEN computing the difference
+        ResourceUsage usage = end.minus(start);
+
+        // THEN each counter is the difference of the samples
+        assertEquals(15, usage.getCpuTimeMillis());
+        assertEquals(4 * 1024, usage.getAllocatedBytes());
+        assertEquals(7, usage.getBinderTransactions());
+        assertEquals(2048, usage.getIoReadBytes());
+        assertEquals(1024, usage.getIoWriteBytes());
+        assertEquals("cpu=15 ms, alloc=4 KB, binder=7, read=2 KB, write=1 KB", usage.toString());
+    }
+
+    @Test
+    public void testMinus_Unknown() {
+        // GIVEN samples where the binder transactions couldn't be read
+        ResourceUsage start = new ResourceUsage(0, 0, ResourceUsage.UNKNOWN, 0, 0);
+        ResourceUsage end = new ResourceUsage(0, 0, ResourceUsage.UNKNOWN, 0, 0);
+
+        // THEN the binder transactions are unknown
+        ResourceUsage usage = end.minus(start);
+        assertEquals(ResourceUsage.UNKNOWN, usage.getBinderTransactions());
+        assertTrue(usage.toString(), usage.toString().contains("binder=?"));
+    }
+
+    @Test
+    public void testSample_CountsThreadWork() throws Exception {
+        // GIVEN a sample
+        ResourceUsage start = ResourceUsage.sample();
+
+        // WHEN this thread writes a file
+        try (FileOutputStream stream = new FileOutputStream(mFile)) {
+            stream.write(new byte[64 * 1024]);
+        }
+
+        // THEN the bytes written are counted
+        ResourceUsage usage = ResourceUsage.sample().minus(start);
+        assertTrue(usage.toString(), usage.getIoWriteBytes() >= 64 * 1024);
+        assertTrue(usage.toString(), usage.getCpuTimeMillis() >= 0);
+    }
+
+    @Test
+    public void testAddTo() {
+        // GIVEN a span
+        ProvisioningTracer tracer = new ProvisioningTracer(() -> 0);
+        TraceSpan span = tracer.beginSpan("task", 1);
+
+        // WHEN adding a usage to the span
+        new ResourceUsage(TimeUnit.MILLISECONDS.toNanos(5), 2048, 4, 0, 1024).addTo(span);
+
+        // THEN the counters are attributes of the span
+        assertEquals("5", span.getAttributes().get("cpuMs"));
+        assertEquals("2", span.getAttributes().get("allocatedKb"));
+        assertEquals("4", span.getAttributes().get("binderTransactions"));
+        assertEquals("0", span.getAttributes().get("ioReadKb"));
+        assertEquals("1", span.getAttributes().get("ioWriteKb"));
+    }
+}
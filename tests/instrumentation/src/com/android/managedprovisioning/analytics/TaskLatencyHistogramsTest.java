@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link TaskLatencyHistograms}.
+ */
+@SmallTest
+public class TaskLatencyHistogramsTest {
+    private static final String TEST_TASK = "TestTask";
+
+    private File mFile;
+    private TaskLatencyHistograms mHistograms;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                TaskLatencyHistograms.FILE_NAME);
+        mFile.delete();
+        mHistograms = new TaskLatencyHistograms(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testGetBucket() {
+        assertEquals(0, TaskLatencyHistograms.getBucket(0));
+        assertEquals(1, TaskLatencyHistograms.getBucket(1));
+        assertEquals(3, TaskLatencyHistograms.getBucket(2));
+        assertEquals(4, TaskLatencyHistograms.getBucket(3));
+        assertEquals(5, TaskLatencyHistograms.getBucket(4));
+        assertEquals(21, TaskLatencyHistograms.getBucket(1024));
+        assertEquals(TaskLatencyHistograms.BUCKET_COUNT - 1,
+                TaskLatencyHistograms.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        // WHEN recording 90 short and 10 long durations
+        for (int i = 0; i < 90; i++) {
+            mHistograms.record(TEST_TASK, 100);
+        }
+        for (int i = 0; i < 10; i++) {
+            mHistograms.record(TEST_TASK, 10000);
+        }
+
+        // THEN the percentiles are the upper bounds of their buckets
+        TaskLatencyHistograms.Histogram histogram = mHistograms.get(TEST_TASK);
+        assertEquals(100, histogram.getCount());
+        assertEquals(128, histogram.getPercentile(50));
+        assertEquals(128, histogram.getPercentile(90));
+        assertEquals(11586, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testPersisted() {
+        // GIVEN a recorded duration
+        mHistograms.record(TEST_TASK, 100);
+
+        // WHEN reading the histograms from the file
+        TaskLatencyHistograms histograms = new TaskLatencyHistograms(mFile);
+
+        // THEN the duration is still recorded
+        assertEquals(1, histograms.get(TEST_TASK).getCount());
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        // GIVEN a file that isn't a histogram file
+        try (FileOutputStream stream = new FileOutputStream(mFile)) {
+            stream.write(new byte[] {1, 2, 3});
+        }
+
+        // THEN the file is discarded
+        assertNull(mHistograms.get(TEST_TASK));
+
+        // WHEN recording a duration
+        mHistograms.record(TEST_TASK, 100);
+
+        // THEN the histograms are written again
+        assertEquals(1, new TaskLatencyHistograms(mFile).get(TEST_TASK).getCount());
+    }
+
+    @Test
+    public void testMaxHistograms() {
+        // WHEN recording more tasks than there can be histograms
+        for (int i = 0; i <= TaskLatencyHistograms.MAX_HISTOGRAMS; i++) {
+            mHistograms.record(TEST_TASK + i, 100);
+        }
+
+        // THEN the last task isn't recorded
+        assertEquals(1, mHistograms.get(TEST_TASK + 0).getCount());
+        assertNull(mHistograms.get(TEST_TASK + TaskLatencyHistograms.MAX_HISTOGRAMS));
+    }
+
+    @Test
+    public void testDump() {
+        // GIVEN a recorded duration
+        mHistograms.record(TEST_TASK, 100);
+
+        // WHEN dumping the histograms
+        StringWriter writer = new StringWriter();
+        mHistograms.dump(new PrintWriter(writer), "");
+
+        // THEN the count and percentiles are printed
+        String dump = writer.toString();
+        assertTrue(dump, dump.contains(TEST_TASK + ": count=1, p50<=128 ms"));
+    }
+}
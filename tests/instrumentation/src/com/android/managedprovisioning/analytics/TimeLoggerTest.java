@@ -19,7 +19,6 @@ package com.android.managedprovisioning.analytics;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
-import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.test.AndroidTestCase;
@@ -28,6 +27,8 @@ import android.test.suitebuilder.annotation.SmallTest;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Unit-tests for {@link TimeLogger}.
  */
@@ -39,10 +40,11 @@ public class TimeLoggerTest extends AndroidTestCase {
     private static final long STOP_TIME_MS = 2500;
 
     private TimeLogger mTimeLogger;
+    private ProvisioningTracer mTracer;
+    private long mElapsedRealTimeMs;
 
     @Mock private Context mContext;
     @Mock private MetricsLoggerWrapper mMetricsLoggerWrapper;
-    @Mock private AnalyticsUtils mAnalyticsUtils;
 
     @Override
     public void setUp() {
@@ -51,18 +53,19 @@ public class TimeLoggerTest extends AndroidTestCase {
 
         MockitoAnnotations.initMocks(this);
 
-        mTimeLogger = new TimeLogger(mContext, CATEGORY, mMetricsLoggerWrapper, mAnalyticsUtils);
+        mTracer = new ProvisioningTracer(() -> TimeUnit.MILLISECONDS.toNanos(mElapsedRealTimeMs));
+        mTimeLogger = new TimeLogger(mContext, CATEGORY, mMetricsLoggerWrapper, mTracer);
     }
 
     @SmallTest
     public void testTimeLogger_withStartTime() {
         // GIVEN that START_TIME_MS is the elapsed real time.
-        when(mAnalyticsUtils.elapsedRealTime()).thenReturn(START_TIME_MS);
+        mElapsedRealTimeMs = START_TIME_MS;
         // WHEN logging time starts.
         mTimeLogger.start();
 
         // GIVEN that STOP_TIME_MS is the elapsed real time.
-        when(mAnalyticsUtils.elapsedRealTime()).thenReturn(STOP_TIME_MS);
+        mElapsedRealTimeMs = STOP_TIME_MS;
         // WHEN logging time stops.
         mTimeLogger.stop();
 
@@ -74,12 +77,12 @@ public class TimeLoggerTest extends AndroidTestCase {
     @SmallTest
     public void testTimeLogger_withStartTime_stopsTwice() {
         // GIVEN that START_TIME_MS is the elapsed real time.
-        when(mAnalyticsUtils.elapsedRealTime()).thenReturn(START_TIME_MS);
+        mElapsedRealTimeMs = START_TIME_MS;
         // WHEN logging time starts.
         mTimeLogger.start();
 
         // GIVEN that STOP_TIME_MS is the elapsed real time.
-        when(mAnalyticsUtils.elapsedRealTime()).thenReturn(STOP_TIME_MS);
+        mElapsedRealTimeMs = STOP_TIME_MS;
         // WHEN logging time stops.
         mTimeLogger.stop();
 
@@ -93,6 +96,21 @@ public class TimeLoggerTest extends AndroidTestCase {
         verifyNoMoreInteractions(mMetricsLoggerWrapper);
     }
 
+    @SmallTest
+    public void testTimeLogger_recordsSpan() {
+        // WHEN logging time from START_TIME_MS to STOP_TIME_MS.
+        mElapsedRealTimeMs = START_TIME_MS;
+        mTimeLogger.start();
+        mElapsedRealTimeMs = STOP_TIME_MS;
+        mTimeLogger.stop();
+
+        // THEN a span of the category should be recorded.
+        assertEquals(1, mTracer.getEndedSpans().size());
+        TraceSpan span = mTracer.getEndedSpans().get(0);
+        assertEquals(STOP_TIME_MS - START_TIME_MS, span.getDurationMillis());
+        assertEquals(String.valueOf(CATEGORY), span.getAttributes().get("category"));
+    }
+
     @SmallTest
     public void testTimeLogger_withoutStartTime() {
         // GIVEN there is no start time.
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AccountMigrationTracker}.
+ */
+@SmallTest
+public class AccountMigrationTrackerTest {
+    private static final int TEST_USER_ID = 10;
+    private static final long TEST_TIMEOUT_MS = 100;
+
+    private AccountMigrationTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mTracker = new AccountMigrationTracker();
+    }
+
+    @Test
+    public void testWaitForResult_NotStarted() throws Exception {
+        assertNull(mTracker.waitForResult(TEST_USER_ID, TEST_TIMEOUT_MS));
+    }
+
+    @Test
+    public void testWaitForResult_Finished() throws Exception {
+        // GIVEN a copy to a user that succeeded
+        mTracker.migrationStarted(TEST_USER_ID);
+        mTracker.migrationFinished(TEST_USER_ID, true);
+
+        // THEN its result is returned
+        assertTrue(mTracker.waitForResult(TEST_USER_ID, TEST_TIMEOUT_MS));
+        // THEN nothing is known about other users
+        assertNull(mTracker.waitForResult(TEST_USER_ID + 1, TEST_TIMEOUT_MS));
+    }
+
+    @Test
+    public void testWaitForResult_FinishedLater() throws Exception {
+        // GIVEN a copy that fails after a while
+        mTracker.migrationStarted(TEST_USER_ID);
+        new Thread(() -> mTracker.migrationFinished(TEST_USER_ID, false)).start();
+
+        // THEN the failure is returned
+        assertFalse(mTracker.waitForResult(TEST_USER_ID, 1000));
+    }
+
+    @Test
+    public void testWaitForResult_TimedOut() throws Exception {
+        // GIVEN a copy that doesn't finish
+        mTracker.migrationStarted(TEST_USER_ID);
+
+        // THEN the account is considered not copied
+        assertFalse(mTracker.waitForResult(TEST_USER_ID, TEST_TIMEOUT_MS));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.ComponentName;
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link DeviceAdminResolutionCache}.
+ */
+@SmallTest
+public class DeviceAdminResolutionCacheTest {
+    private static final String TEST_PACKAGE_NAME = "com.test.dpc";
+    private static final String TEST_OTHER_PACKAGE_NAME = "com.test.other";
+    private static final ComponentName TEST_COMPONENT_NAME =
+            new ComponentName(TEST_PACKAGE_NAME, TEST_PACKAGE_NAME + ".AdminReceiver");
+    private static final ComponentName TEST_OTHER_COMPONENT_NAME =
+            new ComponentName(TEST_OTHER_PACKAGE_NAME, TEST_OTHER_PACKAGE_NAME + ".AdminReceiver");
+    private static final int TEST_USER_ID = 10;
+
+    private DeviceAdminResolutionCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new DeviceAdminResolutionCache();
+        mCache.startSession();
+    }
+
+    @Test
+    public void testGet_HitAndMiss() {
+        // GIVEN an admin resolved from its package name
+        mCache.put(TEST_PACKAGE_NAME, null, TEST_USER_ID, TEST_COMPONENT_NAME);
+
+        // THEN the same lookup is a hit
+        assertEquals(TEST_COMPONENT_NAME, mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID));
+        // THEN a lookup in another user is a miss
+        assertNull(mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID + 1));
+        // THEN a lookup by component name is a miss
+        assertNull(mCache.get(null, TEST_COMPONENT_NAME, TEST_USER_ID));
+
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void testGet_PackageNameIgnoredWithComponentName() {
+        // GIVEN an admin resolved from its component name
+        mCache.put(null, TEST_COMPONENT_NAME, TEST_USER_ID, TEST_COMPONENT_NAME);
+
+        // THEN a lookup with the same component and a different package name is a hit
+        assertEquals(TEST_COMPONENT_NAME,
+                mCache.get(TEST_OTHER_PACKAGE_NAME, TEST_COMPONENT_NAME, TEST_USER_ID));
+    }
+
+    @Test
+    public void testInvalidatePackage() {
+        // GIVEN two admins of different packages
+        mCache.put(TEST_PACKAGE_NAME, null, TEST_USER_ID, TEST_COMPONENT_NAME);
+        mCache.put(null, TEST_COMPONENT_NAME, TEST_USER_ID, TEST_COMPONENT_NAME);
+        mCache.put(null, TEST_OTHER_COMPONENT_NAME, TEST_USER_ID, TEST_OTHER_COMPONENT_NAME);
+
+        // WHEN the first package is updated
+        mCache.invalidatePackage(TEST_PACKAGE_NAME);
+
+        // THEN only the entries of the first package are removed
+        assertNull(mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID));
+        assertNull(mCache.get(null, TEST_COMPONENT_NAME, TEST_USER_ID));
+        assertEquals(TEST_OTHER_COMPONENT_NAME,
+                mCache.get(null, TEST_OTHER_COMPONENT_NAME, TEST_USER_ID));
+    }
+
+    @Test
+    public void testEndSession() {
+        // GIVEN a cached admin that was looked up once
+        mCache.put(TEST_PACKAGE_NAME, null, TEST_USER_ID, TEST_COMPONENT_NAME);
+        mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID);
+
+        // WHEN the provisioning session ends
+        mCache.endSession();
+
+        // THEN the counters are reset and the admin is gone
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+        assertNull(mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID));
+
+        // THEN admins resolved outside a session are not cached
+        mCache.put(TEST_PACKAGE_NAME, null, TEST_USER_ID, TEST_COMPONENT_NAME);
+        assertNull(mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID));
+
+        // WHEN the next session starts
+        mCache.startSession();
+
+        // THEN admins are cached again
+        mCache.put(TEST_PACKAGE_NAME, null, TEST_USER_ID, TEST_COMPONENT_NAME);
+        assertEquals(TEST_COMPONENT_NAME, mCache.get(TEST_PACKAGE_NAME, null, TEST_USER_ID));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Unit tests for {@link FlightRecorder}.
+ */
+@SmallTest
+public class FlightRecorderTest {
+    private final FlightRecorder mRecorder = new FlightRecorder(3);
+
+    @Test
+    public void testFormatsEvents() {
+        // WHEN recording events with and without arguments
+        mRecorder.record(Log.DEBUG, "Deleting package [%s] as user %d", 2, "com.example", 10,
+                null);
+        mRecorder.record(Log.ERROR, "100% failed", 0, null, null, new RuntimeException("boom"));
+
+        // THEN the events are formatted
+        List<String> events = mRecorder.getEvents();
+        assertEquals(2, events.size());
+        assertTrue(events.get(0), events.get(0).endsWith(
+                " D [" + Thread.currentThread().getName()
+                        + "] Deleting package [com.example] as user 10"));
+        assertTrue(events.get(1), events.get(1).endsWith(
+                " E [" + Thread.currentThread().getName()
+                        + "] 100% failed: java.lang.RuntimeException: boom"));
+    }
+
+    @Test
+    public void testKeepsLastEvents() {
+        // WHEN recording more events than the capacity
+        for (int i = 0; i < 5; i++) {
+            mRecorder.record(Log.INFO, "event %d", 1, i, null, null);
+        }
+
+        // THEN only the last events are kept, oldest first
+        List<String> events = mRecorder.getEvents();
+        assertEquals(3, events.size());
+        assertTrue(events.get(0).endsWith("event 2"));
+        assertTrue(events.get(2).endsWith("event 4"));
+    }
+
+    @Test
+    public void testInvalidFormat() {
+        // WHEN recording an event whose format doesn't match the arguments
+        mRecorder.record(Log.INFO, "value %d", 1, "not a number", null, null);
+
+        // THEN the format and arguments are kept
+        assertTrue(mRecorder.getEvents().get(0).endsWith("value %d not a number"));
+    }
+
+    @Test
+    public void testSupplier() {
+        // WHEN recording events whose message comes from a Supplier
+        Supplier<String> message = () -> "supplied";
+        Supplier<String> failing = () -> {
+            throw new IllegalStateException("boom");
+        };
+        mRecorder.record(Log.DEBUG, null, ProvisionLogger.SUPPLIER, message, null, null);
+        mRecorder.record(Log.DEBUG, null, ProvisionLogger.SUPPLIER, failing, null, null);
+
+        // THEN the messages are built when the events are read
+        List<String> events = mRecorder.getEvents();
+        assertTrue(events.get(0), events.get(0).endsWith("] supplied"));
+        assertTrue(events.get(1), events.get(1).endsWith(
+                "] Couldn't build the message: java.lang.IllegalStateException: boom"));
+    }
+
+    @Test
+    public void testMutableArgument() {
+        // GIVEN an event whose argument isn't an immutable value
+        StringBuilder state = new StringBuilder("before");
+        mRecorder.record(Log.DEBUG, "state %s", 1, state, null, null);
+
+        // WHEN the argument changes after being recorded
+        state.replace(0, state.length(), "after");
+
+        // THEN the event shows the state at the time it was recorded
+        assertTrue(mRecorder.getEvents().get(0).endsWith("] state before"));
+    }
+
+    @Test
+    public void testSupplierLogs() {
+        // GIVEN an event whose Supplier records another event when called
+        Supplier<String> message = () -> {
+            mRecorder.record(Log.VERBOSE, "nested", 0, null, null, null);
+            return "supplied";
+        };
+        mRecorder.record(Log.DEBUG, null, ProvisionLogger.SUPPLIER, message, null, null);
+
+        // WHEN reading the events
+        List<String> events = mRecorder.getEvents();
+
+        // THEN the events read are the ones recorded before
+        assertEquals(1, events.size());
+        assertTrue(events.get(0), events.get(0).endsWith("] supplied"));
+        // THEN the nested event is recorded after them
+        assertTrue(mRecorder.getEvents().get(1).endsWith("] nested"));
+    }
+
+    @Test
+    public void testDump() {
+        // GIVEN an event
+        mRecorder.record(Log.WARN, "warning", 0, null, null, null);
+
+        // WHEN dumping the events
+        StringWriter writer = new StringWriter();
+        mRecorder.dump(new PrintWriter(writer), "");
+
+        // THEN the event is printed
+        String dump = writer.toString();
+        assertTrue(dump, dump.startsWith("Recent log events (1):"));
+        assertTrue(dump, dump.contains("] warning"));
+    }
+}
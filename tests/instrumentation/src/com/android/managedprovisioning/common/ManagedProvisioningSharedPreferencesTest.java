@@ -23,6 +23,7 @@ import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.UserHandle;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import org.junit.After;
@@ -73,4 +74,17 @@ public class ManagedProvisioningSharedPreferencesTest {
         assertEquals(mManagedProvisioningSharedPreferences.incrementAndGetProvisioningId(), 2L);
         assertEquals(mManagedProvisioningSharedPreferences.getProvisioningId(), 2L);
     }
+
+    @Test
+    public void testPrecreatedProfileUserId() {
+        assertEquals(UserHandle.USER_NULL,
+                mManagedProvisioningSharedPreferences.getPrecreatedProfileUserId());
+
+        mManagedProvisioningSharedPreferences.setPrecreatedProfileUserId(10);
+        assertEquals(10, mManagedProvisioningSharedPreferences.getPrecreatedProfileUserId());
+
+        mManagedProvisioningSharedPreferences.setPrecreatedProfileUserId(UserHandle.USER_NULL);
+        assertEquals(UserHandle.USER_NULL,
+                mManagedProvisioningSharedPreferences.getPrecreatedProfileUserId());
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static org.junit.Assume.assumeFalse;
+
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Compares the cost per call of the ways to log a message that isn't loggable, e.g. a VERBOSE
+ * message in a loop. The results are printed to logcat with the tag of this class:
+ *
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *     com.android.managedprovisioning.common.ProvisionLoggerBenchmark \
+ *     com.android.managedprovisioning.tests/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@LargeTest
+public class ProvisionLoggerBenchmark {
+    private static final String TAG = "ProvisionLoggerBenchmark";
+    private static final int WARMUP_ITERATIONS = 1000;
+    private static final int ITERATIONS = 20000;
+
+    // Not a constant, so that the messages can't be built at compile time.
+    private String mPackageName = "com.example.package";
+
+    @Test
+    public void benchmarkNotLoggable() {
+        assumeFalse(ProvisionLogger.isLoggable(Log.VERBOSE));
+
+        // The String overload prints whatever the level. Printing is turned off so that the
+        // benchmark doesn't flood logcat; the baseline is then a lower bound of its cost.
+        ProvisionLogger.setPrintEnabled(false);
+        try {
+            final long concatenated = measure(userId -> ProvisionLogger.logv(
+                    "Deleting package [" + mPackageName + "] as user " + userId));
+            final long parameterized = measure(userId -> ProvisionLogger.logv(
+                    "Deleting package [%s] as user %d", mPackageName, userId));
+            final long supplier = measure(userId -> ProvisionLogger.logv(
+                    () -> "Deleting package [" + mPackageName + "] as user " + userId));
+            Log.i(TAG, "ns per call: concatenated=" + concatenated
+                    + ", parameterized=" + parameterized + ", supplier=" + supplier);
+        } finally {
+            ProvisionLogger.setPrintEnabled(true);
+        }
+    }
+
+    /**
+     * Returns the cost in nanoseconds of one call, given a different value each time.
+     */
+    private static long measure(IntConsumer call) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            call.accept(i);
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.accept(i);
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import android.support.test.filters.SmallTest;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link ProvisionLogger}.
+ */
+@SmallTest
+public class ProvisionLoggerTest {
+
+    @Test
+    public void testSupplierNotCalledIfNotLoggable() {
+        assumeFalse(ProvisionLogger.isLoggable(Log.VERBOSE));
+        AtomicInteger calls = new AtomicInteger();
+
+        // WHEN logging at a level that isn't loggable
+        ProvisionLogger.logv(() -> "message " + calls.incrementAndGet());
+
+        // THEN the message isn't built
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testSupplierCalledIfLoggable() {
+        AtomicInteger calls = new AtomicInteger();
+
+        // WHEN logging at ERROR level, which is always loggable
+        ProvisionLogger.loge(() -> "message " + calls.incrementAndGet());
+
+        // THEN the message is built once
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testParameterizedEventsRecorded() {
+        // WHEN logging a parameterized message, whether it is loggable or not
+        ProvisionLogger.logv("Deleting package [%s] as user %d", "com.example.test", 10);
+
+        // THEN the formatted message is in the recent events
+        StringWriter writer = new StringWriter();
+        ProvisionLogger.dumpRecentEvents(new PrintWriter(writer), "");
+        assertTrue(writer.toString().contains("Deleting package [com.example.test] as user 10"));
+    }
+
+    @Test
+    public void testSupplierEventsRecorded() {
+        assumeFalse(ProvisionLogger.isLoggable(Log.VERBOSE));
+        AtomicInteger calls = new AtomicInteger();
+
+        // WHEN logging a message from a Supplier at a level that isn't loggable
+        ProvisionLogger.logv(() -> "Supplied message " + calls.incrementAndGet());
+
+        // THEN the message isn't built
+        assertEquals(0, calls.get());
+
+        // WHEN reading the recent events
+        StringWriter writer = new StringWriter();
+        ProvisionLogger.dumpRecentEvents(new PrintWriter(writer), "");
+
+        // THEN the message is built and is in the recent events
+        assertEquals(1, calls.get());
+        assertTrue(writer.toString().contains("Supplied message 1"));
+    }
+
+    @Test
+    public void testFormatMessage() {
+        assertEquals("100%", ProvisionLogger.formatMessage("100%", 0, null, null));
+        assertEquals("a 1", ProvisionLogger.formatMessage("a %d", 1, 1, null));
+        assertEquals("a 1 b", ProvisionLogger.formatMessage("a %d %s", 2, 1, "b"));
+    }
+
+    @Test
+    public void testGetTag() {
+        assumeFalse(ProvisionLogger.IS_DEBUG_BUILD);
+        assertEquals("ManagedProvisioning", ProvisionLogger.getTag());
+    }
+}
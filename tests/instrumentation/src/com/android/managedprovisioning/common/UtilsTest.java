@@ -18,7 +18,10 @@ package com.android.managedprovisioning.common;
 
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -37,11 +40,16 @@ import android.content.pm.ParceledListSlice;
 import android.content.pm.ResolveInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
 import android.os.Build;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.managedprovisioning.analytics.MetricsEventQueue;
+
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -72,7 +80,10 @@ public class UtilsTest extends AndroidTestCase {
     @Mock private IPackageManager mockIPackageManager;
     @Mock private PackageManager mockPackageManager;
     @Mock private ConnectivityManager mockConnectivityManager;
+    @Mock private MetricsEventQueue mockMetricsEventQueue;
 
+    private ConnectedNetworkState mConnectedNetworkState;
+    private DeviceAdminResolutionCache mDeviceAdminResolutionCache;
     private Utils mUtils;
 
     @Override
@@ -87,7 +98,10 @@ public class UtilsTest extends AndroidTestCase {
         when(mockContext.getSystemService(Context.CONNECTIVITY_SERVICE))
                 .thenReturn(mockConnectivityManager);
 
-        mUtils = new Utils();
+        mConnectedNetworkState = new ConnectedNetworkState();
+        mDeviceAdminResolutionCache = new DeviceAdminResolutionCache();
+        mUtils = new Utils(mDeviceAdminResolutionCache, mConnectedNetworkState,
+                mockMetricsEventQueue);
     }
 
     @Override
@@ -123,6 +137,32 @@ public class UtilsTest extends AndroidTestCase {
         verifyNoMoreInteractions(mockIPackageManager);
     }
 
+    public void testSetComponentsEnabledSetting() throws Exception {
+        // GIVEN that the second component can't be found
+        doThrow(new IllegalArgumentException()).when(mockIPackageManager)
+                .setComponentEnabledSetting(eq(TEST_COMPONENT_NAME_2), anyInt(), anyInt(),
+                        anyInt());
+        // WHEN enabling, disabling and enabling again the first component, and disabling the
+        // second one
+        List<ComponentName> failures = mUtils.setComponentsEnabledSetting(mockIPackageManager,
+                Arrays.asList(
+                        ComponentStateChange.enable(TEST_COMPONENT_NAME),
+                        ComponentStateChange.disable(TEST_COMPONENT_NAME),
+                        ComponentStateChange.disable(TEST_COMPONENT_NAME_2),
+                        ComponentStateChange.enable(TEST_COMPONENT_NAME)),
+                TEST_USER_ID);
+        // THEN only the last change of each component is applied, without killing the app
+        verify(mockIPackageManager).setComponentEnabledSetting(TEST_COMPONENT_NAME,
+                PackageManager.COMPONENT_ENABLED_STATE_ENABLED, PackageManager.DONT_KILL_APP,
+                TEST_USER_ID);
+        verify(mockIPackageManager).setComponentEnabledSetting(TEST_COMPONENT_NAME_2,
+                PackageManager.COMPONENT_ENABLED_STATE_DISABLED, PackageManager.DONT_KILL_APP,
+                TEST_USER_ID);
+        verifyNoMoreInteractions(mockIPackageManager);
+        // THEN the component that couldn't be changed is reported
+        assertEquals(Arrays.asList(TEST_COMPONENT_NAME_2), failures);
+    }
+
     public void testPackageRequiresUpdate_notPresent() throws Exception {
         // GIVEN that the requested package is not present on the device
         // WHEN checking whether an update is required
@@ -186,6 +226,20 @@ public class UtilsTest extends AndroidTestCase {
         assertFalse(mUtils.isConnectedToWifi(mockContext));
     }
 
+    public void testIsConnectedToWifi_ConnectedNetworkState() throws Exception {
+        // GIVEN the active network is not reported as connected yet
+        setCurrentNetworkMock(ConnectivityManager.TYPE_WIFI, false);
+        // GIVEN a network callback reported a wifi network with internet, not validated yet
+        mConnectedNetworkState.onCapabilitiesChanged(this, new Network(100),
+                new NetworkCapabilities()
+                        .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET));
+        // WHEN checking connectivity
+        // THEN utils should return true
+        assertTrue(mUtils.isConnectedToNetwork(mockContext));
+        assertTrue(mUtils.isConnectedToWifi(mockContext));
+    }
+
     public void testGetActiveNetworkInfo() throws Exception {
         // GIVEN the device is connected to a network.
         final NetworkInfo networkInfo =
@@ -268,6 +322,56 @@ public class UtilsTest extends AndroidTestCase {
         }
     }
 
+    public void testFindDeviceAdmin_Cached() throws Exception {
+        // GIVEN a package info with one device admin
+        setUpPackage(TEST_PACKAGE_NAME_1, TEST_DEVICE_ADMIN_NAME);
+        // GIVEN a provisioning session is started
+        mDeviceAdminResolutionCache.startSession();
+
+        // WHEN looking up the device admin twice
+        mUtils.findDeviceAdmin(TEST_PACKAGE_NAME_1, null, mockContext, TEST_USER_ID);
+        assertEquals(TEST_COMPONENT_NAME,
+                mUtils.findDeviceAdmin(TEST_PACKAGE_NAME_1, null, mockContext, TEST_USER_ID));
+
+        // THEN the package is only parsed once
+        verify(mockPackageManager).getPackageInfoAsUser(TEST_PACKAGE_NAME_1,
+                PackageManager.GET_RECEIVERS | PackageManager.MATCH_DISABLED_COMPONENTS,
+                TEST_USER_ID);
+    }
+
+    public void testFindDeviceAdmin_NotCachedOutsideSession() throws Exception {
+        // GIVEN a package info with one device admin, and no provisioning session
+        setUpPackage(TEST_PACKAGE_NAME_1, TEST_DEVICE_ADMIN_NAME);
+
+        // WHEN looking up the device admin twice
+        mUtils.findDeviceAdmin(TEST_PACKAGE_NAME_1, null, mockContext, TEST_USER_ID);
+        mUtils.findDeviceAdmin(TEST_PACKAGE_NAME_1, null, mockContext, TEST_USER_ID);
+
+        // THEN the package is parsed every time
+        verify(mockPackageManager, times(2)).getPackageInfoAsUser(TEST_PACKAGE_NAME_1,
+                PackageManager.GET_RECEIVERS | PackageManager.MATCH_DISABLED_COMPONENTS,
+                TEST_USER_ID);
+    }
+
+    public void testFindDeviceAdminUncached_DuringSession() throws Exception {
+        // GIVEN a cached device admin
+        setUpPackage(TEST_PACKAGE_NAME_1, TEST_DEVICE_ADMIN_NAME);
+        mDeviceAdminResolutionCache.startSession();
+        mUtils.findDeviceAdmin(TEST_PACKAGE_NAME_1, null, mockContext, TEST_USER_ID);
+
+        // WHEN the package is removed
+        when(mockPackageManager.getPackageInfoAsUser(eq(TEST_PACKAGE_NAME_1), anyInt(),
+                eq(TEST_USER_ID))).thenThrow(new NameNotFoundException());
+
+        // THEN the uncached lookup fails
+        try {
+            mUtils.findDeviceAdminUncached(TEST_PACKAGE_NAME_1, null, mockContext, TEST_USER_ID);
+            fail("The removed admin was found");
+        } catch (IllegalProvisioningArgumentException e) {
+            // expected
+        }
+    }
+
     public void testFindDeviceAdminInPackageInfo_Success() throws Exception {
         // GIVEN a package info with one device admin
         PackageInfo packageInfo = setUpPackage(TEST_PACKAGE_NAME_1, TEST_DEVICE_ADMIN_NAME);
@@ -398,6 +502,24 @@ public class UtilsTest extends AndroidTestCase {
         assertTrue(mUtils.canResolveIntentAsUser(mockContext, intent, TEST_USER_ID));
     }
 
+    public void testSendFactoryResetBroadcast_FlushesMetrics() {
+        // WHEN sending the factory reset broadcast
+        mUtils.sendFactoryResetBroadcast(mockContext, "test reason");
+
+        // THEN the broadcast isn't sent before the queued metrics are written
+        ArgumentCaptor<Runnable> afterFlush = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockMetricsEventQueue).flush(afterFlush.capture());
+        verify(mockContext, never()).sendBroadcast(any(Intent.class));
+
+        // WHEN the metrics are written
+        afterFlush.getValue().run();
+
+        // THEN the factory reset broadcast is sent
+        ArgumentCaptor<Intent> intent = ArgumentCaptor.forClass(Intent.class);
+        verify(mockContext).sendBroadcast(intent.capture());
+        assertEquals(Intent.ACTION_FACTORY_RESET, intent.getValue().getAction());
+    }
+
     private ApplicationInfo createApplicationInfo(String packageName, boolean system) {
         ApplicationInfo ai = new ApplicationInfo();
         ai.packageName = packageName;
@@ -20,8 +20,10 @@ import static android.app.admin.DeviceAdminReceiver.ACTION_PROFILE_PROVISIONING_
 import static android.app.admin.DevicePolicyManager.ACTION_MANAGED_PROFILE_PROVISIONED;
 import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
 import android.accounts.Account;
@@ -31,6 +33,7 @@ import android.os.UserHandle;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.managedprovisioning.common.AccountMigrationTracker;
 import com.android.managedprovisioning.common.Utils;
 
 import org.mockito.ArgumentCaptor;
@@ -53,19 +56,22 @@ public class DpcReceivedSuccessReceiverTest extends AndroidTestCase {
 
     @Mock private Context mContext;
     @Mock private Utils mUtils;
+    private AccountMigrationTracker mAccountMigrationTracker;
 
     @Override
     public void setUp() {
         // this is necessary for mockito to work
         System.setProperty("dexmaker.dexcache", getContext().getCacheDir().toString());
         MockitoAnnotations.initMocks(this);
+
+        mAccountMigrationTracker = new AccountMigrationTracker();
     }
 
     @SmallTest
     public void testNoAccountMigration() {
         // GIVEN that no account migration occurred during provisioning
         final DpcReceivedSuccessReceiver receiver = new DpcReceivedSuccessReceiver(null, false,
-                MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME, mUtils);
+                MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME, mUtils, mAccountMigrationTracker);
 
         // WHEN the profile provisioning complete intent was received by the DPC
         receiver.onReceive(mContext, TEST_INTENT);
@@ -90,7 +96,7 @@ public class DpcReceivedSuccessReceiverTest extends AndroidTestCase {
         // GIVEN that account migration occurred during provisioning
         final DpcReceivedSuccessReceiver receiver = new DpcReceivedSuccessReceiver(TEST_ACCOUNT,
                 false /* keepAccountMigrated */, MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME,
-                mUtils);
+                mUtils, mAccountMigrationTracker);
 
         // WHEN receiver.onReceive is called
         invokeOnReceiveAndVerifyIntent(receiver);
@@ -104,7 +110,74 @@ public class DpcReceivedSuccessReceiverTest extends AndroidTestCase {
         // GIVEN that account copy occurred during provisioning
         final DpcReceivedSuccessReceiver receiver = new DpcReceivedSuccessReceiver(TEST_ACCOUNT,
                 true /* keepAccountMigrated */, MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME,
-                mUtils);
+                mUtils, mAccountMigrationTracker);
+
+        // WHEN receiver.onReceive is called
+        invokeOnReceiveAndVerifyIntent(receiver);
+
+        // THEN the account is not removed from the primary user
+        verify(mUtils, never()).removeAccount(mContext, TEST_ACCOUNT);
+    }
+
+    @SmallTest
+    public void testAccountMigrationInBackground() throws Exception {
+        // GIVEN that the account is being copied to the managed profile in the background
+        mAccountMigrationTracker.migrationStarted(MANAGED_PROFILE_USER_HANDLE.getIdentifier());
+        final DpcReceivedSuccessReceiver receiver = new DpcReceivedSuccessReceiver(TEST_ACCOUNT,
+                false /* keepAccountMigrated */, MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME,
+                mUtils, mAccountMigrationTracker);
+
+        // WHEN the profile provisioning complete intent was received by the DPC
+        receiver.onReceive(mContext, TEST_INTENT);
+
+        // THEN nothing is sent before the copy has finished
+        verify(mContext, after(SEND_BROADCAST_TIMEOUT_SECONDS * 100).never())
+                .sendBroadcast(any(Intent.class));
+
+        // WHEN the copy succeeds
+        mAccountMigrationTracker.migrationFinished(MANAGED_PROFILE_USER_HANDLE.getIdentifier(),
+                true);
+
+        // THEN the account is removed from the primary user and the DPC is notified
+        verify(mContext, timeout(SEND_BROADCAST_TIMEOUT_SECONDS * 1000))
+                .sendBroadcast(any(Intent.class));
+        verify(mUtils).removeAccount(mContext, TEST_ACCOUNT);
+    }
+
+    @SmallTest
+    public void testAccountMigrationFailed() throws Exception {
+        // GIVEN that copying the account to the managed profile failed
+        mAccountMigrationTracker.migrationStarted(MANAGED_PROFILE_USER_HANDLE.getIdentifier());
+        mAccountMigrationTracker.migrationFinished(MANAGED_PROFILE_USER_HANDLE.getIdentifier(),
+                false);
+        final DpcReceivedSuccessReceiver receiver = new DpcReceivedSuccessReceiver(TEST_ACCOUNT,
+                false /* keepAccountMigrated */, MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME,
+                mUtils, mAccountMigrationTracker);
+
+        // WHEN the profile provisioning complete intent was received by the DPC
+        receiver.onReceive(mContext, TEST_INTENT);
+
+        // THEN the DPC is still notified about the account to migrate
+        ArgumentCaptor<Intent> intentCaptor = ArgumentCaptor.forClass(Intent.class);
+        verify(mContext, timeout(SEND_BROADCAST_TIMEOUT_SECONDS * 1000))
+                .sendBroadcast(intentCaptor.capture());
+        assertEquals(ACTION_MANAGED_PROFILE_PROVISIONED, intentCaptor.getValue().getAction());
+        assertEquals(TEST_ACCOUNT, intentCaptor.getValue().getParcelableExtra(
+                EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE));
+
+        // THEN the account is kept on the primary user
+        verify(mUtils, never()).removeAccount(mContext, TEST_ACCOUNT);
+    }
+
+    @SmallTest
+    public void testAccountCopyFailed() throws Exception {
+        // GIVEN that copying the account to the managed profile failed, but it is kept anyway
+        mAccountMigrationTracker.migrationStarted(MANAGED_PROFILE_USER_HANDLE.getIdentifier());
+        mAccountMigrationTracker.migrationFinished(MANAGED_PROFILE_USER_HANDLE.getIdentifier(),
+                false);
+        final DpcReceivedSuccessReceiver receiver = new DpcReceivedSuccessReceiver(TEST_ACCOUNT,
+                true /* keepAccountMigrated */, MANAGED_PROFILE_USER_HANDLE, TEST_MDM_PACKAGE_NAME,
+                mUtils, mAccountMigrationTracker);
 
         // WHEN receiver.onReceive is called
         invokeOnReceiveAndVerifyIntent(receiver);
@@ -37,6 +37,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Locale;
 
 /** Tests for {@link ProvisioningParams} */
@@ -80,6 +81,11 @@ public class ProvisioningParamsTest extends AndroidTestCase {
             .setProxyBypassHosts(TEST_PROXY_BYPASS_HOSTS)
             .setPacUrl(TEST_PAC_URL)
             .build();
+    private static final WifiInfo TEST_FALLBACK_WIFI_INFO = WifiInfo.Builder.builder()
+            .setSsid("TestFallbackWifi")
+            .setSecurityType(TEST_SECURITY_TYPE)
+            .setPassword(TEST_PASSWORD)
+            .build();
 
     // Device admin package download info
     private static final String TEST_DOWNLOAD_LOCATION =
@@ -163,6 +169,7 @@ public class ProvisioningParamsTest extends AndroidTestCase {
                 .setSkipUserSetup(TEST_SKIP_USER_SETUP)
                 .setAccountToMigrate(TEST_ACCOUNT_TO_MIGRATE)
                 .setWifiInfo(TEST_WIFI_INFO)
+                .setFallbackWifiInfos(Arrays.asList(TEST_FALLBACK_WIFI_INFO))
                 .setAdminExtrasBundle(createTestAdminExtras())
                 .build();
         ProvisioningParams provisioningParams2 = ProvisioningParams.Builder.builder()
@@ -180,6 +187,7 @@ public class ProvisioningParamsTest extends AndroidTestCase {
                 .setSkipUserSetup(TEST_SKIP_USER_SETUP)
                 .setAccountToMigrate(TEST_ACCOUNT_TO_MIGRATE)
                 .setWifiInfo(TEST_WIFI_INFO)
+                .setFallbackWifiInfos(Arrays.asList(TEST_FALLBACK_WIFI_INFO))
                 .setAdminExtrasBundle(createTestAdminExtras())
                 .build();
 
@@ -228,6 +236,29 @@ public class ProvisioningParamsTest extends AndroidTestCase {
         assertEquals(expectedProvisioningParams, actualProvisioningParams);
     }
 
+    @SmallTest
+    public void testGetWifiInfoCandidates() {
+        // GIVEN a ProvisioningParams object with a wifi info and a fallback wifi info.
+        ProvisioningParams provisioningParams = getCompleteProvisioningParams();
+
+        // THEN the wifi info is the first candidate, followed by the fallback wifi info.
+        assertEquals(Arrays.asList(TEST_WIFI_INFO, TEST_FALLBACK_WIFI_INFO),
+                provisioningParams.getWifiInfoCandidates());
+    }
+
+    @SmallTest
+    public void testGetWifiInfoCandidates_noWifiInfo() {
+        // GIVEN a ProvisioningParams object with fallback wifi infos only.
+        ProvisioningParams provisioningParams = ProvisioningParams.Builder.builder()
+                .setProvisioningAction(TEST_PROVISIONING_ACTION)
+                .setDeviceAdminPackageName(TEST_PACKAGE_NAME)
+                .setFallbackWifiInfos(Arrays.asList(TEST_FALLBACK_WIFI_INFO))
+                .build();
+
+        // THEN there is no candidate.
+        assertTrue(provisioningParams.getWifiInfoCandidates().isEmpty());
+    }
+
     @SmallTest
     public void testInferDeviceAdminComponentName_componentNameIsGiven()
             throws IllegalProvisioningArgumentException {
@@ -275,6 +306,7 @@ public class ProvisioningParamsTest extends AndroidTestCase {
                 .setSkipUserConsent(TEST_SKIP_USER_CONSENT)
                 .setAccountToMigrate(TEST_ACCOUNT_TO_MIGRATE)
                 .setWifiInfo(TEST_WIFI_INFO)
+                .setFallbackWifiInfos(Arrays.asList(TEST_FALLBACK_WIFI_INFO))
                 .setAdminExtrasBundle(createTestAdminExtras())
                 .build();
     }
@@ -18,6 +18,7 @@ package com.android.managedprovisioning.ota;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,6 +34,8 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.util.Pair;
 
+import com.android.managedprovisioning.analytics.ChromeTraceExporter;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 import com.android.managedprovisioning.task.CrossProfileIntentFiltersSetter;
 import com.android.managedprovisioning.task.DeleteNonRequiredAppsTask;
@@ -67,6 +70,7 @@ public class OtaControllerTest {
     @Mock private PackageManager mPackageManager;
     @Mock private UserManager mUserManager;
     @Mock private CrossProfileIntentFiltersSetter mCrossProfileIntentFiltersSetter;
+    @Mock private ChromeTraceExporter mTraceExporter;
 
     private TaskExecutor mTaskExecutor;
     private OtaController mController;
@@ -90,7 +94,8 @@ public class OtaControllerTest {
         when(mUserManager.getProfiles(UserHandle.USER_SYSTEM)).thenReturn(mProfiles);
 
         mTaskExecutor = new FakeTaskExecutor();
-        mController = new OtaController(mContext, mTaskExecutor, mCrossProfileIntentFiltersSetter);
+        mController = new OtaController(mContext, mTaskExecutor, mCrossProfileIntentFiltersSetter,
+                mTraceExporter);
 
         addSystemUser();
     }
@@ -111,6 +116,9 @@ public class OtaControllerTest {
 
         // THEN cross profile intent filters setter should be invoked for system user
         verify(mCrossProfileIntentFiltersSetter).resetFilters(UserHandle.USER_SYSTEM);
+
+        // THEN the trace of the OTA tasks should be exported
+        verify(mTraceExporter).exportToFile(any(TraceSpan.class));
     }
 
     @Test
@@ -50,6 +50,7 @@ import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SECU
 import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SSID;
 import static android.nfc.NfcAdapter.ACTION_NDEF_DISCOVERED;
 import static com.android.managedprovisioning.TestUtils.createTestAdminExtras;
+import static com.android.managedprovisioning.model.WifiInfo.getIndexedKey;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
@@ -72,6 +73,7 @@ import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
+import java.util.Arrays;
 import java.util.Locale;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -114,6 +116,9 @@ public class ExtrasProvisioningDataParserTest extends AndroidTestCase {
     private static final int TEST_PROXY_PORT = 7689;
     private static final String TEST_PROXY_BYPASS_HOSTS = "http://host1.com;https://host2.com";
     private static final String TEST_PAC_URL = "pac.test.com";
+    private static final String TEST_FALLBACK_SSID_1 = "TestFallbackWifi1";
+    private static final String TEST_FALLBACK_SSID_2 = "TestFallbackWifi2";
+    private static final String TEST_FALLBACK_SSID_4 = "TestFallbackWifi4";
     private static final WifiInfo TEST_WIFI_INFO = WifiInfo.Builder.builder()
             .setSsid(TEST_SSID)
             .setHidden(TEST_HIDDEN)
@@ -226,6 +231,35 @@ public class ExtrasProvisioningDataParserTest extends AndroidTestCase {
                 params);
     }
 
+    public void testParse_trustedSourceProvisioningIntent_fallbackWifiInfos() throws Exception {
+        // GIVEN a ACTION_PROVISION_MANAGED_DEVICE_FROM_TRUSTED_SOURCE intent with a wifi info and
+        // two fallback wifi infos.
+        Intent intent = new Intent(ACTION_PROVISION_MANAGED_DEVICE_FROM_TRUSTED_SOURCE)
+                .putExtra(EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME, TEST_COMPONENT_NAME)
+                .putExtras(getTestWifiInfoExtras())
+                .putExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, 1), TEST_FALLBACK_SSID_1)
+                .putExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, 2), TEST_FALLBACK_SSID_2)
+                .putExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE, 2),
+                        TEST_SECURITY_TYPE)
+                .putExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_PASSWORD, 2), TEST_PASSWORD)
+                // GIVEN a fallback wifi info that doesn't follow the previous index.
+                .putExtra(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, 4), TEST_FALLBACK_SSID_4);
+
+        // WHEN the intent is parsed by the parser.
+        ProvisioningParams params = mExtrasProvisioningDataParser.parse(intent);
+
+        // THEN the fallback wifi infos are parsed in order, up to the first missing index.
+        assertEquals(TEST_WIFI_INFO, params.wifiInfo);
+        assertEquals(Arrays.asList(
+                WifiInfo.Builder.builder().setSsid(TEST_FALLBACK_SSID_1).build(),
+                WifiInfo.Builder.builder()
+                        .setSsid(TEST_FALLBACK_SSID_2)
+                        .setSecurityType(TEST_SECURITY_TYPE)
+                        .setPassword(TEST_PASSWORD)
+                        .build()),
+                params.fallbackWifiInfos);
+    }
+
     public void testParse_resumeProvisioningIntent() throws Exception {
         // GIVEN a ProvisioningParams stored in an intent
         ProvisioningParams expected = ProvisioningParams.Builder.builder()
@@ -261,7 +295,7 @@ public class ExtrasProvisioningDataParserTest extends AndroidTestCase {
         // GIVEN the device admin is installed.
         doReturn(TEST_COMPONENT_NAME)
                 .when(mUtils)
-                .findDeviceAdmin(
+                .findDeviceAdminUncached(
                         TEST_PACKAGE_NAME, TEST_COMPONENT_NAME, mContext, UserHandle.myUserId());
 
         // WHEN the intent is parsed by the parser.
@@ -312,7 +346,7 @@ public class ExtrasProvisioningDataParserTest extends AndroidTestCase {
         // GIVEN the device admin is installed.
         doReturn(TEST_COMPONENT_NAME)
                 .when(mUtils)
-                .findDeviceAdmin(
+                .findDeviceAdminUncached(
                         TEST_PACKAGE_NAME, TEST_COMPONENT_NAME, mContext, UserHandle.myUserId());
 
         // GIVEN the device admin is also device owner in primary user.
@@ -354,7 +388,8 @@ public class ExtrasProvisioningDataParserTest extends AndroidTestCase {
         // GIVEN the device admin is installed.
         doReturn(TEST_COMPONENT_NAME)
                 .when(mUtils)
-                .findDeviceAdmin(null, TEST_COMPONENT_NAME, mContext, UserHandle.myUserId());
+                .findDeviceAdminUncached(
+                        null, TEST_COMPONENT_NAME, mContext, UserHandle.myUserId());
 
         // GIVEN a different device admin is a device owner in primary user.
         when(mDpm.getDeviceOwnerComponentOnCallingUser()).thenReturn(TEST_COMPONENT_NAME_2);
@@ -108,7 +108,8 @@ public class MessageParserTest extends AndroidTestCase {
         // GIVEN the device admin app is installed.
         doReturn(TEST_COMPONENT_NAME)
                 .when(mUtils)
-                .findDeviceAdmin(null, TEST_COMPONENT_NAME, mContext, UserHandle.myUserId());
+                .findDeviceAdminUncached(
+                        null, TEST_COMPONENT_NAME, mContext, UserHandle.myUserId());
         // GIVEN a list of supported provisioning actions, except NFC.
         String[] supportedProvisioningActions = new String[] {
                 ACTION_PROVISION_MANAGED_DEVICE,
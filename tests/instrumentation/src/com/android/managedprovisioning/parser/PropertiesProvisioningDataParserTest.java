@@ -39,6 +39,7 @@ import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_PROX
 import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SECURITY_TYPE;
 import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SSID;
 import static android.app.admin.DevicePolicyManager.MIME_TYPE_PROVISIONING_NFC;
+import static com.android.managedprovisioning.model.WifiInfo.getIndexedKey;
 import static org.mockito.Mockito.when;
 
 import android.accounts.Account;
@@ -61,6 +62,7 @@ import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Properties;
 import org.mockito.Mock;
@@ -95,6 +97,9 @@ public class PropertiesProvisioningDataParserTest extends AndroidTestCase {
     private static final int TEST_PROXY_PORT = 7689;
     private static final String TEST_PROXY_BYPASS_HOSTS = "http://host1.com;https://host2.com";
     private static final String TEST_PAC_URL = "pac.test.com";
+    private static final String TEST_FALLBACK_SSID_1 = "TestFallbackWifi1";
+    private static final String TEST_FALLBACK_SSID_2 = "TestFallbackWifi2";
+    private static final String TEST_FALLBACK_SSID_4 = "TestFallbackWifi4";
     private static final WifiInfo TEST_WIFI_INFO = WifiInfo.Builder.builder()
             .setSsid(TEST_SSID)
             .setHidden(TEST_HIDDEN)
@@ -209,6 +214,48 @@ public class PropertiesProvisioningDataParserTest extends AndroidTestCase {
                 params);
     }
 
+    public void testParse_nfcProvisioningIntent_fallbackWifiInfos() throws Exception {
+        // GIVEN a NFC provisioning intent with a wifi info and two fallback wifi infos.
+        Properties props = new Properties();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        props.setProperty(
+                EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME,
+                TEST_COMPONENT_NAME.flattenToString());
+        setTestWifiInfo(props);
+        props.setProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, 1), TEST_FALLBACK_SSID_1);
+        props.setProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, 2), TEST_FALLBACK_SSID_2);
+        props.setProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE, 2),
+                TEST_SECURITY_TYPE);
+        props.setProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_PASSWORD, 2), TEST_PASSWORD);
+        // GIVEN a fallback wifi info that doesn't follow the previous index.
+        props.setProperty(getIndexedKey(EXTRA_PROVISIONING_WIFI_SSID, 4), TEST_FALLBACK_SSID_4);
+
+        props.store(stream, "NFC provisioning intent" /* data description */);
+
+        NdefRecord record = NdefRecord.createMime(
+                DevicePolicyManager.MIME_TYPE_PROVISIONING_NFC,
+                stream.toByteArray());
+        NdefMessage ndfMsg = new NdefMessage(new NdefRecord[]{record});
+
+        Intent intent = new Intent(NfcAdapter.ACTION_NDEF_DISCOVERED)
+                .setType(MIME_TYPE_PROVISIONING_NFC)
+                .putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, new NdefMessage[]{ndfMsg});
+
+        // WHEN the intent is parsed by the parser.
+        ProvisioningParams params = mPropertiesProvisioningDataParser.parse(intent);
+
+        // THEN the fallback wifi infos are parsed in order, up to the first missing index.
+        assertEquals(TEST_WIFI_INFO, params.wifiInfo);
+        assertEquals(Arrays.asList(
+                WifiInfo.Builder.builder().setSsid(TEST_FALLBACK_SSID_1).build(),
+                WifiInfo.Builder.builder()
+                        .setSsid(TEST_FALLBACK_SSID_2)
+                        .setSecurityType(TEST_SECURITY_TYPE)
+                        .setPassword(TEST_PASSWORD)
+                        .build()),
+                params.fallbackWifiInfos);
+    }
+
     public void testParse_OtherIntentsThrowsException() {
         // GIVEN a managed device provisioning intent and some extras.
         Intent intent = new Intent(ACTION_PROVISION_MANAGED_DEVICE)
@@ -45,6 +45,7 @@ import com.android.managedprovisioning.common.UriBitmap;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.parser.MessageParser;
 import com.android.managedprovisioning.preprovisioning.terms.TermsActivity;
+import com.android.managedprovisioning.task.ManagedProfilePrecreator;
 
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -83,7 +84,8 @@ public class PreProvisioningActivityTest {
                                 new MessageParser(activity),
                                 mUtils,
                                 new SettingsFacade(),
-                                EncryptionController.getInstance(activity)) {
+                                EncryptionController.getInstance(activity),
+                                ManagedProfilePrecreator.getInstance()) {
                             @Override
                             protected boolean checkDevicePolicyPreconditions() {
                                 return true;
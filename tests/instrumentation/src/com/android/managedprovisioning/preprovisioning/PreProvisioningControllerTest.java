@@ -25,13 +25,14 @@ import static android.nfc.NfcAdapter.ACTION_NDEF_DISCOVERED;
 import static com.android.managedprovisioning.common.Globals.ACTION_RESUME_PROVISIONING;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
-import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import static java.util.Collections.emptyList;
@@ -63,6 +64,7 @@ import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
 import com.android.managedprovisioning.parser.MessageParser;
+import com.android.managedprovisioning.task.ManagedProfilePrecreator;
 
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -108,6 +110,8 @@ public class PreProvisioningControllerTest extends AndroidTestCase {
     private EncryptionController mEncryptionController;
     @Mock
     private TimeLogger mTimeLogger;
+    @Mock
+    private ManagedProfilePrecreator mManagedProfilePrecreator;
 
     private ProvisioningParams mParams;
 
@@ -146,7 +150,7 @@ public class PreProvisioningControllerTest extends AndroidTestCase {
         when(mDevicePolicyManager.getStorageEncryptionStatus())
                 .thenReturn(DevicePolicyManager.ENCRYPTION_STATUS_INACTIVE);
         mController = new PreProvisioningController(mContext, mUi, mTimeLogger, mMessageParser,
-                mUtils, mSettingsFacade, mEncryptionController);
+                mUtils, mSettingsFacade, mEncryptionController, mManagedProfilePrecreator);
     }
 
     public void testManagedProfile() throws Exception {
@@ -156,6 +160,10 @@ public class PreProvisioningControllerTest extends AndroidTestCase {
         mController.initiateProvisioning(mIntent, null, TEST_MDM_PACKAGE);
         // THEN the UI elements should be updated accordingly
         verifyInitiateProfileOwnerUi();
+        // THEN a profile left behind by an earlier attempt is removed
+        verify(mManagedProfilePrecreator).removeLeftoverProfile(mContext);
+        // THEN the profile isn't created in the background by default
+        verify(mManagedProfilePrecreator, never()).start(any(), any(), anyInt());
         // WHEN the user consents
         mController.continueProvisioningAfterUserConsent();
         // THEN start profile provisioning
@@ -164,6 +172,24 @@ public class PreProvisioningControllerTest extends AndroidTestCase {
         verifyNoMoreInteractions(mUi);
     }
 
+    public void testManagedProfile_precreateProfile() throws Exception {
+        // GIVEN that the managed profile is created in the background
+        final Resources resources = spy(InstrumentationRegistry.getTargetContext().getResources());
+        doReturn(true).when(resources).getBoolean(R.bool.precreate_managed_profile);
+        when(mContext.getResources()).thenReturn(resources);
+        // GIVEN an intent to provision a managed profile
+        prepareMocksForManagedProfileIntent(false);
+        // WHEN initiating provisioning
+        mController.initiateProvisioning(mIntent, null, TEST_MDM_PACKAGE);
+        // THEN the profile is created while the user is asked for consent
+        verifyInitiateProfileOwnerUi();
+        verify(mManagedProfilePrecreator).start(mContext, mParams, TEST_USER_ID);
+        // WHEN the user backs out of provisioning
+        mController.discardPrecreatedManagedProfile();
+        // THEN the profile is removed again
+        verify(mManagedProfilePrecreator).discard(mParams);
+    }
+
     public void testManagedProfile_provisioningNotAllowed() throws Exception {
         // GIVEN an intent to provision a managed profile, but provisioning mode is not allowed
         prepareMocksForManagedProfileIntent(false);
@@ -17,30 +17,46 @@
 package com.android.managedprovisioning.provisioning;
 
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEVICE;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+import android.os.PersistableBundle;
 import android.support.test.filters.SmallTest;
 
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.analytics.LatencyBudgetMonitor;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
 import com.android.managedprovisioning.finalization.FinalizationController;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 import com.android.managedprovisioning.task.AddWifiNetworkTask;
+import com.android.managedprovisioning.task.AwaitNetworkTask;
 import com.android.managedprovisioning.task.DeleteNonRequiredAppsTask;
 import com.android.managedprovisioning.task.DeviceOwnerInitializeProvisioningTask;
 import com.android.managedprovisioning.task.DisallowAddUserTask;
 import com.android.managedprovisioning.task.DownloadPackageTask;
 import com.android.managedprovisioning.task.InstallPackageTask;
 import com.android.managedprovisioning.task.SetDevicePolicyTask;
+import com.android.managedprovisioning.task.StartNetworkTask;
 import com.android.managedprovisioning.task.VerifyPackageTask;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import java.io.File;
+
 /**
  * Unit tests for {@link DeviceOwnerProvisioningController}.
  */
@@ -64,6 +80,9 @@ public class DeviceOwnerProvisioningControllerTest extends ProvisioningControlle
 
     @Mock private ProvisioningControllerCallback mCallback;
     @Mock private FinalizationController mFinalizationController;
+    @Mock private ProvisioningJournal mJournal;
+    @Mock private TaskLatencyHistograms mLatencyHistograms;
+    @Mock private LatencyBudgetMonitor mLatencyBudgetMonitor;
     private ProvisioningParams mParams;
 
     @SmallTest
@@ -102,6 +121,119 @@ public class DeviceOwnerProvisioningControllerTest extends ProvisioningControlle
         verify(mCallback).provisioningTasksCompleted();
     }
 
+    @SmallTest
+    public void testJournalWrittenAfterEachTask() throws Exception {
+        // GIVEN device owner provisioning was invoked with a wifi and download info
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO);
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // WHEN the initialization task completes successfully
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+
+        // THEN the completed task, and that the next one is started, are recorded before the next
+        // one is run
+        verifyTaskRun(AddWifiNetworkTask.class);
+        ArgumentCaptor<ProvisioningJournal.Entry> entryCaptor =
+                ArgumentCaptor.forClass(ProvisioningJournal.Entry.class);
+        verify(mJournal, timeout(1000).times(2)).write(entryCaptor.capture());
+        assertEquals(0, entryCaptor.getAllValues().get(0).completedTaskCount);
+        assertEquals(1, entryCaptor.getValue().completedTaskCount);
+        assertTrue(entryCaptor.getValue().nextTaskStarted);
+        assertTrue(entryCaptor.getValue().matches(mParams));
+    }
+
+    @SmallTest
+    public void testResumeAfterCompletedTasks() throws Exception {
+        // GIVEN the initialization and the add wifi task completed in a previous process
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO);
+        when(mJournal.read()).thenReturn(new ProvisioningJournal.Entry(mParams,
+                2 /* completedTaskCount */, TEST_USER_ID, new PersistableBundle()));
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN provisioning resumes with the download package task
+        taskSucceeded(DownloadPackageTask.class);
+        taskSucceeded(VerifyPackageTask.class);
+    }
+
+    @SmallTest
+    public void testResumeAfterInstallPackageTask() throws Exception {
+        // GIVEN the tasks up to the install package task completed in a previous process, and the
+        // install deleted the downloaded file
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO);
+        PersistableBundle downloadState = new PersistableBundle();
+        downloadState.putString(DownloadPackageTask.KEY_DOWNLOAD_LOCATION,
+                new File(getContext().getCacheDir(), "deleted.apk").getPath());
+        PersistableBundle installState = new PersistableBundle();
+        installState.putBoolean(InstallPackageTask.KEY_INSTALLED, true);
+        PersistableBundle taskStates = new PersistableBundle();
+        taskStates.putPersistableBundle("2", downloadState);
+        taskStates.putPersistableBundle("4", installState);
+        when(mJournal.read()).thenReturn(new ProvisioningJournal.Entry(mParams,
+                5 /* completedTaskCount */, TEST_USER_ID, taskStates));
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN provisioning resumes after the install, without downloading the package again
+        taskSucceeded(DeleteNonRequiredAppsTask.class);
+        taskSucceeded(SetDevicePolicyTask.class);
+        taskSucceeded(DisallowAddUserTask.class);
+        verify(mCallback).provisioningTasksCompleted();
+    }
+
+    @SmallTest
+    public void testJournalOfOtherSessionDiscarded() throws Exception {
+        // GIVEN the journal was written for another provisioning session
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO);
+        ProvisioningParams otherParams = new ProvisioningParams.Builder()
+                .setDeviceAdminComponentName(TEST_ADMIN)
+                .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
+                .setProvisioningId(mParams.provisioningId + 1)
+                .build();
+        when(mJournal.read()).thenReturn(new ProvisioningJournal.Entry(otherParams,
+                2 /* completedTaskCount */, TEST_USER_ID, new PersistableBundle()));
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the journal is cleared and all tasks are run
+        verify(mJournal).clear();
+        verifyTaskRun(DeviceOwnerInitializeProvisioningTask.class);
+    }
+
+    @SmallTest
+    public void testTaskTimedOut() throws Exception {
+        // GIVEN device owner provisioning was invoked with a wifi and download info
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO);
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+        taskSucceeded(AddWifiNetworkTask.class);
+        AbstractProvisioningTask task = verifyTaskRun(DownloadPackageTask.class);
+        assertFalse(task.getCancellationToken().isCancelled());
+
+        // WHEN the download package task times out
+        mController.onTaskTimedOut(task);
+
+        // THEN the timeout is reported as an error
+        verify(mCallback).error(R.string.cant_set_up_device, R.string.cant_set_up_device, true);
+        // THEN the task is told to stop waiting right away
+        assertTrue(task.getCancellationToken().isCancelled());
+
+        // WHEN the task reports a result after all
+        mController.onError(task, DownloadPackageTask.ERROR_DOWNLOAD_FAILED);
+        mController.onSuccess(task);
+
+        // THEN no other error is reported and no more tasks are run
+        verify(mCallback).error(anyInt(), anyInt(), anyBoolean());
+        assertNull(mHandler.getLastTask());
+    }
+
     @SmallTest
     public void testNoWifiInfo() throws Exception {
         // GIVEN device owner provisioning was invoked with a wifi and download info
@@ -207,7 +339,96 @@ public class DeviceOwnerProvisioningControllerTest extends ProvisioningControlle
         verify(mCallback).error(anyInt(), anyInt(), eq(true));
     }
 
+    @SmallTest
+    public void testRunAllTasks_BackgroundNetwork() throws Exception {
+        // GIVEN the network is brought up in the background
+        // GIVEN device owner provisioning was invoked with a wifi and download info
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO, true /* overlapNetworkBringUp */);
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the initialization task is run first
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+
+        // THEN the network is started in the background
+        taskSucceeded(StartNetworkTask.class);
+
+        // THEN the tasks that don't need the network nor the admin are run
+        taskSucceeded(DisallowAddUserTask.class);
+
+        // THEN the network is awaited before downloading the package
+        taskSucceeded(AwaitNetworkTask.class);
+        taskSucceeded(DownloadPackageTask.class);
+        taskSucceeded(VerifyPackageTask.class);
+        taskSucceeded(InstallPackageTask.class);
+
+        // THEN the non-required apps are deleted once the admin is installed
+        taskSucceeded(DeleteNonRequiredAppsTask.class);
+
+        // THEN the set device policy task should be run
+        taskSucceeded(SetDevicePolicyTask.class);
+
+        // THEN the provisioning complete callback should have happened
+        verify(mCallback).provisioningTasksCompleted();
+    }
+
+    @SmallTest
+    public void testNoDownloadInfo_BackgroundNetwork() throws Exception {
+        // GIVEN the network is brought up in the background
+        // GIVEN device owner provisioning was invoked with a wifi info only
+        createController(TEST_WIFI_INFO, null, true /* overlapNetworkBringUp */);
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the network is only awaited at the end
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+        taskSucceeded(StartNetworkTask.class);
+        taskSucceeded(DeleteNonRequiredAppsTask.class);
+        taskSucceeded(DisallowAddUserTask.class);
+        taskSucceeded(SetDevicePolicyTask.class);
+        taskSucceeded(AwaitNetworkTask.class);
+
+        // THEN the provisioning complete callback should have happened
+        verify(mCallback).provisioningTasksCompleted();
+    }
+
+    @SmallTest
+    public void testErrorAwaitNetworkTask() throws Exception {
+        // GIVEN the network is brought up in the background
+        createController(TEST_WIFI_INFO, TEST_DOWNLOAD_INFO, true /* overlapNetworkBringUp */);
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+        taskSucceeded(StartNetworkTask.class);
+        taskSucceeded(DisallowAddUserTask.class);
+        AbstractProvisioningTask task = verifyTaskRun(AwaitNetworkTask.class);
+
+        // WHEN bringing up the network failed
+        mController.onError(task, 0);
+
+        // THEN the wifi error is shown, and a factory reset is required as the device was changed
+        verify(mCallback).error(eq(R.string.cant_set_up_device),
+                eq(R.string.device_owner_error_wifi), eq(true));
+    }
+
     private void createController(WifiInfo wifiInfo, PackageDownloadInfo downloadInfo) {
+        createController(wifiInfo, downloadInfo, false /* overlapNetworkBringUp */);
+    }
+
+    private void createController(WifiInfo wifiInfo, PackageDownloadInfo downloadInfo,
+            boolean overlapNetworkBringUp) {
+        final Resources resources = spy(getContext().getResources());
+        doReturn(overlapNetworkBringUp).when(resources).getBoolean(R.bool.overlap_network_bring_up);
+        final Context context = new ContextWrapper(getContext()) {
+            @Override
+            public Resources getResources() {
+                return resources;
+            }
+        };
+
         mParams = new ProvisioningParams.Builder()
                 .setDeviceAdminComponentName(TEST_ADMIN)
                 .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
@@ -216,10 +437,13 @@ public class DeviceOwnerProvisioningControllerTest extends ProvisioningControlle
                 .build();
 
         mController = new DeviceOwnerProvisioningController(
-                getContext(),
+                context,
                 mParams,
                 TEST_USER_ID,
                 mCallback,
-                mFinalizationController);
+                mFinalizationController,
+                mJournal,
+                mLatencyHistograms,
+                mLatencyBudgetMonitor);
     }
 }
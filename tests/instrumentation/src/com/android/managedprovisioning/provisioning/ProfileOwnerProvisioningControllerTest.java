@@ -18,11 +18,15 @@ package com.android.managedprovisioning.provisioning;
 
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,11 +34,17 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.pm.UserInfo;
+import android.os.PersistableBundle;
 import android.os.UserManager;
 import android.support.test.filters.MediumTest;
 import android.support.test.filters.SmallTest;
+import android.util.LongSparseArray;
 
 import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.analytics.LatencyBudgetMonitor;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
+import com.android.managedprovisioning.analytics.TraceSpan;
 import com.android.managedprovisioning.finalization.FinalizationController;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
@@ -42,6 +52,7 @@ import com.android.managedprovisioning.task.CopyAccountToUserTask;
 import com.android.managedprovisioning.task.CreateManagedProfileTask;
 import com.android.managedprovisioning.task.DisableInstallShortcutListenersTask;
 import com.android.managedprovisioning.task.InstallExistingPackageTask;
+import com.android.managedprovisioning.task.ManagedProfilePrecreator;
 import com.android.managedprovisioning.task.ManagedProfileSettingsTask;
 import com.android.managedprovisioning.task.SetDevicePolicyTask;
 import com.android.managedprovisioning.task.StartManagedProfileTask;
@@ -50,6 +61,9 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -67,6 +81,10 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
     @Mock private ProvisioningControllerCallback mCallback;
     @Mock private FinalizationController mFinalizationController;
     @Mock private UserManager mUserManager;
+    @Mock private ProvisioningJournal mJournal;
+    @Mock private TaskLatencyHistograms mLatencyHistograms;
+    @Mock private LatencyBudgetMonitor mLatencyBudgetMonitor;
+    @Mock private ManagedProfilePrecreator mManagedProfilePrecreator;
     private Context mContext;
     private ProvisioningParams mParams;
 
@@ -124,6 +142,53 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
 
         // THEN the provisioning complete callback should have happened
         verify(mCallback).provisioningTasksCompleted();
+
+        // THEN the durations of the tasks are recorded
+        verify(mLatencyHistograms, timeout(1000))
+                .record(eq(StartManagedProfileTask.class.getSimpleName()), anyLong());
+
+        // THEN the durations are checked against the latency budgets
+        verify(mLatencyBudgetMonitor, timeout(1000)).checkTask(
+                eq(StartManagedProfileTask.class.getSimpleName()), anyLong(), any());
+        verify(mLatencyBudgetMonitor, timeout(1000)).checkProvisioning(anyLong());
+
+        // THEN the spans end within the span they are nested in, so that they stay nested in the
+        // trace
+        assertSpansNested();
+    }
+
+    @SmallTest
+    public void testDump() throws Exception {
+        // GIVEN that the first task completed and the second one is running
+        createController();
+        mController.start(mHandler);
+        taskSucceeded(CreateManagedProfileTask.class);
+        verifyTaskRun(InstallExistingPackageTask.class);
+
+        // WHEN dumping the controller
+        StringWriter writer = new StringWriter();
+        mController.dump(new PrintWriter(writer), "");
+
+        // THEN the status of the tasks is printed
+        String dump = writer.toString();
+        assertTrue(dump, dump.contains("status=running"));
+        assertTrue(dump, dump.contains("0: CreateManagedProfileTask completed"));
+        assertTrue(dump, dump.contains("1: InstallExistingPackageTask running"));
+        assertTrue(dump, dump.contains("2: SetDevicePolicyTask pending"));
+    }
+
+    @SmallTest
+    public void testResume_ProfileRemoved() throws Exception {
+        // GIVEN the managed profile was created in a previous process, but was removed since
+        createController();
+        when(mJournal.read()).thenReturn(new ProvisioningJournal.Entry(mParams,
+                1 /* completedTaskCount */, TEST_PROFILE_USER_ID, new PersistableBundle()));
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the create managed profile task is run again
+        verifyTaskRun(CreateManagedProfileTask.class);
     }
 
     @MediumTest
@@ -171,6 +236,37 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
         assertNull(mHandler.getLastTask());
     }
 
+    @MediumTest
+    public void testCancel_BeforeProfileCreated() throws Exception {
+        // GIVEN device profile owner provisioning was invoked
+        createController();
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the create managed profile task is run first
+        verifyTaskRun(CreateManagedProfileTask.class);
+
+        // latch used to wait for onCancelled callback
+        final CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.countDown();
+            return null;
+        }).when(mCallback).cleanUpCompleted();
+
+        // WHEN the user cancels the provisioning progress before the task created the profile
+        mController.cancel();
+
+        // THEN the activity is informed that progress has been cancelled
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+        // THEN a profile created in the background is discarded
+        verify(mManagedProfilePrecreator).discard(mParams);
+
+        // THEN no other user is removed
+        verify(mUserManager, never()).removeUserEvenWhenDisallowed(anyInt());
+    }
+
     @SmallTest
     public void testError() throws Exception {
         // GIVEN device profile owner provisioning was invoked
@@ -198,6 +294,29 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
                 R.string.managed_provisioning_error_text, false);
     }
 
+    private void assertSpansNested() {
+        List<TraceSpan> spans = ProvisioningTracer.getInstance().getEndedSpans();
+        TraceSpan provisioningSpan = null;
+        for (TraceSpan span : spans) {
+            if (span.getName().equals(ProfileOwnerProvisioningController.class.getSimpleName())) {
+                provisioningSpan = span;
+            }
+        }
+        assertNotNull(provisioningSpan);
+        LongSparseArray<TraceSpan> nested = new LongSparseArray<>();
+        nested.put(provisioningSpan.getId(), provisioningSpan);
+        // Spans are sorted by start, so parents come before their children.
+        for (TraceSpan span : spans) {
+            TraceSpan parent = nested.get(span.getParentId());
+            if (parent != null) {
+                assertTrue(span + " ends after " + parent,
+                        span.getEndNanos() <= parent.getEndNanos());
+                nested.put(span.getId(), span);
+            }
+        }
+        assertTrue(nested.size() > 1);
+    }
+
     private void createController() {
         mParams = new ProvisioningParams.Builder()
                 .setDeviceAdminComponentName(TEST_ADMIN)
@@ -209,6 +328,10 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
                 mParams,
                 TEST_PARENT_USER_ID,
                 mCallback,
-                mFinalizationController);
+                mFinalizationController,
+                mJournal,
+                mLatencyHistograms,
+                mLatencyBudgetMonitor,
+                mManagedProfilePrecreator);
     }
 }
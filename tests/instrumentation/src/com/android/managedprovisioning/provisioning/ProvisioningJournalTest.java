@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.provisioning;
+
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEVICE;
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.os.PersistableBundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link ProvisioningJournal}.
+ */
+@SmallTest
+public class ProvisioningJournalTest {
+    private static final int TEST_USER_ID = 10;
+    private static final long TEST_PROVISIONING_ID = 1234L;
+    private static final String TEST_KEY = "key";
+    private static final String TEST_VALUE = "value";
+    private static final ComponentName TEST_ADMIN =
+            new ComponentName("com.test.admin", ".Receiver");
+    private static final ProvisioningParams TEST_PARAMS =
+            createParams(TEST_PROVISIONING_ID, ACTION_PROVISION_MANAGED_DEVICE);
+
+    private File mFile;
+    private ProvisioningJournal mJournal;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test_task_journal.xml");
+        mJournal = new ProvisioningJournal(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mJournal.clear();
+    }
+
+    @Test
+    public void testReadWithoutWrite() {
+        assertNull(mJournal.read());
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        // GIVEN a completed task that saved its state
+        PersistableBundle taskState = new PersistableBundle();
+        taskState.putString(TEST_KEY, TEST_VALUE);
+        PersistableBundle taskStates = new PersistableBundle();
+        taskStates.putPersistableBundle("1", taskState);
+
+        // WHEN writing and reading the journal
+        mJournal.write(new ProvisioningJournal.Entry(TEST_PARAMS, 2, TEST_USER_ID, taskStates));
+        ProvisioningJournal.Entry entry = mJournal.read();
+
+        // THEN all values are kept
+        assertEquals(TEST_PROVISIONING_ID, entry.provisioningId);
+        assertEquals(ACTION_PROVISION_MANAGED_DEVICE, entry.provisioningAction);
+        assertEquals(2, entry.completedTaskCount);
+        assertEquals(TEST_USER_ID, entry.userId);
+        assertEquals(TEST_VALUE, entry.getTaskState(1).getString(TEST_KEY));
+        assertTrue(entry.getTaskState(0).isEmpty());
+        assertFalse(entry.nextTaskStarted);
+    }
+
+    @Test
+    public void testWriteAndRead_NextTaskStarted() {
+        // WHEN writing that the task after the completed ones was started
+        mJournal.write(new ProvisioningJournal.Entry(TEST_PARAMS, 2, TEST_USER_ID,
+                new PersistableBundle(), true /* nextTaskStarted */));
+
+        // THEN it is read back
+        ProvisioningJournal.Entry entry = mJournal.read();
+        assertEquals(2, entry.completedTaskCount);
+        assertTrue(entry.nextTaskStarted);
+    }
+
+    @Test
+    public void testClear() {
+        // GIVEN a written journal
+        mJournal.write(new ProvisioningJournal.Entry(TEST_PARAMS, 1, TEST_USER_ID,
+                new PersistableBundle()));
+
+        // WHEN clearing the journal
+        mJournal.clear();
+
+        // THEN nothing is read
+        assertNull(mJournal.read());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void testMatches() {
+        ProvisioningJournal.Entry entry = new ProvisioningJournal.Entry(TEST_PARAMS, 1,
+                TEST_USER_ID, new PersistableBundle());
+
+        assertTrue(entry.matches(TEST_PARAMS));
+        assertFalse(entry.matches(createParams(TEST_PROVISIONING_ID + 1,
+                ACTION_PROVISION_MANAGED_DEVICE)));
+        assertFalse(entry.matches(createParams(TEST_PROVISIONING_ID,
+                ACTION_PROVISION_MANAGED_PROFILE)));
+    }
+
+    private static ProvisioningParams createParams(long provisioningId, String action) {
+        return new ProvisioningParams.Builder()
+                .setProvisioningId(provisioningId)
+                .setProvisioningAction(action)
+                .setDeviceAdminComponentName(TEST_ADMIN)
+                .build();
+    }
+}
@@ -18,9 +18,14 @@ package com.android.managedprovisioning.provisioning;
 
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -30,13 +35,19 @@ import static org.mockito.Mockito.when;
 import android.content.ComponentName;
 import android.content.Context;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.analytics.ChromeTraceExporter;
+import com.android.managedprovisioning.analytics.MetricsEventQueue;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.analytics.TaskLatencyHistograms;
 import com.android.managedprovisioning.analytics.TimeLogger;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
@@ -48,6 +59,11 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Unit tests for {@link ProvisioningManager}.
  */
@@ -67,6 +83,9 @@ public class ProvisioningManagerTest {
     @Mock private ProvisioningControllerFactory mFactory;
     @Mock private ProvisioningAnalyticsTracker mAnalyticsTracker;
     @Mock private TimeLogger mTimeLogger;
+    @Mock private ChromeTraceExporter mTraceExporter;
+    @Mock private TaskLatencyHistograms mLatencyHistograms;
+    @Mock private MetricsEventQueue mMetricsEventQueue;
     @Mock private Handler mUiHandler;
     @Mock private ProvisioningManagerCallback mCallback;
     @Mock private AbstractProvisioningController mController;
@@ -85,7 +104,8 @@ public class ProvisioningManagerTest {
                     return null;
                 });
         mManager = new ProvisioningManager(mContext, mUiHandler, mFactory, mAnalyticsTracker,
-                mTimeLogger);
+                mTimeLogger, mTraceExporter, new ProvisioningTracer(System::nanoTime),
+                mLatencyHistograms, mMetricsEventQueue);
         when(mFactory.createProvisioningController(mContext, TEST_PARAMS, mManager))
                 .thenReturn(mController);
     }
@@ -196,6 +216,10 @@ public class ProvisioningManagerTest {
         mManager.cleanUpCompleted();
         // THEN no callback is sent
         verifyZeroInteractions(mCallback);
+        // THEN the trace of the session is exported
+        verify(mTraceExporter).exportToFile(TEST_PARAMS.provisioningId);
+        // THEN the metrics of the session are written
+        verify(mMetricsEventQueue).flush();
     }
 
     @Test
@@ -217,6 +241,67 @@ public class ProvisioningManagerTest {
         verifyNoMoreInteractions(mCallback);
     }
 
+    @Test
+    public void testPreFinalize_DoesNotWaitForMetrics() throws Exception {
+        // GIVEN a queued metrics event, whose sink blocks until released
+        HandlerThread drainThread = new HandlerThread("test drain thread");
+        drainThread.start();
+        CountDownLatch sinkEntered = new CountDownLatch(1);
+        CountDownLatch releaseSink = new CountDownLatch(1);
+        MetricsEventQueue.Sink sink = mock(MetricsEventQueue.Sink.class);
+        doAnswer((InvocationOnMock invocation) -> {
+            sinkEntered.countDown();
+            releaseSink.await();
+            return null;
+        }).when(sink).count(any(Context.class), anyString(), anyInt());
+        MetricsEventQueue queue = new MetricsEventQueue(16, TimeUnit.HOURS.toMillis(1),
+                drainThread.getLooper(), sink);
+        queue.count(mContext, "test_counter", 1);
+
+        // GIVEN provisioning has been started, with a controller that pre-finalizes right away
+        ProvisioningManager manager = new ProvisioningManager(mContext, mUiHandler, mFactory,
+                mAnalyticsTracker, mTimeLogger, mTraceExporter,
+                new ProvisioningTracer(System::nanoTime), mLatencyHistograms, queue);
+        when(mFactory.createProvisioningController(mContext, TEST_PARAMS, manager))
+                .thenReturn(mController);
+        doAnswer((InvocationOnMock invocation) -> {
+            manager.preFinalizationCompleted();
+            return null;
+        }).when(mController).preFinalize();
+        manager.maybeStartProvisioning(TEST_PARAMS);
+
+        try {
+            // WHEN provisioning is pre-finalized on the main thread
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                    manager::provisioningTasksCompleted);
+
+            // THEN the session's metrics are written without the main thread waiting for them
+            verify(mController).preFinalize();
+            assertTrue(sinkEntered.await(5, TimeUnit.SECONDS));
+            assertEquals(1, releaseSink.getCount());
+        } finally {
+            releaseSink.countDown();
+            drainThread.quitSafely();
+        }
+    }
+
+    @Test
+    public void testDump() {
+        // GIVEN provisioning has been started
+        mManager.maybeStartProvisioning(TEST_PARAMS);
+
+        // WHEN dumping the manager
+        StringWriter writer = new StringWriter();
+        mManager.dump(new PrintWriter(writer), "");
+
+        // THEN the controller, the worker queue and the histograms are dumped
+        verify(mController).dump(any(PrintWriter.class), anyString());
+        verify(mLatencyHistograms).dump(any(PrintWriter.class), anyString());
+        String dump = writer.toString();
+        assertTrue(dump, dump.contains("Worker thread"));
+        assertTrue(dump, dump.contains("Total messages"));
+    }
+
     @Test
     public void testUnregisterListener() {
         // GIVEN a register had previously been registered and then unregistered
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.provisioning;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link TaskWatchdog}.
+ */
+@SmallTest
+public class TaskWatchdogTest {
+    private static final long TEST_TIMEOUT_MS = 10;
+    private static final long WAIT_TIMEOUT_MS = 1000;
+
+    @Mock private AbstractProvisioningTask mTask;
+
+    private HandlerThread mHandlerThread;
+    private TaskWatchdog mWatchdog;
+    private AbstractProvisioningTask mTimedOutTask;
+    private final CountDownLatch mTimedOutLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        System.setProperty("dexmaker.share_classloader", "true");
+        MockitoAnnotations.initMocks(this);
+
+        when(mTask.getTimeoutMs()).thenReturn(TEST_TIMEOUT_MS);
+        mHandlerThread = new HandlerThread("TestWatchdog");
+        mHandlerThread.start();
+        mWatchdog = new TaskWatchdog(new Handler(mHandlerThread.getLooper()),
+                Thread.currentThread(), task -> {
+                    mTimedOutTask = task;
+                    mTimedOutLatch.countDown();
+                });
+    }
+
+    @After
+    public void tearDown() {
+        mHandlerThread.quitSafely();
+    }
+
+    @Test
+    public void testTaskTimesOut() throws Exception {
+        // WHEN watching a task that doesn't finish
+        mWatchdog.watch(mTask);
+
+        // THEN the task times out
+        assertTrue(mTimedOutLatch.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertSame(mTask, mTimedOutTask);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        // GIVEN a watched task
+        mWatchdog.watch(mTask);
+
+        // WHEN the task finishes in time
+        mWatchdog.stop();
+
+        // THEN the task doesn't time out
+        assertFalse(mTimedOutLatch.await(TEST_TIMEOUT_MS * 10, TimeUnit.MILLISECONDS));
+    }
+}
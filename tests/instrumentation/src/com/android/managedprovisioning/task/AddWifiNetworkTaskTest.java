@@ -19,16 +19,27 @@ package com.android.managedprovisioning.task;
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
 
 import static com.android.managedprovisioning.task.AddWifiNetworkTask.ADD_NETWORK_FAIL;
+import static com.android.managedprovisioning.task.AddWifiNetworkTask.CANDIDATE_TIMEOUT_MS;
+import static com.android.managedprovisioning.task.AddWifiNetworkTask.MAX_RETRIES;
+import static com.android.managedprovisioning.task.AddWifiNetworkTask.RETRY_SLEEP_DURATION_BASE_MS;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import android.content.ComponentName;
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
 import android.os.Looper;
@@ -40,8 +51,12 @@ import com.android.managedprovisioning.model.WifiInfo;
 import com.android.managedprovisioning.task.wifi.NetworkMonitor;
 import com.android.managedprovisioning.task.wifi.WifiConfigurationProvider;
 
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -59,11 +74,29 @@ public class AddWifiNetworkTaskTest {
             .setDeviceAdminComponentName(ADMIN)
             .setWifiInfo(null)
             .build();
+    private static final WifiInfo TEST_WIFI_INFO =
+            new WifiInfo.Builder().setSsid(TEST_SSID).build();
+    private static final WifiInfo TEST_WIFI_INFO_2 =
+            new WifiInfo.Builder().setSsid(TEST_SSID_2).build();
     private static final ProvisioningParams WIFI_INFO_PARAMS = new ProvisioningParams.Builder()
             .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
             .setDeviceAdminComponentName(ADMIN)
-            .setWifiInfo(new WifiInfo.Builder().setSsid(TEST_SSID).build())
+            .setWifiInfo(TEST_WIFI_INFO)
             .build();
+    private static final ProvisioningParams FALLBACK_WIFI_INFO_PARAMS =
+            new ProvisioningParams.Builder()
+                    .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
+                    .setDeviceAdminComponentName(ADMIN)
+                    .setWifiInfo(TEST_WIFI_INFO)
+                    .setFallbackWifiInfos(Arrays.asList(TEST_WIFI_INFO_2))
+                    .build();
+    private static final ProvisioningParams MOBILE_FALLBACK_PARAMS =
+            new ProvisioningParams.Builder()
+                    .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
+                    .setDeviceAdminComponentName(ADMIN)
+                    .setWifiInfo(TEST_WIFI_INFO)
+                    .setUseMobileData(true)
+                    .build();
     private static final int ADD_NETWORK_OK = 0;
 
     @Mock private Context mContext;
@@ -75,9 +108,15 @@ public class AddWifiNetworkTaskTest {
     @Mock private Utils mUtils;
     @Mock private android.net.wifi.WifiInfo mWifiInfo;
     @Mock private AddWifiNetworkTask.Injector mTestInjector;
+    @Mock private AbstractProvisioningTask mMobileNetworkTask;
 
     private AddWifiNetworkTask mTask;
 
+    // Callbacks posted by the task, run in virtual time by advanceTimeBy.
+    private final PriorityQueue<ScheduledRunnable> mScheduled = new PriorityQueue<>();
+    private long mVirtualTimeMs;
+    private int mScheduleSequence;
+
     @Before
     public void setUp() {
         System.setProperty("dexmaker.share_classloader", "true");
@@ -86,6 +125,18 @@ public class AddWifiNetworkTaskTest {
         when(mContext.getSystemService(Context.WIFI_SERVICE)).thenReturn(mWifiManager);
         when(mContext.getSystemService(Context.CONNECTIVITY_SERVICE))
                 .thenReturn(mConnectivityManager);
+
+        doAnswer(invocation -> {
+            mScheduled.add(new ScheduledRunnable(
+                    mVirtualTimeMs + (long) invocation.getArguments()[2],
+                    mScheduleSequence++,
+                    (Runnable) invocation.getArguments()[1]));
+            return null;
+        }).when(mTestInjector).postDelayed(any(), any(), anyLong());
+        doAnswer(invocation -> {
+            mScheduled.removeIf(scheduled -> scheduled.runnable == invocation.getArguments()[1]);
+            return null;
+        }).when(mTestInjector).removeCallbacks(any(), any());
     }
 
     @Test
@@ -213,10 +264,58 @@ public class AddWifiNetworkTaskTest {
         // WHEN running the task
         runTask();
 
+        // THEN the task doesn't block the thread while waiting for the first retry
+        verify(mWifiManager).addNetwork(any());
+        verifyZeroInteractions(mCallback);
+
+        // WHEN all retries are done
+        advanceTimeBy(RETRY_SLEEP_DURATION_BASE_MS << MAX_RETRIES);
+
+        // THEN adding the network was retried with exponential backoff
+        verify(mWifiManager, times(MAX_RETRIES + 1)).addNetwork(any());
+        assertEquals(RETRY_SLEEP_DURATION_BASE_MS * ((1 << MAX_RETRIES) - 1), mLastRunTimeMs);
+
         // THEN error should be called
         verify(mCallback).onError(mTask, 0);
     }
 
+    @Test
+    public void testCancelWhileRetryingToAddNetwork() {
+        // GIVEN that wifi info was passed in the parameter
+        mTask = new AddWifiNetworkTask(mNetworkMonitor, mWifiConfigurationProvider, mContext,
+                WIFI_INFO_PARAMS, mCallback, mUtils, mTestInjector);
+
+        // GIVEN that wifi is enabled, but not connected
+        when(mWifiManager.isWifiEnabled()).thenReturn(true);
+        when(mUtils.isConnectedToWifi(mContext)).thenReturn(false);
+
+        // GIVEN WifiConfiguration is not empty
+        when(mWifiConfigurationProvider.generateWifiConfiguration(any()))
+                .thenReturn(new WifiConfiguration());
+
+        // GIVEN addNetwork always fail
+        when(mWifiManager.addNetwork(any())).thenReturn(ADD_NETWORK_FAIL);
+
+        // WHEN running the task and two retries happened
+        runTask();
+        advanceTimeBy(RETRY_SLEEP_DURATION_BASE_MS * 3);
+        verify(mWifiManager, times(3)).addNetwork(any());
+
+        // WHEN the task is cancelled
+        mTask.cancel();
+
+        // THEN nothing is left to run, so the cancellation doesn't wait for the next retry
+        assertTrue(mScheduled.isEmpty());
+        verify(mNetworkMonitor).stopListening();
+
+        // WHEN the remaining retry time elapses
+        advanceTimeBy(RETRY_SLEEP_DURATION_BASE_MS << MAX_RETRIES);
+
+        // THEN adding the network is not retried and no result is reported
+        verify(mWifiManager, times(3)).addNetwork(any());
+        verifyZeroInteractions(mCallback);
+    }
+
     @Test
     public void testFailingToReconnectAfterAddingNetwork() {
         // GIVEN that wifi info was passed in the parameter
@@ -292,10 +391,159 @@ public class AddWifiNetworkTaskTest {
         verify(mCallback).onSuccess(mTask);
     }
 
+    @Test
+    public void testFallbackNetworkAfterTimeout() {
+        // GIVEN a wifi info with a fallback network
+        mTask = new AddWifiNetworkTask(mNetworkMonitor, mWifiConfigurationProvider, mContext,
+                FALLBACK_WIFI_INFO_PARAMS, mCallback, mUtils, mTestInjector);
+
+        // GIVEN that wifi is enabled, but not connected
+        when(mWifiManager.isWifiEnabled()).thenReturn(true);
+        when(mUtils.isConnectedToWifi(mContext)).thenReturn(false);
+
+        // GIVEN adding and connecting to the networks works
+        when(mWifiConfigurationProvider.generateWifiConfiguration(any()))
+                .thenReturn(new WifiConfiguration());
+        when(mWifiManager.addNetwork(any())).thenReturn(ADD_NETWORK_OK);
+        when(mWifiManager.reconnect()).thenReturn(true);
+
+        // WHEN running the task
+        runTask();
+
+        // THEN the first network is tried
+        verify(mWifiConfigurationProvider).generateWifiConfiguration(TEST_WIFI_INFO);
+
+        // WHEN the first network doesn't connect within the shorter time out
+        advanceTimeBy(CANDIDATE_TIMEOUT_MS);
+
+        // THEN the fallback network is tried, without failing the task
+        verify(mWifiConfigurationProvider).generateWifiConfiguration(TEST_WIFI_INFO_2);
+        verifyZeroInteractions(mCallback);
+
+        // WHEN the fallback network connects
+        when(mUtils.isConnectedToWifi(mContext)).thenReturn(true);
+        when(mWifiManager.getConnectionInfo()).thenReturn(mWifiInfo);
+        when(mWifiInfo.getSSID()).thenReturn(TEST_SSID_2);
+        mTask.onNetworkConnected();
+
+        // THEN success should be called
+        verify(mCallback).onSuccess(mTask);
+    }
+
+    @Test
+    public void testFallbackNetworkRankedByScanResults() {
+        // GIVEN a wifi info with a fallback network
+        mTask = new AddWifiNetworkTask(mNetworkMonitor, mWifiConfigurationProvider, mContext,
+                FALLBACK_WIFI_INFO_PARAMS, mCallback, mUtils, mTestInjector);
+
+        // GIVEN that wifi is enabled, but not connected
+        when(mWifiManager.isWifiEnabled()).thenReturn(true);
+        when(mUtils.isConnectedToWifi(mContext)).thenReturn(false);
+
+        // GIVEN only the fallback network is in range
+        ScanResult scanResult = new ScanResult();
+        scanResult.SSID = TEST_SSID_2;
+        scanResult.level = -50;
+        when(mWifiManager.getScanResults()).thenReturn(Arrays.asList(scanResult));
+
+        // GIVEN adding a network fails
+        when(mWifiConfigurationProvider.generateWifiConfiguration(any()))
+                .thenReturn(new WifiConfiguration());
+        when(mWifiManager.addNetwork(any())).thenReturn(ADD_NETWORK_FAIL);
+
+        // WHEN running the task
+        runTask();
+
+        // THEN the fallback network is tried first
+        verify(mWifiConfigurationProvider).generateWifiConfiguration(TEST_WIFI_INFO_2);
+        verify(mWifiConfigurationProvider, never()).generateWifiConfiguration(TEST_WIFI_INFO);
+
+        // WHEN all retries for it are done
+        advanceTimeBy(RETRY_SLEEP_DURATION_BASE_MS << MAX_RETRIES);
+
+        // THEN the network given first is tried next
+        verify(mWifiConfigurationProvider).generateWifiConfiguration(TEST_WIFI_INFO);
+
+        // WHEN all retries for it are done
+        advanceTimeBy(RETRY_SLEEP_DURATION_BASE_MS << MAX_RETRIES);
+
+        // THEN error should be called
+        verify(mCallback).onError(mTask, 0);
+    }
+
+    @Test
+    public void testFallbackToMobileNetwork() {
+        // GIVEN a wifi info and the mobile network may be used
+        mTask = new AddWifiNetworkTask(mNetworkMonitor, mWifiConfigurationProvider, mContext,
+                MOBILE_FALLBACK_PARAMS, mCallback, mUtils, mTestInjector);
+        when(mTestInjector.createMobileNetworkTask(any(), any(), any()))
+                .thenReturn(mMobileNetworkTask);
+
+        // GIVEN that wifi is enabled, but not connected
+        when(mWifiManager.isWifiEnabled()).thenReturn(true);
+        when(mUtils.isConnectedToWifi(mContext)).thenReturn(false);
+
+        // GIVEN the wifi network can't be connected to
+        when(mWifiConfigurationProvider.generateWifiConfiguration(any()))
+                .thenReturn(new WifiConfiguration());
+        when(mWifiManager.addNetwork(any())).thenReturn(ADD_NETWORK_OK);
+        when(mWifiManager.reconnect()).thenReturn(true);
+
+        // WHEN running the task and the wifi network times out
+        runTask();
+        advanceTimeBy(CANDIDATE_TIMEOUT_MS);
+
+        // THEN the mobile network is used instead
+        ArgumentCaptor<AbstractProvisioningTask.Callback> callback =
+                ArgumentCaptor.forClass(AbstractProvisioningTask.Callback.class);
+        verify(mTestInjector).createMobileNetworkTask(eq(mContext), eq(MOBILE_FALLBACK_PARAMS),
+                callback.capture());
+        verify(mMobileNetworkTask).run(TEST_USER_ID);
+
+        // WHEN the mobile network is connected
+        callback.getValue().onSuccess(mMobileNetworkTask);
+
+        // THEN success should be called
+        verify(mCallback).onSuccess(mTask);
+    }
+
     private void runTask() {
         if (Looper.myLooper() == null) {
             Looper.prepare();
         }
         mTask.run(TEST_USER_ID);
     }
+
+    private long mLastRunTimeMs;
+
+    private void advanceTimeBy(long durationMs) {
+        long targetTimeMs = mVirtualTimeMs + durationMs;
+        while (!mScheduled.isEmpty() && mScheduled.peek().timeMs <= targetTimeMs) {
+            ScheduledRunnable next = mScheduled.poll();
+            mVirtualTimeMs = next.timeMs;
+            mLastRunTimeMs = next.timeMs;
+            next.runnable.run();
+        }
+        mVirtualTimeMs = targetTimeMs;
+    }
+
+    private static class ScheduledRunnable implements Comparable<ScheduledRunnable> {
+        final long timeMs;
+        final int sequence;
+        final Runnable runnable;
+
+        ScheduledRunnable(long timeMs, int sequence, Runnable runnable) {
+            this.timeMs = timeMs;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(ScheduledRunnable other) {
+            if (timeMs != other.timeMs) {
+                return Long.compare(timeMs, other.timeMs);
+            }
+            return Integer.compare(sequence, other.sequence);
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CancellationToken}.
+ */
+@SmallTest
+public class CancellationTokenTest {
+    private final CancellationToken mToken = new CancellationToken();
+
+    @Test
+    public void testCancel_RunsListenersOnce() {
+        // GIVEN a listener
+        Runnable listener = mock(Runnable.class);
+        mToken.addListener(listener);
+        assertFalse(mToken.isCancelled());
+
+        // WHEN cancelling the token twice
+        mToken.cancel();
+        mToken.cancel();
+
+        // THEN the listener is run once
+        assertTrue(mToken.isCancelled());
+        verify(listener).run();
+    }
+
+    @Test
+    public void testAddListener_AlreadyCancelled() {
+        // GIVEN a cancelled token
+        mToken.cancel();
+
+        // WHEN adding a listener
+        Runnable listener = mock(Runnable.class);
+        mToken.addListener(listener);
+
+        // THEN the listener is run right away
+        verify(listener).run();
+    }
+
+    @Test
+    public void testRemoveListener() {
+        // GIVEN a removed listener
+        Runnable listener = mock(Runnable.class);
+        mToken.addListener(listener);
+        mToken.removeListener(listener);
+
+        // WHEN cancelling the token
+        mToken.cancel();
+
+        // THEN the listener isn't run
+        verify(listener, never()).run();
+    }
+}
@@ -19,9 +19,13 @@ package com.android.managedprovisioning.task;
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.nullable;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -39,11 +43,13 @@ import android.support.test.filters.FlakyTest;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.managedprovisioning.common.AccountMigrationTracker;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -60,6 +66,7 @@ public class CopyAccountToUserTaskTest extends AndroidTestCase {
     @Mock private AccountManager mAccountManager;
     @Mock private AccountManagerFuture mAccountManagerFuture;
     @Mock private AbstractProvisioningTask.Callback mCallback;
+    @Mock private AccountMigrationTracker mAccountMigrationTracker;
     private CopyAccountToUserTask mTask;
 
     public void setUp() {
@@ -197,12 +204,60 @@ public class CopyAccountToUserTaskTest extends AndroidTestCase {
         assertFalse(mTask.maybeCopyAccount(TEST_TARGET_USER_ID));
     }
 
+    @SmallTest
+    public void testRun_inBackground() throws Exception {
+        // GIVEN an account on the source user, copied in the background
+        createTask(TEST_SOURCE_USER_ID, TEST_ACCOUNT, true /* copyInBackground */);
+
+        // GIVEN a copy that only finishes once allowed to
+        final CountDownLatch copyLatch = new CountDownLatch(1);
+        when(mAccountManagerFuture.getResult(anyLong(), any(TimeUnit.class))).thenAnswer(
+                invocation -> copyLatch.await(1, TimeUnit.SECONDS));
+
+        // WHEN running the task
+        mTask.run(TEST_TARGET_USER_ID);
+
+        // THEN the success callback is given right away
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+        verify(mAccountMigrationTracker).migrationStarted(TEST_TARGET_USER_ID);
+        verify(mAccountMigrationTracker, never()).migrationFinished(anyInt(), anyBoolean());
+
+        // WHEN the copy finishes
+        copyLatch.countDown();
+
+        // THEN its result is recorded
+        verify(mAccountMigrationTracker, timeout(1000)).migrationFinished(TEST_TARGET_USER_ID,
+                true);
+    }
+
+    @SmallTest
+    public void testRun_inBackground_nullAccount() {
+        // GIVEN no account is passed
+        createTask(TEST_SOURCE_USER_ID, null, true /* copyInBackground */);
+
+        // WHEN running the task
+        mTask.run(TEST_TARGET_USER_ID);
+
+        // THEN no copy is started
+        verifyZeroInteractions(mAccountManager, mAccountMigrationTracker);
+
+        // THEN the success callback should still occur
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+    }
+
     private void createTask(int sourceUserId, Account account) {
+        createTask(sourceUserId, account, false /* copyInBackground */);
+    }
+
+    private void createTask(int sourceUserId, Account account, boolean copyInBackground) {
         ProvisioningParams params = new ProvisioningParams.Builder()
                 .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
                 .setDeviceAdminPackageName(TEST_MDM_PACKAGE_NAME)
                 .setAccountToMigrate(account)
                 .build();
-        mTask = new CopyAccountToUserTask(sourceUserId, mContext, params, mCallback);
+        mTask = new CopyAccountToUserTask(sourceUserId, copyInBackground, mContext, params,
+                mCallback, mAccountMigrationTracker);
     }
 }
@@ -23,6 +23,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -32,10 +33,12 @@ import android.os.UserManager;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 
+import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 
@@ -57,15 +60,18 @@ public class CreateManagedProfileTaskTest {
 
     private @Mock UserManager mUserManager;
     private @Mock NonRequiredAppsLogic mLogic;
+    private @Mock ManagedProvisioningSharedPreferences mSharedPreferences;
     private @Mock AbstractProvisioningTask.Callback mCallback;
 
+    private ManagedProfilePrecreator mPrecreator;
     private CreateManagedProfileTask mTask;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        mPrecreator = new ManagedProfilePrecreator(Runnable::run);
         mTask = new CreateManagedProfileTask(InstrumentationRegistry.getTargetContext(),
-                TEST_PARAMS, mCallback, mUserManager, mLogic);
+                TEST_PARAMS, mCallback, mUserManager, mLogic, mPrecreator);
         // GIVEN that a set of system apps should not be installed on the new user
         when(mLogic.getSystemAppsToRemove(TEST_PARENT_USER_ID))
             .thenReturn(new LinkedHashSet<String>(Arrays.asList(SYSTEM_APPS_TO_DELETE)));
@@ -106,4 +112,67 @@ public class CreateManagedProfileTaskTest {
         // THEN any other callback should not happen
         verifyNoMoreInteractions(mCallback);
     }
+
+    @Test
+    public void testAdoptPrecreatedProfile() {
+        // GIVEN that the profile was created in the background for this provisioning session
+        when(mUserManager.createProfileForUserEvenWhenDisallowed(
+                        anyString(), anyInt(), eq(TEST_PARENT_USER_ID),
+                        aryEq(SYSTEM_APPS_TO_DELETE)))
+                .thenReturn(new UserInfo(TEST_USER_ID, null, 0));
+        mPrecreator.start(TEST_PARAMS, TEST_PARENT_USER_ID, mUserManager, mSharedPreferences,
+                mLogic, "profile");
+        verify(mUserManager).createProfileForUserEvenWhenDisallowed(
+                anyString(), anyInt(), eq(TEST_PARENT_USER_ID), aryEq(SYSTEM_APPS_TO_DELETE));
+
+        // WHEN the CreateManagedProfileTask is run
+        mTask.run(TEST_PARENT_USER_ID);
+
+        // THEN the created profile is adopted, without creating another one
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+        verifyNoMoreInteractions(mUserManager);
+        assertEquals(TEST_USER_ID, mTask.getProfileUserId());
+    }
+
+    @Test
+    public void testAdoptProfileOfInterruptedRun() {
+        // GIVEN that a previous run of the task created a profile, but was interrupted
+        when(mUserManager.getProfiles(TEST_PARENT_USER_ID)).thenReturn(Arrays.asList(
+                new UserInfo(TEST_PARENT_USER_ID, null, UserInfo.FLAG_PRIMARY),
+                new UserInfo(TEST_USER_ID, null, UserInfo.FLAG_MANAGED_PROFILE)));
+        mTask.onRunInterrupted();
+
+        // WHEN the CreateManagedProfileTask is run
+        mTask.run(TEST_PARENT_USER_ID);
+
+        // THEN the created profile is adopted, without creating another one
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+        verify(mUserManager, never()).createProfileForUserEvenWhenDisallowed(
+                anyString(), anyInt(), anyInt(), any(String[].class));
+        verify(mLogic).maybeTakeSystemAppsSnapshot(TEST_USER_ID);
+        assertEquals(TEST_USER_ID, mTask.getProfileUserId());
+    }
+
+    @Test
+    public void testInterruptedRunWithoutProfile() {
+        // GIVEN that a previous run of the task was interrupted before creating the profile
+        when(mUserManager.getProfiles(TEST_PARENT_USER_ID)).thenReturn(Collections.singletonList(
+                new UserInfo(TEST_PARENT_USER_ID, null, UserInfo.FLAG_PRIMARY)));
+        when(mUserManager.createProfileForUserEvenWhenDisallowed(
+                        anyString(), anyInt(), eq(TEST_PARENT_USER_ID),
+                        aryEq(SYSTEM_APPS_TO_DELETE)))
+                .thenReturn(new UserInfo(TEST_USER_ID, null, 0));
+        mTask.onRunInterrupted();
+
+        // WHEN the CreateManagedProfileTask is run
+        mTask.run(TEST_PARENT_USER_ID);
+
+        // THEN the profile is created
+        verify(mCallback).onSuccess(mTask);
+        verify(mUserManager).createProfileForUserEvenWhenDisallowed(
+                anyString(), anyInt(), eq(TEST_PARENT_USER_ID), aryEq(SYSTEM_APPS_TO_DELETE));
+        assertEquals(TEST_USER_ID, mTask.getProfileUserId());
+    }
 }
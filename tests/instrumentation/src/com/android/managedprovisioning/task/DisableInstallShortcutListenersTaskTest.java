@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.content.pm.ParceledListSlice;
+import android.content.pm.ResolveInfo;
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.common.ComponentStateChange;
+import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.testcommon.BinderCallBudget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Unit tests for {@link DisableInstallShortcutListenersTask}.
+ */
+@SmallTest
+public class DisableInstallShortcutListenersTaskTest {
+    private static final int TEST_USER_ID = 123;
+    private static final String SYSTEM_APP_A = "com.system.a";
+    private static final String SYSTEM_APP_B = "com.system.b";
+    private static final String SYSTEM_APP_WITHOUT_LISTENER = "com.system.c";
+    private static final String NON_SYSTEM_APP = "com.downloaded.d";
+    private static final ComponentName LISTENER_A1 =
+            new ComponentName(SYSTEM_APP_A, SYSTEM_APP_A + ".Receiver1");
+    private static final ComponentName LISTENER_A2 =
+            new ComponentName(SYSTEM_APP_A, SYSTEM_APP_A + ".Receiver2");
+    private static final ComponentName LISTENER_B =
+            new ComponentName(SYSTEM_APP_B, SYSTEM_APP_B + ".Receiver");
+    private static final ComponentName LISTENER_NON_SYSTEM =
+            new ComponentName(NON_SYSTEM_APP, NON_SYSTEM_APP + ".Receiver");
+    private static final List<ComponentName> ALL_LISTENERS =
+            Arrays.asList(LISTENER_A1, LISTENER_NON_SYSTEM, LISTENER_B, LISTENER_A2);
+    private static final Set<String> SYSTEM_APPS = new HashSet<>(Arrays.asList(
+            SYSTEM_APP_A, SYSTEM_APP_B, SYSTEM_APP_WITHOUT_LISTENER));
+    // The calls made once per run: listing the apps and resolving the receivers. Each listener
+    // then takes one call to be disabled, whatever the number of system apps.
+    private static final int BINDER_CALLS_PER_RUN = 2;
+
+    @Mock private Context mContext;
+    @Mock private PackageManager mPackageManager;
+    @Mock private IPackageManager mIPackageManager;
+    @Mock private Utils mUtils;
+    @Mock private AbstractProvisioningTask.Callback mCallback;
+
+    private final List<ComponentName> mListeners = new ArrayList<>(ALL_LISTENERS);
+    private DisableInstallShortcutListenersTask mTask;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mUtils.getCurrentSystemApps(mIPackageManager, TEST_USER_ID)).thenReturn(SYSTEM_APPS);
+        // The package manager only returns receivers of the package set on the intent, if any.
+        when(mPackageManager.queryBroadcastReceiversAsUser(any(Intent.class), anyInt(),
+                eq(TEST_USER_ID))).thenAnswer(invocation -> {
+                    Intent intent = (Intent) invocation.getArguments()[0];
+                    List<ResolveInfo> result = new ArrayList<>();
+                    for (ComponentName listener : mListeners) {
+                        if (intent.getPackage() == null
+                                || intent.getPackage().equals(listener.getPackageName())) {
+                            result.add(createResolveInfo(listener));
+                        }
+                    }
+                    return result;
+                });
+
+        mTask = new DisableInstallShortcutListenersTask(mUtils, mIPackageManager, mContext,
+                new ProvisioningParams.Builder().setDeviceAdminPackageName("com.test.dpc").build(),
+                mCallback);
+    }
+
+    @Test
+    public void testRun() {
+        // WHEN running the task
+        mTask.run(TEST_USER_ID);
+
+        // THEN the receivers are resolved only once
+        verify(mPackageManager, times(1)).queryBroadcastReceiversAsUser(any(Intent.class),
+                anyInt(), eq(TEST_USER_ID));
+
+        // THEN only the listeners of system apps are disabled, in a single batch
+        verify(mUtils).setComponentsEnabledSetting(eq(mIPackageManager), eq(Arrays.asList(
+                ComponentStateChange.disable(LISTENER_A1),
+                ComponentStateChange.disable(LISTENER_B),
+                ComponentStateChange.disable(LISTENER_A2))), eq(TEST_USER_ID));
+        verify(mUtils).getCurrentSystemApps(mIPackageManager, TEST_USER_ID);
+        verifyNoMoreInteractions(mUtils);
+
+        // THEN the task succeeds
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @Test
+    public void testRun_BinderCallBudget() throws Exception {
+        // GIVEN a task using the real utils, so that their calls are counted too
+        DisableInstallShortcutListenersTask task = new DisableInstallShortcutListenersTask(
+                new Utils(), mIPackageManager, mContext,
+                new ProvisioningParams.Builder().setDeviceAdminPackageName("com.test.dpc")
+                        .build(),
+                mCallback);
+        setInstalledApps(SYSTEM_APPS, NON_SYSTEM_APP);
+        BinderCallBudget budget = new BinderCallBudget(mPackageManager, mIPackageManager);
+
+        // WHEN running the task with a few system apps
+        task.run(TEST_USER_ID);
+
+        // THEN the three listeners of system apps are disabled within the budget
+        verify(mIPackageManager, times(3)).setComponentEnabledSetting(any(ComponentName.class),
+                eq(PackageManager.COMPONENT_ENABLED_STATE_DISABLED),
+                eq(PackageManager.DONT_KILL_APP), eq(TEST_USER_ID));
+        budget.assertWithin(BINDER_CALLS_PER_RUN + 3);
+
+        // GIVEN many system apps, each with a listener
+        Set<String> manySystemApps = new HashSet<>(SYSTEM_APPS);
+        for (int i = 0; i < 100; i++) {
+            String packageName = "com.system.app" + i;
+            manySystemApps.add(packageName);
+            mListeners.add(new ComponentName(packageName, packageName + ".Receiver"));
+        }
+        setInstalledApps(manySystemApps, NON_SYSTEM_APP);
+        budget.reset();
+
+        // WHEN running the task again
+        task.run(TEST_USER_ID);
+
+        // THEN the task only makes one more call per listener, not per system app
+        verify(mIPackageManager, times(3 + 103)).setComponentEnabledSetting(
+                any(ComponentName.class), eq(PackageManager.COMPONENT_ENABLED_STATE_DISABLED),
+                eq(PackageManager.DONT_KILL_APP), eq(TEST_USER_ID));
+        budget.assertWithin(BINDER_CALLS_PER_RUN + 103);
+    }
+
+    @Test
+    public void testFindInstallShortcutListeners_MatchesPerPackageQueries() {
+        // GIVEN the listeners found by querying once per system app
+        Set<ComponentName> perPackage = new LinkedHashSet<>();
+        Intent intent = new Intent(DisableInstallShortcutListenersTask.ACTION_INSTALL_SHORTCUT);
+        for (String systemApp : SYSTEM_APPS) {
+            intent.setPackage(systemApp);
+            for (ResolveInfo ri : mPackageManager.queryBroadcastReceiversAsUser(intent,
+                    PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+                            | PackageManager.MATCH_DIRECT_BOOT_AWARE, TEST_USER_ID)) {
+                perPackage.add(new ComponentName(ri.activityInfo.packageName,
+                        ri.activityInfo.name));
+            }
+        }
+
+        // WHEN finding the listeners with a single query
+        Set<ComponentName> singleQuery =
+                mTask.findInstallShortcutListeners(SYSTEM_APPS, TEST_USER_ID);
+
+        // THEN both sets are the same
+        assertEquals(perPackage, singleQuery);
+    }
+
+    private void setInstalledApps(Set<String> systemApps, String nonSystemApp) throws Exception {
+        List<ApplicationInfo> apps = new ArrayList<>();
+        for (String packageName : systemApps) {
+            ApplicationInfo ai = new ApplicationInfo();
+            ai.packageName = packageName;
+            ai.flags = ApplicationInfo.FLAG_SYSTEM;
+            apps.add(ai);
+        }
+        ApplicationInfo ai = new ApplicationInfo();
+        ai.packageName = nonSystemApp;
+        apps.add(ai);
+        when(mIPackageManager.getInstalledApplications(PackageManager.MATCH_UNINSTALLED_PACKAGES,
+                TEST_USER_ID)).thenReturn(new ParceledListSlice<>(apps));
+    }
+
+    private static ResolveInfo createResolveInfo(ComponentName component) {
+        ActivityInfo ai = new ActivityInfo();
+        ai.packageName = component.getPackageName();
+        ai.name = component.getClassName();
+        ResolveInfo ri = new ResolveInfo();
+        ri.activityInfo = ai;
+        return ri;
+    }
+}
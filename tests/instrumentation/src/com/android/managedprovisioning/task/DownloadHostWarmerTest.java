@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link DownloadHostWarmer}.
+ */
+@SmallTest
+public class DownloadHostWarmerTest {
+    private static final String TEST_HOST = "dpc.example.com";
+
+    private final List<String> mResolvedHosts = new ArrayList<>();
+    private DownloadHostWarmer mWarmer;
+
+    @Before
+    public void setUp() {
+        mWarmer = new DownloadHostWarmer(Runnable::run, host -> {
+            mResolvedHosts.add(host);
+            return new InetAddress[0];
+        });
+    }
+
+    @Test
+    public void testWarmUp_ResolvesHost() {
+        // WHEN warming up an https download location
+        mWarmer.warmUp("https://" + TEST_HOST + ":8443/path/dpc.apk?token=abc");
+
+        // THEN only the host is resolved
+        assertEquals(1, mResolvedHosts.size());
+        assertEquals(TEST_HOST, mResolvedHosts.get(0));
+    }
+
+    @Test
+    public void testWarmUp_NoHost() {
+        // WHEN warming up a location without a host
+        mWarmer.warmUp("dpc.apk");
+
+        // THEN nothing is resolved
+        assertTrue(mResolvedHosts.isEmpty());
+    }
+
+    @Test
+    public void testWarmUp_UnknownHost() {
+        // GIVEN the host can't be resolved
+        mWarmer = new DownloadHostWarmer(Runnable::run, host -> {
+            throw new UnknownHostException(host);
+        });
+
+        // WHEN warming up the download location
+        mWarmer.warmUp("https://" + TEST_HOST + "/dpc.apk");
+
+        // THEN the failure is not propagated
+    }
+}
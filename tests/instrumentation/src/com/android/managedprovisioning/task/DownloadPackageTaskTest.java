@@ -20,12 +20,17 @@ import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEV
 
 import static com.android.managedprovisioning.task.DownloadPackageTask.ERROR_DOWNLOAD_FAILED;
 import static com.android.managedprovisioning.task.DownloadPackageTask.ERROR_OTHER;
+import static com.android.managedprovisioning.task.DownloadPackageTask.KEY_DOWNLOAD_LOCATION;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Matchers.nullable;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -34,12 +39,16 @@ import android.app.DownloadManager;
 import android.app.DownloadManager.Query;
 import android.app.DownloadManager.Request;
 import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.database.MatrixCursor;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.PersistableBundle;
 import android.support.test.filters.FlakyTest;
 import android.support.test.filters.SmallTest;
 
@@ -53,6 +62,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+
 @SmallTest
 @FlakyTest // TODO: http://b/34117742
 public class DownloadPackageTaskTest {
@@ -60,6 +71,7 @@ public class DownloadPackageTaskTest {
     @Mock private AbstractProvisioningTask.Callback mCallback;
     @Mock private DownloadManager mDownloadManager;
     @Mock private Utils mUtils;
+    @Mock private ContentResolver mContentResolver;
 
     private static final String TEST_PACKAGE_NAME = "sample.package.name";
     private static final String TEST_PACKAGE_LOCATION = "http://www.some.uri.com";
@@ -68,6 +80,8 @@ public class DownloadPackageTaskTest {
     private static final byte[] TEST_SIGNATURE = new byte[] {'a', 'b', 'c', 'd'};
 
     private static final long TEST_DOWNLOAD_ID = 1234;
+    private static final Uri TEST_DOWNLOAD_URI =
+            Uri.parse("content://downloads/all_downloads/" + TEST_DOWNLOAD_ID);
     private static final int PACKAGE_VERSION = 43;
     private static final PackageDownloadInfo TEST_DOWNLOAD_INFO = new PackageDownloadInfo.Builder()
             .setLocation(TEST_PACKAGE_LOCATION)
@@ -87,6 +101,8 @@ public class DownloadPackageTaskTest {
         MockitoAnnotations.initMocks(this);
 
         when(mContext.getSystemService(Context.DOWNLOAD_SERVICE)).thenReturn(mDownloadManager);
+        when(mContext.getContentResolver()).thenReturn(mContentResolver);
+        when(mDownloadManager.getDownloadUri(TEST_DOWNLOAD_ID)).thenReturn(TEST_DOWNLOAD_URI);
         when(mUtils.packageRequiresUpdate(TEST_PACKAGE_NAME, PACKAGE_VERSION, mContext))
                 .thenReturn(true);
 
@@ -183,6 +199,64 @@ public class DownloadPackageTaskTest {
         verifyNoMoreInteractions(mCallback);
     }
 
+    @Test
+    public void testRestoreState() throws Exception {
+        // GIVEN the package was downloaded in a previous process
+        File downloadedFile = File.createTempFile("downloaded", ".apk");
+        PersistableBundle state = new PersistableBundle();
+        state.putString(KEY_DOWNLOAD_LOCATION, downloadedFile.getPath());
+
+        // WHEN restoring the state
+        // THEN the downloaded package is restored
+        assertTrue(mTask.restoreState(state));
+        assertEquals(downloadedFile.getPath(), mTask.getDownloadedPackageLocation());
+
+        // WHEN the downloaded package was removed
+        downloadedFile.delete();
+
+        // THEN the state can't be restored
+        assertFalse(new DownloadPackageTask(mUtils, mContext, PARAMS, mCallback)
+                .restoreState(state));
+    }
+
+    @Test
+    public void testProgressObserverUnregisteredAfterFirstBytes() throws Exception {
+        // GIVEN the download has started but no bytes were received yet
+        doReturn(true).when(mUtils).isConnectedToNetwork(any(Context.class));
+        when(mDownloadManager.enqueue(any(Request.class))).thenReturn(TEST_DOWNLOAD_ID);
+        mockDownloadProgress(0);
+
+        // WHEN running the download package task
+        runTask();
+
+        // THEN the progress of the download is observed
+        ArgumentCaptor<ContentObserver> observerCaptor = ArgumentCaptor.forClass(
+                ContentObserver.class);
+        verify(mContentResolver).registerContentObserver(eq(TEST_DOWNLOAD_URI), eq(false),
+                observerCaptor.capture());
+        ContentObserver observer = observerCaptor.getValue();
+
+        // WHEN the download changes without receiving any bytes
+        observer.onChange(false);
+
+        // THEN the observer is kept
+        verify(mContentResolver, never()).unregisterContentObserver(observer);
+
+        // WHEN the first bytes are received
+        mockDownloadProgress(100);
+        observer.onChange(false);
+
+        // THEN the observer is unregistered
+        verify(mContentResolver).unregisterContentObserver(observer);
+    }
+
+    private void mockDownloadProgress(long bytesSoFar) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR});
+        cursor.addRow(new Object[]{bytesSoFar});
+        when(mDownloadManager.query(any(Query.class))).thenReturn(cursor);
+    }
+
     private void mockSuccessfulDownload(int downloadStatus) {
         doReturn(true).when(mUtils).isConnectedToNetwork(any(Context.class));
         when(mDownloadManager.enqueue(any(Request.class))).thenReturn(TEST_DOWNLOAD_ID);
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.UserInfo;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
+import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ManagedProfilePrecreator}.
+ */
+@SmallTest
+public class ManagedProfilePrecreatorTest {
+    private static final int TEST_PARENT_USER_ID = 0;
+    private static final int TEST_PROFILE_USER_ID = 10;
+    private static final String TEST_PROFILE_NAME = "Work profile";
+    private static final ProvisioningParams TEST_PARAMS = createParams(1234L);
+
+    @Mock private UserManager mUserManager;
+    @Mock private NonRequiredAppsLogic mLogic;
+    @Mock private ManagedProvisioningSharedPreferences mSharedPreferences;
+
+    // Runnables posted to the executor, run by runPendingTasks().
+    private final List<Runnable> mPendingTasks = new ArrayList<>();
+    private ManagedProfilePrecreator mPrecreator;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(mSharedPreferences.getPrecreatedProfileUserId()).thenReturn(UserHandle.USER_NULL);
+        when(mLogic.getSystemAppsToRemove(TEST_PARENT_USER_ID))
+                .thenReturn(Collections.emptySet());
+        when(mUserManager.createProfileForUserEvenWhenDisallowed(eq(TEST_PROFILE_NAME), anyInt(),
+                eq(TEST_PARENT_USER_ID), any(String[].class)))
+                .thenReturn(new UserInfo(TEST_PROFILE_USER_ID, TEST_PROFILE_NAME, 0));
+        mPrecreator = new ManagedProfilePrecreator(mPendingTasks::add);
+    }
+
+    @Test
+    public void testAdopt() {
+        // GIVEN that the profile was created in the background
+        startPrecreation(TEST_PARAMS);
+        runPendingTasks();
+        verify(mLogic).maybeTakeSystemAppsSnapshot(TEST_PROFILE_USER_ID);
+        verify(mSharedPreferences).setPrecreatedProfileUserId(TEST_PROFILE_USER_ID);
+
+        // THEN the profile is adopted once
+        assertEquals(TEST_PROFILE_USER_ID, mPrecreator.adopt(TEST_PARAMS, TEST_PARENT_USER_ID));
+        assertEquals(UserHandle.USER_NULL, mPrecreator.adopt(TEST_PARAMS, TEST_PARENT_USER_ID));
+        // THEN it is no longer recorded as precreated
+        verify(mSharedPreferences).setPrecreatedProfileUserId(UserHandle.USER_NULL);
+
+        // THEN discarding it afterwards doesn't remove it
+        mPrecreator.discard(TEST_PARAMS);
+        runPendingTasks();
+        verify(mUserManager, never()).removeUserEvenWhenDisallowed(anyInt());
+    }
+
+    @Test
+    public void testAdopt_OtherSession() {
+        // GIVEN that the profile was created in the background
+        startPrecreation(TEST_PARAMS);
+        runPendingTasks();
+
+        // THEN it isn't adopted by another provisioning session
+        assertEquals(UserHandle.USER_NULL,
+                mPrecreator.adopt(createParams(5678L), TEST_PARENT_USER_ID));
+        // THEN nor for another parent user
+        assertEquals(UserHandle.USER_NULL,
+                mPrecreator.adopt(TEST_PARAMS, TEST_PARENT_USER_ID + 1));
+    }
+
+    @Test
+    public void testStart_SameSessionTwice() {
+        // WHEN starting the creation twice for the same session
+        startPrecreation(TEST_PARAMS);
+        startPrecreation(TEST_PARAMS);
+        runPendingTasks();
+
+        // THEN only one profile is created
+        verify(mUserManager, times(1)).createProfileForUserEvenWhenDisallowed(anyString(),
+                anyInt(), anyInt(), any(String[].class));
+    }
+
+    @Test
+    public void testDiscard_AfterCreation() {
+        // GIVEN that the profile was created in the background
+        startPrecreation(TEST_PARAMS);
+        runPendingTasks();
+
+        // WHEN the user doesn't consent
+        mPrecreator.discard(TEST_PARAMS);
+        runPendingTasks();
+
+        // THEN the profile is removed
+        verify(mUserManager).removeUserEvenWhenDisallowed(TEST_PROFILE_USER_ID);
+        verify(mSharedPreferences).setPrecreatedProfileUserId(UserHandle.USER_NULL);
+        assertEquals(UserHandle.USER_NULL, mPrecreator.adopt(TEST_PARAMS, TEST_PARENT_USER_ID));
+    }
+
+    @Test
+    public void testDiscard_WhileCreating() {
+        // GIVEN that the profile is being created in the background
+        startPrecreation(TEST_PARAMS);
+
+        // WHEN the user doesn't consent
+        mPrecreator.discard(TEST_PARAMS);
+        verify(mUserManager, never()).removeUserEvenWhenDisallowed(anyInt());
+
+        // THEN the profile is removed once created
+        runPendingTasks();
+        verify(mUserManager).removeUserEvenWhenDisallowed(TEST_PROFILE_USER_ID);
+    }
+
+    @Test
+    public void testRemoveLeftoverProfile() {
+        // GIVEN that a process that died left a disabled precreated profile behind
+        when(mSharedPreferences.getPrecreatedProfileUserId()).thenReturn(TEST_PROFILE_USER_ID);
+        when(mUserManager.getUserInfo(TEST_PROFILE_USER_ID)).thenReturn(new UserInfo(
+                TEST_PROFILE_USER_ID, TEST_PROFILE_NAME,
+                UserInfo.FLAG_MANAGED_PROFILE | UserInfo.FLAG_DISABLED));
+        when(mUserManager.removeUserEvenWhenDisallowed(TEST_PROFILE_USER_ID)).thenReturn(true);
+
+        // WHEN removing leftovers
+        assertTrue(mPrecreator.removeLeftoverProfile(mUserManager, mSharedPreferences));
+
+        // THEN the profile is removed and no longer recorded
+        verify(mUserManager).removeUserEvenWhenDisallowed(TEST_PROFILE_USER_ID);
+        verify(mSharedPreferences).setPrecreatedProfileUserId(UserHandle.USER_NULL);
+    }
+
+    @Test
+    public void testRemoveLeftoverProfile_Enabled() {
+        // GIVEN that the recorded profile has been enabled since
+        when(mSharedPreferences.getPrecreatedProfileUserId()).thenReturn(TEST_PROFILE_USER_ID);
+        when(mUserManager.getUserInfo(TEST_PROFILE_USER_ID)).thenReturn(new UserInfo(
+                TEST_PROFILE_USER_ID, TEST_PROFILE_NAME, UserInfo.FLAG_MANAGED_PROFILE));
+
+        // THEN it isn't removed
+        assertFalse(mPrecreator.removeLeftoverProfile(mUserManager, mSharedPreferences));
+        verify(mUserManager, never()).removeUserEvenWhenDisallowed(anyInt());
+        verify(mSharedPreferences).setPrecreatedProfileUserId(UserHandle.USER_NULL);
+    }
+
+    @Test
+    public void testRemoveLeftoverProfile_StillTracked() {
+        // GIVEN that the profile is being created by this process
+        startPrecreation(TEST_PARAMS);
+        runPendingTasks();
+        when(mSharedPreferences.getPrecreatedProfileUserId()).thenReturn(TEST_PROFILE_USER_ID);
+
+        // THEN it isn't taken for a leftover
+        assertFalse(mPrecreator.removeLeftoverProfile(mUserManager, mSharedPreferences));
+        verify(mUserManager, never()).removeUserEvenWhenDisallowed(anyInt());
+        assertEquals(TEST_PROFILE_USER_ID, mPrecreator.adopt(TEST_PARAMS, TEST_PARENT_USER_ID));
+    }
+
+    private void startPrecreation(ProvisioningParams params) {
+        mPrecreator.start(params, TEST_PARENT_USER_ID, mUserManager, mSharedPreferences, mLogic,
+                TEST_PROFILE_NAME);
+    }
+
+    private void runPendingTasks() {
+        while (!mPendingTasks.isEmpty()) {
+            mPendingTasks.remove(0).run();
+        }
+    }
+
+    private static ProvisioningParams createParams(long provisioningId) {
+        return new ProvisioningParams.Builder()
+                .setProvisioningId(provisioningId)
+                .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
+                .setDeviceAdminPackageName("com.test.dpc")
+                .build();
+    }
+}
@@ -19,6 +19,7 @@ package com.android.managedprovisioning.task;
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -32,6 +33,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.RemoteException;
 import android.os.UserHandle;
+import android.os.UserManager;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -59,6 +61,7 @@ public class StartManagedProfileTaskTest extends AndroidTestCase {
             .putExtra(Intent.EXTRA_USER_HANDLE, TEST_USER_ID);
 
     @Mock private IActivityManager mIActivityManager;
+    @Mock private UserManager mUserManager;
     @Mock private Context mContext;
     @Mock private AbstractProvisioningTask.Callback mCallback;
     private ArgumentCaptor<BroadcastReceiver> mReceiverCaptor =
@@ -77,7 +80,8 @@ public class StartManagedProfileTaskTest extends AndroidTestCase {
         mHandlerThread = new HandlerThread("Test thread");
         mHandlerThread.start();
 
-        mTask = new StartManagedProfileTask(mIActivityManager, mContext, TEST_PARAMS, mCallback);
+        mTask = new StartManagedProfileTask(mIActivityManager, mUserManager, mContext,
+                TEST_PARAMS, mCallback);
 
         // register a countdown latch for the success callback
         doAnswer((InvocationOnMock invocationOnMock) -> {
@@ -125,6 +129,84 @@ public class StartManagedProfileTaskTest extends AndroidTestCase {
         verify(mContext).unregisterReceiver(mReceiverCaptor.getValue());
     }
 
+    @SmallTest
+    public void testDoesNotBlockWorkerThread() throws Exception {
+        // GIVEN that starting the user succeeds
+        when(mIActivityManager.startUserInBackground(TEST_USER_ID)).thenReturn(true);
+
+        // WHEN the task is run
+        mTask.run(TEST_USER_ID);
+
+        // THEN the task returns before the user is unlocked, without a result
+        verify(mIActivityManager).startUserInBackground(TEST_USER_ID);
+        verifyZeroInteractions(mCallback);
+
+        // WHEN the unlock broadcast of another user is sent
+        verify(mContext).registerReceiverAsUser(
+                mReceiverCaptor.capture(),
+                eq(UserHandle.of(TEST_USER_ID)),
+                eq(StartManagedProfileTask.UNLOCK_FILTER),
+                eq(null), eq(null));
+        mReceiverCaptor.getValue().onReceive(mContext, new Intent(Intent.ACTION_USER_UNLOCKED)
+                .putExtra(Intent.EXTRA_USER_HANDLE, TEST_USER_ID + 1));
+
+        // THEN the task keeps waiting
+        verifyZeroInteractions(mCallback);
+        verify(mContext, never()).unregisterReceiver(mReceiverCaptor.getValue());
+    }
+
+    @SmallTest
+    public void testAlreadyUnlocked() throws Exception {
+        // GIVEN that the profile was already started and unlocked, e.g. by an interrupted run
+        when(mIActivityManager.startUserInBackground(TEST_USER_ID)).thenReturn(true);
+        when(mUserManager.isUserUnlocked(TEST_USER_ID)).thenReturn(true);
+
+        // WHEN the task is run
+        mTask.run(TEST_USER_ID);
+
+        // THEN the task succeeds without waiting for an unlock broadcast
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+
+        // THEN the unlock receiver is unregistered
+        verify(mContext).registerReceiverAsUser(
+                mReceiverCaptor.capture(),
+                eq(UserHandle.of(TEST_USER_ID)),
+                eq(StartManagedProfileTask.UNLOCK_FILTER),
+                eq(null), eq(null));
+        verify(mContext).unregisterReceiver(mReceiverCaptor.getValue());
+
+        // WHEN an unlock broadcast is received anyway
+        mReceiverCaptor.getValue().onReceive(mContext, UNLOCK_INTENT);
+
+        // THEN the task doesn't succeed twice
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @SmallTest
+    public void testCancel() throws Exception {
+        // GIVEN that the task is waiting for the user to be unlocked
+        when(mIActivityManager.startUserInBackground(TEST_USER_ID)).thenReturn(true);
+        mTask.run(TEST_USER_ID);
+        verify(mContext).registerReceiverAsUser(
+                mReceiverCaptor.capture(),
+                eq(UserHandle.of(TEST_USER_ID)),
+                eq(StartManagedProfileTask.UNLOCK_FILTER),
+                eq(null), eq(null));
+
+        // WHEN the task is cancelled
+        mTask.cancel();
+
+        // THEN the unlock receiver is unregistered
+        verify(mContext).unregisterReceiver(mReceiverCaptor.getValue());
+
+        // WHEN the unlock broadcast is sent afterwards
+        mReceiverCaptor.getValue().onReceive(mContext, UNLOCK_INTENT);
+
+        // THEN no result is reported
+        verifyZeroInteractions(mCallback);
+    }
+
     @SmallTest
     public void testError() throws Exception {
         // GIVEN that starting the user in background fails
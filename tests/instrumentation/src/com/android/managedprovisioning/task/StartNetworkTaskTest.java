@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.managedprovisioning.task;
+
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEVICE;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Unit tests for {@link StartNetworkTask} and {@link AwaitNetworkTask}.
+ */
+@SmallTest
+public class StartNetworkTaskTest {
+    private static final int TEST_USER_ID = 123;
+    private static final int TEST_ERROR_CODE = 7;
+    private static final ProvisioningParams TEST_PARAMS = new ProvisioningParams.Builder()
+            .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
+            .setDeviceAdminComponentName(new ComponentName("com.test.admin", ".Receiver"))
+            .build();
+    private static final String TEST_DOWNLOAD_LOCATION = "https://example.com/dpc.apk";
+    private static final ProvisioningParams TEST_DOWNLOAD_PARAMS = new ProvisioningParams.Builder()
+            .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
+            .setDeviceAdminComponentName(new ComponentName("com.test.admin", ".Receiver"))
+            .setDeviceAdminDownloadInfo(new PackageDownloadInfo.Builder()
+                    .setLocation(TEST_DOWNLOAD_LOCATION)
+                    .setSignatureChecksum(new byte[] {'a', 'b', 'c'})
+                    .build())
+            .build();
+
+    @Mock private AbstractProvisioningTask mNetworkTask;
+    @Mock private AbstractProvisioningTask.Callback mCallback;
+    @Mock private DownloadHostWarmer mDownloadHostWarmer;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private AbstractProvisioningTask.Callback mNetworkCallback;
+    private StartNetworkTask mStartTask;
+    private AwaitNetworkTask mAwaitTask;
+
+    @Before
+    public void setUp() {
+        System.setProperty("dexmaker.share_classloader", "true");
+        MockitoAnnotations.initMocks(this);
+
+        when(mNetworkTask.getStatusMsgId()).thenReturn(R.string.progress_connect_to_wifi);
+        mStartTask = createStartTask(TEST_PARAMS);
+        mAwaitTask = new AwaitNetworkTask(mStartTask, mContext, TEST_PARAMS, mCallback);
+    }
+
+    @Test
+    public void testWarmUpDownloadHostWhenNetworkIsReady() {
+        // GIVEN the management app needs to be downloaded
+        mStartTask = createStartTask(TEST_DOWNLOAD_PARAMS);
+
+        // WHEN starting the network
+        mStartTask.run(TEST_USER_ID);
+
+        // THEN the download host isn't resolved before the network is ready
+        verify(mDownloadHostWarmer, never()).warmUp(TEST_DOWNLOAD_LOCATION);
+
+        // WHEN the network becomes ready
+        mNetworkCallback.onSuccess(mNetworkTask);
+
+        // THEN the download host is resolved
+        verify(mDownloadHostWarmer).warmUp(TEST_DOWNLOAD_LOCATION);
+    }
+
+    @Test
+    public void testStartSucceedsBeforeNetworkIsReady() {
+        // WHEN starting the network
+        mStartTask.run(TEST_USER_ID);
+
+        // THEN the network task is run and the start task succeeds right away
+        verify(mNetworkTask).run(TEST_USER_ID);
+        verify(mCallback).onSuccess(mStartTask);
+        assertSame(mNetworkTask, mAwaitTask.getNetworkTask());
+    }
+
+    @Test
+    public void testAwait_NetworkReadyLater() {
+        // GIVEN the network is being brought up
+        mStartTask.run(TEST_USER_ID);
+
+        // WHEN waiting for the network
+        mAwaitTask.run(TEST_USER_ID);
+
+        // THEN the await task doesn't finish yet
+        verify(mCallback, never()).onSuccess(mAwaitTask);
+
+        // WHEN the network becomes ready
+        mNetworkCallback.onSuccess(mNetworkTask);
+
+        // THEN the await task succeeds, and the network task was only run once
+        verify(mCallback).onSuccess(mAwaitTask);
+        verify(mNetworkTask).run(TEST_USER_ID);
+    }
+
+    @Test
+    public void testAwait_NetworkAlreadyReady() {
+        // GIVEN the network became ready while other tasks were run
+        mStartTask.run(TEST_USER_ID);
+        mNetworkCallback.onSuccess(mNetworkTask);
+
+        // WHEN waiting for the network
+        mAwaitTask.run(TEST_USER_ID);
+
+        // THEN the await task succeeds right away
+        verify(mCallback).onSuccess(mAwaitTask);
+    }
+
+    @Test
+    public void testAwait_StartTaskRestored() {
+        // GIVEN provisioning resumed after the start task had completed in a previous process
+
+        // WHEN waiting for the network
+        mAwaitTask.run(TEST_USER_ID);
+
+        // THEN the network is brought up again
+        verify(mNetworkTask).run(TEST_USER_ID);
+
+        // WHEN the network becomes ready
+        mNetworkCallback.onSuccess(mNetworkTask);
+
+        // THEN the await task succeeds
+        verify(mCallback).onSuccess(mAwaitTask);
+    }
+
+    @Test
+    public void testAwait_NetworkError() {
+        // GIVEN bringing up the network failed
+        mStartTask.run(TEST_USER_ID);
+        mNetworkCallback.onError(mNetworkTask, TEST_ERROR_CODE);
+
+        // THEN the error isn't reported until the network is needed
+        verify(mCallback).onSuccess(mStartTask);
+        verifyNoMoreInteractions(mCallback);
+
+        // WHEN waiting for the network
+        mAwaitTask.run(TEST_USER_ID);
+
+        // THEN the await task fails with the error of the network task
+        verify(mCallback).onError(mAwaitTask, TEST_ERROR_CODE);
+    }
+
+    @Test
+    public void testCancel() {
+        // GIVEN the network is being brought up and a task waits for it
+        AbstractProvisioningTask.Callback callback = mock(AbstractProvisioningTask.Callback.class);
+        mStartTask.run(TEST_USER_ID);
+        new AwaitNetworkTask(mStartTask, mContext, TEST_PARAMS, callback).run(TEST_USER_ID);
+
+        // WHEN provisioning is cancelled
+        mStartTask.cancel();
+
+        // THEN the network task is cancelled
+        verify(mNetworkTask).cancel();
+
+        // WHEN the network task reports a result anyway
+        mNetworkCallback.onSuccess(mNetworkTask);
+
+        // THEN the waiting task doesn't report anything
+        verifyZeroInteractions(callback);
+    }
+
+    private StartNetworkTask createStartTask(ProvisioningParams params) {
+        return new StartNetworkTask(callback -> {
+            mNetworkCallback = callback;
+            return mNetworkTask;
+        }, mDownloadHostWarmer, mContext, params, mCallback);
+    }
+}
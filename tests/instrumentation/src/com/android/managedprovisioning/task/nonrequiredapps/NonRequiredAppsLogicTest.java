@@ -20,19 +20,27 @@ import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEV
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.app.admin.DevicePolicyManager;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ParceledListSlice;
 import android.support.test.filters.SmallTest;
 
 import com.android.managedprovisioning.common.Utils;
@@ -75,13 +83,17 @@ public class NonRequiredAppsLogicTest {
     private Utils mUtils;
     @Mock
     private Context mContext;
+    @Mock
+    private PackageManager mPackageManager;
 
+    private PrecomputedNonRequiredApps mPrecomputedApps;
     private ProvisioningParams.Builder mParamsBuilder;
 
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         mParamsBuilder = createParamsBuilder();
+        mPrecomputedApps = new PrecomputedNonRequiredApps(Runnable::run, () -> 0L);
         when(mUtils.findDeviceAdmin(nullable(String.class), nullable(ComponentName.class),
                 eq(mContext), eq(TEST_USER_ID))).thenReturn(TEST_MDM_COMPONENT_NAME);
     }
@@ -112,6 +124,47 @@ public class NonRequiredAppsLogicTest {
                 logic.getSystemAppsToRemove(TEST_USER_ID));
     }
 
+    @Test
+    public void testGetSystemAppsToRemove_Precomputed() throws Exception {
+        // GIVEN that a new profile is being created and that system apps should be deleted
+        mParamsBuilder.setLeaveAllSystemAppsEnabled(false);
+        final NonRequiredAppsLogic logic = createLogic(true);
+        // GIVEN that a combination of apps is present
+        initializeApps();
+
+        // WHEN precomputing the apps to remove
+        logic.precomputeSystemAppsToRemove(TEST_USER_ID);
+        verify(mUtils).getCurrentSystemApps(mIPackageManager, TEST_USER_ID);
+
+        // THEN getSystemAppsToRemove returns the precomputed apps, without listing the apps again
+        assertEquals(getAppsSet(Arrays.asList(0, 4)),
+                logic.getSystemAppsToRemove(TEST_USER_ID));
+        verify(mUtils).getCurrentSystemApps(mIPackageManager, TEST_USER_ID);
+
+        // THEN the precomputed apps are only used once
+        assertEquals(getAppsSet(Arrays.asList(0, 4)),
+                logic.getSystemAppsToRemove(TEST_USER_ID));
+        verify(mUtils, times(2)).getCurrentSystemApps(mIPackageManager, TEST_USER_ID);
+    }
+
+    @Test
+    public void testGetSystemAppsToRemove_PrecomputedForOtherAdmin() throws Exception {
+        // GIVEN that the apps to remove were precomputed for another admin
+        mParamsBuilder.setLeaveAllSystemAppsEnabled(false);
+        mParamsBuilder.setDeviceAdminComponentName(
+                new ComponentName(TEST_DPC_PACKAGE_NAME, "other.DeviceAdmin"));
+        createLogic(true).precomputeSystemAppsToRemove(TEST_USER_ID);
+
+        // WHEN getting the apps to remove for the actual admin
+        mParamsBuilder.setDeviceAdminComponentName(TEST_MDM_COMPONENT_NAME);
+        initializeApps();
+
+        // THEN they are computed again
+        assertEquals(getAppsSet(Arrays.asList(0, 4)),
+                createLogic(true).getSystemAppsToRemove(TEST_USER_ID));
+        verify(mUtils, times(2)).getCurrentSystemApps(mIPackageManager, TEST_USER_ID);
+    }
+
     @Test
     public void testGetSystemAppsToRemove_deviceAdminComponentIsNotGiven() throws Exception {
         // GIVEN that only device admin package name is given.
@@ -129,6 +182,44 @@ public class NonRequiredAppsLogicTest {
                 logic.getSystemAppsToRemove(TEST_USER_ID));
     }
 
+    @Test
+    public void testGetSystemAppsToRemove_DpcNotInstalledYet() throws Exception {
+        // GIVEN that only device admin package name is given, and that the admin isn't installed
+        mParamsBuilder.setDeviceAdminComponentName(null);
+        mParamsBuilder.setDeviceAdminPackageName(TEST_DPC_PACKAGE_NAME);
+        mParamsBuilder.setLeaveAllSystemAppsEnabled(false);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mPackageManager.getPackageInfoAsUser(eq(TEST_DPC_PACKAGE_NAME), anyInt(),
+                eq(TEST_USER_ID))).thenThrow(new NameNotFoundException());
+        // GIVEN the actual logic to find the admin
+        final NonRequiredAppsLogic logic = createLogic(true, new Utils());
+        when(mIPackageManager.getInstalledApplications(anyInt(), eq(TEST_USER_ID)))
+                .thenReturn(new ParceledListSlice<>(getSystemApplicationInfos(SYSTEM_APPS)));
+        setNonRequiredApps(getAppsSet(BLACKLIST_APPS));
+
+        // THEN the apps to remove can't be computed, so they must not be computed before the
+        // admin is installed
+        try {
+            logic.getSystemAppsToRemove(TEST_USER_ID);
+            fail("The admin component name can't be inferred before the admin is installed");
+        } catch (RuntimeException expected) {
+        }
+
+        // WHEN the admin is installed
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = TEST_DPC_PACKAGE_NAME;
+        final ActivityInfo receiver = new ActivityInfo();
+        receiver.name = TEST_MDM_COMPONENT_NAME.getClassName();
+        receiver.permission = android.Manifest.permission.BIND_DEVICE_ADMIN;
+        packageInfo.receivers = new ActivityInfo[] {receiver};
+        doReturn(packageInfo).when(mPackageManager).getPackageInfoAsUser(
+                eq(TEST_DPC_PACKAGE_NAME), anyInt(), eq(TEST_USER_ID));
+
+        // THEN the apps to remove are computed
+        assertEquals(getAppsSet(Arrays.asList(0, 4)),
+                logic.getSystemAppsToRemove(TEST_USER_ID));
+    }
+
     @Test
     public void testGetSystemAppsToRemove_OtaLeave() throws Exception {
         // GIVEN that an OTA occurs and that system apps should not be deleted (indicated by the
@@ -239,7 +330,20 @@ public class NonRequiredAppsLogicTest {
         return ids.stream().map(APPS::get).collect(Collectors.toSet());
     }
 
+    private List<ApplicationInfo> getSystemApplicationInfos(List<Integer> ids) {
+        return ids.stream().map(id -> {
+            final ApplicationInfo info = new ApplicationInfo();
+            info.packageName = APPS.get(id);
+            info.flags = ApplicationInfo.FLAG_SYSTEM;
+            return info;
+        }).collect(Collectors.toList());
+    }
+
     private NonRequiredAppsLogic createLogic(boolean newProfile) {
+        return createLogic(newProfile, mUtils);
+    }
+
+    private NonRequiredAppsLogic createLogic(boolean newProfile, Utils utils) {
         return new NonRequiredAppsLogic(
                 mContext,
                 mIPackageManager,
@@ -247,7 +351,8 @@ public class NonRequiredAppsLogicTest {
                 newProfile,
                 mParamsBuilder.build(),
                 mSnapshot,
-                mUtils);
+                utils,
+                mPrecomputedApps);
     }
 
     private ProvisioningParams.Builder createParamsBuilder() {
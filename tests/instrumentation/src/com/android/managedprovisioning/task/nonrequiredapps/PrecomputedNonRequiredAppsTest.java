@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.nonrequiredapps;
+
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link PrecomputedNonRequiredApps}.
+ */
+@SmallTest
+public class PrecomputedNonRequiredAppsTest {
+    private static final int TEST_USER_ID = 0;
+    private static final Set<String> TEST_APPS = Collections.singleton("app.a");
+    private static final ProvisioningParams TEST_PARAMS = createParams("com.test.dpc");
+
+    private long mTime;
+    private PrecomputedNonRequiredApps mPrecomputedApps;
+
+    @Before
+    public void setUp() {
+        mPrecomputedApps = new PrecomputedNonRequiredApps(Runnable::run, () -> mTime);
+    }
+
+    @Test
+    public void testTake() {
+        // GIVEN that the apps were computed
+        mPrecomputedApps.start(TEST_PARAMS, TEST_USER_ID, () -> TEST_APPS);
+
+        // THEN they are returned once
+        assertEquals(TEST_APPS, mPrecomputedApps.take(TEST_PARAMS, TEST_USER_ID));
+        assertNull(mPrecomputedApps.take(TEST_PARAMS, TEST_USER_ID));
+    }
+
+    @Test
+    public void testTake_OtherInputs() {
+        // GIVEN that the apps were computed
+        mPrecomputedApps.start(TEST_PARAMS, TEST_USER_ID, () -> TEST_APPS);
+
+        // THEN they are not returned for another admin
+        assertNull(mPrecomputedApps.take(createParams("com.other.dpc"), TEST_USER_ID));
+        // THEN they are discarded
+        assertNull(mPrecomputedApps.take(TEST_PARAMS, TEST_USER_ID));
+    }
+
+    @Test
+    public void testTake_OtherUser() {
+        // GIVEN that the apps were computed
+        mPrecomputedApps.start(TEST_PARAMS, TEST_USER_ID, () -> TEST_APPS);
+
+        // THEN they are not returned for another user
+        assertNull(mPrecomputedApps.take(TEST_PARAMS, TEST_USER_ID + 1));
+    }
+
+    @Test
+    public void testTake_Outdated() {
+        // GIVEN that the apps were computed too long ago
+        mPrecomputedApps.start(TEST_PARAMS, TEST_USER_ID, () -> TEST_APPS);
+        mTime += PrecomputedNonRequiredApps.MAX_AGE_MS + 1;
+
+        // THEN they are not returned
+        assertNull(mPrecomputedApps.take(TEST_PARAMS, TEST_USER_ID));
+    }
+
+    @Test
+    public void testTake_Failed() {
+        // GIVEN that the computation failed
+        mPrecomputedApps.start(TEST_PARAMS, TEST_USER_ID, () -> {
+            throw new IllegalStateException();
+        });
+
+        // THEN nothing is returned
+        assertNull(mPrecomputedApps.take(TEST_PARAMS, TEST_USER_ID));
+    }
+
+    private static ProvisioningParams createParams(String adminPackageName) {
+        return new ProvisioningParams.Builder()
+                .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
+                .setDeviceAdminPackageName(adminPackageName)
+                .build();
+    }
+}
@@ -16,18 +16,20 @@
 
 package com.android.managedprovisioning.task.wifi;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyZeroInteractions;
-import static org.mockito.Mockito.when;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
 import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.support.test.filters.SmallTest;
 
-import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.common.ConnectedNetworkState;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -40,72 +42,135 @@ import org.mockito.MockitoAnnotations;
  */
 @SmallTest
 public class NetworkMonitorTest {
+    private static final Network TEST_NETWORK = new Network(100);
 
-    @Mock private Context mContext;
-    @Mock private Utils mUtils;
+    @Mock private ConnectivityManager mConnectivityManager;
     @Mock private NetworkMonitor.NetworkConnectedCallback mCallback;
+    private ConnectedNetworkState mConnectedNetworkState;
     private NetworkMonitor mNetworkMonitor;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
 
-        mNetworkMonitor = new NetworkMonitor(mContext, mUtils);
+        mConnectedNetworkState = new ConnectedNetworkState();
+        mNetworkMonitor = new NetworkMonitor(mConnectivityManager, mConnectedNetworkState);
     }
 
     @Test
     public void testStartListening() {
-        // WHEN starting to listen for connectivity changes
-        mNetworkMonitor.startListening(mCallback);
+        // WHEN starting to listen for wifi networks
+        mNetworkMonitor.startListening(mCallback, NetworkCapabilities.TRANSPORT_WIFI);
+
+        // THEN a network callback for wifi networks with internet should be registered
+        ArgumentCaptor<NetworkRequest> requestCaptor =
+                ArgumentCaptor.forClass(NetworkRequest.class);
+        verify(mConnectivityManager).registerNetworkCallback(requestCaptor.capture(),
+                eq(mNetworkMonitor.mNetworkCallback));
+        assertTrue(requestCaptor.getValue().networkCapabilities
+                .hasTransport(NetworkCapabilities.TRANSPORT_WIFI));
+        assertTrue(requestCaptor.getValue().networkCapabilities
+                .hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET));
+
+        // WHEN a network is connected but not validated, e.g. behind a captive portal
+        mNetworkMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(false));
+
+        // THEN a callback should be given right away and the network state is shared
+        verify(mCallback).onNetworkConnected();
+        assertTrue(mConnectedNetworkState.hasConnectedNetwork(
+                NetworkCapabilities.TRANSPORT_WIFI));
 
-        // THEN a broadcast receiver should be registered
-        ArgumentCaptor<BroadcastReceiver> receiverCaptor =
-                ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiverCaptor.capture(), eq(NetworkMonitor.FILTER));
+        // WHEN the network is validated
+        mNetworkMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(true));
 
-        // WHEN connectivity is not obtained and a broadcast is received
-        when(mUtils.isConnectedToWifi(mContext)).thenReturn(false);
-        receiverCaptor.getValue().onReceive(mContext,
-                new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        // THEN it is still seen as connected
+        assertTrue(mConnectedNetworkState.hasConnectedNetwork());
 
-        // THEN no callback should be given
-        verifyZeroInteractions(mCallback);
+        // WHEN the network is lost
+        mNetworkMonitor.mNetworkCallback.onLost(TEST_NETWORK);
 
-        // WHEN connectivity is obtained and a broadcast is received
-        when(mUtils.isConnectedToNetwork(mContext)).thenReturn(true);
-        receiverCaptor.getValue().onReceive(mContext,
-                new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        // THEN it is not seen as connected anymore
+        assertFalse(mConnectedNetworkState.hasConnectedNetwork());
+    }
 
-        // THEN a callback should be given
+    @Test
+    public void testCallbackWithoutLock() {
+        // GIVEN a callback that checks whether the monitor lock is held
+        final boolean[] holdsLock = new boolean[1];
+        doAnswer(invocation -> {
+            holdsLock[0] = Thread.holdsLock(mNetworkMonitor);
+            return null;
+        }).when(mCallback).onNetworkConnected();
+        mNetworkMonitor.startListening(mCallback);
+
+        // WHEN a network is connected
+        mNetworkMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(true));
+
+        // THEN the callback is given without holding the lock
         verify(mCallback).onNetworkConnected();
+        assertFalse(holdsLock[0]);
     }
 
     @Test
     public void testStopListening() {
         // WHEN starting and stopping to listen for connectivity changes
         mNetworkMonitor.startListening(mCallback);
+        mNetworkMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(true));
         mNetworkMonitor.stopListening();
 
-        // THEN a broadcast receiver should be registered and later unregistered
-        ArgumentCaptor<BroadcastReceiver> receiverCaptor =
-                ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiverCaptor.capture(), eq(NetworkMonitor.FILTER));
-        verify(mContext).unregisterReceiver(receiverCaptor.getValue());
+        // THEN a network callback should be registered and later unregistered
+        verify(mConnectivityManager).registerNetworkCallback(any(NetworkRequest.class),
+                eq(mNetworkMonitor.mNetworkCallback));
+        verify(mConnectivityManager).unregisterNetworkCallback(mNetworkMonitor.mNetworkCallback);
+
+        // THEN the networks of the monitor are removed from the shared network state
+        assertFalse(mConnectedNetworkState.hasConnectedNetwork());
+
+        // WHEN a network is connected
+        mNetworkMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(true));
 
-        // WHEN connectivity is not obtained and a broadcast is received
-        when(mUtils.isConnectedToNetwork(mContext)).thenReturn(false);
-        receiverCaptor.getValue().onReceive(mContext,
-                new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        // THEN no more callback should be given
+        verify(mCallback).onNetworkConnected();
+        assertFalse(mConnectedNetworkState.hasConnectedNetwork());
+    }
 
-        // THEN no callback should be given
-        verifyZeroInteractions(mCallback);
+    @Test
+    public void testStopListening_OtherMonitorStillListening() {
+        // GIVEN two monitors that both see a connected network
+        NetworkMonitor otherMonitor =
+                new NetworkMonitor(mConnectivityManager, mConnectedNetworkState);
+        mNetworkMonitor.startListening(mCallback);
+        otherMonitor.startListening(mCallback);
+        mNetworkMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(true));
+        otherMonitor.mNetworkCallback.onCapabilitiesChanged(TEST_NETWORK,
+                createCapabilities(true));
 
-        // WHEN connectivity is obtained and a broadcast is received
-        when(mUtils.isConnectedToWifi(mContext)).thenReturn(true);
-        receiverCaptor.getValue().onReceive(mContext,
-                new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        // WHEN one of them stops listening
+        mNetworkMonitor.stopListening();
+
+        // THEN the network reported to the other one is still seen as connected
+        assertTrue(mConnectedNetworkState.hasConnectedNetwork());
+
+        // WHEN the other one stops listening too
+        otherMonitor.stopListening();
+
+        // THEN no network is seen as connected anymore
+        assertFalse(mConnectedNetworkState.hasConnectedNetwork());
+    }
 
-        // THEN no callback should be given
-        verifyZeroInteractions(mCallback);
+    private static NetworkCapabilities createCapabilities(boolean validated) {
+        NetworkCapabilities capabilities = new NetworkCapabilities()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        if (validated) {
+            capabilities.addCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+        }
+        return capabilities;
     }
 }
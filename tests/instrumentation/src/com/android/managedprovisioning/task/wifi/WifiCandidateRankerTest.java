@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.managedprovisioning.task.wifi;
+
+import static org.junit.Assert.assertEquals;
+
+import android.net.wifi.ScanResult;
+import android.support.test.filters.SmallTest;
+
+import com.android.managedprovisioning.model.WifiInfo;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link WifiCandidateRanker}.
+ */
+@SmallTest
+public class WifiCandidateRankerTest {
+    private static final WifiInfo WIFI_A = new WifiInfo.Builder().setSsid("\"A\"").build();
+    private static final WifiInfo WIFI_B = new WifiInfo.Builder().setSsid("\"B\"").build();
+    private static final WifiInfo WIFI_C = new WifiInfo.Builder().setSsid("\"C\"").build();
+    private static final WifiInfo WIFI_D = new WifiInfo.Builder().setSsid("D").build();
+    private static final List<WifiInfo> CANDIDATES = Arrays.asList(WIFI_A, WIFI_B, WIFI_C, WIFI_D);
+
+    private final WifiCandidateRanker mRanker = new WifiCandidateRanker();
+
+    @Test
+    public void testRank_noScanResults() {
+        // THEN the given order is kept
+        assertEquals(CANDIDATES, mRanker.rank(CANDIDATES, null));
+    }
+
+    @Test
+    public void testRank_networksInRangeFirst() {
+        // GIVEN scan results for C, and for D on two access points
+        List<ScanResult> scanResults = Arrays.asList(
+                createScanResult("D", -80),
+                createScanResult("C", -60),
+                createScanResult("D", -40),
+                createScanResult("E", -10));
+
+        // THEN D and C are tried first, strongest signal first, followed by A and B in the given
+        // order
+        assertEquals(Arrays.asList(WIFI_D, WIFI_C, WIFI_A, WIFI_B),
+                mRanker.rank(CANDIDATES, scanResults));
+    }
+
+    private static ScanResult createScanResult(String ssid, int level) {
+        ScanResult scanResult = new ScanResult();
+        scanResult.SSID = ssid;
+        scanResult.level = level;
+        return scanResult;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.testcommon;
+
+import static junit.framework.Assert.assertTrue;
+
+import static org.mockito.Mockito.mockingDetails;
+
+/**
+ * Checks that code under test stays within a budget of calls to mocked system services, such as
+ * {@link android.content.pm.PackageManager} or {@link android.os.UserManager}, each of which is
+ * a binder call on a device.
+ *
+ * <p>A budget is typically checked with inputs of different sizes, to catch calls made once per
+ * package or per user.</p>
+ */
+public class BinderCallBudget {
+    private final Object[] mServiceMocks;
+    private int mStartCount;
+
+    /**
+     * Starts counting the calls made to the given mocks.
+     */
+    public BinderCallBudget(Object... serviceMocks) {
+        mServiceMocks = serviceMocks;
+        mStartCount = countCalls();
+    }
+
+    /**
+     * Returns the number of calls made to the mocks since this budget was created or reset.
+     */
+    public int getCallCount() {
+        return countCalls() - mStartCount;
+    }
+
+    /**
+     * Asserts that at most {@code maxCalls} calls were made, then starts counting again.
+     */
+    public void assertWithin(int maxCalls) {
+        final int calls = getCallCount();
+        assertTrue("Made " + calls + " calls to system services, the budget is " + maxCalls,
+                calls <= maxCalls);
+        reset();
+    }
+
+    public void reset() {
+        mStartCount = countCalls();
+    }
+
+    private int countCalls() {
+        int count = 0;
+        for (Object mock : mServiceMocks) {
+            count += mockingDetails(mock).getInvocations().size();
+        }
+        return count;
+    }
+}